@@ -0,0 +1,68 @@
+package org.openfs.snmpcg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.openfs.snmpcg.model.SnmpSourceSerializationBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Text CDR export of the chargeable interfaces: 100 sources of 1000
+ * interfaces, 100k records per invocation.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar ChargingDataRecordExportBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ChargingDataRecordExportBenchmark {
+
+    @Param({"100"})
+    private int sources;
+
+    @Param({"1000"})
+    private int interfaces;
+
+    private List<SnmpSource> exportSources;
+    private CdrRecordLayout layout;
+
+    @Setup
+    public void setup() {
+        exportSources = new ArrayList<SnmpSource>(sources);
+        for (int s = 0; s < sources; s++) {
+            SnmpSource source = SnmpSourceSerializationBenchmark.createSource("10.0." + (s / 256) + "." + (s % 256), interfaces);
+            for (SnmpInterface ifEntry : source.getIftable().values()) {
+                ifEntry.setChargeable(true);
+            }
+            exportSources.add(source);
+        }
+        layout = CdrRecordLayout.compile(Arrays.asList("site"), Collections.singletonList("vlan"), "vlan", ";", "yyyy-MM-dd HH:mm:ss");
+    }
+
+    @Benchmark
+    public StringBuilder appendChargingDataRecords() {
+        StringBuilder sb = new StringBuilder();
+        RecordTextSink.appendRecords(sb, exportSources, layout, SnmpInterface::isChargeable, CdrRecordLayout::appendChargingDataRecord);
+        return sb;
+    }
+}
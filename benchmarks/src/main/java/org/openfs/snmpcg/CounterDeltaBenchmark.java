@@ -0,0 +1,75 @@
+package org.openfs.snmpcg;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Per interface counter work of a poll: counter value of the 32 and 64 bit
+ * columns, delta of 64 bit counters and of a wrapped 32 bit counter.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar CounterDeltaBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CounterDeltaBenchmark {
+    private SnmpTransport transport;
+    private SnmpPoll poll;
+    private VariableBinding vb32;
+    private VariableBinding vb64;
+    private long last64 = 5000000000L;
+    private long last32 = 0xffff0000L;
+
+    @Setup
+    public void setup() throws IOException {
+        transport = new SnmpTransport(1, 0, 0, 0, 10000);
+        poll = new SnmpPoll(SnmpPollBenchmark.NOOP_COUNTERS, transport, new RequestGovernor());
+        vb32 = new VariableBinding(new OID(".1.3.6.1.2.1.2.2.1.10.1"), new Counter32(last64 & 0xffffffffL));
+        vb64 = new VariableBinding(new OID(".1.3.6.1.2.1.31.1.1.1.6.1"), new Counter64(last64));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        transport.close();
+    }
+
+    @Benchmark
+    public long getCounterValue() {
+        return poll.getCounterValue(vb32, vb64, 64);
+    }
+
+    @Benchmark
+    public long calcDeltaCounter64() {
+        long poll64 = last64 + 1500L;
+        long delta = poll.calcDeltaCounter("10.0.0.1", "GigabitEthernet1/0/1", poll64, 64, last64, 64);
+        last64 = poll64;
+        return delta;
+    }
+
+    @Benchmark
+    public long calcDeltaCounter32Wrap() {
+        // 0xffff0000 -> 0x0000ffff
+        return poll.calcDeltaCounter("10.0.0.1", "GigabitEthernet1/0/1", 0xffffL, 32, last32, 32);
+    }
+}
@@ -0,0 +1,154 @@
+package org.openfs.snmpcg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openfs.snmpcg.model.SnmpSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.util.DefaultPDUFactory;
+import org.snmp4j.util.TableEvent;
+import org.snmp4j.util.TableUtils;
+import org.springframework.boot.actuate.metrics.CounterService;
+
+/**
+ * Counter walk of a source: walked ifTable rows applied to the interfaces
+ * (lookup, status, counter type, delta), without request and store. Counters
+ * and sysUpTime of the rows advance on each invocation as on a real poll.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar SnmpPollBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnmpPollBenchmark {
+    static final CounterService NOOP_COUNTERS = new CounterService() {
+        @Override
+        public void increment(String metricName) {
+        }
+
+        @Override
+        public void decrement(String metricName) {
+        }
+
+        @Override
+        public void reset(String metricName) {
+        }
+    };
+
+    // 5 minutes in TimeTicks
+    private static final long POLL_TICKS = 30000L;
+
+    @Param({"10", "100", "1000", "10000"})
+    private int rows;
+
+    private SnmpTransport transport;
+    private SnmpPoll poll;
+    private SnmpSource source;
+    private List<TableEvent> events;
+
+    @Setup
+    public void setup() throws IOException {
+        transport = new SnmpTransport(1, 0, 0, 0, 10000);
+        poll = new SnmpPoll(NOOP_COUNTERS, transport, new RequestGovernor());
+        source = new SnmpSource("10.0.0.1", "public", 1, 5);
+        events = createRows(rows);
+        // first poll learns the interfaces
+        walk(events);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        transport.close();
+    }
+
+    @Benchmark
+    public SnmpSource processCounterRows() {
+        advance(events);
+        walk(events);
+        return source;
+    }
+
+    /**
+     * rows of the counter walk as the walk applies them
+     */
+    private void walk(List<TableEvent> events) {
+        SnmpPoll.CounterRows walked = poll.createCounterRows(source, new HashSet<String>());
+        events.forEach(walked::next);
+        walked.completed(new HashSet<String>());
+    }
+
+    /**
+     * sysUpTime row and ifTable rows in COUNTER_OIDS column order: sysUpTime,
+     * ifDescr, ifInOctets, ifHCInOctets, ifOutOctets, ifHCOutOctets,
+     * ifAdminStatus, ifOperStatus, ifName, ifAlias
+     */
+    static List<TableEvent> createRows(int rows) {
+        // events need a request as source, it is not used by the walk
+        TableUtils.TableRequest request = new TableUtils(null, new DefaultPDUFactory()).new TableRequest(null, new OID[0], null, null, null, null);
+        List<TableEvent> events = new ArrayList<TableEvent>(rows + 1);
+        VariableBinding first[] = new VariableBinding[10];
+        first[0] = new VariableBinding(new OID(".1.3.6.1.2.1.1.3.0"), new TimeTicks(100000L));
+        events.add(new TableEvent(request, null, new OID("0"), first));
+        for (int i = 1; i <= rows; i++) {
+            long in = 5000000000L + 1000L * i;
+            long out = 7000000000L + 2000L * i;
+            VariableBinding vb[] = new VariableBinding[10];
+            vb[1] = new VariableBinding(new OID(".1.3.6.1.2.1.2.2.1.2." + i), new OctetString("GigabitEthernet1/0/" + i));
+            vb[2] = new VariableBinding(new OID(".1.3.6.1.2.1.2.2.1.10." + i), new Counter32(in & 0xffffffffL));
+            vb[3] = new VariableBinding(new OID(".1.3.6.1.2.1.31.1.1.1.6." + i), new Counter64(in));
+            vb[4] = new VariableBinding(new OID(".1.3.6.1.2.1.2.2.1.16." + i), new Counter32(out & 0xffffffffL));
+            vb[5] = new VariableBinding(new OID(".1.3.6.1.2.1.31.1.1.1.10." + i), new Counter64(out));
+            vb[6] = new VariableBinding(new OID(".1.3.6.1.2.1.2.2.1.7." + i), new Integer32(1));
+            vb[7] = new VariableBinding(new OID(".1.3.6.1.2.1.2.2.1.8." + i), new Integer32(1));
+            vb[8] = new VariableBinding(new OID("1.3.6.1.2.1.31.1.1.1.1." + i), new OctetString("Gi1/0/" + i));
+            vb[9] = new VariableBinding(new OID("1.3.6.1.2.1.31.1.1.1.18." + i), new OctetString("customer-" + i));
+            events.add(new TableEvent(request, null, new OID(String.valueOf(i)), vb));
+        }
+        return events;
+    }
+
+    /**
+     * next poll: advance sysUpTime and the octet counters in place
+     */
+    private static void advance(List<TableEvent> events) {
+        TimeTicks uptime = (TimeTicks)events.get(0).getColumns()[0].getVariable();
+        uptime.setValue(uptime.getValue() + POLL_TICKS);
+        for (int i = 1; i < events.size(); i++) {
+            VariableBinding vb[] = events.get(i).getColumns();
+            advance(vb[2], vb[3], 1500L);
+            advance(vb[4], vb[5], 3000L);
+        }
+    }
+
+    private static void advance(VariableBinding vb32, VariableBinding vb64, long delta) {
+        Counter64 hc = (Counter64)vb64.getVariable();
+        hc.setValue(hc.getValue() + delta);
+        ((Counter32)vb32.getVariable()).setValue(hc.getValue() & 0xffffffffL);
+    }
+}
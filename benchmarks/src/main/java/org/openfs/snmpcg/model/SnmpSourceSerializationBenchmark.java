@@ -0,0 +1,128 @@
+package org.openfs.snmpcg.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.internal.serialization.InternalSerializationService;
+import com.hazelcast.internal.serialization.impl.DefaultSerializationServiceBuilder;
+import com.hazelcast.nio.serialization.Data;
+
+/**
+ * Serialization of a source as configured for the sources map
+ * (SnmpSourceSerializer) against java serialization, and of the poll update
+ * sent to the owner member on each poll.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar SnmpSourceSerializationBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnmpSourceSerializationBenchmark {
+
+    @Param({"10", "1000"})
+    private int interfaces;
+
+    private InternalSerializationService serialization;
+    private SnmpSource source;
+    private SnmpSourcePollUpdate update;
+    private Data sourceData;
+    private byte[] javaData;
+
+    @Setup
+    public void setup() throws IOException {
+        // as the sources map of SnmpCollectorApplication
+        SerializationConfig config = new SerializationConfig();
+        config.addSerializerConfig(new SerializerConfig().setImplementation(new SnmpSourceSerializer()).setTypeClass(SnmpSource.class))
+            .addDataSerializableFactory(SnmpDataSerializableFactory.FACTORY_ID, new SnmpDataSerializableFactory());
+        serialization = new DefaultSerializationServiceBuilder().setConfig(config).build();
+        source = createSource("10.0.0.1", interfaces);
+        update = SnmpSourcePollUpdate.of(source, true, false, null, Collections.<String>emptySet(), "vlan");
+        sourceData = serialization.toData(source);
+        javaData = javaWrite();
+    }
+
+    @Benchmark
+    public Data hazelcastWrite() {
+        return serialization.toData(source);
+    }
+
+    @Benchmark
+    public SnmpSource hazelcastRead() {
+        return serialization.toObject(sourceData);
+    }
+
+    @Benchmark
+    public byte[] javaWrite() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(source);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public SnmpSource javaRead() throws IOException, ClassNotFoundException {
+        return (SnmpSource)new ObjectInputStream(new ByteArrayInputStream(javaData)).readObject();
+    }
+
+    @Benchmark
+    public Data pollUpdateWrite() {
+        return serialization.toData(update);
+    }
+
+    /**
+     * ready source with tags and the given number of interfaces, every other
+     * one chargeable
+     */
+    public static SnmpSource createSource(String ipAddress, int interfaces) {
+        SnmpSource source = new SnmpSource(ipAddress, "public", 1, 5);
+        source.setStatus(SnmpConstants.SUCCESS);
+        source.setSysDescr("Cisco IOS Software, C3750E Software (C3750E-UNIVERSALK9-M), Version 15.0(2)SE11");
+        source.setSysName("sw-core-01");
+        source.setSysLocation("dc1 row 4 rack 12");
+        source.setSysObjectID("1.3.6.1.4.1.9.1.1227");
+        source.setSysUptime(123456789L);
+        source.setPollTime(System.currentTimeMillis());
+        source.getTags().put("site", "dc1");
+        for (int i = 1; i <= interfaces; i++) {
+            SnmpInterface ifEntry = source.getSnmpInterface("GigabitEthernet1/0/" + i);
+            ifEntry.setIfIndex(10100 + i);
+            ifEntry.setIfName("Gi1/0/" + i);
+            ifEntry.setIfAlias("customer-" + i);
+            ifEntry.setIfAdminStatus(1);
+            ifEntry.setIfOperStatus(1);
+            ifEntry.setChargeable(i % 2 == 0);
+            ifEntry.setIfInOctets(new SnmpCounter(1000000L * i, 64));
+            ifEntry.setIfOutOctets(new SnmpCounter(2000000L * i, 64));
+            ifEntry.setPollInOctets(1000L * i);
+            ifEntry.setPollOutOctets(2000L * i);
+            ifEntry.setSysUptime(123456789L);
+            ifEntry.getTags().put("vlan", String.valueOf(100 + i % 50));
+        }
+        return source;
+    }
+}
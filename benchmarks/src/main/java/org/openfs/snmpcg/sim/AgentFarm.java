@@ -0,0 +1,312 @@
+package org.openfs.snmpcg.sim;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.MessageException;
+import org.snmp4j.PDU;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.SMIConstants;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.AbstractTransportMapping;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SNMP v1/v2c agents of the simulated devices: one UDP socket per device,
+ * served by a few selector threads through the snmp4j message dispatcher.
+ * Requests are dropped with the device loss rate, responses sent after the
+ * device latency.
+ */
+public final class AgentFarm implements CommandResponder {
+    private static final Logger log = LoggerFactory.getLogger(AgentFarm.class);
+    // BER overhead of the response message without variable bindings
+    private static final int RESPONSE_OVERHEAD = 100;
+
+    private final List<SimulatedDevice> devices;
+    private final int ioThreads;
+    private final MessageDispatcherImpl dispatcher = new MessageDispatcherImpl();
+    private final List<DeviceTransport> transports = new ArrayList<DeviceTransport>();
+    private final List<Selector> selectors = new ArrayList<Selector>();
+    private final ScheduledExecutorService delayed;
+    private volatile boolean running;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder varbinds = new LongAdder();
+    private final LongAdder counterValues = new LongAdder();
+
+    public AgentFarm(List<SimulatedDevice> devices, int ioThreads) {
+        this.devices = devices;
+        this.ioThreads = Math.max(1, ioThreads);
+        this.delayed = Executors.newScheduledThreadPool(this.ioThreads, r -> {
+            Thread t = new Thread(r, "farm-delay");
+            t.setDaemon(true);
+            return t;
+        });
+        dispatcher.addMessageProcessingModel(new MPv1());
+        dispatcher.addMessageProcessingModel(new MPv2c());
+        dispatcher.addCommandResponder(this);
+    }
+
+    /**
+     * bind the device sockets and start the selector threads
+     */
+    public void start() throws IOException {
+        for (int i = 0; i < ioThreads; i++) {
+            selectors.add(Selector.open());
+        }
+        for (int i = 0; i < devices.size(); i++) {
+            DeviceTransport transport = new DeviceTransport(devices.get(i));
+            transport.addTransportListener(dispatcher);
+            transport.channel.register(selectors.get(i % ioThreads), SelectionKey.OP_READ, transport);
+            transports.add(transport);
+        }
+        running = true;
+        for (int i = 0; i < ioThreads; i++) {
+            Selector selector = selectors.get(i);
+            Thread t = new Thread(() -> serve(selector), "farm-io-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        log.info("agent farm: {} devices on {} io threads", devices.size(), ioThreads);
+    }
+
+    public void stop() {
+        running = false;
+        delayed.shutdownNow();
+        for (Selector selector : selectors) {
+            selector.wakeup();
+        }
+        for (DeviceTransport transport : transports) {
+            try {
+                transport.close();
+            } catch (IOException e) {
+                log.warn("device: {} close: {}", transport.device.getAddress(), e.getMessage());
+            }
+        }
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getResponses() {
+        return responses.sum();
+    }
+
+    public long getVarbinds() {
+        return varbinds.sum();
+    }
+
+    /**
+     * @return Counter32 and Counter64 values answered
+     */
+    public long getCounterValues() {
+        return counterValues.sum();
+    }
+
+    @Override
+    public void processPdu(CommandResponderEvent event) {
+        event.setProcessed(true);
+        requests.increment();
+        SimulatedDevice device = ((DeviceTransport)event.getTransportMapping()).device;
+        if (device.getLoss() > 0 && ThreadLocalRandom.current().nextDouble() < device.getLoss()) {
+            dropped.increment();
+            return;
+        }
+        PDU response = respond(device, event.getPDU(), event.getMaxSizeResponsePDU());
+        int delay = device.getLatencyMs() + ((device.getJitterMs() > 0) ? ThreadLocalRandom.current().nextInt(device.getJitterMs() + 1) : 0);
+        if (delay > 0) {
+            delayed.schedule(() -> send(event, response), delay, TimeUnit.MILLISECONDS);
+        } else {
+            send(event, response);
+        }
+    }
+
+    private PDU respond(SimulatedDevice device, PDU request, int maxSize) {
+        long now = System.currentTimeMillis();
+        PDU response = new PDU();
+        response.setType(PDU.RESPONSE);
+        response.setRequestID(request.getRequestID());
+        List<? extends VariableBinding> vbs = request.getVariableBindings();
+        switch (request.getType()) {
+        case PDU.GET:
+            for (VariableBinding vb : vbs) {
+                response.add(new VariableBinding(vb.getOid(), device.get(vb.getOid(), now)));
+            }
+            break;
+        case PDU.GETNEXT:
+            for (VariableBinding vb : vbs) {
+                response.add(device.next(vb.getOid(), now));
+            }
+            break;
+        case PDU.GETBULK:
+            bulk(device, request, response, maxSize, now);
+            break;
+        default:
+            response.setErrorStatus(PDU.genErr);
+            response.addAll(vbs.toArray(new VariableBinding[vbs.size()]));
+            break;
+        }
+        varbinds.add(response.size());
+        for (VariableBinding vb : response.getVariableBindings()) {
+            if (vb.getSyntax() == SMIConstants.SYNTAX_COUNTER32 || vb.getSyntax() == SMIConstants.SYNTAX_COUNTER64) {
+                counterValues.increment();
+            }
+        }
+        return response;
+    }
+
+    /**
+     * non repeaters once, repeaters up to max repetitions while the response
+     * fits the max size of the request
+     */
+    private static void bulk(SimulatedDevice device, PDU request, PDU response, int maxSize, long now) {
+        List<? extends VariableBinding> vbs = request.getVariableBindings();
+        int nonRepeaters = Math.min(Math.max(0, request.getNonRepeaters()), vbs.size());
+        int budget = Math.min(maxSize, 65535) - RESPONSE_OVERHEAD;
+        for (int i = 0; i < nonRepeaters; i++) {
+            VariableBinding vb = device.next(vbs.get(i).getOid(), now);
+            budget -= vb.getBERLength();
+            response.add(vb);
+        }
+        OID next[] = new OID[vbs.size() - nonRepeaters];
+        for (int i = 0; i < next.length; i++) {
+            next[i] = vbs.get(nonRepeaters + i).getOid();
+        }
+        for (int r = 0; r < Math.max(0, request.getMaxRepetitions()) && next.length > 0; r++) {
+            boolean end = true;
+            for (int i = 0; i < next.length; i++) {
+                VariableBinding vb = device.next(next[i], now);
+                budget -= vb.getBERLength();
+                if (budget < 0 && response.size() > 0) {
+                    return;
+                }
+                response.add(vb);
+                next[i] = vb.getOid();
+                end &= vb.getSyntax() == SMIConstants.EXCEPTION_END_OF_MIB_VIEW;
+            }
+            if (end) {
+                return;
+            }
+        }
+    }
+
+    private void send(CommandResponderEvent event, PDU response) {
+        try {
+            event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(), event.getSecurityModel(), event.getSecurityName(),
+                                                           event.getSecurityLevel(), response, event.getMaxSizeResponsePDU(), event.getStateReference(),
+                                                           new StatusInformation());
+            responses.increment();
+        } catch (MessageException e) {
+            log.warn("device: {} response: {}", event.getTransportMapping().getListenAddress(), e.getMessage());
+        }
+    }
+
+    private void serve(Selector selector) {
+        ByteBuffer buffer = ByteBuffer.allocate(65535);
+        while (running) {
+            try {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    DeviceTransport transport = (DeviceTransport)key.attachment();
+                    InetSocketAddress peer;
+                    buffer.clear();
+                    while ((peer = (InetSocketAddress)transport.channel.receive(buffer)) != null) {
+                        buffer.flip();
+                        transport.received(peer, ByteBuffer.wrap(Arrays.copyOf(buffer.array(), buffer.limit())));
+                        buffer.clear();
+                    }
+                }
+                selector.selectedKeys().clear();
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("agent farm: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * udp socket of a device, read by the farm selector threads
+     */
+    private static final class DeviceTransport extends AbstractTransportMapping<UdpAddress> {
+        private final SimulatedDevice device;
+        private final DatagramChannel channel;
+
+        DeviceTransport(SimulatedDevice device) throws IOException {
+            this.device = device;
+            this.maxInboundMessageSize = 65535;
+            this.channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            try {
+                channel.bind(new InetSocketAddress(device.getAddress().getInetAddress(), device.getAddress().getPort()));
+            } catch (IOException e) {
+                channel.close();
+                throw new IOException("bind " + device.getAddress() + ": " + e.getMessage(), e);
+            }
+        }
+
+        void received(InetSocketAddress from, ByteBuffer message) {
+            UdpAddress peer = new UdpAddress(from.getAddress(), from.getPort());
+            fireProcessMessage(peer, message, new TransportStateReference(this, peer, null, SecurityLevel.undefined, SecurityLevel.undefined, false, channel));
+        }
+
+        @Override
+        public Class<? extends org.snmp4j.smi.Address> getSupportedAddressClass() {
+            return UdpAddress.class;
+        }
+
+        @Override
+        public UdpAddress getListenAddress() {
+            return device.getAddress();
+        }
+
+        @Override
+        public void sendMessage(UdpAddress address, byte[] message, TransportStateReference tmStateReference) throws IOException {
+            channel.send(ByteBuffer.wrap(message), new InetSocketAddress(address.getInetAddress(), address.getPort()));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public void listen() {
+            // read by the farm selectors
+        }
+
+        @Override
+        public boolean isListening() {
+            return channel.isOpen();
+        }
+    }
+}
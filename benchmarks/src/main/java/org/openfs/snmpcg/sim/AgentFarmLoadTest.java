@@ -0,0 +1,195 @@
+package org.openfs.snmpcg.sim;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EventObject;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.management.event.ExchangeCompletedEvent;
+import org.apache.camel.support.EventNotifierSupport;
+import org.openfs.snmpcg.InventoryStats;
+import org.openfs.snmpcg.SnmpCollectorApplication;
+import org.openfs.snmpcg.SourceInventoryService;
+import org.openfs.snmpcg.sim.SimulatedDevice.Vendor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.smi.UdpAddress;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * End to end load test: an agent farm of simulated devices on loopback
+ * addresses polled by the collector started in process. Sources are added
+ * as by the REST API, the real pollStatus and pollCounters routes run on a
+ * short cron and each completed pollCounters cycle is reported with its
+ * time, counters per second and the timeout rate (dropped requests) of the
+ * farm since the previous cycle.
+ *
+ * <pre>
+ * mvn -B -f benchmarks/pom.xml compile exec:java -Dsim.devices=2000 -Dsim.interfaces=48 -Dsim.loss=0.001
+ * </pre>
+ *
+ * Devices listen on port 161 of 127.x addresses (Linux routes 127/8 to lo,
+ * other systems need loopback aliases): run as root or lower
+ * net.ipv4.ip_unprivileged_port_start, and raise ulimit -n above the number
+ * of devices. Arguments are passed to the collector, e.g.
+ * --snmpcg.asyncPoll=true. The collector runs in the maven jvm: on java 9 and
+ * later hazelcast needs the add-opens of the java21 profile in MAVEN_OPTS.
+ * <p>
+ * The last line sums the cycles up by poll mode, e.g. the pool threads against
+ * virtual threads at 1k, 5k and 10k sources. Virtual threads need java 21, on
+ * an older jvm the summary says the mode was not run:
+ *
+ * <pre>
+ * export MAVEN_OPTS="--add-exports java.base/jdk.internal.ref=ALL-UNNAMED --add-opens java.base/java.lang=ALL-UNNAMED --add-opens java.base/java.nio=ALL-UNNAMED --add-opens java.base/sun.nio.ch=ALL-UNNAMED --add-opens java.management/sun.management=ALL-UNNAMED --add-opens jdk.management/com.sun.management.internal=ALL-UNNAMED"
+ * for n in 1000 5000 10000; do for vt in false true; do
+ *   mvn -B -q -f benchmarks/pom.xml compile exec:java -Dsim.devices=$n -Dsnmpcg.virtualThreads=$vt | grep "load test summary"
+ * done; done
+ * </pre>
+ *
+ * No results are kept in the tree, the cycle times depend on the host.
+ */
+public final class AgentFarmLoadTest {
+    private static final Logger log = LoggerFactory.getLogger(AgentFarmLoadTest.class);
+
+    private AgentFarmLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int devices = Integer.getInteger("sim.devices", 1000);
+        int interfaces = Integer.getInteger("sim.interfaces", 48);
+        double ifXTableRatio = Double.parseDouble(System.getProperty("sim.ifXTableRatio", "0.9"));
+        long maxRate = Long.getLong("sim.maxRate", 12500000L);
+        double rebootRatio = Double.parseDouble(System.getProperty("sim.rebootRatio", "0.02"));
+        long rebootSeconds = Long.getLong("sim.rebootSeconds", 600L);
+        int latencyMs = Integer.getInteger("sim.latencyMs", 10);
+        int jitterMs = Integer.getInteger("sim.jitterMs", 20);
+        double loss = Double.parseDouble(System.getProperty("sim.loss", "0.001"));
+        String vendors = System.getProperty("sim.vendors", "CISCO,ISCOM,SNR,JUNIPER");
+        InetAddress baseAddress = InetAddress.getByName(System.getProperty("sim.baseAddress", "127.1.0.1"));
+        int port = Integer.getInteger("sim.port", 161);
+        int ioThreads = Integer.getInteger("sim.ioThreads", 2);
+        int cycles = Integer.getInteger("sim.cycles", 3);
+        long readyTimeout = Long.getLong("sim.readyTimeout", 300L);
+
+        String javaVersion = System.getProperty("java.specification.version");
+        boolean virtualThreads = Boolean.getBoolean("snmpcg.virtualThreads") || Arrays.asList(args).contains("--snmpcg.virtualThreads=true");
+        if (virtualThreads && (javaVersion.startsWith("1.") || Integer.parseInt(javaVersion) < 21)) {
+            // logging is configured by the collector, not started
+            System.out.println("load test summary: " + devices + " sources, virtual threads: not run, java " + javaVersion);
+            return;
+        }
+
+        // short cycles unless set for the collector
+        setDefault("snmpcg.pollCron", "0+*+*+*+*+?");
+        setDefault("snmpcg.validateStatusTimer", "15s");
+        setDefault("server.port", "0");
+
+        List<SimulatedDevice> farmDevices = new ArrayList<SimulatedDevice>(devices);
+        String vendorNames[] = vendors.split(",");
+        int base = ByteBuffer.wrap(baseAddress.getAddress()).getInt();
+        for (int i = 0; i < devices; i++) {
+            InetAddress address = InetAddress.getByAddress(ByteBuffer.allocate(4).putInt(base + i).array());
+            Vendor vendor = Vendor.valueOf(vendorNames[i % vendorNames.length].trim());
+            boolean ifXTable = i < devices * ifXTableRatio;
+            boolean reboots = i >= devices * (1 - rebootRatio);
+            farmDevices.add(new SimulatedDevice(i, new UdpAddress(address, port), vendor, interfaces, ifXTable, maxRate, reboots ? rebootSeconds : 0,
+                                                latencyMs, jitterMs, loss));
+        }
+        AgentFarm farm = new AgentFarm(farmDevices, ioThreads);
+        farm.start();
+
+        ConfigurableApplicationContext context = SpringApplication.run(SnmpCollectorApplication.class, args);
+        CamelContext camel = context.getBean(CamelContext.class);
+        SourceInventoryService inventory = context.getBean(SourceInventoryService.class);
+        InventoryStats stats = context.getBean(InventoryStats.class);
+
+        // add sources as by the REST API
+        for (SimulatedDevice device : farmDevices) {
+            Map<String, Object> data = new HashMap<String, Object>();
+            data.put("ipaddr", device.getAddress().getInetAddress().getHostAddress());
+            data.put("tags", Collections.singletonMap("sim", device.getVendor().name().toLowerCase()));
+            Exchange exchange = new DefaultExchange(camel);
+            exchange.getIn().setBody(data);
+            inventory.addSource(exchange);
+        }
+
+        // wait for pollStatus
+        long deadline = System.currentTimeMillis() + readyTimeout * 1000L;
+        while (stats.getReadySources() < devices && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1000);
+        }
+        log.info("load test: {} of {} sources ready, {} interfaces", stats.getReadySources(), devices, stats.getReadyInterfaces());
+
+        BlockingQueue<Long> completed = new LinkedBlockingQueue<Long>();
+        EventNotifierSupport notifier = new EventNotifierSupport() {
+            @Override
+            public boolean isEnabled(EventObject event) {
+                return event instanceof ExchangeCompletedEvent;
+            }
+
+            @Override
+            public void notify(EventObject event) {
+                Exchange exchange = ((ExchangeCompletedEvent)event).getExchange();
+                if ("pollCounters".equals(exchange.getFromRouteId())) {
+                    completed.add(System.currentTimeMillis() - exchange.getProperty(Exchange.CREATED_TIMESTAMP, Date.class).getTime());
+                }
+            }
+        };
+        camel.getManagementStrategy().addEventNotifier(notifier);
+        notifier.start();
+
+        String mode = context.getEnvironment().getProperty("snmpcg.virtualThreads", Boolean.class, false) ? "virtual threads"
+            : context.getEnvironment().getProperty("snmpcg.asyncPoll", Boolean.class, false) ? "async" : "pool threads";
+        List<Long> cycleTimes = new ArrayList<Long>(cycles);
+        long requests = farm.getRequests();
+        long dropped = farm.getDropped();
+        long counterValues = farm.getCounterValues();
+        for (int cycle = 1; cycle <= cycles; cycle++) {
+            Long cycleTime = completed.poll(10, TimeUnit.MINUTES);
+            if (cycleTime == null) {
+                log.warn("load test: no pollCounters cycle in 10 minutes");
+                break;
+            }
+            long cycleRequests = farm.getRequests() - requests;
+            long cycleDropped = farm.getDropped() - dropped;
+            long cycleCounters = farm.getCounterValues() - counterValues;
+            requests += cycleRequests;
+            dropped += cycleDropped;
+            counterValues += cycleCounters;
+            long millis = Math.max(1, cycleTime);
+            cycleTimes.add(cycleTime);
+            log.info("load test cycle {}: {} ms, sources ready: {} down: {}, interfaces: {} ({} per second), counter values: {} ({} per second), requests: {}, timeout rate: {}%",
+                     cycle, cycleTime, stats.getReadySources(), stats.getDownSources(), stats.getReadyInterfaces(), stats.getReadyInterfaces() * 1000 / millis,
+                     cycleCounters, cycleCounters * 1000 / millis, cycleRequests,
+                     String.format("%.3f", (cycleRequests == 0) ? 0.0 : cycleDropped * 100.0 / cycleRequests));
+        }
+
+        if (!cycleTimes.isEmpty()) {
+            log.info("load test summary: {} sources, {} interfaces, {}: cycle mean {} ms, min {} ms, max {} ms", devices, devices * interfaces, mode,
+                     cycleTimes.stream().mapToLong(Long::longValue).sum() / cycleTimes.size(), Collections.min(cycleTimes), Collections.max(cycleTimes));
+        }
+
+        context.close();
+        farm.stop();
+        System.exit(0);
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+}
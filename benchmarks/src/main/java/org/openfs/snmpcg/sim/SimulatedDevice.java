@@ -0,0 +1,293 @@
+package org.openfs.snmpcg.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Simulated router: system group, ifTable, ifXTable and the vendor vlan column
+ * computed from the clock. Octet counters grow at a fixed rate per interface
+ * from a random base, so Counter32 columns wrap; a reboot resets sysUpTime and
+ * the counters. Devices without ifXTable answer 32-bit counters only.
+ */
+public final class SimulatedDevice {
+
+    /**
+     * sysObjectID, vlan column of snmpcg.snmpVlanOids, sysDescr and ifDescr
+     * prefix of a vendor
+     */
+    public enum Vendor {
+        CISCO("1.3.6.1.4.1.9.1.1227", "1.3.6.1.4.1.9.9.68.1.2.2.1.2", "Cisco IOS Software, C3750E Software (C3750E-UNIVERSALK9-M), Version 15.0(2)SE11",
+              "GigabitEthernet1/0/"),
+        ISCOM("1.3.6.1.4.1.8886.1.27", "1.3.6.1.4.1.8886.6.1.43.1.2.1.1.2", "ISCOM2924GF-4GE", "gigaethernet1/1/"),
+        SNR("1.3.6.1.4.1.40418.7.5", "1.3.6.1.4.1.40418.7.100.3.2.1.16", "SNR-S2985G-24T Device, Compiled Mar 10 2017", "Ethernet1/0/"),
+        JUNIPER("1.3.6.1.4.1.2636.1.1.1.2.29", null, "Juniper Networks, Inc. mx480 internet router", "ge-0/0/");
+
+        private final OID sysObjectID;
+        private final OID vlanOID;
+        private final String sysDescr;
+        private final String ifDescr;
+
+        Vendor(String sysObjectID, String vlanOID, String sysDescr, String ifDescr) {
+            this.sysObjectID = new OID(sysObjectID);
+            this.vlanOID = (vlanOID == null) ? null : new OID(vlanOID);
+            this.sysDescr = sysDescr;
+            this.ifDescr = ifDescr;
+        }
+    }
+
+    private static final int SYS_DESCR = 0;
+    private static final int SYS_OBJECT_ID = 1;
+    private static final int SYS_UPTIME = 2;
+    private static final int SYS_NAME = 3;
+    private static final int SYS_LOCATION = 4;
+    private static final int IF_NUMBER = 5;
+    private static final int IF_INDEX = 6;
+    private static final int IF_DESCR = 7;
+    private static final int IF_ADMIN_STATUS = 8;
+    private static final int IF_OPER_STATUS = 9;
+    private static final int IF_IN_OCTETS = 10;
+    private static final int IF_OUT_OCTETS = 11;
+    private static final int IF_NAME = 12;
+    private static final int IF_HC_IN_OCTETS = 13;
+    private static final int IF_HC_OUT_OCTETS = 14;
+    private static final int IF_ALIAS = 15;
+    private static final int VLAN = 16;
+
+    private final UdpAddress address;
+    private final Vendor vendor;
+    private final int interfaces;
+    private final boolean ifXTable;
+    private final OctetString sysName;
+    private final OctetString sysLocation;
+    // columns in lexicographic order
+    private final Column columns[];
+    private final long inBase[];
+    private final long inRate[];
+    private final long outBase[];
+    private final long outRate[];
+    private final long rebootMillis;
+    private final int latencyMs;
+    private final int jitterMs;
+    private final double loss;
+
+    private volatile long bootTime;
+
+    /**
+     * @param number device number, seed of names and counters
+     * @param ifXTable answer ifName, ifAlias and 64-bit counters
+     * @param maxRate highest counter rate in bytes per second
+     * @param rebootSeconds reboot interval, 0 never
+     */
+    public SimulatedDevice(int number, UdpAddress address, Vendor vendor, int interfaces, boolean ifXTable, long maxRate, long rebootSeconds,
+                           int latencyMs, int jitterMs, double loss) {
+        Random random = new Random(number);
+        this.address = address;
+        this.vendor = vendor;
+        this.interfaces = interfaces;
+        this.ifXTable = ifXTable;
+        this.sysName = new OctetString(String.format("sim-%s-%05d", vendor.name().toLowerCase(), number));
+        this.sysLocation = new OctetString("simulator rack " + (number / 40));
+        this.rebootMillis = rebootSeconds * 1000L;
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.loss = loss;
+        this.inBase = new long[interfaces + 1];
+        this.inRate = new long[interfaces + 1];
+        this.outBase = new long[interfaces + 1];
+        this.outRate = new long[interfaces + 1];
+        for (int i = 1; i <= interfaces; i++) {
+            inBase[i] = random.nextLong() & 0xffffffffL;
+            outBase[i] = random.nextLong() & 0xffffffffL;
+            inRate[i] = (long)(random.nextDouble() * maxRate);
+            outRate[i] = (long)(random.nextDouble() * maxRate);
+        }
+        // up for days, reboots spread over the interval
+        long now = System.currentTimeMillis();
+        this.bootTime = (rebootMillis > 0) ? now - (long)(random.nextDouble() * rebootMillis) : now - (1 + random.nextInt(30)) * 86400000L;
+        this.columns = createColumns();
+    }
+
+    public UdpAddress getAddress() {
+        return address;
+    }
+
+    public Vendor getVendor() {
+        return vendor;
+    }
+
+    public int getInterfaces() {
+        return interfaces;
+    }
+
+    public int getLatencyMs() {
+        return latencyMs;
+    }
+
+    public int getJitterMs() {
+        return jitterMs;
+    }
+
+    public double getLoss() {
+        return loss;
+    }
+
+    /**
+     * @return value of the instance, noSuchObject or noSuchInstance
+     */
+    public Variable get(OID oid, long now) {
+        long uptime = uptime(now);
+        for (Column column : columns) {
+            if (!oid.startsWith(column.oid)) {
+                continue;
+            }
+            if (oid.size() != column.oid.size() + 1) {
+                return Null.noSuchInstance;
+            }
+            long index = oid.getUnsigned(column.oid.size());
+            if (column.scalar ? index != 0 : (index < 1 || index > interfaces)) {
+                return Null.noSuchInstance;
+            }
+            return value(column.type, (int)index, uptime);
+        }
+        return Null.noSuchObject;
+    }
+
+    /**
+     * @return next instance after the oid and its value, endOfMibView after
+     *         the last column
+     */
+    public VariableBinding next(OID oid, long now) {
+        for (Column column : columns) {
+            boolean inside = oid.startsWith(column.oid);
+            if (!inside && oid.compareTo(column.oid) > 0) {
+                continue;
+            }
+            long index;
+            if (!inside || oid.size() == column.oid.size()) {
+                // before the column
+                index = column.scalar ? 0 : 1;
+            } else if (column.scalar) {
+                continue;
+            } else {
+                index = oid.getUnsigned(column.oid.size()) + 1;
+                if (index > interfaces) {
+                    continue;
+                }
+            }
+            if (!column.scalar && interfaces == 0) {
+                continue;
+            }
+            OID instance = new OID(column.oid);
+            instance.append((int)index);
+            return new VariableBinding(instance, value(column.type, (int)index, uptime(now)));
+        }
+        return new VariableBinding(oid, Null.endOfMibView);
+    }
+
+    /**
+     * @return ms since boot, reboot when the interval is over
+     */
+    private long uptime(long now) {
+        long boot = bootTime;
+        if (rebootMillis > 0 && now - boot >= rebootMillis) {
+            boot = now;
+            bootTime = now;
+        }
+        return now - boot;
+    }
+
+    private Variable value(int type, int index, long uptime) {
+        switch (type) {
+        case SYS_DESCR:
+            return new OctetString(vendor.sysDescr);
+        case SYS_OBJECT_ID:
+            return vendor.sysObjectID;
+        case SYS_UPTIME:
+            return new TimeTicks(uptime / 10);
+        case SYS_NAME:
+            return sysName;
+        case SYS_LOCATION:
+            return sysLocation;
+        case IF_NUMBER:
+            return new Integer32(interfaces);
+        case IF_INDEX:
+            return new Integer32(index);
+        case IF_DESCR:
+            return new OctetString(vendor.ifDescr + index);
+        case IF_ADMIN_STATUS:
+            return new Integer32((index % 23 == 0) ? 2 : 1);
+        case IF_OPER_STATUS:
+            return new Integer32((index % 23 == 0 || index % 7 == 0) ? 2 : 1);
+        case IF_IN_OCTETS:
+            return new Counter32(octets(inBase[index], inRate[index], uptime) & 0xffffffffL);
+        case IF_OUT_OCTETS:
+            return new Counter32(octets(outBase[index], outRate[index], uptime) & 0xffffffffL);
+        case IF_NAME:
+            return new OctetString("port" + index);
+        case IF_HC_IN_OCTETS:
+            return new Counter64(octets(inBase[index], inRate[index], uptime));
+        case IF_HC_OUT_OCTETS:
+            return new Counter64(octets(outBase[index], outRate[index], uptime));
+        case IF_ALIAS:
+            return new OctetString(sysName + " customer " + index);
+        case VLAN:
+            return new Integer32(100 + index % 400);
+        default:
+            return Null.noSuchObject;
+        }
+    }
+
+    private static long octets(long base, long rate, long uptime) {
+        return base + rate * uptime / 1000;
+    }
+
+    private Column[] createColumns() {
+        List<Column> list = new ArrayList<Column>();
+        list.add(new Column("1.3.6.1.2.1.1.1", true, SYS_DESCR));
+        list.add(new Column("1.3.6.1.2.1.1.2", true, SYS_OBJECT_ID));
+        list.add(new Column("1.3.6.1.2.1.1.3", true, SYS_UPTIME));
+        list.add(new Column("1.3.6.1.2.1.1.5", true, SYS_NAME));
+        list.add(new Column("1.3.6.1.2.1.1.6", true, SYS_LOCATION));
+        list.add(new Column("1.3.6.1.2.1.2.1", true, IF_NUMBER));
+        list.add(new Column("1.3.6.1.2.1.2.2.1.1", false, IF_INDEX));
+        list.add(new Column("1.3.6.1.2.1.2.2.1.2", false, IF_DESCR));
+        list.add(new Column("1.3.6.1.2.1.2.2.1.7", false, IF_ADMIN_STATUS));
+        list.add(new Column("1.3.6.1.2.1.2.2.1.8", false, IF_OPER_STATUS));
+        list.add(new Column("1.3.6.1.2.1.2.2.1.10", false, IF_IN_OCTETS));
+        list.add(new Column("1.3.6.1.2.1.2.2.1.16", false, IF_OUT_OCTETS));
+        if (ifXTable) {
+            list.add(new Column("1.3.6.1.2.1.31.1.1.1.1", false, IF_NAME));
+            list.add(new Column("1.3.6.1.2.1.31.1.1.1.6", false, IF_HC_IN_OCTETS));
+            list.add(new Column("1.3.6.1.2.1.31.1.1.1.10", false, IF_HC_OUT_OCTETS));
+            list.add(new Column("1.3.6.1.2.1.31.1.1.1.18", false, IF_ALIAS));
+        }
+        if (vendor.vlanOID != null) {
+            list.add(new Column(vendor.vlanOID.toDottedString(), false, VLAN));
+        }
+        return list.toArray(new Column[list.size()]);
+    }
+
+    private static final class Column {
+        private final OID oid;
+        private final boolean scalar;
+        private final int type;
+
+        Column(String oid, boolean scalar, int type) {
+            this.oid = new OID(oid);
+            this.scalar = scalar;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.openfs.snmpcg;
+
+import org.snmp4j.TimeoutModel;
+
+/**
+ * Exponential retry spacing: each retry waits twice the previous one, up to
+ * the ceiling but not below the target timeout. With a short adaptive target
+ * timeout a lost PDU costs about the rtt, a slow answer still gets through on
+ * a later retry.
+ */
+public class BackoffTimeoutModel implements TimeoutModel {
+    private final long maxTimeout;
+
+    /**
+     * @param maxTimeout ceiling of a retry timeout in ms
+     */
+    public BackoffTimeoutModel(long maxTimeout) {
+        this.maxTimeout = maxTimeout;
+    }
+
+    @Override
+    public long getRetryTimeout(int retryCount, int totalNumberOfRetries, long targetTimeout) {
+        long ceiling = Math.max(targetTimeout, maxTimeout);
+        return (retryCount >= 62 || targetTimeout > ceiling >> retryCount) ? ceiling : targetTimeout << retryCount;
+    }
+
+    @Override
+    public long getRequestTimeout(int totalNumberOfRetries, long targetTimeout) {
+        long timeout = 0;
+        for (int i = 0; i <= totalNumberOfRetries; i++) {
+            timeout += getRetryTimeout(i, totalNumberOfRetries, targetTimeout);
+        }
+        return timeout;
+    }
+}
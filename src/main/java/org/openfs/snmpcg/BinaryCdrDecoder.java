@@ -0,0 +1,128 @@
+package org.openfs.snmpcg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.zip.Inflater;
+
+/**
+ * Decode binary CDR files to text CDR, same fields as the text export.
+ *
+ * <pre>
+ * java -cp snmpcg.jar -Dloader.main=org.openfs.snmpcg.BinaryCdrDecoder org.springframework.boot.loader.PropertiesLauncher [-s separator] [-t timestamp format] [-c] file...
+ * </pre>
+ *
+ * With -c only verify the blocks and print the number of records per file.
+ */
+public final class BinaryCdrDecoder {
+    private final String separator;
+    private final char escapedChar;
+    private final DateTimeFormatter formatter;
+
+    public BinaryCdrDecoder(String separator, String timeStampFormat) {
+        this.separator = separator;
+        this.escapedChar = separator.charAt(0);
+        this.formatter = DateTimeFormatter.ofPattern(timeStampFormat).withZone(ZoneId.systemDefault());
+    }
+
+    public static void main(String[] args) throws IOException {
+        String separator = ";";
+        String format = "yyyy-MM-dd HH:mm:ss";
+        boolean check = false;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            if ("-s".equals(args[i]) && i + 1 < args.length) {
+                separator = args[++i];
+            } else if ("-t".equals(args[i]) && i + 1 < args.length) {
+                format = args[++i];
+            } else if ("-c".equals(args[i])) {
+                check = true;
+            } else {
+                usage();
+                return;
+            }
+        }
+        if (i == args.length) {
+            usage();
+            return;
+        }
+        BinaryCdrDecoder decoder = new BinaryCdrDecoder(separator, format);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        int status = 0;
+        for (; i < args.length; i++) {
+            try {
+                long records = decoder.decode(args[i], check ? null : out);
+                if (check) {
+                    System.out.println(args[i] + ": " + records + " records");
+                }
+            } catch (IOException e) {
+                out.flush();
+                System.err.println(args[i] + ": " + e.getMessage());
+                status = 1;
+            }
+        }
+        out.flush();
+        System.exit(status);
+    }
+
+    private static void usage() {
+        System.err.println("usage: BinaryCdrDecoder [-s separator] [-t timestamp format] [-c] file...");
+        System.exit(2);
+    }
+
+    /**
+     * write records of the file as text CDR
+     *
+     * @param out writer or null to verify only
+     * @return number of records
+     */
+    public long decode(String fileName, Writer out) throws IOException {
+        long records = 0;
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(fileName)), 64 * 1024))) {
+            BinaryCdrFormat.readFileHeader(in);
+            BinaryCdrFormat.Block block;
+            StringBuilder sb = new StringBuilder();
+            while ((block = BinaryCdrFormat.readBlock(in, inflater)) != null) {
+                for (int n = 0; n < block.getCount(); n++) {
+                    Object[] record = block.next();
+                    if (out != null) {
+                        sb.setLength(0);
+                        appendRecord(sb, record);
+                        out.write(sb.toString());
+                    }
+                    records++;
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return records;
+    }
+
+    private void appendRecord(StringBuilder sb, Object[] record) {
+        int last = record.length - 1;
+        for (int i = 0; i < last; i++) {
+            Object value = record[i];
+            // poll time
+            if (i == last - 2) {
+                sb.append(formatter.format(Instant.ofEpochMilli((Long)value)));
+            } else if (value instanceof String) {
+                sb.append(((String)value).replace(escapedChar, '.'));
+            } else if (value != null) {
+                sb.append(value);
+            }
+            sb.append(separator);
+        }
+        sb.append(((Boolean)record[last]) ? 1 : 0);
+        sb.append(System.lineSeparator());
+    }
+}
@@ -0,0 +1,281 @@
+package org.openfs.snmpcg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.openfs.snmpcg.model.SnmpSourceSerializer;
+
+/**
+ * Binary CDR file format.
+ *
+ * <pre>
+ * file   := magic "SCDR" (int) version (byte) created (long) block*
+ * block  := sync 0x4342 (short) rawLength (int) dataLength (int) crc32 of raw (int) deflated raw
+ * raw    := sourceTagKeys interfaceTagKeys baseTime dictionary count record*
+ * record := ipAddress sysName sourceTag* ifDescr interfaceTag* ifAlias inOctets outOctets pollTime pollDuration up
+ * </pre>
+ *
+ * Strings of a record are references to the block dictionary (0 is null),
+ * numbers are zigzag varints and the poll time is the delta from the block
+ * base time. In and out octets are swapped for egress ports as in text CDR.
+ */
+public final class BinaryCdrFormat {
+    public static final int MAGIC = 0x53434452;
+    public static final byte VERSION = 1;
+    public static final short BLOCK_SYNC = 0x4342;
+    public static final int FILE_HEADER_SIZE = 13;
+    public static final int BLOCK_HEADER_SIZE = 14;
+
+    private BinaryCdrFormat() {
+    }
+
+    public static ByteBuffer fileHeader(long created) {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).put(VERSION).putLong(created);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * @return created time of the file
+     */
+    public static long readFileHeader(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a binary CDR file");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported binary CDR version: " + version);
+        }
+        return in.readLong();
+    }
+
+    /**
+     * record block under construction
+     */
+    public static final class BlockEncoder {
+        private final List<String> sourceTagKeys;
+        private final List<String> interfaceTagKeys;
+        private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        private final List<String> words = new ArrayList<String>();
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(64 * 1024);
+        private final DataOutputStream records = new DataOutputStream(recordBytes);
+        private long baseTime;
+        private int count;
+
+        public BlockEncoder(List<String> sourceTagKeys, List<String> interfaceTagKeys) {
+            this.sourceTagKeys = sourceTagKeys;
+            this.interfaceTagKeys = interfaceTagKeys;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * add record, tag values in order of the block tag keys
+         */
+        public void add(String ipAddress, String sysName, String[] sourceTags, String ifDescr, String[] interfaceTags, String ifAlias, long inOctets,
+            long outOctets, long pollTime, long pollDuration, boolean up) throws IOException {
+            if (count == 0) {
+                baseTime = pollTime;
+            }
+            writeWord(ipAddress);
+            writeWord(sysName);
+            for (String tag : sourceTags) {
+                writeWord(tag);
+            }
+            writeWord(ifDescr);
+            for (String tag : interfaceTags) {
+                writeWord(tag);
+            }
+            writeWord(ifAlias);
+            SnmpSourceSerializer.writeVarLong(records, inOctets);
+            SnmpSourceSerializer.writeVarLong(records, outOctets);
+            SnmpSourceSerializer.writeVarLong(records, pollTime - baseTime);
+            SnmpSourceSerializer.writeVarLong(records, pollDuration);
+            records.writeBoolean(up);
+            count++;
+        }
+
+        private void writeWord(String word) throws IOException {
+            if (word == null) {
+                SnmpSourceSerializer.writeVarLong(records, 0);
+                return;
+            }
+            Integer ref = dictionary.get(word);
+            if (ref == null) {
+                words.add(word);
+                ref = words.size();
+                dictionary.put(word, ref);
+            }
+            SnmpSourceSerializer.writeVarLong(records, ref);
+        }
+
+        /**
+         * @return framed block: header and deflated records
+         */
+        public ByteBuffer encode(Deflater deflater) throws IOException {
+            ByteArrayOutputStream rawBytes = new ByteArrayOutputStream(recordBytes.size() + words.size() * 16 + 256);
+            DataOutputStream raw = new DataOutputStream(rawBytes);
+            writeKeys(raw, sourceTagKeys);
+            writeKeys(raw, interfaceTagKeys);
+            SnmpSourceSerializer.writeVarLong(raw, baseTime);
+            SnmpSourceSerializer.writeVarLong(raw, words.size());
+            for (String word : words) {
+                raw.writeUTF(word);
+            }
+            SnmpSourceSerializer.writeVarLong(raw, count);
+            records.flush();
+            recordBytes.writeTo(raw);
+            raw.flush();
+            byte[] data = rawBytes.toByteArray();
+
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] chunk = new byte[16 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                compressed.write(chunk, 0, n);
+            }
+
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + compressed.size());
+            block.putShort(BLOCK_SYNC).putInt(data.length).putInt(compressed.size()).putInt((int)crc.getValue());
+            block.put(compressed.toByteArray());
+            block.flip();
+            return block;
+        }
+
+        private static void writeKeys(DataOutput out, List<String> keys) throws IOException {
+            SnmpSourceSerializer.writeVarLong(out, keys.size());
+            for (String key : keys) {
+                out.writeUTF(key);
+            }
+        }
+    }
+
+    /**
+     * decoded record block
+     */
+    public static final class Block {
+        public final List<String> sourceTagKeys;
+        public final List<String> interfaceTagKeys;
+        public final long baseTime;
+        private final String[] words;
+        private final int count;
+        private final DataInputStream records;
+
+        private Block(DataInputStream raw) throws IOException {
+            sourceTagKeys = readKeys(raw);
+            interfaceTagKeys = readKeys(raw);
+            baseTime = SnmpSourceSerializer.readVarLong(raw);
+            words = new String[(int)SnmpSourceSerializer.readVarLong(raw)];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = raw.readUTF();
+            }
+            count = (int)SnmpSourceSerializer.readVarLong(raw);
+            records = raw;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * read next record: ipAddress, sysName, source tags, ifDescr, interface
+         * tags, ifAlias as strings, then inOctets, outOctets, pollTime and
+         * pollDuration as Long and up as Boolean
+         */
+        public Object[] next() throws IOException {
+            Object[] record = new Object[9 + sourceTagKeys.size() + interfaceTagKeys.size()];
+            int i = 0;
+            record[i++] = readWord();
+            record[i++] = readWord();
+            for (int k = 0; k < sourceTagKeys.size(); k++) {
+                record[i++] = readWord();
+            }
+            record[i++] = readWord();
+            for (int k = 0; k < interfaceTagKeys.size(); k++) {
+                record[i++] = readWord();
+            }
+            record[i++] = readWord();
+            record[i++] = SnmpSourceSerializer.readVarLong(records);
+            record[i++] = SnmpSourceSerializer.readVarLong(records);
+            record[i++] = baseTime + SnmpSourceSerializer.readVarLong(records);
+            record[i++] = SnmpSourceSerializer.readVarLong(records);
+            record[i++] = records.readBoolean();
+            return record;
+        }
+
+        private String readWord() throws IOException {
+            int ref = (int)SnmpSourceSerializer.readVarLong(records);
+            return (ref == 0) ? null : words[ref - 1];
+        }
+
+        private static List<String> readKeys(DataInput in) throws IOException {
+            int size = (int)SnmpSourceSerializer.readVarLong(in);
+            List<String> keys = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                keys.add(in.readUTF());
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * read and verify next block
+     *
+     * @return block or null on end of file
+     */
+    public static Block readBlock(DataInputStream in, Inflater inflater) throws IOException {
+        short sync;
+        try {
+            sync = in.readShort();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (sync != BLOCK_SYNC) {
+            throw new IOException("bad block sync");
+        }
+        int rawLength = in.readInt();
+        int dataLength = in.readInt();
+        int checksum = in.readInt();
+        byte[] data = new byte[dataLength];
+        in.readFully(data);
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(data);
+        try {
+            if (inflater.inflate(raw) != rawLength) {
+                throw new IOException("truncated block");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt block: " + e.getMessage());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        if ((int)crc.getValue() != checksum) {
+            throw new IOException("block checksum mismatch");
+        }
+        return new Block(new DataInputStream(new ByteArrayInputStream(raw)));
+    }
+}
@@ -0,0 +1,242 @@
+package org.openfs.snmpcg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Handler;
+import org.apache.camel.Message;
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Component;
+
+/**
+ * Binary CDR output: records of each cycle appended as deflated, checksummed
+ * blocks (see BinaryCdrFormat) to the current file, rotated by size and age.
+ * The current file is written under an .inprogress name. Decode with
+ * BinaryCdrDecoder. Sink of the CDR of the cycle export.
+ */
+@Lazy
+@Component("binaryCdrWriter")
+public class BinaryCdrWriter implements ExportSink {
+    private static final Logger log = LoggerFactory.getLogger(BinaryCdrWriter.class);
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final String SUFFIX = ".snmp.bin";
+    private static final String IN_PROGRESS = ".inprogress";
+
+    @Value("${snmpcg.binaryCdrDirectory:out/cdr}")
+    private String directory;
+
+    @Value("${snmpcg.binaryCdrRotateSize:67108864}")
+    private long rotateSize;
+
+    @Value("${snmpcg.binaryCdrRotateTime:3600}")
+    private long rotateTime;
+
+    @Value("${snmpcg.binaryCdrBlockRecords:8192}")
+    private int blockRecords;
+
+    @Value("${snmpcg.binaryCdrCompressLevel:6}")
+    private int compressLevel;
+
+    @Value("${snmpcg.binaryCdrSkipZero:false}")
+    private boolean skipZero;
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    private Deflater deflater;
+    private FileChannel channel;
+    private Path file;
+    private long fileCreated;
+
+    @PostConstruct
+    public synchronized void init() throws IOException {
+        deflater = new Deflater(compressLevel);
+        Path dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        // complete files left by stop: blocks are verified on decode
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX + IN_PROGRESS)) {
+            for (Path inProgress : files) {
+                complete(inProgress);
+            }
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        closeFile();
+        deflater.end();
+    }
+
+    @Override
+    public ExportSink.Pass open(CdrRecordLayout layout, String name) {
+        return new CyclePass(layout);
+    }
+
+    /**
+     * records of one cycle appended to the current file block by block
+     */
+    private final class CyclePass implements ExportSink.Pass {
+        private final List<String> sourceTagKeys;
+        private final List<String> interfaceTagKeys;
+        private final String[] sourceTags;
+        private final String[] interfaceTags;
+        private BinaryCdrFormat.BlockEncoder block;
+        private long numRecords;
+        private long numSkipped;
+
+        CyclePass(CdrRecordLayout layout) {
+            sourceTagKeys = layout.getRecordSourceTagKeys();
+            interfaceTagKeys = layout.getRecordInterfaceTagKeys();
+            sourceTags = new String[sourceTagKeys.size()];
+            interfaceTags = new String[interfaceTagKeys.size()];
+            block = new BinaryCdrFormat.BlockEncoder(sourceTagKeys, interfaceTagKeys);
+        }
+
+        @Override
+        public void write(List<SnmpSource> sources) throws IOException {
+            synchronized (BinaryCdrWriter.this) {
+                for (SnmpSource source : sources) {
+                    for (int i = 0; i < sourceTags.length; i++) {
+                        sourceTags[i] = source.getTags().get(sourceTagKeys.get(i));
+                    }
+                    for (SnmpInterface ifEntry : source.getIftable().values()) {
+                        if (!ifEntry.isChargeable()) {
+                            continue;
+                        }
+                        if (skipZero && ifEntry.getPollInOctets() == 0 && ifEntry.getPollOutOctets() == 0) {
+                            numSkipped++;
+                            continue;
+                        }
+                        for (int i = 0; i < interfaceTags.length; i++) {
+                            interfaceTags[i] = ifEntry.getTags().get(interfaceTagKeys.get(i));
+                        }
+                        // swap in out for egress port
+                        boolean egress = ifEntry.getChargeFlow() == SnmpConstants.EGRESS;
+                        block.add(source.getIpAddress(), source.getSysName(), sourceTags, ifEntry.getIfDescr(), interfaceTags, ifEntry.getIfAlias(),
+                            egress ? ifEntry.getPollOutOctets() : ifEntry.getPollInOctets(), egress ? ifEntry.getPollInOctets() : ifEntry.getPollOutOctets(),
+                            source.getPollTime(), (ifEntry.getPollDuration() == 0) ? source.getPollDuration() : ifEntry.getPollDuration(), ifEntry.isUp());
+                        numRecords++;
+                        if (block.getCount() >= blockRecords) {
+                            writeBlock(block);
+                            block = new BinaryCdrFormat.BlockEncoder(sourceTagKeys, interfaceTagKeys);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close(Message message) throws IOException {
+            synchronized (BinaryCdrWriter.this) {
+                if (block.getCount() > 0) {
+                    writeBlock(block);
+                }
+                if (channel != null) {
+                    channel.force(false);
+                    Path done = rotate();
+                    message.setHeader(Exchange.FILE_NAME_PRODUCED, (done != null) ? done.toString() : file.toString());
+                }
+            }
+            if (numSkipped > 0 && log.isDebugEnabled()) {
+                log.debug("skipped {} zero traffic records", numSkipped);
+            }
+            message.setHeader("countChargingDataRecords", numRecords);
+            gaugeService.submit("gauge.snmp.sources.chargingRecords", (double)numRecords);
+        }
+
+        /**
+         * blocks already written stay in the file, each block is complete
+         */
+        @Override
+        public void abort() {
+            synchronized (BinaryCdrWriter.this) {
+                block = new BinaryCdrFormat.BlockEncoder(sourceTagKeys, interfaceTagKeys);
+            }
+        }
+    }
+
+    /**
+     * rotate current file by age without new records
+     */
+    @Handler
+    public synchronized void checkRotate() throws IOException {
+        rotate();
+    }
+
+    /**
+     * close current file on rotate size or time
+     *
+     * @return completed file if closed
+     */
+    private Path rotate() throws IOException {
+        if (channel == null) {
+            return null;
+        }
+        if (channel.size() >= rotateSize || System.currentTimeMillis() - fileCreated >= rotateTime * 1000) {
+            return closeFile();
+        }
+        return null;
+    }
+
+    private void writeBlock(BinaryCdrFormat.BlockEncoder block) throws IOException {
+        ByteBuffer data = block.encode(deflater);
+        if (channel == null) {
+            openFile();
+        }
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    private void openFile() throws IOException {
+        fileCreated = System.currentTimeMillis();
+        file = Paths.get(directory, FILE_TIMESTAMP.format(LocalDateTime.now()) + SUFFIX + IN_PROGRESS);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = BinaryCdrFormat.fileHeader(fileCreated);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        log.info("open binary cdr file: {}", file);
+    }
+
+    private Path closeFile() throws IOException {
+        if (channel == null) {
+            return null;
+        }
+        channel.force(true);
+        channel.close();
+        channel = null;
+        return complete(file);
+    }
+
+    private Path complete(Path inProgress) throws IOException {
+        String name = inProgress.getFileName().toString();
+        Path done = inProgress.resolveSibling(name.substring(0, name.length() - IN_PROGRESS.length()));
+        Files.move(inProgress, done, StandardCopyOption.ATOMIC_MOVE);
+        log.info("wrote binary cdr file: {}", done);
+        return done;
+    }
+}
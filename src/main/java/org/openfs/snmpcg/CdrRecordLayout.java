@@ -0,0 +1,181 @@
+package org.openfs.snmpcg;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+
+/**
+ * Compiled layout of CDR and trace records: the tag keys, field separator and
+ * timestamp format resolved once into a plan of field writers. Immutable, so
+ * one layout formats records from any number of threads.
+ */
+public final class CdrRecordLayout {
+    private final Collection<String> sourceTagKeys;
+    private final Collection<String> interfaceTagKeys;
+    private final String vlanOidTag;
+    private final String fieldSeparator;
+    private final String timeStampFormat;
+
+    private final char escapedChar;
+    private final DateTimeFormatter formatter;
+    private final FieldWriter[] cdrFields;
+    private final FieldWriter[] traceFields;
+
+    @FunctionalInterface
+    private interface FieldWriter {
+        void write(StringBuilder sb, SnmpSource source, SnmpInterface ifEntry, String pollTime);
+    }
+
+    private CdrRecordLayout(Collection<String> sourceTagKeys, Collection<String> interfaceTagKeys, String vlanOidTag, String fieldSeparator, String timeStampFormat) {
+        this.sourceTagKeys = new ArrayList<String>(sourceTagKeys);
+        this.interfaceTagKeys = new ArrayList<String>(interfaceTagKeys);
+        this.vlanOidTag = vlanOidTag;
+        this.fieldSeparator = fieldSeparator;
+        this.timeStampFormat = timeStampFormat;
+        this.escapedChar = fieldSeparator.charAt(0);
+        this.formatter = DateTimeFormatter.ofPattern(timeStampFormat).withZone(ZoneId.systemDefault());
+        this.cdrFields = compileChargingDataRecord();
+        this.traceFields = compileTraceRecord();
+    }
+
+    /**
+     * compile layout of the record fields
+     */
+    public static CdrRecordLayout compile(Collection<String> sourceTagKeys, Collection<String> interfaceTagKeys, String vlanOidTag, String fieldSeparator,
+        String timeStampFormat) {
+        return new CdrRecordLayout(sourceTagKeys, interfaceTagKeys, vlanOidTag, fieldSeparator, timeStampFormat);
+    }
+
+    /**
+     * @return true if compiled from the same config
+     */
+    public boolean isCompiledFrom(Collection<String> sourceTagKeys, Collection<String> interfaceTagKeys, String fieldSeparator, String timeStampFormat) {
+        return this.fieldSeparator.equals(fieldSeparator) && this.timeStampFormat.equals(timeStampFormat)
+            && this.sourceTagKeys.equals(new ArrayList<String>(sourceTagKeys)) && this.interfaceTagKeys.equals(new ArrayList<String>(interfaceTagKeys));
+    }
+
+    private FieldWriter[] compileChargingDataRecord() {
+        List<FieldWriter> fields = new ArrayList<FieldWriter>();
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(source.getIpAddress()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(source.getSysName()));
+        for (String skey : sourceTagKeys) {
+            // skip vlan_oid
+            if (skey.equalsIgnoreCase(vlanOidTag)) {
+                continue;
+            }
+            fields.add((sb, source, ifEntry, pollTime) -> appendTag(sb, source.getTags(), skey));
+        }
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(ifEntry.getIfDescr()));
+        for (String ikey : interfaceTagKeys) {
+            fields.add((sb, source, ifEntry, pollTime) -> appendTag(sb, ifEntry.getTags(), ikey));
+        }
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(escapeSeparator(ifEntry.getIfAlias())));
+        // swap in out for egress port
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append((ifEntry.getChargeFlow() == SnmpConstants.EGRESS) ? ifEntry.getPollOutOctets() : ifEntry.getPollInOctets()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append((ifEntry.getChargeFlow() == SnmpConstants.EGRESS) ? ifEntry.getPollInOctets() : ifEntry.getPollOutOctets()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(pollTime));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append((ifEntry.getPollDuration() == 0) ? source.getPollDuration() : ifEntry.getPollDuration()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append((ifEntry.isUp()) ? 1 : 0));
+        return fields.toArray(new FieldWriter[fields.size()]);
+    }
+
+    private FieldWriter[] compileTraceRecord() {
+        List<FieldWriter> fields = new ArrayList<FieldWriter>();
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(pollTime));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(source.getIpAddress()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(source.getSysUptime()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(ifEntry.getIfIndex()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(ifEntry.getIfDescr()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(ifEntry.getIfName()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(escapeSeparator(ifEntry.getIfAlias())));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(ifEntry.getIfAdminStatus()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(ifEntry.getIfOperStatus()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(ifEntry.getInOctets()).append(':').append(ifEntry.getInOctetsType()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(ifEntry.getOutOctets()).append(':').append(ifEntry.getOutOctetsType()));
+        fields.add((sb, source, ifEntry, pollTime) -> sb.append(ifEntry.getSysUptime()));
+        return fields.toArray(new FieldWriter[fields.size()]);
+    }
+
+    /**
+     * @return poll time of the source in cdr timestamp format
+     */
+    public String formatPollTime(SnmpSource source) {
+        return formatter.format(Instant.ofEpochMilli(source.getPollTime()));
+    }
+
+    /**
+     * append charging data record of the interface
+     */
+    public void appendChargingDataRecord(StringBuilder sb, SnmpSource source, SnmpInterface ifEntry, String pollTime) {
+        for (int i = 0; i < cdrFields.length; i++) {
+            if (i > 0) {
+                sb.append(fieldSeparator);
+            }
+            cdrFields[i].write(sb, source, ifEntry, pollTime);
+        }
+        sb.append(System.lineSeparator());
+    }
+
+    /**
+     * append trace record of the interface
+     */
+    public void appendTraceRecord(StringBuilder sb, SnmpSource source, SnmpInterface ifEntry, String pollTime) {
+        for (FieldWriter field : traceFields) {
+            field.write(sb, source, ifEntry, pollTime);
+            sb.append(fieldSeparator);
+        }
+        sb.append(System.lineSeparator());
+    }
+
+    /**
+     * @return source tag keys of the charging data record
+     */
+    public List<String> getRecordSourceTagKeys() {
+        List<String> keys = new ArrayList<String>(sourceTagKeys.size());
+        for (String skey : sourceTagKeys) {
+            if (!skey.equalsIgnoreCase(vlanOidTag)) {
+                keys.add(skey);
+            }
+        }
+        return keys;
+    }
+
+    public List<String> getRecordInterfaceTagKeys() {
+        return new ArrayList<String>(interfaceTagKeys);
+    }
+
+    public String getFieldSeparator() {
+        return fieldSeparator;
+    }
+
+    public String getTimeStampFormat() {
+        return timeStampFormat;
+    }
+
+    private void appendTag(StringBuilder sb, Map<String, String> tags, String key) {
+        if (tags.containsKey(key)) {
+            sb.append(escapeSeparator(tags.get(key)));
+        }
+    }
+
+    private String escapeSeparator(String str) {
+        if (str != null && !str.isEmpty()) {
+            return str.replace(escapedChar, '.');
+        }
+        return str;
+    }
+
+    @Override
+    public String toString() {
+        return "CdrRecordLayout [cdrFields=" + cdrFields.length + ", traceFields=" + traceFields.length + ", fieldSeparator=" + fieldSeparator + ", timeStampFormat="
+            + timeStampFormat + ", sourceTagKeys=" + sourceTagKeys + ", interfaceTagKeys=" + interfaceTagKeys + ", vlanOidTag=" + vlanOidTag + "]";
+    }
+}
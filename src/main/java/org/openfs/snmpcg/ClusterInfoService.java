@@ -1,24 +1,60 @@
 package org.openfs.snmpcg;
 
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.apache.camel.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
 import com.hazelcast.core.Member;
+import com.hazelcast.core.MigrationEvent;
+import com.hazelcast.core.MigrationListener;
 
 @Component
 public class ClusterInfoService {
+    private static final Logger log = LoggerFactory.getLogger(ClusterInfoService.class);
+    private static final long STATUS_TIMEOUT = 10;
+    // executor of the member status tasks
+    static final String EXECUTOR = "snmpcg:cluster";
 
     private HazelcastInstance instance;
+    private final AtomicLong migrations = new AtomicLong();
 
     public ClusterInfoService(HazelcastInstance instance) {
         this.instance = instance;
+        // partitions of the sources map move to the new owner on membership change
+        instance.getPartitionService().addMigrationListener(new MigrationListener() {
+            @Override
+            public void migrationStarted(MigrationEvent event) {
+            }
+
+            @Override
+            public void migrationCompleted(MigrationEvent event) {
+                migrations.incrementAndGet();
+                if (log.isDebugEnabled()) {
+                    log.debug("partition {} migrated", event.getPartitionId());
+                }
+            }
+
+            @Override
+            public void migrationFailed(MigrationEvent event) {
+                log.warn("partition {} migration failed", event.getPartitionId());
+            }
+        });
     }
 
     @Handler
@@ -40,17 +76,62 @@ public class ClusterInfoService {
 
     @Handler
     public List<Map<String, Object>> getStatus() {
+        // owned partitions and polled sources per member
+        Map<String, Long> partitions = instance.getPartitionService().getPartitions().stream().filter(p -> p.getOwner() != null)
+            .collect(Collectors.groupingBy(p -> p.getOwner().getUuid(), Collectors.counting()));
+        // sources owned by each member, counted by the member
+        Map<Member, Future<Integer>> share = instance.getExecutorService(EXECUTOR).submitToAllMembers(new LocalSourceCount());
         return instance.getCluster().getMembers().stream().map(m -> {
             Map<String, Object> map = new HashMap<String, Object>();
             map.put("Host", m.getAddress().getHost());
             map.put("Port", m.getAddress().getPort());
             map.put("Status", m.getUuid().equalsIgnoreCase(getLastMember().getUuid()) ? "Master" : "Slave");
             map.put("isLocal", m.localMember());
+            map.put("Partitions", partitions.getOrDefault(m.getUuid(), 0L));
+            map.put("Sources", getCount(m, share.get(m)));
+            if (m.localMember()) {
+                map.put("Migrations", migrations.get());
+            }
             return map;
         }).collect(Collectors.toList());
     }
 
+    /**
+     * @return count of the member, -1 if it did not answer
+     */
+    private static int getCount(Member member, Future<Integer> count) {
+        if (count == null) {
+            return -1;
+        }
+        try {
+            return count.get(STATUS_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("member {} sources not counted: {}", member.getAddress(), e.toString());
+        }
+        return -1;
+    }
+
     protected Member getLastMember() {
         return instance.getCluster().getMembers().iterator().next();
     }
+
+    /**
+     * count of the sources map entries owned by the member running it
+     */
+    static final class LocalSourceCount implements Callable<Integer>, Serializable, HazelcastInstanceAware {
+        private static final long serialVersionUID = 4129571082736146621L;
+        private transient HazelcastInstance instance;
+
+        @Override
+        public void setHazelcastInstance(HazelcastInstance instance) {
+            this.instance = instance;
+        }
+
+        @Override
+        public Integer call() {
+            return instance.getMap("sources").localKeySet().size();
+        }
+    }
 }
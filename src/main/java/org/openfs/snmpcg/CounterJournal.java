@@ -0,0 +1,340 @@
+package org.openfs.snmpcg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.camel.Message;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.openfs.snmpcg.model.SnmpSourceSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.stereotype.Component;
+
+/**
+ * Append-only, memory-mapped journal of the last raw interface counters and
+ * sysUptime of each source. A sink of the cycle export: each batch of the
+ * export pass is encoded on the pass thread and appended, one record per
+ * source, from a background thread. The journal is compacted to the latest
+ * record per source when full. At start the journal is replayed and a source
+ * added again continues delta counters from its journaled values.
+ *
+ * <pre>
+ * record := length (int) crc32 (int) ipAddress pollTime sysUptime ifCount interface*
+ * </pre>
+ */
+@Component("counterJournal")
+public class CounterJournal implements ExportSink {
+    private static final Logger log = LoggerFactory.getLogger(CounterJournal.class);
+    private static final int RECORD_HEADER = 8;
+
+    @Value("${snmpcg.counterJournal:false}")
+    private boolean enabled;
+
+    @Value("${snmpcg.counterJournalFile:data/counters.journal}")
+    private String fileName;
+
+    @Value("${snmpcg.counterJournalSize:67108864}")
+    private int journalSize;
+
+    // max age in seconds of journaled counters to restore
+    @Value("${snmpcg.counterJournalMaxAge:86400}")
+    private long maxAge;
+
+    @Autowired
+    private CounterService counterService;
+
+    // latest record of each source
+    private final Map<String, byte[]> latest = new ConcurrentHashMap<String, byte[]>();
+    private ExecutorService writer;
+    private Path file;
+    private FileChannel channel;
+    private MappedByteBuffer journal;
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        file = Paths.get(fileName).toAbsolutePath();
+        Files.createDirectories(file.getParent());
+        map(Math.max(journalSize, (int)Files.size(createIfAbsent(file))));
+        replay();
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "CounterJournal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("counter journal: {} restore {} sources", file, latest.size());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            journal.force();
+            channel.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * journal counters of the cycle sources, written in background and forced
+     * on close. The journaled counters are the poll state, kept whatever the
+     * export result.
+     */
+    @Override
+    public JournalPass open(CdrRecordLayout layout, String name) {
+        return new JournalPass();
+    }
+
+    final class JournalPass implements ExportSink.Pass {
+        @Override
+        public void write(List<SnmpSource> sources) throws IOException {
+            if (writer == null || sources.isEmpty()) {
+                return;
+            }
+            Map<String, byte[]> records = new LinkedHashMap<String, byte[]>();
+            for (SnmpSource source : sources) {
+                records.put(source.getIpAddress(), encode(source));
+            }
+            execute(() -> append(records));
+        }
+
+        @Override
+        public void close(Message message) {
+            if (writer != null) {
+                execute(CounterJournal.this::force);
+            }
+        }
+
+        @Override
+        public void abort() {
+            close(null);
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            writer.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.warn("counter journal: closed, skip cycle");
+        }
+    }
+
+    /**
+     * restore journaled counters of the source: delta counters continue on the
+     * next poll, a reboot in between is detected by sysUptime
+     *
+     * @return true if restored
+     */
+    public boolean restore(SnmpSource source) {
+        byte[] record = latest.get(source.getIpAddress());
+        if (record == null) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            in.readUTF();
+            long pollTime = in.readLong();
+            // older than the source state or expired
+            if (pollTime <= source.getPollTime() || System.currentTimeMillis() - pollTime > maxAge * 1000) {
+                return false;
+            }
+            source.setPollTime(pollTime);
+            source.setSysUptime(in.readLong());
+            int size = (int)SnmpSourceSerializer.readVarLong(in);
+            for (int i = 0; i < size; i++) {
+                SnmpInterface ifEntry = source.getSnmpInterface(in.readUTF());
+                ifEntry.setIfIndex((int)SnmpSourceSerializer.readVarLong(in));
+                ifEntry.setIfAdminStatus(in.readByte());
+                ifEntry.setIfOperStatus(in.readByte());
+                ifEntry.setInOctets(SnmpSourceSerializer.readVarLong(in), in.readByte());
+                ifEntry.setOutOctets(SnmpSourceSerializer.readVarLong(in), in.readByte());
+                ifEntry.setSysUptime(SnmpSourceSerializer.readVarLong(in));
+            }
+            source.rebuildIfIndexTable();
+            source.setSkipDelta(false);
+            log.info("source: {} restore {} interface counters from journal", source.getIpAddress(), size);
+            return true;
+        } catch (IOException e) {
+            log.warn("source: {} journal record unreadable: {}", source.getIpAddress(), e.getMessage());
+            counterService.increment("counter.snmp.logWarn");
+            return false;
+        }
+    }
+
+    /**
+     * append encoded records of the sources
+     */
+    private synchronized void append(Map<String, byte[]> records) {
+        try {
+            for (Map.Entry<String, byte[]> entry : records.entrySet()) {
+                byte[] record = entry.getValue();
+                if (journal.remaining() < RECORD_HEADER + record.length + RECORD_HEADER) {
+                    compact(RECORD_HEADER + record.length);
+                }
+                put(journal, record);
+                latest.put(entry.getKey(), record);
+            }
+        } catch (IOException e) {
+            log.error("counter journal: write failed: {}", e.getMessage());
+            counterService.increment("counter.snmp.logError");
+        }
+    }
+
+    private synchronized void force() {
+        journal.force();
+    }
+
+    private static byte[] encode(SnmpSource source) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + source.getIftable().size() * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(source.getIpAddress());
+        out.writeLong(source.getPollTime());
+        out.writeLong(source.getSysUptime());
+        SnmpSourceSerializer.writeVarLong(out, source.getIftable().size());
+        for (SnmpInterface ifEntry : source.getIftable().values()) {
+            out.writeUTF(ifEntry.getIfDescr());
+            SnmpSourceSerializer.writeVarLong(out, ifEntry.getIfIndex());
+            out.writeByte(ifEntry.getIfAdminStatus());
+            out.writeByte(ifEntry.getIfOperStatus());
+            SnmpSourceSerializer.writeVarLong(out, ifEntry.getInOctets());
+            out.writeByte(ifEntry.getInOctetsType());
+            SnmpSourceSerializer.writeVarLong(out, ifEntry.getOutOctets());
+            out.writeByte(ifEntry.getOutOctetsType());
+            SnmpSourceSerializer.writeVarLong(out, ifEntry.getSysUptime());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void put(MappedByteBuffer buffer, byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        buffer.putInt(record.length).putInt((int)crc.getValue()).put(record);
+    }
+
+    /**
+     * read records up to the end mark or the first torn record, keep the
+     * latest of each source and position the journal after them
+     */
+    private void replay() throws IOException {
+        int records = 0;
+        while (journal.remaining() >= RECORD_HEADER) {
+            int start = journal.position();
+            int length = journal.getInt();
+            int checksum = journal.getInt();
+            if (length <= 0 || length > journal.remaining()) {
+                journal.position(start);
+                break;
+            }
+            byte[] record = new byte[length];
+            journal.get(record);
+            CRC32 crc = new CRC32();
+            crc.update(record, 0, length);
+            if ((int)crc.getValue() != checksum) {
+                log.warn("counter journal: torn record at {}", start);
+                journal.position(start);
+                break;
+            }
+            latest.put(new DataInputStream(new ByteArrayInputStream(record)).readUTF(), record);
+            records++;
+        }
+        // clear torn tail
+        for (int i = journal.position(); i < journal.limit() && i < journal.position() + RECORD_HEADER; i++) {
+            journal.put(i, (byte)0);
+        }
+        log.info("counter journal: replay {} records", records);
+    }
+
+    /**
+     * rewrite journal with the latest record of each source, older than
+     * counterJournalMaxAge dropped, grow when still full
+     */
+    private void compact(int required) throws IOException {
+        long expired = System.currentTimeMillis() - maxAge * 1000;
+        List<byte[]> records = new ArrayList<byte[]>(latest.size());
+        int size = RECORD_HEADER;
+        for (Iterator<byte[]> it = latest.values().iterator(); it.hasNext();) {
+            byte[] record = it.next();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            in.readUTF();
+            if (in.readLong() < expired) {
+                it.remove();
+                continue;
+            }
+            records.add(record);
+            size += RECORD_HEADER + record.length;
+        }
+        int capacity = journalSize;
+        while (capacity < size + required) {
+            capacity *= 2;
+        }
+
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = out.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            for (byte[] record : records) {
+                put(buffer, record);
+            }
+            buffer.force();
+        }
+        channel.close();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map(capacity);
+        journal.position(size - RECORD_HEADER);
+        log.info("counter journal: compacted to {} sources, size {}", records.size(), capacity);
+    }
+
+    private void map(int capacity) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private static Path createIfAbsent(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            Files.createFile(path);
+        }
+        return path;
+    }
+}
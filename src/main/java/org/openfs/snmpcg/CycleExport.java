@@ -0,0 +1,189 @@
+package org.openfs.snmpcg;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Handler;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.impl.DefaultExchange;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Export of the cycle records. One pass over the export sources, fetched in
+ * batches, feeds the counter journal and the CDR and trace sinks of the
+ * configured output; the completed records are then sent to the storeCdr and
+ * storeTrace routes.
+ */
+@Component("cycleExport")
+public class CycleExport {
+    private static final Logger log = LoggerFactory.getLogger(CycleExport.class);
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    @Value("${snmpcg.binaryCdr:false}")
+    private boolean binaryCdr;
+
+    @Value("${snmpcg.exportStreaming:false}")
+    private boolean exportStreaming;
+
+    @Autowired
+    private SourceInventoryService inventory;
+
+    @Autowired
+    @Lazy
+    private RecordExportWriter exportWriter;
+
+    @Autowired
+    @Lazy
+    private BinaryCdrWriter binaryCdrWriter;
+
+    @Autowired
+    private CounterJournal journal;
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    @Autowired
+    private CamelContext camelContext;
+
+    @Autowired
+    private ProducerTemplate producer;
+
+    private final List<ExportSink> sinks = new ArrayList<ExportSink>();
+    private final List<String> storeEndpoints = new ArrayList<String>();
+
+    @PostConstruct
+    public void initSinks() {
+        if (journal.isEnabled()) {
+            addSink(journal, null);
+        }
+        if (binaryCdr) {
+            addSink(binaryCdrWriter, "direct:storeCdr");
+        } else if (exportStreaming) {
+            addSink(exportWriter.getChargingDataRecordSink(), "direct:storeCdr");
+        } else {
+            addSink(RecordTextSink.chargingDataRecords(gaugeService), "direct:storeCdr");
+        }
+        if (exportStreaming) {
+            addSink(exportWriter.getTraceRecordSink(), "direct:storeTrace");
+        } else {
+            addSink(RecordTextSink.traceRecords(gaugeService), "direct:storeTrace");
+        }
+    }
+
+    /**
+     * @param storeEndpoint route of the completed records, null if none
+     */
+    void addSink(ExportSink sink, String storeEndpoint) {
+        sinks.add(sink);
+        storeEndpoints.add(storeEndpoint);
+    }
+
+    /**
+     * export the records of the ready sources, or of the export cycle if
+     * started, and send them to the store routes
+     */
+    @Handler
+    public void export() throws Exception {
+        Cycle cycle = open(FILE_TIMESTAMP.format(LocalDateTime.now()));
+        try {
+            inventory.forEachExportBatch(cycle::write);
+        } catch (Exception e) {
+            cycle.abort();
+            throw e;
+        }
+        cycle.close();
+    }
+
+    /**
+     * @param name cycle name, the timestamp of the cycle files
+     * @return passes of the sinks for one cycle
+     */
+    public Cycle open(String name) throws IOException {
+        CdrRecordLayout layout = inventory.getRecordLayout();
+        Cycle cycle = new Cycle(name);
+        try {
+            for (ExportSink sink : sinks) {
+                cycle.passes.add(sink.open(layout, name));
+            }
+        } catch (IOException | RuntimeException e) {
+            cycle.abort();
+            throw e;
+        }
+        return cycle;
+    }
+
+    /**
+     * passes of the sinks for one cycle
+     */
+    public final class Cycle {
+        private final String name;
+        private final List<ExportSink.Pass> passes = new ArrayList<ExportSink.Pass>();
+
+        Cycle(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * append the records of the sources to each sink
+         */
+        public void write(List<SnmpSource> sources) throws IOException, InterruptedException {
+            for (ExportSink.Pass pass : passes) {
+                pass.write(sources);
+            }
+        }
+
+        /**
+         * complete the records and send them to the store routes, every route
+         * is sent before the first failure is thrown
+         */
+        public void close() throws Exception {
+            Exception failure = null;
+            for (int i = 0; i < passes.size(); i++) {
+                Exchange exchange = new DefaultExchange(camelContext);
+                try {
+                    passes.get(i).close(exchange.getIn());
+                    if (storeEndpoints.get(i) == null) {
+                        continue;
+                    }
+                    producer.send(storeEndpoints.get(i), exchange);
+                    if (exchange.getException() != null) {
+                        throw exchange.getException();
+                    }
+                } catch (Exception e) {
+                    log.error("export cycle {}: {} failed: {}", name, storeEndpoints.get(i), e.getMessage());
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * discard the records of the cycle
+         */
+        public void abort() {
+            passes.forEach(ExportSink.Pass::abort);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.openfs.snmpcg;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.camel.Message;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+
+/**
+ * Output of the records of the export cycles. Each cycle opens one pass of
+ * the sink, fed with the export sources in batches and closed into the
+ * message sent to the store route of the records.
+ */
+@FunctionalInterface
+public interface ExportSink {
+
+    /**
+     * @param name cycle name, the timestamp of the cycle files
+     * @return pass writing the records of the cycle
+     */
+    Pass open(CdrRecordLayout layout, String name) throws IOException;
+
+    /**
+     * records of one cycle
+     */
+    interface Pass {
+        /**
+         * append the records of the sources, called concurrently by the poll
+         * threads on pipelined export
+         */
+        void write(List<SnmpSource> sources) throws IOException, InterruptedException;
+
+        /**
+         * complete the records: set the record count header and the body or
+         * the produced file of the store route
+         */
+        void close(Message message) throws IOException;
+
+        /**
+         * discard the records of a failed cycle
+         */
+        void abort();
+    }
+
+    /**
+     * format of the record of an interface
+     */
+    @FunctionalInterface
+    interface RecordFormat {
+        void append(CdrRecordLayout layout, StringBuilder sb, SnmpSource source, SnmpInterface ifEntry, String pollTime);
+    }
+}
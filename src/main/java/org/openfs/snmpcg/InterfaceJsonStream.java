@@ -0,0 +1,350 @@
+package org.openfs.snmpcg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Interfaces REST answer generated while the response is read: sources are
+ * fetched one at a time in ipAddress order, their interfaces written in ifDescr
+ * order by a Jackson generator to a small buffer. The memory of a request is
+ * bounded by one source, not by the number of interfaces.
+ *
+ * <pre>
+ * without limit: [interface, ...]
+ * with limit:    {"interfaces": [interface, ...], "next": "ipAddress/ifDescr" | null}
+ * </pre>
+ *
+ * The next cursor is the after parameter of the following page. The
+ * interfaces of one source are written with the fields of the interface
+ * itself, no source object.
+ */
+public final class InterfaceJsonStream extends InputStream {
+    public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList("source", "pollTime", "pollDuration", "ifIndex", "ifDescr",
+        "ifAlias", "chargeable", "trace", "up", "portStatus", "pollInOctets", "pollOutOctets", "tags", "chargeFlow"));
+    public static final List<String> SOURCE_FIELDS = Collections.unmodifiableList(Arrays.asList("ifIndex", "ifDescr", "ifName", "ifAlias",
+        "ifAdminStatus", "ifOperStatus", "chargeable", "trace", "up", "down", "marked", "portStatus", "ifInOctets", "ifOutOctets", "pollInOctets",
+        "pollOutOctets", "pollDuration", "sysUptime", "tags", "chargeFlow"));
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // generated bytes per fill
+    private static final int CHUNK = 16 * 1024;
+
+    private final Iterator<String> keys;
+    private final Function<String, SnmpSource> lookup;
+    private final Predicate<SnmpInterface> filter;
+    private final Set<String> fields;
+    private final int limit;
+    private final boolean perSource;
+    private final String afterSource;
+    private final String afterIfDescr;
+    private final Buffer buffer = new Buffer();
+    private final JsonGenerator json;
+
+    private Iterator<SnmpInterface> interfaces = Collections.emptyIterator();
+    private SnmpSource source;
+    private SnmpInterface last;
+    private int count;
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * @param keys source keys, any order
+     * @param lookup source by key, null if removed
+     * @param filter interfaces to write
+     * @param fields interface fields to write
+     * @param limit page size, 0 for all interfaces
+     * @param perSource interfaces of one source: poll duration of the interface
+     * @param after cursor ipAddress/ifDescr or null for the first page
+     */
+    public InterfaceJsonStream(Collection<String> keys, Function<String, SnmpSource> lookup, Predicate<SnmpInterface> filter, Set<String> fields,
+        int limit, boolean perSource, String after) throws IOException {
+        int split = (after == null) ? -1 : after.indexOf('/');
+        this.afterSource = (split < 0) ? after : after.substring(0, split);
+        this.afterIfDescr = (split < 0) ? null : after.substring(split + 1);
+        this.keys = keys.stream().filter(k -> afterSource == null || k.compareTo(afterSource) >= 0).sorted().iterator();
+        this.lookup = lookup;
+        this.filter = filter;
+        this.fields = fields;
+        this.limit = limit;
+        this.perSource = perSource;
+        this.json = JSON.createGenerator(buffer, JsonEncoding.UTF8);
+    }
+
+    /**
+     * @param fields comma separated field names, null or empty for all
+     * @param allowed FIELDS or SOURCE_FIELDS
+     * @return selected fields
+     * @throws IllegalArgumentException on unknown field
+     */
+    public static Set<String> parseFields(String fields, List<String> allowed) {
+        if (fields == null || fields.isEmpty()) {
+            return new LinkedHashSet<String>(allowed);
+        }
+        Set<String> answer = new LinkedHashSet<String>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!allowed.contains(name)) {
+                throw new IllegalArgumentException("unknown field " + name);
+            }
+            answer.add(name);
+        }
+        return answer;
+    }
+
+    /**
+     * @return value as json, for the small answers of the streamed endpoints
+     */
+    public static String toJson(Object value) {
+        try {
+            return MAPPER.writeValueAsString(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        return buffer.read(b, off, len);
+    }
+
+    @Override
+    public int available() {
+        return buffer.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        json.close();
+    }
+
+    /**
+     * generate next chunk when the buffer is read
+     *
+     * @return false on end
+     */
+    private boolean fill() throws IOException {
+        while (buffer.available() == 0) {
+            if (finished) {
+                return false;
+            }
+            buffer.reset();
+            if (!started) {
+                started = true;
+                if (limit > 0) {
+                    json.writeStartObject();
+                    json.writeArrayFieldStart("interfaces");
+                } else {
+                    json.writeStartArray();
+                }
+            }
+            while (buffer.size() < CHUNK) {
+                SnmpInterface ifEntry = (limit > 0 && count == limit) ? null : nextInterface();
+                if (ifEntry == null) {
+                    end();
+                    break;
+                }
+                writeInterface(source, ifEntry);
+                last = ifEntry;
+                count++;
+            }
+            json.flush();
+        }
+        return true;
+    }
+
+    private void end() throws IOException {
+        json.writeEndArray();
+        if (limit > 0) {
+            // last page when less than limit
+            json.writeStringField("next", (count == limit) ? source.getIpAddress() + "/" + last.getIfDescr() : null);
+            json.writeEndObject();
+        }
+        finished = true;
+    }
+
+    private SnmpInterface nextInterface() {
+        while (!interfaces.hasNext()) {
+            if (!keys.hasNext()) {
+                return null;
+            }
+            SnmpSource next = lookup.apply(keys.next());
+            // removed meanwhile
+            if (next == null) {
+                continue;
+            }
+            source = next;
+            boolean skip = source.getIpAddress().equals(afterSource) && afterIfDescr != null;
+            interfaces = source.getIftable().values().stream()
+                .filter(filter)
+                .filter(i -> !skip || i.getIfDescr().compareTo(afterIfDescr) > 0)
+                .sorted(Comparator.comparing(SnmpInterface::getIfDescr))
+                .collect(Collectors.toList())
+                .iterator();
+        }
+        return interfaces.next();
+    }
+
+    private void writeInterface(SnmpSource source, SnmpInterface e) throws IOException {
+        json.writeStartObject();
+        for (String field : fields) {
+            switch (field) {
+            case "source":
+                json.writeObjectFieldStart("source");
+                json.writeStringField("ipAddress", source.getIpAddress());
+                json.writeStringField("sysName", source.getSysName());
+                writeTags(source.getTags());
+                json.writeEndObject();
+                break;
+            case "pollTime":
+                json.writeNumberField("pollTime", source.getPollTime());
+                break;
+            case "pollDuration":
+                json.writeNumberField("pollDuration", perSource ? e.getPollDuration() : source.getPollDuration());
+                break;
+            case "sysUptime":
+                json.writeNumberField("sysUptime", e.getSysUptime());
+                break;
+            case "ifIndex":
+                json.writeNumberField("ifIndex", e.getIfIndex());
+                break;
+            case "ifDescr":
+                json.writeStringField("ifDescr", e.getIfDescr());
+                break;
+            case "ifName":
+                json.writeStringField("ifName", e.getIfName());
+                break;
+            case "ifAlias":
+                json.writeStringField("ifAlias", e.getIfAlias());
+                break;
+            case "ifAdminStatus":
+                json.writeNumberField("ifAdminStatus", e.getIfAdminStatus());
+                break;
+            case "ifOperStatus":
+                json.writeNumberField("ifOperStatus", e.getIfOperStatus());
+                break;
+            case "chargeable":
+                json.writeBooleanField("chargeable", e.isChargeable());
+                break;
+            case "trace":
+                json.writeBooleanField("trace", e.isTrace());
+                break;
+            case "up":
+                json.writeBooleanField("up", e.isUp());
+                break;
+            case "down":
+                json.writeBooleanField("down", e.isDown());
+                break;
+            case "marked":
+                json.writeBooleanField("marked", e.isMarked());
+                break;
+            case "portStatus":
+                json.writeNumberField("portStatus", e.getPortStatus());
+                break;
+            case "ifInOctets":
+                writeCounter("ifInOctets", e.getInOctets(), e.getInOctetsType());
+                break;
+            case "ifOutOctets":
+                writeCounter("ifOutOctets", e.getOutOctets(), e.getOutOctetsType());
+                break;
+            case "pollInOctets":
+                json.writeNumberField("pollInOctets", e.getPollInOctets());
+                break;
+            case "pollOutOctets":
+                json.writeNumberField("pollOutOctets", e.getPollOutOctets());
+                break;
+            case "tags":
+                writeTags(e.getTags());
+                break;
+            case "chargeFlow":
+                json.writeNumberField("chargeFlow", e.getChargeFlow());
+                break;
+            default:
+                break;
+            }
+        }
+        json.writeEndObject();
+    }
+
+    private void writeCounter(String name, long value, int type) throws IOException {
+        json.writeObjectFieldStart(name);
+        json.writeNumberField("value", value);
+        json.writeNumberField("type", type);
+        json.writeEndObject();
+    }
+
+    private void writeTags(Map<String, String> tags) throws IOException {
+        json.writeObjectFieldStart("tags");
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            json.writeStringField(tag.getKey(), tag.getValue());
+        }
+        json.writeEndObject();
+    }
+
+    /**
+     * generated bytes not yet read
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private int pos;
+
+        Buffer() {
+            super(CHUNK + 4096);
+        }
+
+        int available() {
+            return count - pos;
+        }
+
+        int read() {
+            return buf[pos++] & 0xff;
+        }
+
+        int read(byte[] b, int off, int len) {
+            int n = Math.min(len, count - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            pos = 0;
+        }
+    }
+}
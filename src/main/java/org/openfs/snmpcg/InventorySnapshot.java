@@ -0,0 +1,235 @@
+package org.openfs.snmpcg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.camel.Handler;
+import org.apache.camel.util.StopWatch;
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.openfs.snmpcg.model.SnmpSourceSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.stereotype.Component;
+
+/**
+ * Periodic binary snapshot of the sources inventory: sources, tags, interface
+ * flags, counters and last status in the SnmpSourceSerializer format. On cold
+ * start (empty sources map) the snapshot is loaded in parallel, sources
+ * SUCCESS in a recent snapshot stay ready for the first counter poll.
+ *
+ * <pre>
+ * file   := magic "SCSN" (int) version (byte) created (long) source* end (int 0)
+ * source := length (int) crc32 (int) SnmpSourceSerializer
+ * </pre>
+ */
+@Component("inventorySnapshot")
+public class InventorySnapshot {
+    private static final Logger log = LoggerFactory.getLogger(InventorySnapshot.class);
+    private static final int MAGIC = 0x5343534e;
+    private static final byte VERSION = 1;
+    // sources per putAll on load
+    private static final int LOAD_BATCH = 500;
+
+    @Value("${snmpcg.inventorySnapshot:false}")
+    private boolean enabled;
+
+    @Value("${snmpcg.inventorySnapshotFile:data/sources.snapshot}")
+    private String fileName;
+
+    @Value("${snmpcg.inventorySnapshotThreads:4}")
+    private int loadThreads;
+
+    // max age in seconds of the snapshot to keep sources ready
+    @Value("${snmpcg.inventorySnapshotMaxAge:900}")
+    private long maxAge;
+
+    @Autowired
+    private ConcurrentMap<String, SnmpSource> sources;
+
+    @Autowired
+    private CounterJournal journal;
+
+    @Autowired
+    private InventoryStats stats;
+
+    @Autowired
+    private CounterService counterService;
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        Path file = Paths.get(fileName);
+        if (!Files.exists(file)) {
+            return;
+        }
+        if (!sources.isEmpty()) {
+            log.info("inventory snapshot: {} sources in cluster, skip load", sources.size());
+            return;
+        }
+        StopWatch watch = new StopWatch();
+        ExecutorService executor = Executors.newFixedThreadPool(loadThreads);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 256 * 1024))) {
+            long created = readHeader(in);
+            boolean ready = System.currentTimeMillis() - created <= maxAge * 1000;
+
+            // read sequentially, decode in parallel
+            List<Future<SnmpSource>> decoded = new ArrayList<Future<SnmpSource>>();
+            byte[] data;
+            while ((data = readSource(in)) != null) {
+                byte[] source = data;
+                decoded.add(executor.submit(() -> decode(source, ready)));
+            }
+
+            Map<String, SnmpSource> batch = new HashMap<String, SnmpSource>(LOAD_BATCH * 2);
+            int loaded = 0;
+            int readySources = 0;
+            for (Future<SnmpSource> future : decoded) {
+                SnmpSource source = future.get();
+                if (source == null) {
+                    continue;
+                }
+                if (SnmpConstants.SUCCESS.equals(source.getStatus())) {
+                    readySources++;
+                }
+                batch.put(source.getIpAddress(), source);
+                if (batch.size() == LOAD_BATCH) {
+                    putAll(batch);
+                    loaded += batch.size();
+                    batch.clear();
+                }
+            }
+            putAll(batch);
+            loaded += batch.size();
+            log.info("inventory snapshot: loaded {} sources ({} ready) from {} in {} ms", loaded, readySources, file, watch.taken());
+        } catch (Exception e) {
+            log.error("inventory snapshot: load {} failed: {}", file, e.getMessage());
+            counterService.increment("counter.snmp.logError");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * write snapshot of all sources
+     */
+    @Handler
+    public void writeSnapshot() {
+        if (!enabled) {
+            return;
+        }
+        StopWatch watch = new StopWatch();
+        Path file = Paths.get(fileName).toAbsolutePath();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int count = 0;
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 256 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeLong(System.currentTimeMillis());
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+                DataOutputStream record = new DataOutputStream(bytes);
+                CRC32 crc = new CRC32();
+                for (SnmpSource source : sources.values()) {
+                    bytes.reset();
+                    SnmpSourceSerializer.writeSource(record, source);
+                    record.flush();
+                    crc.reset();
+                    crc.update(bytes.toByteArray(), 0, bytes.size());
+                    out.writeInt(bytes.size());
+                    out.writeInt((int)crc.getValue());
+                    bytes.writeTo(out);
+                    count++;
+                }
+                out.writeInt(0);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("inventory snapshot: wrote {} sources to {} in {} ms", count, file, watch.taken());
+        } catch (IOException e) {
+            log.error("inventory snapshot: write {} failed: {}", file, e.getMessage());
+            counterService.increment("counter.snmp.logError");
+        }
+    }
+
+    private static long readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not an inventory snapshot");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported inventory snapshot version: " + version);
+        }
+        return in.readLong();
+    }
+
+    /**
+     * @return source record or null on end
+     */
+    private static byte[] readSource(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            throw new IOException("truncated snapshot");
+        }
+        if (length == 0) {
+            return null;
+        }
+        int checksum = in.readInt();
+        byte[] data = new byte[length];
+        in.readFully(data);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        if ((int)crc.getValue() != checksum) {
+            throw new IOException("snapshot checksum mismatch");
+        }
+        return data;
+    }
+
+    private SnmpSource decode(byte[] data, boolean ready) throws IOException {
+        SnmpSource source = SnmpSourceSerializer.readSource(new DataInputStream(new ByteArrayInputStream(data)));
+        // validate status on next status poll
+        if (!ready) {
+            source.setStatus(SnmpConstants.UNKNOWN);
+        }
+        // counters of the last cycle
+        journal.restore(source);
+        source.rebuildIfIndexTable();
+        return source;
+    }
+
+    private void putAll(Map<String, SnmpSource> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        sources.putAll(batch);
+        batch.values().forEach(stats::update);
+    }
+}
@@ -0,0 +1,346 @@
+package org.openfs.snmpcg;
+
+import java.io.Serializable;
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.camel.util.StopWatch;
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.openfs.snmpcg.model.SnmpSourceCounts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.Member;
+import com.hazelcast.core.MigrationEvent;
+import com.hazelcast.core.MigrationListener;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+
+/**
+ * Inventory statistics of the sources polled by this member, maintained on
+ * each state transition: poll completion, REST update, snapshot load, add and
+ * remove. Each source contributes its last counts, a transition applies the
+ * difference to the totals, so reads are O(1) instead of a scan of the sources
+ * map. The counts of a poll are those of the stored source the poll update was
+ * applied to. Sources are counted once at start; sources polled by another
+ * member before (master change, partition migration) are counted again on
+ * their next poll. The inventory stats of a cluster are asked to the members:
+ * the sum of their local partitions on cluster poll, else the stats of the
+ * member polling.
+ */
+@Component("inventoryStats")
+public class InventoryStats {
+    private static final Logger log = LoggerFactory.getLogger(InventoryStats.class);
+    private static final String USER_CONTEXT_KEY = "inventoryStats";
+    private static final long SNAPSHOT_TIMEOUT = 10;
+
+    @Autowired
+    private ConcurrentMap<String, SnmpSource> sources;
+
+    @Autowired
+    private HazelcastInstance instance;
+
+    @Value("${snmpcg.clusterPoll:false}")
+    private boolean clusterPoll;
+
+    // last counts of each source
+    private final Map<String, SnmpSourceCounts> counts = new ConcurrentHashMap<String, SnmpSourceCounts>();
+    private final Map<String, LongAdder> statusCounts = new ConcurrentHashMap<String, LongAdder>();
+    private final LongAdder interfaces = new LongAdder();
+    private final LongAdder upInterfaces = new LongAdder();
+    private final LongAdder chargeableInterfaces = new LongAdder();
+    private final LongAdder traceInterfaces = new LongAdder();
+    private final LongAdder readyInterfaces = new LongAdder();
+    private volatile long lastPoll;
+    // poll response of the sources polled in the cycle
+    private DoubleSummaryStatistics cycle = new DoubleSummaryStatistics();
+
+    @PostConstruct
+    public void init() {
+        StopWatch watch = new StopWatch();
+        IMap<String, SnmpSource> map = (IMap<String, SnmpSource>)sources;
+        if (clusterPoll) {
+            map.getAll(map.localKeySet()).values().forEach(this::update);
+        } else {
+            map.values().forEach(this::update);
+        }
+        map.addEntryListener(new SourceListener(), false);
+        // asked by the other members
+        instance.getUserContext().put(USER_CONTEXT_KEY, this);
+        instance.getPartitionService().addMigrationListener(new MigrationListener() {
+            @Override
+            public void migrationStarted(MigrationEvent event) {
+            }
+
+            @Override
+            public void migrationCompleted(MigrationEvent event) {
+                if (clusterPoll) {
+                    counts.keySet().stream().filter(ip -> !isLocal(ip)).forEach(InventoryStats.this::remove);
+                }
+            }
+
+            @Override
+            public void migrationFailed(MigrationEvent event) {
+            }
+        });
+        log.info("inventory stats: {} sources in {} ms", counts.size(), watch.taken());
+    }
+
+    /**
+     * count the source state after poll, REST update or load
+     */
+    public void update(SnmpSource source) {
+        update(source.getIpAddress(), SnmpSourceCounts.of(source));
+    }
+
+    /**
+     * count the stored source state, the result of its poll update
+     */
+    public void pollStored(String ipAddress, SnmpSourceCounts current) {
+        update(ipAddress, current);
+        lastPoll = System.currentTimeMillis();
+    }
+
+    private void update(String ipAddress, SnmpSourceCounts current) {
+        if (!isLocal(ipAddress)) {
+            return;
+        }
+        apply(counts.put(ipAddress, current), -1);
+        apply(current, 1);
+    }
+
+    /**
+     * poll response of the completed counter poll in the cycle, if ready
+     */
+    public void pollCompleted(SnmpSource source) {
+        if (SnmpConstants.SUCCESS.equals(source.getStatus())) {
+            synchronized (this) {
+                cycle.accept(source.getPollResponse());
+            }
+        }
+    }
+
+    public void remove(String ipAddress) {
+        apply(counts.remove(ipAddress), -1);
+    }
+
+    /**
+     * @return poll response of the sources polled since the last call
+     */
+    public synchronized DoubleSummaryStatistics endCycle() {
+        DoubleSummaryStatistics answer = cycle;
+        cycle = new DoubleSummaryStatistics();
+        return answer;
+    }
+
+    public long getReadySources() {
+        LongAdder ready = statusCounts.get(SnmpConstants.SUCCESS);
+        return (ready == null) ? 0 : ready.sum();
+    }
+
+    public long getDownSources() {
+        return counts.size() - getReadySources();
+    }
+
+    /**
+     * @return number of sources by status
+     */
+    public Map<String, Long> getStatusCounts() {
+        Map<String, Long> answer = new HashMap<String, Long>();
+        statusCounts.forEach((status, count) -> {
+            if (count.sum() > 0) {
+                answer.put(status, count.sum());
+            }
+        });
+        return answer;
+    }
+
+    public long getInterfaces() {
+        return interfaces.sum();
+    }
+
+    public long getUpInterfaces() {
+        return upInterfaces.sum();
+    }
+
+    public long getChargeableInterfaces() {
+        return chargeableInterfaces.sum();
+    }
+
+    public long getTraceInterfaces() {
+        return traceInterfaces.sum();
+    }
+
+    /**
+     * @return number of interfaces of the ready sources, counters of a cycle
+     */
+    public long getReadyInterfaces() {
+        return readyInterfaces.sum();
+    }
+
+    /**
+     * @return stats of this member
+     */
+    public Snapshot getSnapshot() {
+        Snapshot answer = new Snapshot();
+        answer.statusCounts.putAll(getStatusCounts());
+        answer.interfaces = getInterfaces();
+        answer.chargeableInterfaces = getChargeableInterfaces();
+        answer.traceInterfaces = getTraceInterfaces();
+        answer.lastPoll = lastPoll;
+        return answer;
+    }
+
+    /**
+     * @return stats of the inventory: this member if standalone, the sum of the
+     *         members on cluster poll, else the member with the latest poll
+     */
+    public Snapshot getInventorySnapshot() {
+        if (instance.getCluster().getMembers().size() == 1) {
+            return getSnapshot();
+        }
+        Map<Member, Future<Snapshot>> members = instance.getExecutorService(ClusterInfoService.EXECUTOR).submitToAllMembers(new LocalSnapshot());
+        Snapshot answer = clusterPoll ? new Snapshot() : null;
+        for (Map.Entry<Member, Future<Snapshot>> member : members.entrySet()) {
+            Snapshot snapshot;
+            try {
+                snapshot = member.getValue().get(SNAPSHOT_TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                log.warn("member {} inventory stats not counted: {}", member.getKey().getAddress(), e.toString());
+                continue;
+            }
+            if (clusterPoll) {
+                answer.add(snapshot);
+            } else if (answer == null || snapshot.lastPoll > answer.lastPoll) {
+                answer = snapshot;
+            }
+        }
+        return (answer == null) ? getSnapshot() : answer;
+    }
+
+    /**
+     * @return true if the source is polled by this member
+     */
+    private boolean isLocal(String ipAddress) {
+        return !clusterPoll || instance.getPartitionService().getPartition(ipAddress).getOwner().localMember();
+    }
+
+    private void apply(SnmpSourceCounts c, int sign) {
+        if (c == null) {
+            return;
+        }
+        statusCounts.computeIfAbsent(c.getStatus(), s -> new LongAdder()).add(sign);
+        interfaces.add(sign * c.getInterfaces());
+        upInterfaces.add(sign * c.getUp());
+        chargeableInterfaces.add(sign * c.getChargeable());
+        traceInterfaces.add(sign * c.getTrace());
+        if (SnmpConstants.SUCCESS.equals(c.getStatus())) {
+            readyInterfaces.add(sign * c.getInterfaces());
+        }
+    }
+
+    /**
+     * added sources are counted until polled, removed ones dropped on each member
+     */
+    private class SourceListener implements EntryAddedListener<String, SnmpSource>, EntryRemovedListener<String, SnmpSource>,
+        EntryEvictedListener<String, SnmpSource> {
+
+        @Override
+        public void entryAdded(EntryEvent<String, SnmpSource> event) {
+            String ipAddress = event.getKey();
+            if (isLocal(ipAddress) && counts.putIfAbsent(ipAddress, SnmpSourceCounts.UNKNOWN) == null) {
+                apply(SnmpSourceCounts.UNKNOWN, 1);
+            }
+        }
+
+        @Override
+        public void entryRemoved(EntryEvent<String, SnmpSource> event) {
+            remove(event.getKey());
+        }
+
+        @Override
+        public void entryEvicted(EntryEvent<String, SnmpSource> event) {
+            remove(event.getKey());
+        }
+    }
+
+    /**
+     * stats of one member, the poll time of its last counted poll result
+     */
+    public static final class Snapshot implements Serializable {
+        private static final long serialVersionUID = 7310958112384096411L;
+        private final Map<String, Long> statusCounts = new HashMap<String, Long>();
+        private long interfaces;
+        private long chargeableInterfaces;
+        private long traceInterfaces;
+        private long lastPoll;
+
+        void add(Snapshot member) {
+            member.statusCounts.forEach((status, count) -> statusCounts.merge(status, count, Long::sum));
+            interfaces += member.interfaces;
+            chargeableInterfaces += member.chargeableInterfaces;
+            traceInterfaces += member.traceInterfaces;
+            lastPoll = Math.max(lastPoll, member.lastPoll);
+        }
+
+        /**
+         * @return number of sources by status
+         */
+        public Map<String, Long> getStatusCounts() {
+            return statusCounts;
+        }
+
+        public long getInterfaces() {
+            return interfaces;
+        }
+
+        public long getChargeableInterfaces() {
+            return chargeableInterfaces;
+        }
+
+        public long getTraceInterfaces() {
+            return traceInterfaces;
+        }
+    }
+
+    /**
+     * stats of the member running it
+     */
+    static final class LocalSnapshot implements Callable<Snapshot>, Serializable, HazelcastInstanceAware {
+        private static final long serialVersionUID = -6237414917703925208L;
+        private transient HazelcastInstance instance;
+
+        @Override
+        public void setHazelcastInstance(HazelcastInstance instance) {
+            this.instance = instance;
+        }
+
+        @Override
+        public Snapshot call() {
+            return ((InventoryStats)instance.getUserContext().get(USER_CONTEXT_KEY)).getSnapshot();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.openfs.snmpcg;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values in log-linear buckets, as in
+ * HdrHistogram: values below 2 * SUB_BUCKETS are exact, above each power of two
+ * is split in SUB_BUCKETS buckets, so percentiles are within 1 / SUB_BUCKETS
+ * (3%) of the recorded value. Values above the highest trackable value are
+ * counted in the last bucket, max is exact.
+ */
+public final class LogLinearHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long highestValue;
+    private final AtomicLongArray counts;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param highestValue highest trackable value
+     */
+    public LogLinearHistogram(long highestValue) {
+        this.highestValue = highestValue;
+        this.counts = new AtomicLongArray(index(highestValue) + 1);
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        counts.incrementAndGet(index(Math.min(value, highestValue)));
+        count.incrementAndGet();
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return highest value of the bucket of the percentile, 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return count, p50, p95, p99 and max
+     */
+    public Map<String, Long> getSummary() {
+        Map<String, Long> answer = new LinkedHashMap<String, Long>();
+        answer.put("count", getCount());
+        answer.put("p50", getValueAtPercentile(50));
+        answer.put("p95", getValueAtPercentile(95));
+        answer.put("p99", getValueAtPercentile(99));
+        answer.put("max", getMax());
+        return answer;
+    }
+
+    private static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)(value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,218 @@
+package org.openfs.snmpcg;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.camel.Handler;
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pipelined export of CDR and trace records. The records of a source are
+ * written to the sinks of the cycle export on its poll thread as soon as its
+ * poll completes, so the export follows the polls instead of waiting for the
+ * slowest source of the cycle. The cycle is closed into the store routes when
+ * the last source reports or the deadline passes; sources reporting after the
+ * deadline are written to a late cycle, closed at the end of the cycle.
+ */
+@Lazy
+@Component("pipelinedExport")
+public class PipelinedRecordExport {
+    private static final Logger log = LoggerFactory.getLogger(PipelinedRecordExport.class);
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    @Value("${snmpcg.exportDeadline:240}")
+    private long deadlineSeconds;
+
+    @Autowired
+    private CycleExport cycleExport;
+
+    @Autowired
+    private CounterService counterService;
+
+    private ScheduledExecutorService scheduler;
+    private volatile ExportCycle cycle;
+
+    @PostConstruct
+    public void initScheduler() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "PipelinedExport");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+        closeCycle();
+    }
+
+    /**
+     * open the export cycle of the sources to be polled, closed by the last
+     * source or the deadline
+     *
+     * @param sourceList sources of the cycle
+     */
+    @Handler
+    public void openCycle(List<SnmpSource> sourceList) throws IOException {
+        closeCycle();
+        String timestamp = FILE_TIMESTAMP.format(LocalDateTime.now());
+        ExportCycle next = new ExportCycle(timestamp, sourceList.size(), cycleExport.open(timestamp));
+        cycle = next;
+        if (sourceList.isEmpty()) {
+            next.close();
+        } else if (deadlineSeconds > 0) {
+            next.deadline = scheduler.schedule(next::expire, deadlineSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * write records of the polled source to the export cycle
+     *
+     * @param source source of the cycle, polled
+     */
+    @Handler
+    public void sourcePolled(SnmpSource source) throws IOException, InterruptedException {
+        ExportCycle current = cycle;
+        if (current != null) {
+            current.write(source);
+        }
+    }
+
+    /**
+     * end of the poll cycle: close the export cycle if some source did not
+     * report
+     */
+    @Handler
+    public void closeCycle() {
+        ExportCycle current = cycle;
+        cycle = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * export passes of one poll cycle and the sources yet to report. Sources
+     * are written concurrently under the read lock, the passes are replaced
+     * and closed under the write lock.
+     */
+    private final class ExportCycle {
+        private final long startTime = System.currentTimeMillis();
+        private final String timestamp;
+        private final AtomicInteger remaining;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private CycleExport.Cycle passes;
+        private boolean closed = false;
+        private volatile ScheduledFuture<?> deadline;
+
+        ExportCycle(String timestamp, int sources, CycleExport.Cycle passes) {
+            this.timestamp = timestamp;
+            this.remaining = new AtomicInteger(sources);
+            this.passes = passes;
+        }
+
+        void write(SnmpSource source) throws IOException, InterruptedException {
+            lock.readLock().lock();
+            try {
+                if (closed) {
+                    log.warn("source: {} polled after the export cycle of {} was closed, records not exported", source.getIpAddress(), timestamp);
+                    return;
+                }
+                if (SnmpConstants.SUCCESS.equals(source.getStatus())) {
+                    passes.write(Collections.singletonList(source));
+                }
+            } finally {
+                lock.readLock().unlock();
+                if (remaining.decrementAndGet() == 0) {
+                    close();
+                }
+            }
+        }
+
+        /**
+         * deadline passed: close the cycle, later sources go to the late cycle
+         */
+        void expire() {
+            CycleExport.Cycle late = null;
+            try {
+                late = cycleExport.open(timestamp + "-late");
+            } catch (IOException e) {
+                log.error("export cycle {}: late cycle not opened, later sources not exported: {}", timestamp, e.getMessage());
+                counterService.increment("counter.snmp.logError");
+            }
+            CycleExport.Cycle expired;
+            lock.writeLock().lock();
+            try {
+                if (closed) {
+                    if (late != null) {
+                        late.abort();
+                    }
+                    return;
+                }
+                log.warn("export cycle {}: deadline of {} s passed, {} sources not polled yet", timestamp, deadlineSeconds, remaining.get());
+                expired = passes;
+                if (late != null) {
+                    passes = late;
+                } else {
+                    closed = true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            store(expired);
+        }
+
+        void close() {
+            CycleExport.Cycle last;
+            lock.writeLock().lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                last = passes;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            store(last);
+            if (remaining.get() > 0) {
+                log.warn("export cycle {}: closed with {} sources not reported", timestamp, remaining.get());
+            }
+            log.info("export cycle {}: closed in {} ms", timestamp, System.currentTimeMillis() - startTime);
+        }
+
+        private void store(CycleExport.Cycle passes) {
+            try {
+                passes.close();
+            } catch (Exception e) {
+                log.error("export cycle {}: store failed: {}", passes.getName(), e.getMessage());
+                counterService.increment("counter.snmp.logError");
+            }
+        }
+    }
+}
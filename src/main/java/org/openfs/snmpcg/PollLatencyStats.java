@@ -0,0 +1,235 @@
+package org.openfs.snmpcg;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Handler;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Component;
+
+/**
+ * Poll latency, PDU count and timed out PDUs of each completed counter poll
+ * recorded in histograms per cycle, for all sources and broken down by vendor
+ * (enterprise number of sysObjectID) and configured source tags. At the end of
+ * a cycle the percentiles are published as gauges and kept with the slowest
+ * sources of the cycle for the REST view.
+ */
+@Component("pollLatency")
+public class PollLatencyStats {
+    private static final Logger log = LoggerFactory.getLogger(PollLatencyStats.class);
+    private static final String ENTERPRISES = "1.3.6.1.4.1.";
+    private static final String ALL = "all";
+    private static final String OTHER = "other";
+
+    // source tags to break down
+    @Value("#{'${snmpcg.pollLatencyTags:}'.split(',')}")
+    private List<String> tagKeys = new ArrayList<String>();
+
+    @Value("${snmpcg.pollLatencyMaxGroups:256}")
+    private int maxGroups;
+
+    @Value("${snmpcg.pollLatencySlowest:20}")
+    private int slowest;
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    private final AtomicReference<Cycle> current = new AtomicReference<Cycle>(new Cycle());
+    private volatile Cycle last;
+
+    /**
+     * record the completed counter poll of the source, status walks are not
+     * recorded
+     *
+     * @param pdus responses and timeouts of the poll
+     * @param timeouts timed out PDUs, each one sent snmpRetries + 1 times
+     */
+    public void record(SnmpSource source, int pdus, int timeouts) {
+        Cycle cycle = current.get();
+        long latency = source.getPollResponse();
+        cycle.group(ALL).record(latency, pdus, timeouts);
+        cycle.group("vendor=" + vendor(source.getSysObjectID())).record(latency, pdus, timeouts);
+        for (String key : tagKeys) {
+            String value = source.getTags().get(key);
+            if (value != null) {
+                cycle.group(key + "=" + value).record(latency, pdus, timeouts);
+            }
+        }
+        cycle.slowest(new SourceLatency(source, pdus, timeouts));
+    }
+
+    /**
+     * complete the cycle: publish percentiles of each group
+     */
+    @Handler
+    public void endCycle() {
+        Cycle completed = current.getAndSet(new Cycle());
+        completed.end = System.currentTimeMillis();
+        last = completed;
+        completed.groups.forEach((name, group) -> {
+            String prefix = ALL.equals(name) ? "gauge.snmp.latency." : "gauge.snmp.latency." + name + ".";
+            gaugeService.submit(prefix + "p50", (double)group.latency.getValueAtPercentile(50));
+            gaugeService.submit(prefix + "p95", (double)group.latency.getValueAtPercentile(95));
+            gaugeService.submit(prefix + "p99", (double)group.latency.getValueAtPercentile(99));
+            gaugeService.submit(prefix + "max", (double)group.latency.getMax());
+        });
+        PollGroup all = completed.groups.get(ALL);
+        if (all != null) {
+            gaugeService.submit("gauge.snmp.pdus.p99", (double)all.pdus.getValueAtPercentile(99));
+            gaugeService.submit("gauge.snmp.timeouts.max", (double)all.timeouts.getMax());
+            if (log.isDebugEnabled()) {
+                log.debug("poll latency p50 {} p99 {} max {} ms of {} sources", all.latency.getValueAtPercentile(50), all.latency.getValueAtPercentile(99),
+                    all.latency.getMax(), all.latency.getCount());
+            }
+        }
+    }
+
+    /**
+     * @return percentiles of each group of the last cycle
+     */
+    @Handler
+    public Map<String, Object> getStatus() {
+        Cycle cycle = last;
+        Map<String, Object> answer = new LinkedHashMap<String, Object>();
+        if (cycle == null) {
+            return answer;
+        }
+        answer.put("cycleStart", cycle.start);
+        answer.put("cycleEnd", cycle.end);
+        Map<String, Object> groups = new TreeMap<String, Object>();
+        cycle.groups.forEach((name, group) -> {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("latency", group.latency.getSummary());
+            map.put("pdus", group.pdus.getSummary());
+            map.put("timeouts", group.timeouts.getSummary());
+            groups.put(name, map);
+        });
+        answer.put("groups", groups);
+        return answer;
+    }
+
+    /**
+     * slowest sources of the last cycle, slowest first
+     */
+    @Handler
+    public void getSlowest(Exchange exchange) {
+        Cycle cycle = last;
+        List<SourceLatency> sources = new ArrayList<SourceLatency>();
+        if (cycle != null) {
+            synchronized (cycle.slowest) {
+                sources.addAll(cycle.slowest);
+            }
+        }
+        Integer limit = exchange.getIn().getHeader("limit", Integer.class);
+        exchange.getIn().setBody(sources.stream().sorted(Comparator.comparingLong((SourceLatency s) -> s.latency).reversed())
+            .limit((limit == null || limit <= 0) ? slowest : limit).map(SourceLatency::toMap).collect(Collectors.toList()));
+    }
+
+    /**
+     * @return enterprise number of the sysObjectID or unknown
+     */
+    static String vendor(String sysObjectID) {
+        if (sysObjectID == null || !sysObjectID.startsWith(ENTERPRISES)) {
+            return "unknown";
+        }
+        int end = sysObjectID.indexOf('.', ENTERPRISES.length());
+        return (end < 0) ? sysObjectID.substring(ENTERPRISES.length()) : sysObjectID.substring(ENTERPRISES.length(), end);
+    }
+
+    /**
+     * histograms of one cycle
+     */
+    private final class Cycle {
+        private final long start = System.currentTimeMillis();
+        private long end;
+        private final Map<String, PollGroup> groups = new ConcurrentHashMap<String, PollGroup>();
+        // min heap of the slowest sources
+        private final PriorityQueue<SourceLatency> slowest = new PriorityQueue<SourceLatency>(Comparator.comparingLong(s -> s.latency));
+
+        PollGroup group(String name) {
+            PollGroup group = groups.get(name);
+            if (group != null) {
+                return group;
+            }
+            // bound the number of histograms, tag values may be per source
+            if (groups.size() >= maxGroups) {
+                name = OTHER;
+            }
+            return groups.computeIfAbsent(name, n -> new PollGroup());
+        }
+
+        void slowest(SourceLatency source) {
+            synchronized (slowest) {
+                if (slowest.size() < PollLatencyStats.this.slowest) {
+                    slowest.add(source);
+                } else if (!slowest.isEmpty() && slowest.peek().latency < source.latency) {
+                    slowest.poll();
+                    slowest.add(source);
+                }
+            }
+        }
+    }
+
+    private static final class PollGroup {
+        // ms up to 1 hour
+        private final LogLinearHistogram latency = new LogLinearHistogram(3600000L);
+        private final LogLinearHistogram pdus = new LogLinearHistogram(65535L);
+        private final LogLinearHistogram timeouts = new LogLinearHistogram(65535L);
+
+        void record(long latency, int pdus, int timeouts) {
+            this.latency.record(latency);
+            this.pdus.record(pdus);
+            this.timeouts.record(timeouts);
+        }
+    }
+
+    private static final class SourceLatency {
+        private final String ipAddress;
+        private final String sysName;
+        private final String vendor;
+        private final String status;
+        private final long pollTime;
+        private final long latency;
+        private final int pdus;
+        private final int timeouts;
+
+        SourceLatency(SnmpSource source, int pdus, int timeouts) {
+            this.ipAddress = source.getIpAddress();
+            this.sysName = source.getSysName();
+            this.vendor = vendor(source.getSysObjectID());
+            this.status = source.getStatus();
+            this.pollTime = source.getPollTime();
+            this.latency = source.getPollResponse();
+            this.pdus = pdus;
+            this.timeouts = timeouts;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("ipAddress", ipAddress);
+            map.put("sysName", sysName);
+            map.put("vendor", vendor);
+            map.put("Status", status);
+            map.put("pollTime", pollTime);
+            map.put("latency", latency);
+            map.put("pdus", pdus);
+            map.put("timeouts", timeouts);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.openfs.snmpcg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.camel.Handler;
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.stereotype.Component;
+
+import com.hazelcast.core.IMap;
+
+/**
+ * Poll scheduler on a hashed timing wheel. Each ready source is due on its own
+ * interval (source, tag or default) at a deterministic offset hashed from its ip
+ * address, so polls are spread evenly across the interval. A source is in
+ * flight from the tick it is due until its poll completes: a walk or a poll
+ * queue longer than the interval skips the next deadline instead of polling
+ * the source twice.
+ */
+@Component("pollScheduler")
+public class PollScheduler {
+    private static final Logger log = LoggerFactory.getLogger(PollScheduler.class);
+    private static final long RECONCILE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    @Value("${snmpcg.pollInterval:300}")
+    private int defaultInterval;
+
+    @Value("${snmpcg.pollTagIntervals:}")
+    private String tagIntervalsProperties;
+
+    @Value("${snmpcg.schedulerTickMs:1000}")
+    private long tickMs;
+
+    @Value("${snmpcg.schedulerWheelSize:512}")
+    private int wheelSize;
+
+    @Autowired
+    private ConcurrentMap<String, SnmpSource> sources;
+
+    @Autowired
+    private IMap<String, Object> config;
+
+    @Autowired
+    private SourceInventoryService inventory;
+
+    @Autowired
+    private CounterService counterService;
+
+    private List<LinkedList<Entry>> wheel;
+    private final Set<String> scheduled = new HashSet<String>();
+    // sources due and not yet completed, released by the poll threads
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private long cursorTime;
+    private long lastReconcile;
+
+    @PostConstruct
+    public void initConfig() {
+        Map<String, Integer> tagIntervals = new HashMap<String, Integer>();
+        // tag=value:seconds,...
+        for (String item : tagIntervalsProperties.split(",")) {
+            int pos = item.lastIndexOf(':');
+            if (pos > 0 && item.indexOf('=') > 0) {
+                tagIntervals.put(item.substring(0, pos).trim(), Integer.valueOf(item.substring(pos + 1).trim()));
+            }
+        }
+        config.putIfAbsent("pollTagIntervals", tagIntervals);
+        config.putIfAbsent("pollInterval", defaultInterval);
+
+        wheel = new ArrayList<LinkedList<Entry>>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new LinkedList<Entry>());
+        }
+        cursorTime = System.currentTimeMillis() / tickMs * tickMs;
+    }
+
+    /**
+     * advance the wheel to now
+     *
+     * @return ready sources due to poll
+     */
+    @Handler
+    public synchronized List<SnmpSource> tick() {
+        long now = System.currentTimeMillis();
+        if (now - lastReconcile > RECONCILE_INTERVAL) {
+            reconcile(now);
+        }
+        // one revolution is enough to catch up
+        if (now - cursorTime > wheelSize * tickMs) {
+            cursorTime = (now - wheelSize * tickMs) / tickMs * tickMs;
+        }
+
+        List<String> due = new ArrayList<String>();
+        while (cursorTime + tickMs <= now) {
+            Iterator<Entry> it = wheel.get(slot(cursorTime)).iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.deadline < cursorTime + tickMs) {
+                    it.remove();
+                    due.add(entry.ipAddress);
+                }
+            }
+            cursorTime += tickMs;
+        }
+
+        List<SnmpSource> answer = new ArrayList<SnmpSource>(due.size());
+        for (String ipAddress : due) {
+            SnmpSource source = sources.get(ipAddress);
+            if (source == null || !SnmpConstants.SUCCESS.equalsIgnoreCase(source.getStatus()) || !inventory.isLocalSource(ipAddress)) {
+                // reschedule on reconcile when ready (and local) again
+                scheduled.remove(ipAddress);
+                continue;
+            }
+            if (!inFlight.add(ipAddress)) {
+                log.warn("source: {} previous poll not completed, poll skipped", ipAddress);
+                counterService.increment("counter.snmp.logWarn");
+            } else {
+                answer.add(source);
+            }
+            schedule(source, now);
+        }
+        return answer;
+    }
+
+    /**
+     * counter poll of the source completed or failed, due again on its next
+     * deadline
+     */
+    public void pollCompleted(String ipAddress) {
+        inFlight.remove(ipAddress);
+    }
+
+    /**
+     * schedule ready sources not yet on the wheel
+     */
+    private void reconcile(long now) {
+        inventory.getReadySources().stream().filter(source -> !scheduled.contains(source.getIpAddress())).forEach(source -> {
+            scheduled.add(source.getIpAddress());
+            schedule(source, now);
+        });
+        lastReconcile = now;
+        if (log.isDebugEnabled()) {
+            log.debug("poll scheduler: {} sources on wheel", scheduled.size());
+        }
+    }
+
+    private void schedule(SnmpSource source, long now) {
+        long interval = TimeUnit.SECONDS.toMillis(getPollInterval(source));
+        long offset = (source.getIpAddress().hashCode() & Integer.MAX_VALUE) % interval;
+        long deadline = ((now - offset) / interval + 1) * interval + offset;
+        wheel.get(slot(Math.max(deadline, cursorTime))).add(new Entry(source.getIpAddress(), deadline));
+    }
+
+    private int slot(long time) {
+        return (int)((time / tickMs) % wheelSize);
+    }
+
+    /**
+     * @return poll interval in seconds: source, first matched tag or default
+     */
+    @SuppressWarnings("unchecked")
+    public int getPollInterval(SnmpSource source) {
+        if (source.getPollInterval() > 0) {
+            return source.getPollInterval();
+        }
+        Map<String, Integer> tagIntervals = (Map<String, Integer>)config.get("pollTagIntervals");
+        if (tagIntervals != null) {
+            for (Map.Entry<String, String> tag : source.getTags().entrySet()) {
+                Integer interval = tagIntervals.get(tag.getKey() + "=" + tag.getValue());
+                if (interval != null && interval > 0) {
+                    return interval;
+                }
+            }
+        }
+        return ((Number)config.get("pollInterval")).intValue();
+    }
+
+    private static final class Entry {
+        private final String ipAddress;
+        private final long deadline;
+
+        private Entry(String ipAddress, long deadline) {
+            this.ipAddress = ipAddress;
+            this.deadline = deadline;
+        }
+    }
+}
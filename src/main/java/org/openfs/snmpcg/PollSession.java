@@ -0,0 +1,185 @@
+package org.openfs.snmpcg;
+
+import java.io.IOException;
+
+import org.snmp4j.PDU;
+import org.snmp4j.Session;
+import org.snmp4j.Target;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+
+/**
+ * Session decorator for one source walk. Sends over the source socket through
+ * the request governor and keeps per walk PDU statistics (count, rtt, response
+ * size, tooBig and truncated GETBULK responses) used to adapt the source bulk
+ * size. With an rtt estimator, responses faster than the request timeout are
+ * its samples.
+ */
+public class PollSession implements Session {
+
+    private final Session session;
+    private final TransportMapping transport;
+    private final RequestGovernor.Gate gate;
+    private int requestCount;
+    private int responseCount;
+    private int timeoutCount;
+    private int tooBigCount;
+    private int truncatedCount;
+    private int minRepetitions = Integer.MAX_VALUE;
+    private int maxResponseSize;
+    private int bytesPerRepetition;
+    private long rttSum;
+    private RttEstimator estimator;
+    private long timeout;
+
+    public PollSession(Session session, TransportMapping transport, RequestGovernor.Gate gate) {
+        this.session = session;
+        this.transport = transport;
+        this.gate = gate;
+    }
+
+    /**
+     * sample the rtt of responses received before the timeout, not retried
+     */
+    public synchronized void setRttEstimator(RttEstimator estimator, long timeout) {
+        this.estimator = estimator;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void close() throws IOException {
+        session.close();
+    }
+
+    @Override
+    public ResponseEvent send(PDU pdu, Target target) throws IOException {
+        return send(pdu, target, transport);
+    }
+
+    @Override
+    public void send(PDU pdu, Target target, Object userHandle, ResponseListener listener) throws IOException {
+        send(pdu, target, transport, userHandle, listener);
+    }
+
+    @Override
+    public ResponseEvent send(PDU pdu, Target target, TransportMapping transport) throws IOException {
+        long startTime = System.currentTimeMillis();
+        ResponseEvent event = session.send(pdu, target, transport);
+        record(pdu, event, startTime);
+        return event;
+    }
+
+    @Override
+    public void send(PDU pdu, Target target, TransportMapping transport, Object userHandle, ResponseListener listener) throws IOException {
+        synchronized (this) {
+            requestCount++;
+        }
+        gate.submit(release -> {
+            try {
+                session.send(pdu, target, transport, userHandle, observe(pdu, listener, release));
+            } catch (IOException e) {
+                release.run();
+                listener.onResponse(new ResponseEvent(session, null, pdu, null, userHandle, e));
+            }
+        });
+    }
+
+    @Override
+    public void cancel(PDU request, ResponseListener listener) {
+        session.cancel(request, listener);
+    }
+
+    private ResponseListener observe(PDU pdu, ResponseListener listener, Runnable release) {
+        final long startTime = System.currentTimeMillis();
+        return new ResponseListener() {
+            @Override
+            public void onResponse(ResponseEvent event) {
+                // release async request, the walk listener is not known by the session
+                session.cancel(event.getRequest(), this);
+                release.run();
+                record(pdu, event, startTime);
+                listener.onResponse(event);
+            }
+        };
+    }
+
+    private synchronized void record(PDU request, ResponseEvent event, long startTime) {
+        PDU response = (event != null) ? event.getResponse() : null;
+        if (response == null) {
+            timeoutCount++;
+            return;
+        }
+        responseCount++;
+        long rtt = System.currentTimeMillis() - startTime;
+        rttSum += rtt;
+        if (estimator != null && rtt < timeout) {
+            estimator.sample(rtt);
+        }
+
+        if (response.getErrorStatus() == PDU.tooBig) {
+            tooBigCount++;
+            return;
+        }
+
+        int size = response.getBERLength();
+        if (size > maxResponseSize) {
+            maxResponseSize = size;
+        }
+
+        if (request.getType() != PDU.GETBULK) {
+            return;
+        }
+        int columns = request.size() - request.getNonRepeaters();
+        if (columns <= 0) {
+            return;
+        }
+        int repetitions = (response.size() - request.getNonRepeaters()) / columns;
+        if (repetitions > 0 && size / repetitions > bytesPerRepetition) {
+            bytesPerRepetition = size / repetitions;
+        }
+        // agent returns less repetitions than requested to fit its message size
+        if (repetitions < request.getMaxRepetitions()) {
+            truncatedCount++;
+            if (repetitions > 0 && repetitions < minRepetitions) {
+                minRepetitions = repetitions;
+            }
+        }
+    }
+
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized int getResponseCount() {
+        return responseCount;
+    }
+
+    public synchronized int getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public synchronized int getTooBigCount() {
+        return tooBigCount;
+    }
+
+    public synchronized int getTruncatedCount() {
+        return truncatedCount;
+    }
+
+    public synchronized int getMinRepetitions() {
+        return (minRepetitions == Integer.MAX_VALUE) ? 0 : minRepetitions;
+    }
+
+    public synchronized int getMaxResponseSize() {
+        return maxResponseSize;
+    }
+
+    public synchronized int getBytesPerRepetition() {
+        return bytesPerRepetition;
+    }
+
+    public synchronized long getAvgRtt() {
+        return (responseCount == 0) ? 0L : rttSum / responseCount;
+    }
+}
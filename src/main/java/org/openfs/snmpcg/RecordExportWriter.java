@@ -0,0 +1,302 @@
+package org.openfs.snmpcg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.openfs.snmpcg.ExportSink.RecordFormat;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Component;
+
+/**
+ * Streaming export of CDR and trace records. Records of each source are
+ * formatted in parallel into pooled buffers and written to the cycle file by
+ * gathering writes, so the memory in use is bounded by the buffer pool
+ * whatever the number of records. A source with more records than the
+ * buffers of one gathering write holds the file from its first write to its
+ * last, the records of one source are kept together.
+ */
+@Lazy
+@Component("exportWriter")
+public class RecordExportWriter {
+    private static final Logger log = LoggerFactory.getLogger(RecordExportWriter.class);
+    // buffers written by one gathering write
+    private static final int GATHER_BUFFERS = 4;
+
+    @Value("${snmpcg.exportCdrDirectory:out/cdr}")
+    private String cdrDirectory;
+
+    @Value("${snmpcg.exportTraceDirectory:out/trace}")
+    private String traceDirectory;
+
+    @Value("${snmpcg.exportThreads:4}")
+    private int exportThreads;
+
+    @Value("${snmpcg.exportBufferSize:65536}")
+    private int bufferSize;
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    private final Charset charset = Charset.defaultCharset();
+    private BlockingQueue<ByteBuffer> bufferPool;
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void initPool() {
+        int buffers = exportThreads * GATHER_BUFFERS;
+        bufferPool = new ArrayBlockingQueue<ByteBuffer>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            bufferPool.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(exportThreads, r -> {
+            Thread thread = new Thread(r, "RecordExport-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return sink of the CDR cycle files
+     */
+    public ExportSink getChargingDataRecordSink() {
+        return (layout, name) -> new CycleFile(layout, cdrDirectory, name + ".snmp.dat", SnmpInterface::isChargeable, CdrRecordLayout::appendChargingDataRecord,
+            "countChargingDataRecords", "gauge.snmp.sources.chargingRecords");
+    }
+
+    /**
+     * @return sink of the trace cycle files
+     */
+    public ExportSink getTraceRecordSink() {
+        return (layout, name) -> new CycleFile(layout, traceDirectory, name + ".txt", SnmpInterface::isTrace, CdrRecordLayout::appendTraceRecord,
+            "countTraceRecords", "gauge.snmp.sources.traceRecords");
+    }
+
+    /**
+     * cycle file written under an .inprogress name, the sources of each batch
+     * written in parallel
+     */
+    private final class CycleFile implements ExportSink.Pass {
+        private final CdrRecordLayout layout;
+        private final Path file;
+        private final Path inProgress;
+        private final Predicate<SnmpInterface> filter;
+        private final RecordFormat format;
+        private final String countHeader;
+        private final String gauge;
+        private final FileChannel channel;
+        private final ReentrantLock channelLock = new ReentrantLock();
+        private final AtomicLong numRecords = new AtomicLong();
+        private final AtomicLong numSources = new AtomicLong();
+
+        CycleFile(CdrRecordLayout layout, String directory, String fileName, Predicate<SnmpInterface> filter, RecordFormat format, String countHeader,
+            String gauge) throws IOException {
+            this.layout = layout;
+            this.filter = filter;
+            this.format = format;
+            this.countHeader = countHeader;
+            this.gauge = gauge;
+            Path dir = Paths.get(directory);
+            Files.createDirectories(dir);
+            this.file = dir.resolve(fileName);
+            this.inProgress = dir.resolve(fileName + ".inprogress");
+            this.channel = FileChannel.open(inProgress, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        @Override
+        public void write(List<SnmpSource> sources) throws IOException, InterruptedException {
+            List<Future<?>> tasks = new ArrayList<Future<?>>(sources.size());
+            for (SnmpSource source : sources) {
+                tasks.add(executor.submit(() -> {
+                    numRecords.addAndGet(writeSource(channel, channelLock, layout, source, filter, format));
+                    return null;
+                }));
+            }
+            numSources.addAndGet(sources.size());
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException)e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+
+        @Override
+        public void close(Message message) throws IOException {
+            channel.close();
+            long count = numRecords.get();
+            if (count == 0) {
+                Files.delete(inProgress);
+            } else {
+                Files.move(inProgress, file, StandardCopyOption.ATOMIC_MOVE);
+                message.setHeader(Exchange.FILE_NAME_PRODUCED, file.toString());
+                if (log.isDebugEnabled()) {
+                    log.debug("export {} records from {} sources to {}", count, numSources.get(), file);
+                }
+            }
+            message.setHeader(countHeader, count);
+            gaugeService.submit(gauge, (double)count);
+        }
+
+        @Override
+        public void abort() {
+            try {
+                channel.close();
+                Files.deleteIfExists(inProgress);
+            } catch (IOException e) {
+                log.warn("export: {} {}", inProgress, e.getMessage());
+            }
+        }
+    }
+
+    private long writeSource(FileChannel channel, ReentrantLock channelLock, CdrRecordLayout layout, SnmpSource source, Predicate<SnmpInterface> filter,
+        RecordFormat format) throws IOException, InterruptedException {
+        SourceRecords records = new SourceRecords(channel, channelLock);
+        String pollTime = layout.formatPollTime(source);
+        long count = 0;
+        try {
+            for (SnmpInterface ifEntry : source.getIftable().values()) {
+                if (filter.test(ifEntry)) {
+                    format.append(layout, records.text, source, ifEntry, pollTime);
+                    count++;
+                    if (records.text.length() >= bufferSize) {
+                        records.encode();
+                    }
+                }
+            }
+            records.encode();
+            records.flush();
+        } finally {
+            records.release();
+        }
+        return count;
+    }
+
+    /**
+     * records of one source: text encoded into pooled buffers, written when
+     * GATHER_BUFFERS are filled and on source end. The channel lock is taken by
+     * the first write and released on source end, a write of a partial record
+     * is never followed by the records of another source. The holder of the
+     * lock does not starve: each source holds at most GATHER_BUFFERS of the
+     * pool of exportThreads * GATHER_BUFFERS.
+     */
+    private final class SourceRecords {
+        private final FileChannel channel;
+        private final ReentrantLock channelLock;
+        private final StringBuilder text = new StringBuilder();
+        private final CharsetEncoder encoder = charset.newEncoder();
+        private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(GATHER_BUFFERS);
+
+        SourceRecords(FileChannel channel, ReentrantLock channelLock) {
+            this.channel = channel;
+            this.channelLock = channelLock;
+        }
+
+        void encode() throws IOException, InterruptedException {
+            if (text.length() == 0) {
+                return;
+            }
+            CharBuffer chars = CharBuffer.wrap(text);
+            ByteBuffer buffer = buffers.isEmpty() ? take() : buffers.get(buffers.size() - 1);
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (!result.isOverflow()) {
+                    break;
+                }
+                if (buffers.size() == GATHER_BUFFERS) {
+                    flush();
+                }
+                buffer = take();
+            }
+            encoder.reset();
+            text.setLength(0);
+        }
+
+        private ByteBuffer take() throws InterruptedException {
+            ByteBuffer buffer = bufferPool.take();
+            buffer.clear();
+            buffers.add(buffer);
+            return buffer;
+        }
+
+        void flush() throws IOException {
+            if (buffers.isEmpty()) {
+                return;
+            }
+            ByteBuffer[] data = buffers.toArray(new ByteBuffer[buffers.size()]);
+            for (ByteBuffer buffer : data) {
+                buffer.flip();
+            }
+            if (!channelLock.isHeldByCurrentThread()) {
+                channelLock.lock();
+            }
+            long remaining = 0;
+            do {
+                channel.write(data);
+                remaining = 0;
+                for (ByteBuffer buffer : data) {
+                    remaining += buffer.remaining();
+                }
+            } while (remaining > 0);
+            bufferPool.addAll(buffers);
+            buffers.clear();
+        }
+
+        /**
+         * source end: return the buffers and the channel
+         */
+        void release() {
+            bufferPool.addAll(buffers);
+            buffers.clear();
+            if (channelLock.isHeldByCurrentThread()) {
+                channelLock.unlock();
+            }
+        }
+    }
+}
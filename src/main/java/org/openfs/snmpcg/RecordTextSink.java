@@ -0,0 +1,88 @@
+package org.openfs.snmpcg;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.apache.camel.Message;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.springframework.boot.actuate.metrics.GaugeService;
+
+/**
+ * Records of the cycle appended to one text, sent as the body to the
+ * configured flush endpoint of the store route.
+ */
+public final class RecordTextSink implements ExportSink {
+    private final Predicate<SnmpInterface> filter;
+    private final RecordFormat format;
+    private final String countHeader;
+    private final String gauge;
+    private final GaugeService gaugeService;
+
+    public RecordTextSink(Predicate<SnmpInterface> filter, RecordFormat format, String countHeader, String gauge, GaugeService gaugeService) {
+        this.filter = filter;
+        this.format = format;
+        this.countHeader = countHeader;
+        this.gauge = gauge;
+        this.gaugeService = gaugeService;
+    }
+
+    /**
+     * @return text sink of the charging data records
+     */
+    public static RecordTextSink chargingDataRecords(GaugeService gaugeService) {
+        return new RecordTextSink(SnmpInterface::isChargeable, CdrRecordLayout::appendChargingDataRecord, "countChargingDataRecords",
+            "gauge.snmp.sources.chargingRecords", gaugeService);
+    }
+
+    /**
+     * @return text sink of the trace records
+     */
+    public static RecordTextSink traceRecords(GaugeService gaugeService) {
+        return new RecordTextSink(SnmpInterface::isTrace, CdrRecordLayout::appendTraceRecord, "countTraceRecords", "gauge.snmp.sources.traceRecords",
+            gaugeService);
+    }
+
+    /**
+     * @return number of records of the matching interfaces appended
+     */
+    static long appendRecords(StringBuilder sb, Collection<SnmpSource> sources, CdrRecordLayout layout, Predicate<SnmpInterface> filter, RecordFormat format) {
+        long numRecords = 0;
+        for (SnmpSource source : sources) {
+            String pollTime = layout.formatPollTime(source);
+            for (SnmpInterface ifEntry : source.getIftable().values()) {
+                if (filter.test(ifEntry)) {
+                    format.append(layout, sb, source, ifEntry, pollTime);
+                    numRecords++;
+                }
+            }
+        }
+        return numRecords;
+    }
+
+    @Override
+    public Pass open(CdrRecordLayout layout, String name) {
+        return new Pass() {
+            private final StringBuilder text = new StringBuilder();
+            private long numRecords;
+
+            @Override
+            public synchronized void write(List<SnmpSource> sources) {
+                numRecords += appendRecords(text, sources, layout, filter, format);
+            }
+
+            @Override
+            public synchronized void close(Message message) {
+                message.setBody(text.toString());
+                message.setHeader(countHeader, numRecords);
+                gaugeService.submit(gauge, (double)numRecords);
+            }
+
+            @Override
+            public synchronized void abort() {
+                text.setLength(0);
+            }
+        };
+    }
+}
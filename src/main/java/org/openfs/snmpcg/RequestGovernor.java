@@ -0,0 +1,380 @@
+package org.openfs.snmpcg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.camel.Handler;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.hazelcast.core.IMap;
+
+/**
+ * Governor of outstanding SNMP requests: global cap of PDUs in flight, per
+ * source token bucket and optional cap per source tag value (i.e. per site).
+ * Requests over the limits are queued and sent when a response releases a
+ * permit or a token is refilled, so the sending thread never blocks.
+ */
+@Component("requestGovernor")
+public class RequestGovernor {
+    private static final Logger log = LoggerFactory.getLogger(RequestGovernor.class);
+    private static final long RELOAD_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    @Value("${snmpcg.governorMaxOutstanding:0}")
+    private int maxOutstanding;
+
+    @Value("${snmpcg.governorSourceRate:0}")
+    private double sourceRate;
+
+    @Value("${snmpcg.governorSourceBurst:10}")
+    private int sourceBurst;
+
+    @Value("${snmpcg.governorTagKey:}")
+    private String tagKey;
+
+    @Value("${snmpcg.governorTagLimit:0}")
+    private int tagLimit;
+
+    @Autowired
+    private IMap<String, Object> config;
+
+    @Autowired
+    private ConcurrentMap<String, SnmpSource> sources;
+
+    private final Map<String, Gate> gates = new ConcurrentHashMap<String, Gate>();
+    // gates with queued requests: ready to send, waiting for a tag permit or a token
+    private final ArrayDeque<Gate> ready = new ArrayDeque<Gate>();
+    private final Map<String, ArrayDeque<Gate>> tagWaiting = new HashMap<String, ArrayDeque<Gate>>();
+    private final PriorityQueue<Gate> tokenWaiting = new PriorityQueue<Gate>(Comparator.comparingLong((Gate gate) -> gate.wakeTime));
+    private final Map<String, Integer> tagOutstanding = new HashMap<String, Integer>();
+    private Map<String, Integer> tagLimits = Collections.emptyMap();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "RequestGovernor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int outstanding;
+    private int queued;
+    private int maxQueued;
+    private long sent;
+    private long delayed;
+    private long scheduledWake = Long.MAX_VALUE;
+
+    @PostConstruct
+    public void initConfig() {
+        config.putIfAbsent("governorMaxOutstanding", maxOutstanding);
+        config.putIfAbsent("governorSourceRate", sourceRate);
+        config.putIfAbsent("governorSourceBurst", sourceBurst);
+        config.putIfAbsent("governorTagKey", tagKey);
+        config.putIfAbsent("governorTagLimit", tagLimit);
+        reloadConfig();
+        // off the send path
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reloadConfig();
+                // gates of sources removed on other members
+                gates.keySet().removeIf(sourceIpAddr -> !sources.containsKey(sourceIpAddr));
+            } catch (RuntimeException e) {
+                log.error("governor reload failed: {}", e.getMessage());
+            }
+        }, RELOAD_INTERVAL, RELOAD_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * reload limits from the config map, queued requests are checked again
+     */
+    @SuppressWarnings("unchecked")
+    public void reloadConfig() {
+        int newMaxOutstanding = ((Number)config.get("governorMaxOutstanding")).intValue();
+        double newSourceRate = ((Number)config.get("governorSourceRate")).doubleValue();
+        int newSourceBurst = ((Number)config.get("governorSourceBurst")).intValue();
+        String newTagKey = config.get("governorTagKey").toString();
+        int newTagLimit = ((Number)config.get("governorTagLimit")).intValue();
+        // optional limit per tag value
+        Object limits = config.get("governorTagLimits");
+        Map<String, Integer> newTagLimits = (limits instanceof Map) ? new HashMap<String, Integer>((Map<String, Integer>)limits) : Collections.<String, Integer> emptyMap();
+        synchronized (this) {
+            maxOutstanding = newMaxOutstanding;
+            sourceRate = newSourceRate;
+            sourceBurst = newSourceBurst;
+            tagKey = newTagKey;
+            tagLimit = newTagLimit;
+            tagLimits = newTagLimits;
+            tagWaiting.values().forEach(ready::addAll);
+            tagWaiting.clear();
+            ready.addAll(tokenWaiting);
+            tokenWaiting.clear();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("governor maxOutstanding: {}, sourceRate: {}, tagKey: {}, tagLimit: {}", newMaxOutstanding, newSourceRate, newTagKey, newTagLimit);
+        }
+        drain();
+    }
+
+    /**
+     * @return gate of the source requests
+     */
+    public Gate getGate(SnmpSource source) {
+        Gate gate = gates.computeIfAbsent(source.getIpAddress(), ip -> new Gate(ip));
+        gate.tag = (tagKey == null || tagKey.isEmpty()) ? null : source.getTags().get(tagKey);
+        return gate;
+    }
+
+    /**
+     * drop the gate of a removed source
+     */
+    public void removeGate(String sourceIpAddr) {
+        gates.remove(sourceIpAddr);
+    }
+
+    private void submit(Gate gate, Consumer<Runnable> send) {
+        // tag of the request is kept until its release
+        Request request = new Request(gate, gate.tag, send);
+        boolean direct;
+        synchronized (this) {
+            direct = ready.isEmpty() && gate.pending.isEmpty() && tryAcquire(request);
+            if (!direct) {
+                gate.pending.add(request);
+                queued++;
+                delayed++;
+                maxQueued = Math.max(maxQueued, queued);
+                if (!gate.waiting) {
+                    gate.waiting = true;
+                    ready.add(gate);
+                }
+            }
+        }
+        if (direct) {
+            request.send();
+        } else {
+            drain();
+        }
+    }
+
+    private void release(Request request) {
+        synchronized (this) {
+            if (request.released) {
+                return;
+            }
+            request.released = true;
+            outstanding--;
+            if (request.tag != null) {
+                tagOutstanding.computeIfPresent(request.tag, (k, v) -> (v <= 1) ? null : v - 1);
+                // one tag permit is free
+                ArrayDeque<Gate> waiting = tagWaiting.get(request.tag);
+                if (waiting != null) {
+                    ready.add(waiting.poll());
+                    if (waiting.isEmpty()) {
+                        tagWaiting.remove(request.tag);
+                    }
+                }
+            }
+        }
+        drain();
+    }
+
+    /**
+     * send queued requests allowed by the limits: gates take turns, a gate over
+     * its tag limit waits for a release of the tag, a gate out of tokens for
+     * the refill
+     */
+    private void drain() {
+        List<Request> toSend = new ArrayList<Request>();
+        synchronized (this) {
+            while (!ready.isEmpty() && (maxOutstanding <= 0 || outstanding < maxOutstanding)) {
+                Gate gate = ready.poll();
+                Request request = gate.pending.peek();
+                if (isTagFull(request.tag)) {
+                    tagWaiting.computeIfAbsent(request.tag, k -> new ArrayDeque<Gate>()).add(gate);
+                    continue;
+                }
+                long wait = gate.tokenWait();
+                if (wait > 0) {
+                    gate.wakeTime = System.nanoTime() + wait;
+                    tokenWaiting.add(gate);
+                    continue;
+                }
+                tryAcquire(request);
+                gate.pending.poll();
+                queued--;
+                toSend.add(request);
+                if (gate.pending.isEmpty()) {
+                    gate.waiting = false;
+                } else {
+                    ready.add(gate);
+                }
+            }
+            scheduleWake();
+        }
+        toSend.forEach(Request::send);
+    }
+
+    /**
+     * schedule the drain of the gates refilled next
+     */
+    private void scheduleWake() {
+        Gate next = tokenWaiting.peek();
+        if (next == null || next.wakeTime >= scheduledWake) {
+            return;
+        }
+        scheduledWake = next.wakeTime;
+        scheduler.schedule(() -> {
+            synchronized (this) {
+                scheduledWake = Long.MAX_VALUE;
+                long now = System.nanoTime();
+                while (!tokenWaiting.isEmpty() && tokenWaiting.peek().wakeTime <= now) {
+                    ready.add(tokenWaiting.poll());
+                }
+            }
+            drain();
+        }, Math.max(0L, next.wakeTime - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    private boolean isTagFull(String tag) {
+        int limit = (tag == null) ? 0 : tagLimits.getOrDefault(tag, tagLimit);
+        return limit > 0 && tagOutstanding.getOrDefault(tag, 0) >= limit;
+    }
+
+    private boolean tryAcquire(Request request) {
+        if (maxOutstanding > 0 && outstanding >= maxOutstanding) {
+            return false;
+        }
+        if (isTagFull(request.tag)) {
+            return false;
+        }
+        if (!request.gate.tryTakeToken()) {
+            return false;
+        }
+        outstanding++;
+        sent++;
+        if (request.tag != null) {
+            tagOutstanding.merge(request.tag, 1, Integer::sum);
+        }
+        return true;
+    }
+
+    /**
+     * rest handler to get governor stats
+     */
+    @Handler
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> answer = new HashMap<String, Object>();
+        answer.put("maxOutstanding", maxOutstanding);
+        answer.put("outstanding", outstanding);
+        answer.put("permits", (maxOutstanding > 0) ? maxOutstanding - outstanding : -1);
+        answer.put("queued", queued);
+        answer.put("maxQueued", maxQueued);
+        answer.put("sent", sent);
+        answer.put("delayed", delayed);
+        answer.put("sourceRate", sourceRate);
+        answer.put("tagKey", tagKey);
+        answer.put("tagLimit", tagLimit);
+        answer.put("tagOutstanding", new HashMap<String, Integer>(tagOutstanding));
+        return answer;
+    }
+
+    /**
+     * requests gate of one source: token bucket and tag
+     */
+    public final class Gate {
+        private final String ipAddress;
+        private volatile String tag;
+        // guarded by the governor
+        private final ArrayDeque<Request> pending = new ArrayDeque<Request>();
+        private boolean waiting;
+        private long wakeTime;
+        private double tokens = -1;
+        private long refillTime;
+
+        private Gate(String ipAddress) {
+            this.ipAddress = ipAddress;
+        }
+
+        /**
+         * send request when allowed by the governor
+         *
+         * @param send sends the request, gets the release of its permit to run
+         *            on response or send failure
+         */
+        public void submit(Consumer<Runnable> send) {
+            RequestGovernor.this.submit(this, send);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (tokens < 0) {
+                tokens = sourceBurst;
+            } else {
+                tokens = Math.min(sourceBurst, tokens + (now - refillTime) * sourceRate / 1e9);
+            }
+            refillTime = now;
+        }
+
+        private boolean tryTakeToken() {
+            if (sourceRate <= 0) {
+                return true;
+            }
+            refill();
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+
+        private long tokenWait() {
+            if (sourceRate <= 0) {
+                return 0L;
+            }
+            refill();
+            return (tokens >= 1) ? 0L : (long)((1 - tokens) * 1e9 / sourceRate);
+        }
+
+        @Override
+        public String toString() {
+            return ipAddress;
+        }
+    }
+
+    private final class Request {
+        private final Gate gate;
+        private final String tag;
+        private final Consumer<Runnable> send;
+        // guarded by the governor
+        private boolean released;
+
+        private Request(Gate gate, String tag, Consumer<Runnable> send) {
+            this.gate = gate;
+            this.tag = tag;
+            this.send = send;
+        }
+
+        private void send() {
+            send.accept(() -> release(this));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.openfs.snmpcg;
+
+/**
+ * Round trip time estimator of a source as the TCP retransmission timer (RFC
+ * 6298): smoothed rtt and rtt variance in ms, request timeout srtt + 4 *
+ * rttvar. Samples of retried requests are not taken (Karn), so the estimate
+ * is reset when a walk times out without a valid sample.
+ */
+public final class RttEstimator {
+    private int srtt;
+    private int rttVar;
+    private int samples;
+
+    /**
+     * @param srtt smoothed rtt of the source, 0 if not measured
+     * @param rttVar rtt variance of the source
+     */
+    public RttEstimator(int srtt, int rttVar) {
+        this.srtt = srtt;
+        this.rttVar = rttVar;
+    }
+
+    public synchronized void sample(long rtt) {
+        int r = (int)Math.max(1, Math.min(rtt, Integer.MAX_VALUE));
+        if (srtt == 0) {
+            srtt = r;
+            rttVar = r / 2;
+        } else {
+            // rounded, ms would truncate small changes; long, a timed out
+            // sample near the int range would overflow
+            rttVar = (int)((3L * rttVar + Math.abs((long)srtt - r) + 2) / 4);
+            srtt = (int)((7L * srtt + r + 4) / 8);
+        }
+        samples++;
+    }
+
+    /**
+     * drop the estimate, next requests use the ceiling
+     */
+    public synchronized void reset() {
+        srtt = 0;
+        rttVar = 0;
+    }
+
+    /**
+     * @return srtt + 4 * rttvar within min and max, max if not measured
+     */
+    public synchronized long getTimeout(long min, long max) {
+        if (srtt == 0) {
+            return max;
+        }
+        return Math.max(min, Math.min(max, srtt + Math.max(1, 4L * rttVar)));
+    }
+
+    public synchronized int getSrtt() {
+        return srtt;
+    }
+
+    public synchronized int getRttVar() {
+        return rttVar;
+    }
+
+    /**
+     * @return samples taken since created
+     */
+    public synchronized int getSamples() {
+        return samples;
+    }
+}
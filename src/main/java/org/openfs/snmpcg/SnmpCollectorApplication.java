@@ -3,22 +3,33 @@ package org.openfs.snmpcg;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+
 import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
-import org.apache.camel.component.hazelcast.HazelcastConstants;
 import org.apache.camel.component.hazelcast.policy.HazelcastRoutePolicy;
 import org.apache.camel.processor.aggregate.AggregationStrategy;
 import org.apache.camel.spi.RoutePolicy;
 import org.apache.camel.spi.ThreadPoolProfile;
+import org.apache.camel.support.RoutePolicySupport;
+import org.openfs.snmpcg.model.SnmpDataSerializableFactory;
+import org.openfs.snmpcg.model.SnmpInterfaceCountExtractor;
 import org.openfs.snmpcg.model.SnmpSource;
+import org.openfs.snmpcg.model.SnmpSourceSerializer;
+import org.openfs.snmpcg.model.SnmpSourceTagExtractor;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 
 import com.hazelcast.config.Config;
 import com.hazelcast.config.InMemoryFormat;
+import com.hazelcast.config.MapAttributeConfig;
+import com.hazelcast.config.MapIndexConfig;
+import com.hazelcast.config.SerializerConfig;
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
 
@@ -37,14 +48,62 @@ public class SnmpCollectorApplication {
     @Value("${snmpcg.memberIp:auto}")
     private String memberIp;
 
+    @Value("${snmpcg.asyncPoll:false}")
+    private boolean asyncPoll;
+
+    @Value("${snmpcg.virtualThreads:false}")
+    private boolean virtualThreads;
+
+    @Value("${snmpcg.virtualThreadsMaxInFlight:1000}")
+    private int virtualThreadsMaxInFlight;
+
+    @Value("${snmpcg.wheelScheduler:false}")
+    private boolean wheelScheduler;
+
+    @Value("${snmpcg.clusterPoll:false}")
+    private boolean clusterPoll;
+
+    @Value("${snmpcg.exportStreaming:false}")
+    private boolean exportStreaming;
+
+    @Value("${snmpcg.binaryCdr:false}")
+    private boolean binaryCdr;
+
+    @Value("${snmpcg.exportPipelined:false}")
+    private boolean exportPipelined;
+
+    @Value("${snmpcg.sourceTags:router}")
+    private String sourceTags;
+
     public static void main(String[] args) {
         SpringApplication.run(SnmpCollectorApplication.class, args);
     }
 
+    @PostConstruct
+    public void validateConfig() {
+        // pipelined export follows the split poll of the cron cycle
+        if (exportPipelined && (asyncPoll || wheelScheduler)) {
+            throw new IllegalStateException("snmpcg.exportPipelined requires the split poll, disable snmpcg.asyncPoll and snmpcg.wheelScheduler");
+        }
+    }
+
     @Bean
     public Config getConfig() {
         Config config = new Config().setInstanceName("hzSnmpCG");
-        config.getMapConfig("sources").setInMemoryFormat(InMemoryFormat.OBJECT);
+        config.getMapConfig("sources").setInMemoryFormat(InMemoryFormat.OBJECT)
+            // query attributes and indexes of inventory queries
+            .addMapAttributeConfig(new MapAttributeConfig("tag", SnmpSourceTagExtractor.class.getName()))
+            .addMapAttributeConfig(new MapAttributeConfig("ifCount", SnmpInterfaceCountExtractor.class.getName()))
+            .addMapIndexConfig(new MapIndexConfig("status", false))
+            .addMapIndexConfig(new MapIndexConfig("pollTime", true))
+            .addMapIndexConfig(new MapIndexConfig("ifCount[chargeable]", true))
+            .addMapIndexConfig(new MapIndexConfig("ifCount[trace]", true));
+        for (String tagKey : sourceTags.split(",")) {
+            config.getMapConfig("sources").addMapIndexConfig(new MapIndexConfig("tag[" + tagKey.trim() + "]", false));
+        }
+        // compact binary format of sources and poll updates
+        config.getSerializationConfig().addSerializerConfig(new SerializerConfig().setImplementation(new SnmpSourceSerializer()).setTypeClass(SnmpSource.class))
+            .addDataSerializableFactory(SnmpDataSerializableFactory.FACTORY_ID, new SnmpDataSerializableFactory());
         if (!nodeIp.equalsIgnoreCase("auto")) {
             config.getNetworkConfig().getInterfaces().addInterface(nodeIp);
             config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
@@ -53,6 +112,7 @@ public class SnmpCollectorApplication {
         return config;
     }
 
+    // routes of the whole inventory run on the member holding the lock
     @Bean
     RoutePolicy clusterPolicy(HazelcastInstance instance) {
         HazelcastRoutePolicy policy = new HazelcastRoutePolicy(instance);
@@ -63,6 +123,16 @@ public class SnmpCollectorApplication {
         return policy;
     }
 
+    // poll routes: each member polls the sources of its local partitions on cluster poll
+    @Bean
+    RoutePolicy pollPolicy(@Qualifier("clusterPolicy") RoutePolicy clusterPolicy) {
+        if (clusterPoll) {
+            return new RoutePolicySupport() {
+            };
+        }
+        return clusterPolicy;
+    }
+
 
     @Bean
     public ConcurrentMap<String, SnmpSource> getCacheMap(HazelcastInstance instance) {
@@ -84,6 +154,13 @@ public class SnmpCollectorApplication {
         return customProfile;
     }
 
+    // poll splits on virtual threads, bounded by in flight sources only
+    @Bean(name = "SnmpCGVirtualThreadExecutor", destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "snmpcg.virtualThreads", havingValue = "true")
+    VirtualThreadExecutor virtualThreadExecutor() {
+        return new VirtualThreadExecutor("snmpcg-poll-", virtualThreadsMaxInFlight);
+    }
+
     @Component
     class Backend extends RouteBuilder {
 
@@ -96,31 +173,107 @@ public class SnmpCollectorApplication {
 
         @Override
         public void configure() {
+            String pollExecutor = virtualThreads ? "SnmpCGVirtualThreadExecutor" : "SnmpCGThreadPoolProfile";
 
-            // scheduled poll source status
-            from("timer://validate?period={{snmpcg.validateStatusTimer:3m}}").routeId("pollStatus")
-                .routePolicyRef("clusterPolicy")
-                .split(method("snmpSources", "getDownSources"), new NullAggregationStrategy()).parallelProcessing()
-                    .bean("snmpPoll", "pollStatus")
-                    .setHeader(HazelcastConstants.OPERATION, constant("put"))
-                    .to("hazelcast-map:sources?hazelcastInstanceName=hzSnmpCG")
-                .end();
-
-            // scheduled poll counters
-            from("quartz2://snmp/poll?cron=0+0/5+*+*+*+?&pauseJob=true&deleteJob=false").routeId("pollCounters")
+            if (asyncPoll) {
+                // scheduled poll source status, all sources walk in flight
+                from("timer://validate?period={{snmpcg.validateStatusTimer:3m}}").routeId("pollStatus")
+                    .routePolicyRef("pollPolicy")
+                    .bean("snmpSources", "getDownSources")
+                    .bean("snmpPoll", "pollStatusAsync");
+            } else {
+                // scheduled poll source status
+                from("timer://validate?period={{snmpcg.validateStatusTimer:3m}}").routeId("pollStatus")
+                    .routePolicyRef("pollPolicy")
+                    .split(method("snmpSources", "getDownSources"), new NullAggregationStrategy()).parallelProcessing().executorServiceRef(pollExecutor)
+                        .bean("snmpPoll", "pollStatus")
+                    .end();
+            }
+
+            if (wheelScheduler) {
+                // poll due sources on each tick of the timing wheel
+                from("timer://pollScheduler?period={{snmpcg.schedulerTickMs:1000}}").routeId("pollScheduler")
+                    .routePolicyRef("pollPolicy")
+                    .bean("pollScheduler", "tick")
+                    .filter(simple("${body.size} > 0"))
+                    .to("seda:pollScheduled?waitForTaskToComplete=Never").end();
+
+                if (asyncPoll) {
+                    from("seda:pollScheduled?concurrentConsumers={{snmpcg.schedulerConsumers:4}}").routeId("pollScheduled")
+                        .bean("snmpPoll", "pollCountersAsync");
+                } else {
+                    from("seda:pollScheduled?concurrentConsumers={{snmpcg.schedulerConsumers:4}}").routeId("pollScheduled")
+                        .split(body(), new NullAggregationStrategy()).parallelProcessing().executorServiceRef(pollExecutor)
+                        .bean("snmpPoll", "pollCounters").end();
+                }
+
+                // export traffic polled since last cycle, acknowledged once exported
+                from("quartz2://snmp/poll?cron={{snmpcg.pollCron:0+0/5+*+*+*+?}}&pauseJob=true&deleteJob=false").routeId("pollCounters")
+                    .routePolicyRef("pollPolicy")
+                    .bean("sourceStore", "flush")
+                    .bean("snmpSources", "startExportCycle")
+                    .bean("pollLatency", "endCycle")
+                    .log("${body}").bean("cycleExport", "export")
+                    .bean("snmpSources", "ackExportCycle").end();
+            } else if (asyncPoll) {
+                // scheduled poll counters, all sources walk in flight
+                from("quartz2://snmp/poll?cron={{snmpcg.pollCron:0+0/5+*+*+*+?}}&pauseJob=true&deleteJob=false").routeId("pollCounters")
+                    .routePolicyRef("pollPolicy")
+                    .filter(method("snmpSources", "validateStartPoll"))
+                    .bean("snmpSources", "getReadySources")
+                    .bean("snmpPoll", "pollCountersAsync")
+                    .bean("sourceStore", "flush")
+                    .bean("pollLatency", "endCycle")
+                    .log("${bean:snmpSources?method=logEndPoll}").bean("cycleExport", "export").end();
+            } else if (exportPipelined) {
+                // scheduled poll counters, records of each source exported as soon as it is polled
+                from("quartz2://snmp/poll?cron={{snmpcg.pollCron:0+0/5+*+*+*+?}}&pauseJob=true&deleteJob=false").routeId("pollCounters")
+                    .routePolicyRef("pollPolicy")
+                    .filter(method("snmpSources", "validateStartPoll"))
+                    .bean("snmpSources", "getReadySources")
+                    .bean("pipelinedExport", "openCycle")
+                    .split(body(), new NullAggregationStrategy()).parallelProcessing().executorServiceRef(pollExecutor)
+                    .bean("snmpPoll", "pollCounters").bean("pipelinedExport", "sourcePolled").end()
+                    .bean("pipelinedExport", "closeCycle")
+                    .bean("sourceStore", "flush").bean("pollLatency", "endCycle").log("${bean:snmpSources?method=logEndPoll}").end();
+            } else {
+                // scheduled poll counters
+                from("quartz2://snmp/poll?cron={{snmpcg.pollCron:0+0/5+*+*+*+?}}&pauseJob=true&deleteJob=false").routeId("pollCounters")
+                    .routePolicyRef("pollPolicy")
+                    .filter(method("snmpSources", "validateStartPoll"))
+                    .split(method("snmpSources", "getReadySources"), new NullAggregationStrategy()).parallelProcessing().executorServiceRef(pollExecutor)
+                    .bean("snmpPoll", "pollCounters").end()
+                    .bean("sourceStore", "flush").bean("pollLatency", "endCycle").log("${bean:snmpSources?method=logEndPoll}").bean("cycleExport", "export").end();
+            }
+
+            // inventory snapshot for cold start
+            from("timer://inventorySnapshot?period={{snmpcg.inventorySnapshotPeriod:5m}}").routeId("inventorySnapshot")
                 .routePolicyRef("clusterPolicy")
-                .filter(method("snmpSources", "validateStartPoll"))
-                .split(method("snmpSources", "getReadySources"), new NullAggregationStrategy()).parallelProcessing().executorServiceRef("SnmpCGThreadPoolProfile")
-                .bean("snmpPoll", "pollCounters").setHeader(HazelcastConstants.OPERATION, constant("put"))
-                .to("hazelcast-map:sources?hazelcastInstanceName=hzSnmpCG").end().log("${bean:snmpSources?method=logEndPoll}").to("direct:storeCdr", "direct:storeTrace").end();
+                .bean("inventorySnapshot", "writeSnapshot");
 
-            // store CDR
-            from("direct:storeCdr").routeId("storeCDR").bean("snmpSources", "exportChargingDataRecords").filter(header("countChargingDataRecords").isGreaterThan(0))
-                .to("{{snmpcg.flushChargingDataRecordEndpoint:direct:writeCdrFile}}").end();
+            // store CDR, records written by the sinks of the cycle export
+            if (binaryCdr) {
+                from("direct:storeCdr").routeId("storeCDR").filter(header("countChargingDataRecords").isGreaterThan(0))
+                    .log("wrote ${headers.countChargingDataRecords} CDR to file: ${headers.CamelFileNameProduced}").end();
+
+                // rotate binary CDR file by age
+                from("timer://rotateBinaryCdr?period=60s").routeId("rotateBinaryCdr").bean("binaryCdrWriter", "checkRotate");
+            } else if (exportStreaming) {
+                from("direct:storeCdr").routeId("storeCDR").filter(header("countChargingDataRecords").isGreaterThan(0))
+                    .log("wrote ${headers.countChargingDataRecords} CDR to file: ${headers.CamelFileNameProduced}").end();
+            } else {
+                from("direct:storeCdr").routeId("storeCDR").filter(header("countChargingDataRecords").isGreaterThan(0))
+                    .to("{{snmpcg.flushChargingDataRecordEndpoint:direct:writeCdrFile}}").end();
+            }
 
             // store Trace
-            from("direct:storeTrace").routeId("storeTrace").bean("snmpSources", "exportTraceRecords").filter(header("countTraceRecords").isGreaterThan(0))
-                .to("{{snmpcg.flushTraceCountersEndpoint:direct:writeTraceCounterFile}}").end();
+            if (exportStreaming) {
+                from("direct:storeTrace").routeId("storeTrace").filter(header("countTraceRecords").isGreaterThan(0))
+                    .log("wrote ${headers.countTraceRecords} trace records to file: ${headers.CamelFileNameProduced}").end();
+            } else {
+                from("direct:storeTrace").routeId("storeTrace").filter(header("countTraceRecords").isGreaterThan(0))
+                    .to("{{snmpcg.flushTraceCountersEndpoint:direct:writeTraceCounterFile}}").end();
+            }
         }
     }
 
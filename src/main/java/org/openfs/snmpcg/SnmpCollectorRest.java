@@ -46,9 +46,18 @@ public class SnmpCollectorRest extends RouteBuilder {
                  .route().routeId("sources-api-update")
                  .bean("snmpSources","updateSource")
                  .endRest()
+             .post("/sources/{source}/probe").description("poll source status now, overrides the backoff")
+                 .route().routeId("sources-api-probe")
+                 .bean("snmpPoll","probeStatus")
+                 .endRest()
              .get("/sources/{source}/interfaces").description("the list source interfaces")
+                 .bindingMode(RestBindingMode.off)
                  .param().name("trace").type(RestParamType.query).endParam()
                  .param().name("chargeable").type(RestParamType.query).endParam()
+                 .param().name("status").type(RestParamType.query).endParam()
+                 .param().name("limit").type(RestParamType.query).description("page size").endParam()
+                 .param().name("after").type(RestParamType.query).description("next cursor of the previous page").endParam()
+                 .param().name("fields").type(RestParamType.query).description("comma separated interface fields").endParam()
                  .route().routeId("sources-api-interfaces")
                  .bean("snmpSources","getSourceInterfaces")
                  .endRest()
@@ -57,11 +66,33 @@ public class SnmpCollectorRest extends RouteBuilder {
                  .bean("snmpSources","updateSourceInterface")
                  .endRest()
              .get("/interfaces").description("the list interfaces")
+                 .bindingMode(RestBindingMode.off)
                  .param().name("trace").type(RestParamType.query).endParam()
                  .param().name("chargeable").type(RestParamType.query).endParam()
+                 .param().name("stats").type(RestParamType.query).endParam()
+                 .param().name("limit").type(RestParamType.query).description("page size").endParam()
+                 .param().name("after").type(RestParamType.query).description("next cursor of the previous page").endParam()
+                 .param().name("fields").type(RestParamType.query).description("comma separated interface fields").endParam()
                  .route().routeId("interfaces-api")
                  .bean("snmpSources","getInterfaces")
                  .endRest()
+             .get("/transport").description("snmp transport stats")
+                 .route().routeId("transport-api")
+                 .bean("snmpTransport","getStatus")
+                 .endRest()
+             .get("/latency").description("poll latency percentiles of the last cycle")
+                 .route().routeId("latency-api")
+                 .bean("pollLatency","getStatus")
+                 .endRest()
+             .get("/latency/slowest").description("slowest sources of the last cycle")
+                 .param().name("limit").type(RestParamType.query).endParam()
+                 .route().routeId("latency-api-slowest")
+                 .bean("pollLatency","getSlowest")
+                 .endRest()
+             .get("/governor").description("snmp request governor stats")
+                 .route().routeId("governor-api")
+                 .bean("requestGovernor","getStatus")
+                 .endRest()
              .get("/cluster/members")
                  .route().routeId("cluster-api-members")
                  .bean("clusterInfoService","getStatus")
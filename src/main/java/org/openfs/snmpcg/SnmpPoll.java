@@ -2,31 +2,48 @@ package org.openfs.snmpcg;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Handler;
-import org.apache.camel.component.hazelcast.HazelcastConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snmp4j.Snmp;
+import org.snmp4j.Target;
 import org.snmp4j.smi.OID;
 import org.snmp4j.smi.VariableBinding;
-import org.snmp4j.transport.DefaultUdpTransportMapping;
 import org.snmp4j.util.DefaultPDUFactory;
 import org.snmp4j.util.TableEvent;
+import org.snmp4j.util.TableListener;
 import org.snmp4j.util.TableUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.metrics.CounterService;
 import org.springframework.stereotype.Service;
-import org.openfs.snmpcg.model.SnmpCounter;
 import org.openfs.snmpcg.model.SnmpInterface;
 import org.openfs.snmpcg.model.SnmpSource;
+import org.openfs.snmpcg.model.SnmpSourcePollUpdate;
 import org.openfs.snmpcg.model.SnmpConstants;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 @Service("snmpPoll")
 public class SnmpPoll {
     private static final Logger log = LoggerFactory.getLogger(SnmpPoll.class);
@@ -48,6 +65,9 @@ public class SnmpPoll {
     private static final OID ifHCOutOctetsOID = new OID(".1.3.6.1.2.1.31.1.1.1.10");
     private final static OID COUNTER_OIDS[] = new OID[] {sysUpTimeOID, ifDescrOID, IfInOctetsOID, ifHCInOctetsOID, IfOutOctestOID, ifHCOutOctetsOID, ifAdminStatusOID,
                                                          ifOperStatusOID, ifNameOID, ifAliasOID};
+    private final static OID FAST_COUNTER_OIDS[] = new OID[] {sysUpTimeOID, IfInOctetsOID, ifHCInOctetsOID, IfOutOctestOID, ifHCOutOctetsOID, ifAdminStatusOID,
+                                                              ifOperStatusOID};
+    private final static OID METADATA_OIDS[] = new OID[] {ifDescrOID, ifNameOID, ifAliasOID};
     private final static OID STATUS_OIDS[] = new OID[] {sysUpTimeOID, sysDescrOID, sysObjectIDOID, sysNameOID, sysLocationOID, ifNumberOID, ifDescrOID, ifAdminStatusOID,
                                                         ifOperStatusOID, ifNameOID, ifAliasOID};
 
@@ -60,70 +80,566 @@ public class SnmpPoll {
     @Value("${snmpcg.interfaceVlanTag:vlan}")
     private String vlanTag;
 
+    @Value("${snmpcg.counterStoreOffHeap:false}")
+    private boolean counterStoreOffHeap;
+
+    @Value("${snmpcg.bulkAdaptive:false}")
+    private boolean bulkAdaptive;
+
+    @Value("${snmpcg.bulkMinRepetitions:5}")
+    private int bulkMinRepetitions;
+
+    @Value("${snmpcg.bulkMaxRepetitions:100}")
+    private int bulkMaxRepetitions;
+
+    @Value("${snmpcg.bulkMaxRtt:1000}")
+    private long bulkMaxRtt;
+
+    @Value("${snmpcg.adaptiveTimeout:false}")
+    private boolean adaptiveTimeout;
+
+    @Value("${snmpcg.adaptiveTimeoutMin:200}")
+    private long adaptiveTimeoutMin;
+
+    @Value("${snmpcg.adaptiveTimeoutMax:5000}")
+    private long adaptiveTimeoutMax;
+
+    // status poll backoff of down sources in seconds, 0 max to poll each time
+    @Value("${snmpcg.statusBackoffMin:60}")
+    private long statusBackoffMin;
+
+    @Value("${snmpcg.statusBackoffMax:900}")
+    private long statusBackoffMax;
+
+    @Value("${snmpcg.statusBackoffJitter:0.2}")
+    private double statusBackoffJitter;
+
+    @Value("${snmpcg.tieredPoll:false}")
+    private boolean tieredPoll;
+
+    @Value("${snmpcg.metadataRefreshMinutes:60}")
+    private long metadataRefreshMinutes;
+
+    @Value("${snmpcg.asyncMaxInFlight:500}")
+    private int asyncMaxInFlight;
+
+    @Value("${snmpcg.asyncCompleteThreads:2}")
+    private int asyncCompleteThreads;
+
+    @Value("${snmpcg.virtualThreads:false}")
+    private boolean virtualThreads;
+
+    @Value("${snmpcg.wheelScheduler:false}")
+    private boolean wheelScheduler;
+
+    @Autowired
+    private SourceStore store;
+
+    @Autowired
+    private ConcurrentMap<String, SnmpSource> sources;
+
+    @Autowired
+    private InventoryStats stats;
+
+    @Autowired
+    private PollLatencyStats latency;
+
+    @Autowired
+    private PollScheduler scheduler;
+
     private CounterService counterService;
     private Snmp snmp;
+    private Semaphore inFlight;
+    // completes async walks off the snmp4j dispatcher threads, the store blocks
+    private ExecutorService completeExecutor;
+
+    private SnmpTransport transport;
+    private RequestGovernor governor;
 
     @Autowired
-    public SnmpPoll(CounterService counterService) throws IOException {
+    public SnmpPoll(CounterService counterService, SnmpTransport transport, RequestGovernor governor) {
         this.counterService = counterService;
-        snmp = new Snmp(new DefaultUdpTransportMapping());
-        snmp.listen();
+        this.transport = transport;
+        this.governor = governor;
+        this.snmp = transport.getSnmp();
+    }
+
+    @PostConstruct
+    public void initInFlight() {
+        inFlight = new Semaphore(asyncMaxInFlight);
+        AtomicInteger threadNumber = new AtomicInteger();
+        completeExecutor = Executors.newFixedThreadPool(asyncCompleteThreads, r -> {
+            Thread thread = new Thread(r, "SnmpPollComplete-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (adaptiveTimeout) {
+            // retries of the short adaptive timeout back off to the ceiling
+            snmp.setTimeoutModel(new BackoffTimeoutModel(adaptiveTimeoutMax));
+            log.info("adaptive timeout: {}..{} ms", adaptiveTimeoutMin, adaptiveTimeoutMax);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        completeExecutor.shutdown();
     }
 
     @Handler
     public void pollStatus(Exchange exchange) throws Exception {
         SnmpSource source = exchange.getIn().getBody(SnmpSource.class);
+        if (log.isDebugEnabled()) {
+            log.debug("source: {} poll status", source.getIpAddress());
+        }
 
-        // set Hazelcast Key
-        exchange.getIn().setHeader(HazelcastConstants.OBJECT_ID, source.getIpAddress());
+        if (virtualThreads) {
+            walkParked(source, onComplete -> new StatusWalk(source, onComplete));
+        } else {
+            walk(new StatusWalk(source, null));
+        }
+    }
+
+    /**
+     * rest handler: poll status of the source now, regardless of its backoff.
+     * The walk is async and takes an in flight permit as the async poll does,
+     * the answer is 202 and the result is stored as by the status poll.
+     */
+    @Handler
+    public void probeStatus(Exchange exchange) {
+        String sourceIpAddr = exchange.getIn().getHeader("source", String.class);
+        SnmpSource source = (sourceIpAddr == null) ? null : sources.get(sourceIpAddr);
+        if (source == null) {
+            exchange.getIn().setHeader(Exchange.HTTP_RESPONSE_CODE, 404);
+            exchange.getIn().setBody(Collections.singletonMap("Status", "source " + sourceIpAddr + " not found"));
+            return;
+        }
+        if (!inFlight.tryAcquire()) {
+            exchange.getIn().setHeader(Exchange.HTTP_RESPONSE_CODE, 503);
+            exchange.getIn().setBody(Collections.singletonMap("Status", "max walks in flight, retry later"));
+            return;
+        }
+        log.info("source: {} probe status (failures: {})", sourceIpAddr, source.getStatusFailures());
+        source.setStatusFailures(0);
+        source.setNextAttempt(0);
+        walkAsync(source, onComplete -> new StatusWalk(source, onComplete), inFlight::release);
+        exchange.getIn().setHeader(Exchange.HTTP_RESPONSE_CODE, 202);
+        exchange.getIn().setBody(Collections.singletonMap("Status", "probe of source " + sourceIpAddr + " started"));
+    }
 
+    @Handler
+    public void pollCounters(Exchange exchange) throws Exception {
+        SnmpSource source = exchange.getIn().getBody(SnmpSource.class);
         if (log.isDebugEnabled()) {
-            log.debug("source: {} poll status", source.getIpAddress());
+            log.debug("source: {} poll counters", source.getIpAddress());
         }
+        if (virtualThreads) {
+            walkParked(source, onComplete -> createCounterWalk(source, onComplete));
+        } else {
+            walk(createCounterWalk(source, null));
+        }
+    }
 
-        long startPollTime = System.currentTimeMillis();
-        List<TableEvent> events = getTable(source, STATUS_OIDS);
+    /**
+     * async poll status: walk all sources in flight, each one is stored on completion
+     * 
+     * @param sourceList sources to be validated
+     */
+    @Handler
+    public void pollStatusAsync(List<SnmpSource> sourceList) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(sourceList.size());
+        for (SnmpSource source : sourceList) {
+            inFlight.acquire();
+            if (log.isDebugEnabled()) {
+                log.debug("source: {} poll status", source.getIpAddress());
+            }
+            walkAsync(source, onComplete -> new StatusWalk(source, onComplete), () -> completeAsync(done));
+        }
+        done.await();
+    }
+
+    /**
+     * async poll counters: walk all sources in flight, each one is stored on completion
+     * 
+     * @param sourceList sources to be polled
+     */
+    @Handler
+    public void pollCountersAsync(List<SnmpSource> sourceList) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(sourceList.size());
+        for (SnmpSource source : sourceList) {
+            inFlight.acquire();
+            if (log.isDebugEnabled()) {
+                log.debug("source: {} poll counters", source.getIpAddress());
+            }
+            walkAsync(source, onComplete -> createCounterWalk(source, onComplete), () -> completeAsync(done));
+        }
+        done.await();
+    }
+
+    /**
+     * @param chargeChanged interfaces which charge changed, filled
+     * @return rows of a counter walk of the source
+     */
+    CounterRows createCounterRows(SnmpSource source, Set<String> chargeChanged) {
+        return new CounterRows(source, chargeChanged);
+    }
+
+    private void completeAsync(CountDownLatch done) {
+        inFlight.release();
+        done.countDown();
+    }
+
+    /**
+     * tiered poll: walk counters only while the source metadata is fresh, full
+     * walk otherwise
+     */
+    private SourceWalk createCounterWalk(SnmpSource source, Runnable onComplete) {
+        try {
+            OID vlanOID = getVlanOID(source);
+            if (tieredPoll && source.getMetadataTime() > 0
+                && System.currentTimeMillis() - source.getMetadataTime() < TimeUnit.MINUTES.toMillis(metadataRefreshMinutes)) {
+                return new FastCounterWalk(source, appendOID(FAST_COUNTER_OIDS, vlanOID), onComplete);
+            }
+            return new CounterWalk(source, appendOID(COUNTER_OIDS, vlanOID), onComplete);
+        } catch (RuntimeException e) {
+            // not walked, never completed
+            if (wheelScheduler) {
+                scheduler.pollCompleted(source.getIpAddress());
+            }
+            throw e;
+        }
+    }
+
+    private void walk(SourceWalk walk) {
+        TableUtils tUtils = walk.createTableUtils();
+        List<TableEvent> events;
+        try {
+            events = tUtils.getTable(walk.createTarget(), walk.oids, null, null);
+        } catch (RuntimeException e) {
+            log.error("source: {} {}", walk.source.getIpAddress(), e.getMessage());
+            walk.finished(null);
+            return;
+        }
+        TableEvent last = null;
+        for (TableEvent event : events) {
+            walk.next(event);
+            last = event;
+        }
+        walk.finished(last);
+        if (walk.followUp != null) {
+            walk(walk.followUp);
+        }
+    }
 
-        // update pollTime
-        long endPollTime = System.currentTimeMillis();
-        source.setPollTime(endPollTime);
-        source.setPollResponse((endPollTime - startPollTime));
+    /**
+     * blocking walk of a virtual thread: the async walk and a latch. The
+     * blocking getTable waits in Object.wait, which pins the virtual thread to
+     * its carrier thread, the latch parks it.
+     */
+    private void walkParked(SnmpSource source, Function<Runnable, SourceWalk> createWalk) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        walkAsync(source, createWalk, done::countDown);
+        done.await();
+    }
 
-        // return if no response
-        if (events == null) {
+    /**
+     * start the async walk of the source, onComplete runs once when the walk is
+     * finished or could not be created
+     */
+    private void walkAsync(SnmpSource source, Function<Runnable, SourceWalk> createWalk, Runnable onComplete) {
+        SourceWalk walk;
+        try {
+            walk = createWalk.apply(onComplete);
+        } catch (RuntimeException e) {
+            log.error("source: {} {}", source.getIpAddress(), e.getMessage());
+            counterService.increment("counter.snmp.logError");
+            onComplete.run();
             return;
         }
+        walkAsync(walk);
+    }
 
-        // get source info
-        VariableBinding vbs[] = events.get(0).getColumns();
+    private void walkAsync(SourceWalk walk) {
+        walk.async = true;
+        try {
+            TableUtils tUtils = walk.createTableUtils();
+            tUtils.getTable(walk.createTarget(), walk.oids, walk, walk.source, null, null);
+        } catch (Exception e) {
+            log.error("source: {} {}", walk.source.getIpAddress(), e.getMessage());
+            walk.finished(null);
+        }
+    }
 
-        // process sysUpTime
-        String uptime = vbs[0].getVariable().toString();
-        boolean isSkip = validateSkipDelta(source, vbs[0].getVariable().toLong());
-        source.setSysUptime(vbs[0].getVariable().toLong());
+    /**
+     * Per-source walk state. Rows are processed as they arrive, either from the
+     * list of the blocking walk or from the snmp4j TableListener callback, and
+     * the source is completed once the walk (and its follow up walk) is finished.
+     * The poll owned fields are then stored as a delta of the source entry.
+     */
+    private abstract class SourceWalk implements TableListener {
+        protected final SnmpSource source;
+        protected final OID[] oids;
+        protected final Runnable onComplete;
+        private final PollSession session;
+        private RttEstimator estimator;
+        private long startPollTime = System.currentTimeMillis();
+        protected int rows = 0;
+        private volatile boolean finished = false;
+        private boolean async = false;
+        private SourceWalk followUp;
+        // walked ifTable, ifName and ifAlias
+        private boolean withInterfaces = false;
+        protected boolean withMetadata = false;
+        // source tags and interface charge changed by the poll
+        protected Map<String, String> pollTags = new HashMap<String, String>();
+        protected Set<String> chargeChanged = new HashSet<String>();
+        protected Set<String> removedIF = new HashSet<String>();
+        // PDUs and timed out PDUs of the walks of the poll
+        private int pdus;
+        private int timeouts;
+
+        SourceWalk(SnmpSource source, OID[] oids, Runnable onComplete) {
+            this.source = source;
+            this.oids = oids;
+            this.onComplete = onComplete;
+            this.session = new PollSession(snmp, transport.getTransport(source), governor.getGate(source));
+        }
 
-        // update system info
-        source.setSysDescr(vbs[1].getVariable().toString());
-        source.setSysObjectID(vbs[2].getVariable().toString());
-        source.setSysName(vbs[3].getVariable().toString());
-        source.setSysLocation(vbs[4].getVariable().toString());
+        /**
+         * run next walk on the source before it is completed
+         */
+        protected void chain(SourceWalk next) {
+            next.startPollTime = startPollTime;
+            next.withInterfaces = withInterfaces;
+            next.withMetadata |= withMetadata;
+            next.pollTags = pollTags;
+            next.chargeChanged = chargeChanged;
+            next.removedIF = removedIF;
+            next.pdus = pdus;
+            next.timeouts = timeouts;
+            followUp = next;
+        }
 
-        // validate ifNumber
-        if (vbs[5] == null || (vbs[5] != null && vbs[5].getVariable().toInt() == 0)) {
-            log.warn("source: {} has no interfaces", source.getIpAddress());
-            counterService.increment("counter.snmp.logWarn");
-            source.setStatus(SnmpConstants.NO_IFTABLE);
-            return;
+        TableUtils createTableUtils() {
+            TableUtils tUtils = new TableUtils(session, new DefaultPDUFactory());
+            if (bulkAdaptive) {
+                // all columns in one PDU, rows of the learned max-repetitions
+                tUtils.setMaxNumColumnsPerPDU(oids.length);
+                tUtils.setMaxNumRowsPerPDU(getMaxRepetitions(source));
+            }
+            return tUtils;
+        }
+
+        /**
+         * @return source target, with the request timeout of the source rtt
+         *         estimate on adaptive timeout
+         */
+        Target createTarget() {
+            if (!adaptiveTimeout) {
+                return source.getTarget();
+            }
+            // the estimate of a chained walk includes the previous walk
+            estimator = new RttEstimator(source.getSrtt(), source.getRttVar());
+            long timeout = estimator.getTimeout(adaptiveTimeoutMin, Math.min(adaptiveTimeoutMax, source.getTimeout() * 1000L));
+            session.setRttEstimator(estimator, timeout);
+            Target target = (Target)source.getTarget().clone();
+            target.setTimeout(timeout);
+            return target;
+        }
+
+        @Override
+        public boolean next(TableEvent event) {
+            if (event == null || event.isError()) {
+                return true;
+            }
+            if (rows++ == 0) {
+                firstRow(event);
+            } else {
+                nextRow(event);
+            }
+            return true;
+        }
+
+        @Override
+        public void finished(TableEvent event) {
+            if (finished) {
+                return;
+            }
+            try {
+                pdus += session.getResponseCount() + session.getTimeoutCount();
+                timeouts += session.getTimeoutCount();
+
+                // update pollTime
+                long endPollTime = System.currentTimeMillis();
+                source.setPollTime(endPollTime);
+                source.setPollResponse((endPollTime - startPollTime));
+
+                if (rows > 0) {
+                    withInterfaces = true;
+                    completed();
+                } else if (incomplete(event)) {
+                    // completed from the rows of the previous walk
+                } else if (event != null && event.isError()) {
+                    // validate timeout
+                    log.error("source: {} {}", source.getIpAddress(), event.getErrorMessage());
+                    source.setStatus(SnmpConstants.TIMEOUT);
+                    counterService.increment("counter.snmp.logError");
+                } else {
+                    // validate NO PDU
+                    source.setStatus(SnmpConstants.NO_PDU);
+                    log.error("source: {} no responsePDU (null)", source.getIpAddress());
+                    counterService.increment("counter.snmp.logError");
+                }
+
+                // learn bulk size for next walk
+                adaptBulkSize(source, session, rows);
+                polled();
+
+                // keep the rtt estimate, retried requests give no sample
+                if (estimator != null) {
+                    if (session.getTimeoutCount() > 0 && estimator.getSamples() == 0) {
+                        estimator.reset();
+                    }
+                    source.setSrtt(estimator.getSrtt());
+                    source.setRttVar(estimator.getRttVar());
+                }
+            } catch (Exception e) {
+                log.error("source: {} {}", source.getIpAddress(), e.getMessage());
+                counterService.increment("counter.snmp.logError");
+            } finally {
+                finished = true;
+                if (followUp != null) {
+                    if (async) {
+                        walkAsync(followUp);
+                    }
+                } else if (async) {
+                    // not on the dispatcher thread: the store blocks on pending results
+                    try {
+                        completeExecutor.execute(this::complete);
+                    } catch (RejectedExecutionException e) {
+                        complete();
+                    }
+                } else {
+                    complete();
+                }
+            }
+        }
+
+        /**
+         * store the poll result of the source
+         */
+        private void complete() {
+            try {
+                SnmpSourcePollUpdate update = SnmpSourcePollUpdate.of(source, withInterfaces, withMetadata, pollTags, chargeChanged, vlanTag, removedIF)
+                    .storeOffHeap(counterStoreOffHeap);
+                Set<String> polledIF = polledCounters();
+                if (wheelScheduler && withInterfaces && polledIF != null) {
+                    // exported by the export cycle, not by this poll
+                    update.accumulateExport(polledIF);
+                }
+                store.submit(source.getIpAddress(), update);
+                if (polledIF != null) {
+                    // status walks and probes are not polls of the cycle
+                    stats.pollCompleted(source);
+                    latency.record(source, pdus, timeouts);
+                }
+            } finally {
+                if (wheelScheduler && polledCounters() != null) {
+                    scheduler.pollCompleted(source.getIpAddress());
+                }
+                if (onComplete != null) {
+                    onComplete.run();
+                }
+            }
         }
 
-        // set success status
-        source.setStatus(SnmpConstants.SUCCESS);
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
 
-        // proc auto vlanOids
-        updateVlanOid(source);
+        /**
+         * status of the source is known
+         */
+        protected void polled() {
+        }
+
+        /**
+         * the walk returned no rows
+         *
+         * @return true if the source is completed anyway, false to set it down
+         */
+        protected boolean incomplete(TableEvent event) {
+            return false;
+        }
+
+        /**
+         * @return interfaces which counters were polled, null for a status walk
+         */
+        protected Set<String> polledCounters() {
+            return null;
+        }
+
+        protected abstract void firstRow(TableEvent event);
+
+        protected abstract void nextRow(TableEvent event);
+
+        protected abstract void completed();
+    }
 
-        // process ifEntry
-        events.subList(1, events.size()).stream().filter(event -> event != null && !event.isError()).forEach(event -> {
+    private class StatusWalk extends SourceWalk {
+        private long sysUptime;
+        private String uptime;
+        private boolean isSkip;
+        private boolean noIfTable = false;
+
+        StatusWalk(SnmpSource source, Runnable onComplete) {
+            super(source, STATUS_OIDS, onComplete);
+            withMetadata = true;
+        }
+
+        @Override
+        protected void polled() {
+            scheduleNextAttempt(source);
+        }
+
+        @Override
+        protected void firstRow(TableEvent event) {
+            // get source info
+            VariableBinding vbs[] = event.getColumns();
+
+            // process sysUpTime
+            uptime = vbs[0].getVariable().toString();
+            sysUptime = vbs[0].getVariable().toLong();
+            isSkip = validateSkipDelta(source, sysUptime);
+            source.setSysUptime(sysUptime);
+
+            // update system info
+            source.setSysDescr(vbs[1].getVariable().toString());
+            source.setSysObjectID(vbs[2].getVariable().toString());
+            source.setSysName(vbs[3].getVariable().toString());
+            source.setSysLocation(vbs[4].getVariable().toString());
+
+            // validate ifNumber
+            if (vbs[5] == null || (vbs[5] != null && vbs[5].getVariable().toInt() == 0)) {
+                log.warn("source: {} has no interfaces", source.getIpAddress());
+                counterService.increment("counter.snmp.logWarn");
+                source.setStatus(SnmpConstants.NO_IFTABLE);
+                noIfTable = true;
+                return;
+            }
+
+            // set success status
+            source.setStatus(SnmpConstants.SUCCESS);
+
+            // proc auto vlanOids
+            updateVlanOid(source, pollTags);
+        }
+
+        @Override
+        protected void nextRow(TableEvent event) {
+            if (noIfTable) {
+                return;
+            }
 
             if (event.getColumns() == null || event.getColumns().length < 6) {
                 log.warn("source: {} no ifTable in response", source.getIpAddress());
@@ -146,140 +662,363 @@ public class SnmpPoll {
 
             // update sysuptime for first time
             if (!isSkip && ifEntry.getSysUptime() == 0l) {
-                ifEntry.setSysUptime(vbs[0].getVariable().toLong());
+                ifEntry.setSysUptime(sysUptime);
             }
-        });
-        log.info("source: {} update status: SUCCESS, uptime: {}, ifNumber: {}", source.getIpAddress(), uptime, events.size() - 1);
+        }
+
+        @Override
+        protected void completed() {
+            if (!noIfTable) {
+                log.info("source: {} update status: SUCCESS, uptime: {}, ifNumber: {}", source.getIpAddress(), uptime, rows - 1);
+            }
+        }
     }
 
-    @Handler
-    public void pollCounters(Exchange exchange) throws Exception {
-        SnmpSource source = exchange.getIn().getBody(SnmpSource.class);
-        if (log.isDebugEnabled()) {
-            log.debug("source: {} poll counters", source.getIpAddress());
+    private class CounterWalk extends SourceWalk {
+        private final CounterRows counterRows;
+
+        CounterWalk(SnmpSource source, OID[] oids, Runnable onComplete) {
+            super(source, oids, onComplete);
+            withMetadata = true;
+            counterRows = createCounterRows(source, chargeChanged);
         }
 
-        // set Hazelcast Key
-        exchange.getIn().setHeader(HazelcastConstants.OBJECT_ID, source.getIpAddress());
+        @Override
+        protected void firstRow(TableEvent event) {
+            counterRows.next(event);
+        }
 
-        long startPollTime = System.currentTimeMillis();
+        @Override
+        protected void nextRow(TableEvent event) {
+            counterRows.next(event);
+        }
 
-        // validate vlanOID
-        OID vlanOID = null;
-        if (!source.getTags().isEmpty() && source.getTags().get(vlanOidTag) != null && !source.getTags().get(vlanOidTag).isEmpty()) {
-            vlanOID = new OID(source.getTags().get(vlanOidTag));
+        @Override
+        protected void completed() {
+            counterRows.completed(removedIF);
         }
 
-        // get ifTable
-        List<TableEvent> events = getTable(source, getCounterOIDs(vlanOID));
+        @Override
+        protected Set<String> polledCounters() {
+            return counterRows.processedIF;
+        }
+    }
 
-        // update pollTime
-        long endPollTime = System.currentTimeMillis();
-        source.setPollTime(endPollTime);
-        source.setPollResponse((endPollTime - startPollTime));
+    /**
+     * Rows of a counter walk applied to the source as they arrive: the first
+     * row carries sysUpTime, the next ones an ifTable row in COUNTER_OIDS
+     * order. Fed by the counter walk, and by benchmarks from a list without
+     * request and store.
+     */
+    final class CounterRows {
+        private final SnmpSource source;
+        private final Set<String> chargeChanged;
+        private long sysUptime;
+        private String uptime;
+        private int rows = 0;
+        // keep poll ifTable
+        private final Set<String> processedIF = new HashSet<String>();
 
-        // return if no events was received
-        if (events == null)
-            return;
+        private CounterRows(SnmpSource source, Set<String> chargeChanged) {
+            this.source = source;
+            this.chargeChanged = chargeChanged;
+        }
 
-        // process sysUpTime
-        long sysUptime = events.get(0).getColumns()[0].getVariable().toLong();
-        if (!validateSkipDelta(source, sysUptime)) {
-            source.setPollDuration(sysUptime - source.getSysUptime());
+        void next(TableEvent event) {
+            if (rows++ == 0) {
+                firstRow(event);
+            } else {
+                nextRow(event);
+            }
         }
-        source.setSysUptime(sysUptime);
 
-        // keep poll ifTable
-        List<String> processedIF = new ArrayList<String>(events.size());
-
-        // process ifEntry
-        events
-            .subList(1, events.size())
-            .stream()
-            .filter(event -> event != null && !event.isError())
-            .forEach(event -> {
-                VariableBinding vb[] = event.getColumns();
-
-                // validate ifDescr
-                if (vb == null || vb.length < 1 || vb[1] == null) {
+        private void firstRow(TableEvent event) {
+            // process sysUpTime
+            uptime = event.getColumns()[0].getVariable().toString();
+            sysUptime = event.getColumns()[0].getVariable().toLong();
+            if (!validateSkipDelta(source, sysUptime)) {
+                source.setPollDuration(sysUptime - source.getSysUptime());
+            }
+            source.setSysUptime(sysUptime);
+        }
+
+        private void nextRow(TableEvent event) {
+            VariableBinding vb[] = event.getColumns();
+
+            // validate ifDescr
+            if (vb == null || vb.length < 1 || vb[1] == null) {
+                log.warn("source: {} no ifDescr for index: {}", source.getIpAddress(), event.getIndex().get(0));
+                counterService.increment("counter.snmp.logWarn");
+                return;
+            }
+
+            // get ifEntry
+            String ifdescr = vb[1].getVariable().toString();
+            SnmpInterface ifEntry = source.getSnmpInterface(ifdescr);
+
+            // update status, alias
+            updateIfEntry(ifEntry, event, 6);
+
+            // process vlan, counters
+            if (updateCounters(source, ifEntry, vb, 2, COUNTER_OIDS.length, sysUptime)) {
+                chargeChanged.add(ifdescr);
+            }
+
+            // add to processed list
+            processedIF.add(ifdescr);
+        }
+
+        /**
+         * @param removedIF interfaces removed from the source, filled
+         */
+        void completed(Set<String> removedIF) {
+            completeCounters(source, processedIF, removedIF);
+
+            // keep metadata time for the fast tier
+            source.rebuildIfIndexTable();
+            source.setMetadataTime(System.currentTimeMillis());
+
+            if (log.isDebugEnabled()) {
+                log.debug("source: {} uptime: {}, ifNumber: {}", source.getIpAddress(), uptime, rows - 1);
+            }
+        }
+    }
+
+    /**
+     * fast tier: walk sysUpTime, octets and status columns keyed by ifIndex.
+     * Unknown or missing ifIndex (or reboot) chains an immediate metadata walk.
+     */
+    private class FastCounterWalk extends SourceWalk {
+        private long sysUptime;
+        private String uptime;
+        private boolean rebooted;
+        private final Set<String> processedIF = new HashSet<String>();
+        private final List<TableEvent> unresolved = new ArrayList<TableEvent>();
+
+        FastCounterWalk(SnmpSource source, OID[] oids, Runnable onComplete) {
+            super(source, oids, onComplete);
+        }
+
+        @Override
+        protected void firstRow(TableEvent event) {
+            // process sysUpTime
+            uptime = event.getColumns()[0].getVariable().toString();
+            sysUptime = event.getColumns()[0].getVariable().toLong();
+            rebooted = validateSkipDelta(source, sysUptime);
+            if (!rebooted) {
+                source.setPollDuration(sysUptime - source.getSysUptime());
+            }
+            source.setSysUptime(sysUptime);
+        }
+
+        @Override
+        protected void nextRow(TableEvent event) {
+            VariableBinding vb[] = event.getColumns();
+            if (vb == null || vb.length < FAST_COUNTER_OIDS.length) {
+                return;
+            }
+
+            // get ifEntry by ifIndex
+            SnmpInterface ifEntry = source.getSnmpInterface(event.getIndex().get(0));
+            if (ifEntry == null) {
+                unresolved.add(event);
+                return;
+            }
+
+            updateIfStatus(ifEntry, vb, 5);
+            if (updateCounters(source, ifEntry, vb, 1, FAST_COUNTER_OIDS.length, sysUptime)) {
+                chargeChanged.add(ifEntry.getIfDescr());
+            }
+            processedIF.add(ifEntry.getIfDescr());
+        }
+
+        @Override
+        protected void completed() {
+            if (rebooted || !unresolved.isEmpty() || processedIF.size() != source.getIftable().size()) {
+                log.info("source: {} ifIndex changed (unknown: {}, polled: {} of {}), refresh metadata", source.getIpAddress(), unresolved.size(), processedIF.size(),
+                         source.getIftable().size());
+                chain(new MetadataWalk(source, this));
+                return;
+            }
+            completeCounters(source, processedIF, removedIF);
+
+            if (log.isDebugEnabled()) {
+                log.debug("source: {} uptime: {}, ifNumber: {}", source.getIpAddress(), uptime, rows - 1);
+            }
+        }
+
+        @Override
+        protected Set<String> polledCounters() {
+            return processedIF;
+        }
+    }
+
+    /**
+     * slow tier: refresh ifDescr, ifName, ifAlias and rebuild the ifIndex mapping,
+     * then complete the pending fast walk rows
+     */
+    private class MetadataWalk extends SourceWalk {
+        private final FastCounterWalk pending;
+
+        MetadataWalk(SnmpSource source, FastCounterWalk pending) {
+            super(source, METADATA_OIDS, pending.onComplete);
+            this.pending = pending;
+            withMetadata = true;
+        }
+
+        @Override
+        protected void firstRow(TableEvent event) {
+            nextRow(event);
+        }
+
+        @Override
+        protected void nextRow(TableEvent event) {
+            VariableBinding vb[] = event.getColumns();
+
+            // validate ifDescr
+            if (vb == null || vb[0] == null || "".equals(vb[0].getVariable().toString())) {
+                log.warn("source: {} no ifDescr for index: {}", source.getIpAddress(), event.getIndex().get(0));
+                counterService.increment("counter.snmp.logWarn");
+                return;
+            }
+
+            SnmpInterface ifEntry = source.getSnmpInterface(vb[0].getVariable().toString());
+            ifEntry.setIfIndex(event.getIndex().get(0));
+            if (vb.length > 1 && vb[1] != null) {
+                ifEntry.setIfName(vb[1].getVariable().toString());
+            }
+            if (vb.length > 2 && vb[2] != null) {
+                ifEntry.setIfAlias(vb[2].getVariable().toString());
+            }
+        }
+
+        @Override
+        protected void completed() {
+            source.rebuildIfIndexTable();
+            source.setMetadataTime(System.currentTimeMillis());
+
+            // process fast rows of new ifIndex
+            for (TableEvent event : pending.unresolved) {
+                SnmpInterface ifEntry = source.getSnmpInterface(event.getIndex().get(0));
+                if (ifEntry == null) {
                     log.warn("source: {} no ifDescr for index: {}", source.getIpAddress(), event.getIndex().get(0));
                     counterService.increment("counter.snmp.logWarn");
-                    return;
+                    continue;
                 }
+                updateIfStatus(ifEntry, event.getColumns(), 5);
+                if (updateCounters(source, ifEntry, event.getColumns(), 1, FAST_COUNTER_OIDS.length, pending.sysUptime)) {
+                    chargeChanged.add(ifEntry.getIfDescr());
+                }
+                pending.processedIF.add(ifEntry.getIfDescr());
+            }
+            completeCounters(source, pending.processedIF, removedIF);
+        }
 
-                // get ifEntry
-                String ifdescr = vb[1].getVariable().toString();
-                SnmpInterface ifEntry = source.getSnmpInterface(ifdescr);
-
-                // update status, alias
-                updateIfEntry(ifEntry, event, 6);
-
-                // process vlanID
-                if (vb.length > COUNTER_OIDS.length && vb[COUNTER_OIDS.length] != null) {
-                    String vlanid = vb[COUNTER_OIDS.length].getVariable().toString();
-
-                    if (!ifEntry.getTags().containsKey(vlanTag)) {
-                        // auto charge up iface for first time
-                        if (ifEntry.isUp()) {
-                            ifEntry.setChargeable(true);
-                            log.info("source: {} interface ifdescr: {} set chargeable on autodiscover vlan: {}", source.getIpAddress(), ifdescr, vlanid);
-                        }
-
-                    } else if (!vlanid.equals(ifEntry.getTags().get(vlanTag))) {
-                        // processing change pvid
-                        if (!ifEntry.isChargeable()) {
-                            ifEntry.setChargeable(true);
-                            log.info("source: {} interface ifdescr: {} set chargeable on change vlan: {} to {}", source.getIpAddress(), ifdescr, ifEntry.getTags().get(vlanTag),
-                                     vlanid);
-                        } else if (ifEntry.getIfAdminStatus() == 1) {
-                            // set chargeable if AdminStatus is UP
-                            ifEntry.setChargeable(false);
-                            log.info("source: {} interface ifdescr: {} clear chargeable on change vlan: {} to {}", source.getIpAddress(), ifdescr, ifEntry.getTags().get(vlanTag),
-                                     vlanid);
-                        } else {
-                            log.info("source: {} interface ifdescr: {} change vlan: {} to {}", source.getIpAddress(), ifdescr, ifEntry.getTags().get(vlanTag), vlanid);
-                        }
-
-                    } else if (ifEntry.getIfAdminStatus() != 1 && ifEntry.isChargeable()) {
-                        // clear charge for adminStatus down
-                        ifEntry.setChargeable(false);
-                        log.info("source: {} interface ifdescr: {} clear chargeable on AdminStatus: Down vlan: {}", source.getIpAddress(), ifdescr, vlanid);
-                    }
+        /**
+         * metadata walk failed: the counter walk did not, keep the source ready
+         * with the rows of the known ifIndex. Unresolved rows and interfaces not
+         * polled are left as they are, the metadata is walked again next cycle.
+         */
+        @Override
+        protected boolean incomplete(TableEvent event) {
+            log.warn("source: {} metadata walk failed: {}, completed {} interfaces of known ifIndex", source.getIpAddress(),
+                     (event != null && event.isError()) ? event.getErrorMessage() : "no responsePDU", pending.processedIF.size());
+            counterService.increment("counter.snmp.logWarn");
+            withMetadata = false;
+            // skip delta of the unresolved rows again after reboot
+            if (pending.unresolved.isEmpty() && source.isSkipDelta()) {
+                source.setSkipDelta(false);
+            }
+            for (String ifdescr : pending.processedIF) {
+                source.getSnmpInterface(ifdescr).setMarked(false);
+            }
+            return true;
+        }
 
-                    // update interface pvid
-                    ifEntry.getTags().put(vlanTag, vlanid);
-                }
+        @Override
+        protected Set<String> polledCounters() {
+            return pending.processedIF;
+        }
+    }
 
-                // get ifInOctets, ifOutOctets
-                SnmpCounter bytes_in = getCounterValue(vb[2], vb[3]);
-                SnmpCounter bytes_out = getCounterValue(vb[4], vb[5]);
+    /**
+     * process interface vlan and counters
+     * 
+     * @param pos position of ifInOctets column
+     * @param vlanPos position of vlan column
+     * @return true if chargeable or vlan tag is changed
+     */
+    private boolean updateCounters(SnmpSource source, SnmpInterface ifEntry, VariableBinding vb[], int pos, int vlanPos, long sysUptime) {
+        String ifdescr = ifEntry.getIfDescr();
+        boolean chargeable = ifEntry.isChargeable();
+        boolean vlanChanged = false;
+
+        // process vlanID
+        if (vb.length > vlanPos && vb[vlanPos] != null) {
+            String vlanid = vb[vlanPos].getVariable().toString();
+
+            if (!ifEntry.getTags().containsKey(vlanTag)) {
+                // auto charge up iface for first time
+                if (ifEntry.isUp()) {
+                    ifEntry.setChargeable(true);
+                    log.info("source: {} interface ifdescr: {} set chargeable on autodiscover vlan: {}", source.getIpAddress(), ifdescr, vlanid);
+                }
 
-                // calculate delta counters
-                if (!source.isSkipDelta() && ifEntry.isUp()) {
-                    ifEntry.setPollInOctets(calcDeltaCounter(source.getIpAddress(), ifdescr, bytes_in, ifEntry.getIfInOctets()));
-                    ifEntry.setPollOutOctets(calcDeltaCounter(source.getIpAddress(), ifdescr, bytes_out, ifEntry.getIfOutOctets()));
+            } else if (!vlanid.equals(ifEntry.getTags().get(vlanTag))) {
+                // processing change pvid
+                if (!ifEntry.isChargeable()) {
+                    ifEntry.setChargeable(true);
+                    log.info("source: {} interface ifdescr: {} set chargeable on change vlan: {} to {}", source.getIpAddress(), ifdescr, ifEntry.getTags().get(vlanTag),
+                             vlanid);
+                } else if (ifEntry.getIfAdminStatus() == 1) {
+                    // set chargeable if AdminStatus is UP
+                    ifEntry.setChargeable(false);
+                    log.info("source: {} interface ifdescr: {} clear chargeable on change vlan: {} to {}", source.getIpAddress(), ifdescr, ifEntry.getTags().get(vlanTag),
+                             vlanid);
+                } else {
+                    log.info("source: {} interface ifdescr: {} change vlan: {} to {}", source.getIpAddress(), ifdescr, ifEntry.getTags().get(vlanTag), vlanid);
                 }
 
-                // save counter values
-                ifEntry.setIfInOctets(bytes_in);
-                ifEntry.setIfOutOctets(bytes_out);
+            } else if (ifEntry.getIfAdminStatus() != 1 && ifEntry.isChargeable()) {
+                // clear charge for adminStatus down
+                ifEntry.setChargeable(false);
+                log.info("source: {} interface ifdescr: {} clear chargeable on AdminStatus: Down vlan: {}", source.getIpAddress(), ifdescr, vlanid);
+            }
 
-                // add to processed list
-                processedIF.add(ifdescr);
+            // update interface pvid
+            vlanChanged = !vlanid.equals(ifEntry.getTags().put(vlanTag, vlanid));
+        }
 
-                // update uptime
-                ifEntry.setSysUptime(sysUptime);
-            });
+        // get ifInOctets, ifOutOctets
+        int inType = getCounterType(vb[pos], vb[pos + 1]);
+        long inOctets = getCounterValue(vb[pos], vb[pos + 1], inType);
+        int outType = getCounterType(vb[pos + 2], vb[pos + 3]);
+        long outOctets = getCounterValue(vb[pos + 2], vb[pos + 3], outType);
+
+        // calculate delta counters
+        if (!source.isSkipDelta() && ifEntry.isUp()) {
+            ifEntry.setPollInOctets(calcDeltaCounter(source.getIpAddress(), ifdescr, inOctets, inType, ifEntry.getInOctets(), ifEntry.getInOctetsType()));
+            ifEntry.setPollOutOctets(calcDeltaCounter(source.getIpAddress(), ifdescr, outOctets, outType, ifEntry.getOutOctets(), ifEntry.getOutOctetsType()));
+        }
 
+        // save counter values
+        ifEntry.setInOctets(inOctets, inType);
+        ifEntry.setOutOctets(outOctets, outType);
+
+        // update uptime
+        ifEntry.setSysUptime(sysUptime);
+        return vlanChanged || chargeable != ifEntry.isChargeable();
+    }
+
+    /**
+     * @param removedIF interfaces removed from the source, filled
+     */
+    private void completeCounters(SnmpSource source, Set<String> processedIF, Set<String> removedIF) {
         // reset skipDelta
         if (source.isSkipDelta()) {
             source.setSkipDelta(false);
         }
 
-        if (log.isDebugEnabled()) {
-            log.debug("source: {} uptime: {}, ifNumber: {}", source.getIpAddress(), events.get(0).getColumns()[0].getVariable().toString(), events.size() - 1);
-        }
-
         // validate source ifTable
         List<String> toremove = source.getIftable().keySet().stream().filter(ifdescr -> !processedIF.contains(ifdescr)).collect(Collectors.toList());
         // process not existing interfaces
@@ -287,6 +1026,7 @@ public class SnmpPoll {
             for (String ifdescr : toremove) {
                 if (source.getSnmpInterface(ifdescr).isMarked()) {
                     source.removeSnmpInterace(ifdescr);
+                    removedIF.add(ifdescr);
                     log.info("source: {} removed interface ifdescr: {}", source.getIpAddress(), ifdescr);
                 } else {
                     source.getSnmpInterface(ifdescr).setMarked(true);
@@ -303,69 +1043,105 @@ public class SnmpPoll {
         }
     }
 
-    private List<TableEvent> getTable(SnmpSource source, OID[] oids) throws Exception {
-
-        TableUtils tUtils = new TableUtils(snmp, new DefaultPDUFactory());
-        List<TableEvent> events = tUtils.getTable(source.getTarget(), oids, null, null);
+    private int getMaxRepetitions(SnmpSource source) {
+        if (!bulkAdaptive || source.getMaxRepetitions() == 0) {
+            return DefaultPDUFactory.GETBULK_DEFAULT_MAX_REPETITIONS;
+        }
+        return source.getMaxRepetitions();
+    }
 
-        // validate timeout
-        if (events.size() == 1 && events.get(0).isError()) {
-            log.error("source: {} {}", source.getIpAddress(), events.get(0).getErrorMessage());
-            source.setStatus(SnmpConstants.TIMEOUT);
-            counterService.increment("counter.snmp.logError");
-            return null;
+    /**
+     * backoff of the status poll of a down source: the next attempt after min,
+     * 2 * min, 4 * min ... up to max seconds, jittered so that sources down
+     * together spread out; reset when ready
+     */
+    private void scheduleNextAttempt(SnmpSource source) {
+        if (SnmpConstants.SUCCESS.equals(source.getStatus()) || statusBackoffMax <= 0) {
+            source.setStatusFailures(0);
+            source.setNextAttempt(0);
+            return;
+        }
+        int failures = source.getStatusFailures() + 1;
+        long delay = Math.min(statusBackoffMax, statusBackoffMin << Math.min(failures - 1, 20)) * 1000L;
+        double jitter = 1 + statusBackoffJitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        source.setStatusFailures(failures);
+        source.setNextAttempt(System.currentTimeMillis() + (long)(delay * jitter));
+        if (log.isDebugEnabled()) {
+            log.debug("source: {} status {} failures: {}, next attempt in {} s", source.getIpAddress(), source.getStatus(), failures,
+                      (long)(delay * jitter) / 1000);
         }
+    }
 
-        // validate NO PDU
-        if (events == null || events.isEmpty()) {
-            source.setStatus(SnmpConstants.NO_PDU);
-            log.error("source: {} no responsePDU (null)", source.getIpAddress());
-            counterService.increment("counter.snmp.logError");
-            return null;
+    /**
+     * adapt source GETBULK max-repetitions to reduce the number of PDUs per walk:
+     * shrink on tooBig, timeout or truncated response, grow while rtt is fast and
+     * the walk still takes more than one PDU
+     */
+    private void adaptBulkSize(SnmpSource source, PollSession session, int rows) {
+        if (!bulkAdaptive) {
+            return;
         }
 
-        return events;
-    }
+        int current = getMaxRepetitions(source);
+        int next = current;
+        if (session.getTooBigCount() > 0 || session.getResponseCount() == 0) {
+            next = current / 2;
+        } else if (session.getTruncatedCount() > 0) {
+            next = session.getMinRepetitions();
+        } else if (session.getResponseCount() > 1 && session.getAvgRtt() < bulkMaxRtt && current < rows) {
+            next = Math.min(current + (current >> 1), rows);
+        }
 
-    private SnmpCounter getCounterValue(VariableBinding vb32, VariableBinding vb64) {
+        // keep max response size seen before tooBig
+        if (session.getTooBigCount() > 0 && session.getMaxResponseSize() > 0) {
+            source.setMaxResponseSize(session.getMaxResponseSize());
+        }
+        if (source.getMaxResponseSize() > 0 && session.getBytesPerRepetition() > 0) {
+            next = Math.min(next, source.getMaxResponseSize() / session.getBytesPerRepetition());
+        }
 
-        SnmpCounter counter = new SnmpCounter();
+        next = Math.max(bulkMinRepetitions, Math.min(bulkMaxRepetitions, next));
+        if (next != current && log.isDebugEnabled()) {
+            log.debug("source: {} set maxRepetitions: {} (was {}, pdu: {}, rtt: {} ms, tooBig: {}, truncated: {})", source.getIpAddress(), next, current,
+                      session.getResponseCount(), session.getAvgRtt(), session.getTooBigCount(), session.getTruncatedCount());
+        }
+        source.setMaxRepetitions(next);
+    }
 
-        if (vb32 != null && vb64 != null) {
-            if (vb64.getVariable().toLong() > vb32.getVariable().toLong()) {
-                counter.setValue(vb64.getVariable().toLong());
-                counter.setType(64);
-            } else {
-                counter.setValue(vb32.getVariable().toLong());
-            }
-        } else if (vb64 != null) {
-            counter.setValue(vb64.getVariable().toLong());
-            counter.setType(64);
-        } else if (vb32 != null) {
-            counter.setValue(vb32.getVariable().toLong());
+    /**
+     * @return 64 if the HC counter is used, 32 otherwise
+     */
+    private int getCounterType(VariableBinding vb32, VariableBinding vb64) {
+        if (vb64 != null && (vb32 == null || vb64.getVariable().toLong() > vb32.getVariable().toLong())) {
+            return 64;
         }
-        return counter;
+        return 32;
+    }
+
+    long getCounterValue(VariableBinding vb32, VariableBinding vb64, int type) {
+        VariableBinding vb = (type == 64) ? vb64 : vb32;
+        return (vb != null) ? vb.getVariable().toLong() : 0L;
     }
 
-    private long calcDeltaCounter(String sourceIpAddr, String ifDescr, SnmpCounter pollCounter, SnmpCounter lastCounter) {
+    long calcDeltaCounter(String sourceIpAddr, String ifDescr, long pollValue, int pollType, long lastValue, int lastType) {
 
-        if (pollCounter.getValue() > lastCounter.getValue()) {
-            return pollCounter.getValue() - lastCounter.getValue();
+        if (pollValue > lastValue) {
+            return pollValue - lastValue;
         }
 
-        if (pollCounter.getValue() == 0 && lastCounter.getValue() > 0) {
-            log.warn("source: {} fake counter overflow on ifdescr '{}' (recv={}, last={})", sourceIpAddr, ifDescr, pollCounter, lastCounter);
+        if (pollValue == 0 && lastValue > 0) {
+            log.warn("source: {} fake counter overflow on ifdescr '{}' (recv={}:{}, last={}:{})", sourceIpAddr, ifDescr, pollValue, pollType, lastValue, lastType);
             counterService.increment("counter.snmp.logWarn");
             return 0L;
         }
 
-        if (pollCounter.getValue() < lastCounter.getValue() && pollCounter.getType() == lastCounter.getType()) {
-            if (pollCounter.getType() == 32) {
-                log.info("source: {} overflow 32bit counter on ifdescr '{}' (recv={}, last={})", sourceIpAddr, ifDescr, pollCounter, lastCounter);
+        if (pollValue < lastValue && pollType == lastType) {
+            if (pollType == 32) {
+                log.info("source: {} overflow 32bit counter on ifdescr '{}' (recv={}:{}, last={}:{})", sourceIpAddr, ifDescr, pollValue, pollType, lastValue, lastType);
                 counterService.increment("counter.snmp.logInfo");
-                return COUNTER32_MAX_VALUE + pollCounter.getValue() - lastCounter.getValue();
+                return COUNTER32_MAX_VALUE + pollValue - lastValue;
             } else {
-                log.warn("source: {} overflow 64bit counter on ifdescr '{}' (recv={}, last={})", sourceIpAddr, ifDescr, pollCounter, lastCounter);
+                log.warn("source: {} overflow 64bit counter on ifdescr '{}' (recv={}:{}, last={}:{})", sourceIpAddr, ifDescr, pollValue, pollType, lastValue, lastType);
                 counterService.increment("counter.snmp.logWarn");
                 return 0L;
             }
@@ -378,15 +1154,8 @@ public class SnmpPoll {
         // update ifindex
         ifEntry.setIfIndex(event.getIndex().get(0));
 
-        // update adminStatus
-        if (event.getColumns()[pos] != null) {
-            ifEntry.setIfAdminStatus(event.getColumns()[pos].getVariable().toInt());
-        }
-
-        // update operStatus
-        if (event.getColumns()[pos + 1] != null) {
-            ifEntry.setIfOperStatus(event.getColumns()[pos + 1].getVariable().toInt());
-        }
+        // update adminStatus, operStatus
+        updateIfStatus(ifEntry, event.getColumns(), pos);
 
         // update ifName
         if (event.getColumns()[pos + 2] != null) {
@@ -399,6 +1168,19 @@ public class SnmpPoll {
         }
     }
 
+    private void updateIfStatus(SnmpInterface ifEntry, VariableBinding vb[], int pos) {
+
+        // update adminStatus
+        if (vb[pos] != null) {
+            ifEntry.setIfAdminStatus(vb[pos].getVariable().toInt());
+        }
+
+        // update operStatus
+        if (vb[pos + 1] != null) {
+            ifEntry.setIfOperStatus(vb[pos + 1].getVariable().toInt());
+        }
+    }
+
     private boolean validateSkipDelta(SnmpSource source, long sysUptime) {
         if (source.getSysUptime() != 0 && source.getSysUptime() > sysUptime) {
             log.warn("source: {} rebooted. Reset all counters", source.getIpAddress());
@@ -411,16 +1193,24 @@ public class SnmpPoll {
         return false;
     }
 
-    private OID[] getCounterOIDs(OID vlanOID) {
+    private OID getVlanOID(SnmpSource source) {
+        // validate vlanOID
+        if (!source.getTags().isEmpty() && source.getTags().get(vlanOidTag) != null && !source.getTags().get(vlanOidTag).isEmpty()) {
+            return new OID(source.getTags().get(vlanOidTag));
+        }
+        return null;
+    }
+
+    private OID[] appendOID(OID[] oids, OID vlanOID) {
         if (vlanOID != null) {
-            OID[] counterOIDs = Arrays.copyOf(COUNTER_OIDS, COUNTER_OIDS.length + 1);
-            counterOIDs[COUNTER_OIDS.length] = vlanOID;
+            OID[] counterOIDs = Arrays.copyOf(oids, oids.length + 1);
+            counterOIDs[oids.length] = vlanOID;
             return counterOIDs;
         }
-        return COUNTER_OIDS;
+        return oids;
     }
 
-    private void updateVlanOid(SnmpSource source) {
+    private void updateVlanOid(SnmpSource source, Map<String, String> pollTags) {
         final String enterprise = "1.3.6.1.4.1";
 
         if (source.getTags().get(vlanOidTag) == null) {
@@ -430,6 +1220,7 @@ public class SnmpPoll {
                 int pos1 = value.indexOf(enterprise);
                 if (vendorId == value.substring(pos1 + enterprise.length() + 1).charAt(0)) {
                     source.getTags().put(vlanOidTag, value);
+                    pollTags.put(vlanOidTag, value);
                     log.info("source: {} set vlan_oid: {}", source.getIpAddress(), value);
                 }
             }
@@ -0,0 +1,265 @@
+package org.openfs.snmpcg;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.camel.Handler;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.Snmp;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.WorkerPool;
+import org.snmp4j.util.WorkerTask;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * SNMP session over N UDP sockets. Sources are striped across the sockets by
+ * ip address and responses are decoded by a multi-threaded dispatcher.
+ */
+@Component("snmpTransport")
+public class SnmpTransport {
+    private static final Logger log = LoggerFactory.getLogger(SnmpTransport.class);
+
+    private final List<StripeTransportMapping> stripes = new ArrayList<StripeTransportMapping>();
+    private final Snmp snmp;
+    private DispatchWorkerPool workerPool;
+
+    @Autowired
+    public SnmpTransport(@Value("${snmpcg.transportSockets:1}") int sockets, @Value("${snmpcg.transportReceiveBufferSize:0}") int receiveBufferSize,
+                         @Value("${snmpcg.transportSendBufferSize:0}") int sendBufferSize, @Value("${snmpcg.dispatcherThreads:0}") int dispatcherThreads,
+                         @Value("${snmpcg.dispatcherQueueSize:10000}") int dispatcherQueueSize) throws IOException {
+
+        MessageDispatcher dispatcher = new MessageDispatcherImpl();
+        dispatcher.addMessageProcessingModel(new MPv1());
+        dispatcher.addMessageProcessingModel(new MPv2c());
+        if (dispatcherThreads > 0) {
+            workerPool = new DispatchWorkerPool(dispatcherThreads, dispatcherQueueSize);
+            dispatcher = new MultiThreadedMessageDispatcher(workerPool, dispatcher);
+        }
+
+        for (int i = 0; i < Math.max(1, sockets); i++) {
+            StripeTransportMapping transport = new StripeTransportMapping(sendBufferSize);
+            if (receiveBufferSize > 0) {
+                transport.setReceiveBufferSize(receiveBufferSize);
+            }
+            transport.setThreadName("SnmpTransport-" + i);
+            stripes.add(transport);
+        }
+
+        snmp = new Snmp(dispatcher, stripes.get(0));
+        stripes.subList(1, stripes.size()).forEach(snmp::addTransportMapping);
+        snmp.listen();
+        log.info("snmp transport listen on {} socket(s), dispatcher threads: {}", stripes.size(), dispatcherThreads);
+    }
+
+    public Snmp getSnmp() {
+        return snmp;
+    }
+
+    /**
+     * @return socket for the source, by hash of ip address
+     */
+    public TransportMapping<? extends Address> getTransport(SnmpSource source) {
+        if (stripes.size() == 1) {
+            return stripes.get(0);
+        }
+        return stripes.get((source.getIpAddress().hashCode() & Integer.MAX_VALUE) % stripes.size());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        snmp.close();
+        if (workerPool != null) {
+            workerPool.stop();
+        }
+    }
+
+    /**
+     * rest handler to get transport stats
+     *
+     * @return per socket sent, received, kernel drops and queue, dispatcher queue
+     *         depth
+     */
+    @Handler
+    public Map<String, Object> getStatus() {
+        Map<Integer, long[]> udpStats = readUdpStats();
+        List<Map<String, Object>> sockets = new ArrayList<Map<String, Object>>(stripes.size());
+        for (StripeTransportMapping stripe : stripes) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            int port = stripe.getListenAddress().getPort();
+            map.put("port", port);
+            map.put("receiveBufferSize", stripe.getReceiveBufferSize());
+            map.put("sentMessages", stripe.sentMessages.get());
+            map.put("receivedMessages", stripe.receivedMessages.get());
+            long[] udp = udpStats.get(port);
+            if (udp != null) {
+                map.put("rxQueue", udp[0]);
+                map.put("drops", udp[1]);
+            }
+            sockets.add(map);
+        }
+
+        Map<String, Object> answer = new HashMap<String, Object>();
+        answer.put("sockets", sockets);
+        if (workerPool != null) {
+            answer.put("dispatcherThreads", workerPool.executor.getPoolSize());
+            answer.put("dispatcherActive", workerPool.executor.getActiveCount());
+            answer.put("dispatcherQueue", workerPool.executor.getQueue().size());
+            answer.put("dispatcherCompleted", workerPool.executor.getCompletedTaskCount());
+            answer.put("dispatcherCallerRuns", workerPool.callerRuns.get());
+        }
+        return answer;
+    }
+
+    /**
+     * read rx_queue and drops per local port from /proc/net/udp (linux only)
+     */
+    private Map<Integer, long[]> readUdpStats() {
+        Map<Integer, long[]> answer = new HashMap<Integer, long[]>();
+        for (String name : new String[] {"/proc/net/udp", "/proc/net/udp6"}) {
+            Path path = Paths.get(name);
+            if (!Files.isReadable(path)) {
+                continue;
+            }
+            try {
+                Files.readAllLines(path).stream().skip(1).forEach(line -> {
+                    String[] fields = line.trim().split("\\s+");
+                    if (fields.length < 13) {
+                        return;
+                    }
+                    String local = fields[1];
+                    int port = Integer.parseInt(local.substring(local.lastIndexOf(':') + 1), 16);
+                    String queues = fields[4];
+                    long rxQueue = Long.parseLong(queues.substring(queues.indexOf(':') + 1), 16);
+                    long drops = Long.parseLong(fields[fields.length - 1]);
+                    answer.put(port, new long[] {rxQueue, drops});
+                });
+            } catch (IOException | RuntimeException e) {
+                log.warn("read {} failed: {}", name, e.getMessage());
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * udp socket with send buffer size and message counters
+     */
+    static class StripeTransportMapping extends DefaultUdpTransportMapping {
+        private final int sendBufferSize;
+        private final AtomicLong sentMessages = new AtomicLong();
+        private final AtomicLong receivedMessages = new AtomicLong();
+
+        StripeTransportMapping(int sendBufferSize) throws IOException {
+            super(new UdpAddress("0.0.0.0/0"));
+            this.sendBufferSize = sendBufferSize;
+            applySendBufferSize(socket);
+        }
+
+        @Override
+        public void sendMessage(UdpAddress targetAddress, byte[] message, TransportStateReference tmStateReference) throws IOException {
+            sentMessages.incrementAndGet();
+            super.sendMessage(targetAddress, message, tmStateReference);
+        }
+
+        @Override
+        protected void fireProcessMessage(Address address, ByteBuffer buf, TransportStateReference tmStateReference) {
+            receivedMessages.incrementAndGet();
+            super.fireProcessMessage(address, buf, tmStateReference);
+        }
+
+        @Override
+        protected DatagramSocket renewSocketAfterException(SocketException exception, DatagramSocket failedSocket) throws SocketException {
+            DatagramSocket renewed = super.renewSocketAfterException(exception, failedSocket);
+            applySendBufferSize(renewed);
+            return renewed;
+        }
+
+        private void applySendBufferSize(DatagramSocket datagramSocket) throws SocketException {
+            if (sendBufferSize > 0 && datagramSocket != null) {
+                datagramSocket.setSendBufferSize(sendBufferSize);
+            }
+        }
+    }
+
+    /**
+     * bounded dispatcher pool, the listen thread decodes itself when the queue is
+     * full
+     */
+    static class DispatchWorkerPool implements WorkerPool {
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong callerRuns = new AtomicLong();
+
+        DispatchWorkerPool(int threads, int queueSize) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), r -> {
+                Thread thread = new Thread(r, "SnmpDispatcher-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, (r, e) -> {
+                callerRuns.incrementAndGet();
+                if (!e.isShutdown()) {
+                    r.run();
+                }
+            });
+        }
+
+        @Override
+        public void execute(WorkerTask task) {
+            executor.execute(task);
+        }
+
+        @Override
+        public boolean tryToExecute(WorkerTask task) {
+            try {
+                executor.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void stop() {
+            executor.shutdown();
+        }
+
+        @Override
+        public void cancel() {
+            executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isIdle() {
+            return executor.getActiveCount() == 0 && executor.getQueue().isEmpty();
+        }
+    }
+}
@@ -1,16 +1,19 @@
 package org.openfs.snmpcg;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.DoubleSummaryStatistics;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
 import java.util.regex.Pattern;
@@ -20,6 +23,7 @@ import javax.annotation.PostConstruct;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Handler;
+import org.apache.camel.TypeConversionException;
 import org.apache.camel.util.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,10 +33,17 @@ import org.springframework.boot.actuate.metrics.CounterService;
 import org.springframework.boot.actuate.metrics.GaugeService;
 import org.springframework.stereotype.Service;
 import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpInterfaceConfigUpdate;
 import org.openfs.snmpcg.model.SnmpSource;
+import org.openfs.snmpcg.model.SnmpSourceConfigUpdate;
+import org.openfs.snmpcg.model.SnmpSourceExportAck;
 import org.openfs.snmpcg.model.SnmpConstants;
 
+import com.hazelcast.core.ExecutionCallback;
+import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
+import com.hazelcast.query.Predicate;
+import com.hazelcast.query.Predicates;
 
 @Service("snmpSources")
 public class SourceInventoryService {
@@ -63,16 +74,42 @@ public class SourceInventoryService {
     @Value("${snmpcg.sourceVlanOidTag:vlan_oid}")
     private String vlanOidTag;
 
+    @Value("${snmpcg.exportBatchSize:1000}")
+    private int exportBatchSize;
+
     @Autowired
     private ConcurrentMap<String, SnmpSource> sources;
 
     @Autowired
     private IMap<String, Object> config;
 
-    private SimpleDateFormat timeStampFormat;
+    @Autowired
+    private HazelcastInstance instance;
+
+    @Value("${snmpcg.clusterPoll:false}")
+    private boolean clusterPoll;
+
+    @Autowired
+    private CounterJournal journal;
+
+    @Autowired
+    private InventoryStats stats;
+
+    @Autowired
+    private RequestGovernor governor;
+
+    // compiled on config change
+    private volatile CdrRecordLayout recordLayout;
     private final static Pattern IPADDR_PATTERN = Pattern.compile("\\d+.\\d+.\\d+.\\d+");
 
     private StopWatch polltimer = new StopWatch();
+    // export window of the scheduled poll
+    private volatile long exportFrom;
+    private volatile long exportTo;
+    // keys of the wheel scheduler export cycle, records carry the accumulated traffic
+    private volatile Set<String> exportCycle;
+    // acknowledgements of the traffic exported by the cycle
+    private final Map<String, SnmpSourceExportAck> exportAcks = new ConcurrentHashMap<String, SnmpSourceExportAck>();
     private CounterService counterSources;
     private GaugeService gaugeSources;
 
@@ -100,15 +137,13 @@ public class SourceInventoryService {
 
         if (!config.containsKey("cdrTimeStampFormat")) {
             config.put("cdrTimeStampFormat", cdrTimeStampFormat);
-            timeStampFormat = new SimpleDateFormat(cdrTimeStampFormat);
-        } else {
-            timeStampFormat = new SimpleDateFormat(config.get("cdrTimeStampFormat").toString());
         }
         if (!config.containsKey(fieldSeparator)) {
             config.put("cdrFieldSeparator", fieldSeparator);
         } else {
             fieldSeparator = config.get("cdrFieldSeparator").toString();
         }
+        getRecordLayout();
         log.info("init config");
     }
 
@@ -169,8 +204,14 @@ public class SourceInventoryService {
                 Map<String, String> tags = (Map<String, String>)data.get("tags");
                 source.addTags(tags);
             }
+            if (data.get("pollInterval") != null) {
+                source.setPollInterval((int)data.get("pollInterval"));
+            }
+            // continue delta counters after restart
+            journal.restore(source);
             // commit
             sources.put(host, source);
+            stats.update(source);
             sb.append(host).append(" to next poll with community:").append(hostCommunity);
             exchange.getIn().setBody(Collections.singletonMap("Status", sb.toString()));
             log.info(sb.toString());
@@ -179,12 +220,163 @@ public class SourceInventoryService {
 
     @Handler
     public List<SnmpSource> getReadySources() {
-        return sources.values().stream().filter(info -> info.getStatus().equalsIgnoreCase(SnmpConstants.SUCCESS)).collect(Collectors.toList());
+        return queryPollSources(Predicates.equal("status", SnmpConstants.SUCCESS));
+    }
+
+    /**
+     * @return matching sources, or the matching sources of the local partitions
+     *         on cluster poll
+     */
+    @SuppressWarnings("unchecked")
+    private List<SnmpSource> queryPollSources(Predicate<String, SnmpSource> predicate) {
+        IMap<String, SnmpSource> map = (IMap<String, SnmpSource>)sources;
+        if (clusterPoll) {
+            return new ArrayList<SnmpSource>(map.getAll(map.localKeySet(predicate)).values());
+        }
+        return new ArrayList<SnmpSource>(map.values(predicate));
     }
 
+    /**
+     * @return true if the source is polled by this member
+     */
+    public boolean isLocalSource(String sourceIpAddr) {
+        return !clusterPoll || instance.getPartitionService().getPartition(sourceIpAddr).getOwner().localMember();
+    }
+
+    /**
+     * @return keys of the matching sources, or of the matching sources of the
+     *         local partitions on cluster poll
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> queryPollKeys(Predicate<String, SnmpSource> predicate) {
+        IMap<String, SnmpSource> map = (IMap<String, SnmpSource>)sources;
+        return clusterPoll ? map.localKeySet(predicate) : map.keySet(predicate);
+    }
+
+    /**
+     * handler of a batch of export sources
+     */
+    @FunctionalInterface
+    public interface ExportBatchHandler {
+        void accept(List<SnmpSource> batch) throws Exception;
+    }
+
+    /**
+     * pass over the ready sources to export, or the sources of the export
+     * cycle if started. Only the keys are queried, the sources are fetched by
+     * batches of exportBatchSize keys, so the sources in memory are bounded
+     * by the batch whatever the inventory size.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachExportBatch(ExportBatchHandler handler) throws Exception {
+        IMap<String, SnmpSource> map = (IMap<String, SnmpSource>)sources;
+        Set<String> cycle = exportCycle;
+        Set<String> keys = (cycle != null) ? cycle : queryPollKeys(Predicates.equal("status", SnmpConstants.SUCCESS));
+        Set<String> batchKeys = new HashSet<String>();
+        Iterator<String> it = keys.iterator();
+        while (it.hasNext()) {
+            batchKeys.add(it.next());
+            if (batchKeys.size() < exportBatchSize && it.hasNext()) {
+                continue;
+            }
+            List<SnmpSource> batch = new ArrayList<SnmpSource>(batchKeys.size());
+            for (SnmpSource source : map.getAll(batchKeys).values()) {
+                if ((cycle != null) ? accumulateExport(source) : SnmpConstants.SUCCESS.equals(source.getStatus())) {
+                    batch.add(source);
+                }
+            }
+            batchKeys.clear();
+            if (!batch.isEmpty()) {
+                handler.accept(batch);
+            }
+        }
+    }
+
+    /**
+     * set the poll traffic of the source copy to the traffic accumulated since
+     * the last export cycle, keep its acknowledgement
+     *
+     * @return true if the source has traffic to export
+     */
+    private boolean accumulateExport(SnmpSource source) {
+        SnmpSourceExportAck ack = new SnmpSourceExportAck();
+        for (SnmpInterface ifEntry : source.getIftable().values()) {
+            // records of the copy carry the sum of the polls
+            ifEntry.setPollInOctets(ifEntry.getExportInOctets());
+            ifEntry.setPollOutOctets(ifEntry.getExportOutOctets());
+            ifEntry.setPollDuration(ifEntry.getExportDuration());
+            if (ifEntry.hasExport()) {
+                ack.add(ifEntry);
+            }
+        }
+        if (ack.isEmpty()) {
+            return false;
+        }
+        exportAcks.put(source.getIpAddress(), ack);
+        return true;
+    }
+
+    /**
+     * start export cycle of the wheel scheduler: export the traffic polled since
+     * the last export cycle, a source may be polled several times in between
+     */
+    @Handler
+    public void startExportCycle(Exchange exchange) {
+        long now = System.currentTimeMillis();
+        if (clusterPoll) {
+            // each member exports its own sources
+            exportFrom = exportTo;
+        } else {
+            Object last = config.get("lastExportTime");
+            exportFrom = (last != null) ? (long)last : 0L;
+            config.put("lastExportTime", now);
+        }
+        exportTo = now;
+        exportAcks.clear();
+        Set<String> cycle = queryPollKeys(Predicates.greaterThan("pollTime", 0L));
+        exportCycle = cycle;
+        exchange.getIn().setBody(String.format("export %d sources polled from %tT to %tT", cycle.size(), exportFrom, exportTo));
+    }
+
+    /**
+     * end export cycle of the wheel scheduler: remove the exported traffic from
+     * the export accumulators, polls stored during the export are kept for the
+     * next cycle. Not called if the export failed, the traffic is exported
+     * again by the next cycle.
+     */
+    @SuppressWarnings("unchecked")
+    @Handler
+    public void ackExportCycle() {
+        Set<String> cycle = exportCycle;
+        exportCycle = null;
+        if (cycle == null) {
+            return;
+        }
+        IMap<String, SnmpSource> map = (IMap<String, SnmpSource>)sources;
+        for (Map.Entry<String, SnmpSourceExportAck> entry : exportAcks.entrySet()) {
+            String sourceIpAddr = entry.getKey();
+            map.submitToKey(sourceIpAddr, entry.getValue()).andThen(new ExecutionCallback<Object>() {
+                @Override
+                public void onResponse(Object response) {
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    log.error("source: {} export ack failed, traffic exported again next cycle: {}", sourceIpAddr, t.getMessage());
+                    counterSources.increment("counter.snmp.logError");
+                }
+            });
+        }
+        exportAcks.clear();
+    }
+
+    /**
+     * @return sources to poll status: not ready and due by their backoff
+     */
     @Handler
     public List<SnmpSource> getDownSources() {
-        return sources.values().stream().filter(source -> !source.getStatus().equalsIgnoreCase(SnmpConstants.SUCCESS)).collect(Collectors.toList());
+        return queryPollSources(Predicates.and(Predicates.notEqual("status", SnmpConstants.SUCCESS),
+            Predicates.lessEqual("nextAttempt", System.currentTimeMillis())));
     }
 
     @Handler
@@ -195,28 +387,30 @@ public class SourceInventoryService {
     @SuppressWarnings("unchecked")
     @Handler
     public void getSources(Exchange exchange) {
+        IMap<String, SnmpSource> map = (IMap<String, SnmpSource>)sources;
 
         // process status
         String status = exchange.getIn().getHeader("status", String.class);
         if (status != null && !status.isEmpty()) {
-            exchange.getIn().setBody(sources.values().stream().filter(e -> e.getStatus().equalsIgnoreCase(status)).map(mapSource).collect(Collectors.toList()));
+            exchange.getIn().setBody(new ArrayList<Map<String, Object>>(map.project(new SourceQueries.SummaryProjection(), Predicates.equal("status", status.toUpperCase()))));
             return;
         }
 
         // process stats
         if (exchange.getIn().getHeader("stats") != null) {
-            exchange.getIn().setBody(sources.values().stream().collect(Collectors.groupingBy(SnmpSource::getStatus, Collectors.counting())));
+            exchange.getIn().setBody(stats.getInventorySnapshot().getStatusCounts());
             return;
         }
 
         // process tags
         if (exchange.getIn().getHeader("tags") != null) {
             Map<String, Set<String>> answer = new HashMap<String, Set<String>>();
-            sources.values().stream().forEach(entry -> {
-                for (String k : (LinkedHashSet<String>)config.get("sourceTagKeys")) {
-                    if (entry.getTags().containsKey(k)) {
+            Collection<String> tagKeys = (LinkedHashSet<String>)config.get("sourceTagKeys");
+            map.project(new SourceQueries.TagsProjection()).forEach(tags -> {
+                for (String k : tagKeys) {
+                    if (tags.containsKey(k)) {
                         answer.putIfAbsent(k, new HashSet<String>());
-                        answer.get(k).add(entry.getTags().get(k));
+                        answer.get(k).add(tags.get(k));
                     }
                 }
             });
@@ -226,212 +420,121 @@ public class SourceInventoryService {
         }
 
         // return list sources
-        exchange.getIn().setBody(sources.values().stream().map(mapSource).collect(Collectors.toList()));
+        exchange.getIn().setBody(new ArrayList<Map<String, Object>>(map.project(new SourceQueries.SummaryProjection())));
     }
 
-    Function<SnmpSource, Map<String, Object>> mapSource = source -> {
-        Map<String, Object> map = new HashMap<String, Object>();
-        map.put("ipAddress", source.getIpAddress());
-        map.put("Status", source.getStatus());
-        map.put("sysUptime", source.getSysUptime());
-        map.put("sysName", source.getSysName());
-        map.put("sysDescr", source.getSysDescr());
-        map.put("sysObjectID", source.getSysObjectID());
-        map.put("sysLocation", source.getSysLocation());
-        map.put("snmpCommunity", source.getTarget().getCommunity().toString());
-        map.put("snmpRetries", source.getTarget().getRetries());
-        map.put("snmpTimeout", source.getTarget().getTimeout() / 1000L);
-        map.put("ifNumber", source.getIftable().size());
-        map.put("pollTime", source.getPollTime());
-        long counter_up = source.getInterfaces().stream().filter(SnmpInterface::isUp).count();
-        map.put("statusUpCounter", counter_up);
-        map.put("statusDownCounter", source.getIftable().size() - counter_up);
-        map.put("chargeableCounter", source.getInterfaces().stream().filter(SnmpInterface::isChargeable).count());
-        map.put("traceCounter", source.getInterfaces().stream().filter(SnmpInterface::isTrace).count());
-        map.put("pollResponse", source.getPollResponse());
-        map.put("tags", source.getTags());
-        return map;
-    };
+    Function<SnmpSource, Map<String, Object>> mapSource = SourceQueries::summary;
 
+    @SuppressWarnings("unchecked")
     @Handler
-    public void getInterfaces(Exchange exchange) {
-        List<Map<String, Object>> ifList = sources.values().stream().map(mapInterface).flatMap(List::stream).collect(Collectors.toList());
-
-        String filter = exchange.getIn().getHeader("chargeable", String.class);
-        if (filter != null) {
-            exchange.getIn().setBody(ifList.stream().filter(e -> (Boolean)e.get("chargeable")).collect(Collectors.toList()));
-            return;
-        }
-
-        filter = exchange.getIn().getHeader("trace", String.class);
-        if (filter != null) {
-            exchange.getIn().setBody(ifList.stream().filter(e -> (Boolean)e.get("trace")).collect(Collectors.toList()));
-            return;
-        }
+    public void getInterfaces(Exchange exchange) throws IOException {
+        IMap<String, SnmpSource> map = (IMap<String, SnmpSource>)sources;
+        exchange.getIn().setHeader(Exchange.CONTENT_TYPE, "application/json");
 
-        filter = exchange.getIn().getHeader("stats", String.class);
+        String filter = exchange.getIn().getHeader("stats", String.class);
         if (filter != null) {
+            InventoryStats.Snapshot snapshot = stats.getInventorySnapshot();
             Map<String, Long> answer = new HashMap<String, Long>(3);
-            answer.put("traceCount", ifList.stream().filter(e -> (Boolean)e.get("trace")).count());
-            answer.put("chargeableCount", ifList.stream().filter(e -> (Boolean)e.get("chargeable")).count());
-            answer.put("pollCount", (long)ifList.size());
-            exchange.getIn().setBody(answer);
+            answer.put("traceCount", snapshot.getTraceInterfaces());
+            answer.put("chargeableCount", snapshot.getChargeableInterfaces());
+            answer.put("pollCount", snapshot.getInterfaces());
+            exchange.getIn().setBody(InterfaceJsonStream.toJson(answer));
             return;
         }
 
-        exchange.getIn().setBody(ifList);
+        // only keys of the sources with matching interfaces, sources fetched while streaming
+        Collection<String> keys;
+        java.util.function.Predicate<SnmpInterface> ifFilter;
+        if (exchange.getIn().getHeader("chargeable") != null) {
+            keys = map.keySet(Predicates.greaterThan("ifCount[chargeable]", 0));
+            ifFilter = SnmpInterface::isChargeable;
+        } else if (exchange.getIn().getHeader("trace") != null) {
+            keys = map.keySet(Predicates.greaterThan("ifCount[trace]", 0));
+            ifFilter = SnmpInterface::isTrace;
+        } else {
+            keys = map.keySet();
+            ifFilter = i -> true;
+        }
+        streamInterfaces(exchange, keys, ifFilter, false);
     }
 
-    Function<SnmpSource, List<Map<String, Object>>> mapInterface = source -> {
-        List<Map<String, Object>> answer = source.getInterfaces().stream().map(e -> {
-
-            Map<String, Object> srcmap = new HashMap<String, Object>();
-            srcmap.put("ipAddress", source.getIpAddress());
-            srcmap.put("sysName", source.getSysName());
-            srcmap.put("tags", source.getTags());
-
-            Map<String, Object> iface = new HashMap<String, Object>();
-            iface.put("source", srcmap);
-            iface.put("pollTime", source.getPollTime());
-            iface.put("pollDuration", source.getPollDuration());
-            iface.put("ifIndex", e.getIfIndex());
-            iface.put("ifDescr", e.getIfDescr());
-            iface.put("ifAlias", e.getIfAlias());
-            iface.put("chargeable", e.isChargeable());
-            iface.put("trace", e.isTrace());
-            iface.put("up", e.isUp());
-            iface.put("portStatus", e.getPortStatus());
-            iface.put("pollInOctets", e.getPollInOctets());
-            iface.put("pollOutOctets", e.getPollOutOctets());
-            iface.put("tags", e.getTags());
-            iface.put("chargeFlow", e.getChargeFlow());
-            return iface;
-        }).collect(Collectors.toList());
-        return answer;
-    };
-
     @Handler
-    public void getSourceInterfaces(Exchange exchange) {
+    public void getSourceInterfaces(Exchange exchange) throws IOException {
         String source = exchange.getIn().getHeader("source", String.class);
+        exchange.getIn().setHeader(Exchange.CONTENT_TYPE, "application/json");
         if (!sources.containsKey(source)) {
             exchange.getIn().setHeader(Exchange.HTTP_RESPONSE_CODE, 204);
             Map<String, String> answer = new HashMap<String, String>(1);
             answer.put("Status", "source " + source + " not found");
-            exchange.getIn().setBody(answer);
+            exchange.getIn().setBody(InterfaceJsonStream.toJson(answer));
             return;
         }
 
-        List<SnmpInterface> ifTable = sources.get(source).getInterfaces();
+        java.util.function.Predicate<SnmpInterface> ifFilter = i -> true;
         // filter chargeable on (off)
         String filter = exchange.getIn().getHeader("chargeable", String.class);
         if (filter != null) {
-            if ("on".equalsIgnoreCase(filter)) {
-                exchange.getIn().setBody(ifTable.stream().filter(i -> i.isChargeable()).collect(Collectors.toList()));
-            } else {
-                exchange.getIn().setBody(ifTable.stream().filter(i -> !i.isChargeable()).collect(Collectors.toList()));
-            }
-            return;
+            ifFilter = "on".equalsIgnoreCase(filter) ? SnmpInterface::isChargeable : i -> !i.isChargeable();
         }
         // filter trace=on (off)
         filter = exchange.getIn().getHeader("trace", String.class);
         if (filter != null) {
-            if ("on".equalsIgnoreCase(filter)) {
-                exchange.getIn().setBody(ifTable.stream().filter(i -> i.isTrace()).collect(Collectors.toList()));
-            } else {
-                exchange.getIn().setBody(ifTable.stream().filter(i -> !i.isTrace()).collect(Collectors.toList()));
-            }
-            return;
+            ifFilter = "on".equalsIgnoreCase(filter) ? SnmpInterface::isTrace : i -> !i.isTrace();
         }
         // filter status = up (down)
         filter = exchange.getIn().getHeader("status", String.class);
         if (filter != null) {
-            if ("up".equalsIgnoreCase(filter)) {
-                exchange.getIn().setBody(ifTable.stream().filter(i -> i.isUp()).collect(Collectors.toList()));
-            } else {
-                exchange.getIn().setBody(ifTable.stream().filter(i -> i.isDown()).collect(Collectors.toList()));
-            }
-            return;
+            ifFilter = "up".equalsIgnoreCase(filter) ? SnmpInterface::isUp : SnmpInterface::isDown;
         }
-        exchange.getIn().setBody(ifTable);
+        streamInterfaces(exchange, Collections.singleton(source), ifFilter, true);
     }
 
-    @Handler
-    public void exportTraceRecords(Exchange exchange) {
-        if (getReadySources().isEmpty()) {
+    /**
+     * set body to the interfaces json generated while the response is written,
+     * paged by the limit and after parameters, fields selected by the fields
+     * parameter. The interfaces of one source keep the fields of the interface,
+     * no source object.
+     */
+    private void streamInterfaces(Exchange exchange, Collection<String> keys, java.util.function.Predicate<SnmpInterface> filter, boolean perSource)
+        throws IOException {
+        Set<String> fields;
+        int limit;
+        try {
+            fields = InterfaceJsonStream.parseFields(exchange.getIn().getHeader("fields", String.class),
+                perSource ? InterfaceJsonStream.SOURCE_FIELDS : InterfaceJsonStream.FIELDS);
+            limit = exchange.getIn().getHeader("limit", 0, Integer.class);
+            if (limit < 0) {
+                throw new IllegalArgumentException("negative limit " + limit);
+            }
+        } catch (IllegalArgumentException | TypeConversionException e) {
+            exchange.getIn().setHeader(Exchange.HTTP_RESPONSE_CODE, 400);
+            Map<String, String> answer = new HashMap<String, String>(1);
+            answer.put("Status", e.getMessage());
+            exchange.getIn().setBody(InterfaceJsonStream.toJson(answer));
             return;
         }
-        StringBuilder sb = new StringBuilder();
-        getReadySources().stream().forEach(source -> {
-            source.getInterfaces().stream().filter(SnmpInterface::isTrace).forEach(ifEntry -> {
-                sb.append(timeStampFormat.format(source.getPollTime())).append(fieldSeparator);
-                sb.append(source.getIpAddress()).append(fieldSeparator);
-                sb.append(source.getSysUptime()).append(fieldSeparator);
-                sb.append(ifEntry.getIfIndex()).append(fieldSeparator);
-                sb.append(ifEntry.getIfDescr()).append(fieldSeparator);
-                sb.append(ifEntry.getIfName()).append(fieldSeparator);
-                sb.append(escapeSeparator(ifEntry.getIfAlias())).append(fieldSeparator);
-                sb.append(ifEntry.getIfAdminStatus()).append(fieldSeparator);
-                sb.append(ifEntry.getIfOperStatus()).append(fieldSeparator);
-                sb.append(ifEntry.getIfInOctets()).append(fieldSeparator);
-                sb.append(ifEntry.getIfOutOctets()).append(fieldSeparator);
-                sb.append(ifEntry.getSysUptime()).append(fieldSeparator);
-                sb.append(System.lineSeparator());
-            });
-        });
-        exchange.getIn().setBody(sb.toString());
-        long numRecords = getReadySources().stream().collect(Collectors.summingLong(source -> source.getInterfaces().stream().filter(SnmpInterface::isTrace).count()));
-        exchange.getIn().setHeader("countTraceRecords", numRecords);
-        gaugeSources.submit("gauge.snmp.sources.traceRecords", (double)numRecords);
+        String after = exchange.getIn().getHeader("after", String.class);
+        exchange.getIn().setBody(new InterfaceJsonStream(keys, sources::get, filter, fields, limit, perSource, (after == null || after.isEmpty()) ? null : after));
     }
 
+    /**
+     * @return record layout of the current config, compiled again on change of
+     *         tag keys, field separator or timestamp format
+     */
     @SuppressWarnings("unchecked")
-    @Handler
-    public void exportChargingDataRecords(Exchange exchange) {
-        if (getReadySources().isEmpty()) {
-            return;
-        }
-        StringBuilder sb = new StringBuilder();
-        getReadySources().stream().forEach(source -> {
-            source.getInterfaces().stream().filter(SnmpInterface::isChargeable).forEach(ifEntry -> {
-                sb.append(source.getIpAddress()).append(fieldSeparator);
-                sb.append(source.getSysName()).append(fieldSeparator);
-                for (String skey : (LinkedHashSet<String>)config.get("sourceTagKeys")) {
-                    // skip vlan_oid
-                    if (skey.equalsIgnoreCase(vlanOidTag)) {
-                        continue;
-                    }
-                    if (source.getTags().containsKey(skey)) {
-                        sb.append(escapeSeparator(source.getTags().get(skey)));
-                    }
-                    sb.append(fieldSeparator);
-                }
-                sb.append(ifEntry.getIfDescr()).append(fieldSeparator);
-                for (String ikey : (LinkedHashSet<String>)config.get("interfaceTagKeys")) {
-                    if (ifEntry.getTags().containsKey(ikey)) {
-                        sb.append(escapeSeparator(ifEntry.getTags().get(ikey)));
-                    }
-                    sb.append(fieldSeparator);
-                }
-                sb.append(escapeSeparator(ifEntry.getIfAlias())).append(fieldSeparator);
-                // swap in out for egress port
-                if (ifEntry.getChargeFlow() == SnmpConstants.EGRESS) {
-                    sb.append(ifEntry.getPollOutOctets()).append(fieldSeparator);
-                    sb.append(ifEntry.getPollInOctets()).append(fieldSeparator);
-                } else {
-                    sb.append(ifEntry.getPollInOctets()).append(fieldSeparator);
-                    sb.append(ifEntry.getPollOutOctets()).append(fieldSeparator);
-                }
-                sb.append(timeStampFormat.format(source.getPollTime())).append(fieldSeparator);
-                // sb.append(source.getPollDuration()).append(fieldSeparator);
-                sb.append((ifEntry.getPollDuration() == 0) ? source.getPollDuration() : ifEntry.getPollDuration()).append(fieldSeparator);
-                sb.append((ifEntry.isUp()) ? 1 : 0);
-                sb.append(System.lineSeparator());
-            });
-        });
-        exchange.getIn().setBody(sb.toString());
-        long numRecords = getReadySources().stream().collect(Collectors.summingLong(source -> source.getInterfaces().stream().filter(SnmpInterface::isChargeable).count()));
-        exchange.getIn().setHeader("countChargingDataRecords", numRecords);
-        gaugeSources.submit("gauge.snmp.sources.chargingRecords", (double)numRecords);
+    public CdrRecordLayout getRecordLayout() {
+        Collection<String> sourceTagKeys = (Collection<String>)config.get("sourceTagKeys");
+        Collection<String> interfaceTagKeys = (Collection<String>)config.get("interfaceTagKeys");
+        String separator = config.get("cdrFieldSeparator").toString();
+        String format = config.get("cdrTimeStampFormat").toString();
+        CdrRecordLayout layout = recordLayout;
+        if (layout == null || !layout.isCompiledFrom(sourceTagKeys, interfaceTagKeys, separator, format)) {
+            layout = CdrRecordLayout.compile(sourceTagKeys, interfaceTagKeys, vlanOidTag, separator, format);
+            recordLayout = layout;
+            fieldSeparator = separator;
+            log.info("compiled {}", layout);
+        }
+        return layout;
     }
 
     Function<SnmpSource, List<Object>> listChargingData = source -> {
@@ -478,8 +581,7 @@ public class SourceInventoryService {
     @Handler
     public void updateSource(Exchange exchange) {
         String sourceIpAddr = exchange.getIn().getHeader("source", String.class);
-        SnmpSource source = sources.get(sourceIpAddr);
-        if (source == null || ((IMap<String, SnmpSource>)sources).isLocked(sourceIpAddr)) {
+        if (!sources.containsKey(sourceIpAddr) || ((IMap<String, SnmpSource>)sources).isLocked(sourceIpAddr)) {
             exchange.getIn().setHeader(Exchange.HTTP_RESPONSE_CODE, 204);
             exchange.getIn().setBody(null);
             return;
@@ -488,32 +590,31 @@ public class SourceInventoryService {
         @SuppressWarnings("unchecked")
         Map<String, Object> data = (Map<String, Object>)exchange.getIn().getBody(Map.class);
         if (data != null) {
-            boolean updated = false;
+            SnmpSourceConfigUpdate update = new SnmpSourceConfigUpdate();
             if (data.get("community") != null && !data.get("community").toString().isEmpty()) {
-                source.setCommunity(data.get("community").toString());
-                updated = true;
+                update.setCommunity(data.get("community").toString());
             }
 
             if (data.get("retries") != null) {
-                source.setRetries((int)data.get("retries"));
-                updated = true;
+                update.setRetries((int)data.get("retries"));
             }
 
             if (data.get("timeout") != null) {
-                source.setTimeout((int)data.get("timeout"));
-                updated = true;
+                update.setTimeout((int)data.get("timeout"));
+            }
+
+            if (data.get("pollInterval") != null) {
+                update.setPollInterval((int)data.get("pollInterval"));
             }
 
             if (data.get("tags") != null && data.get("tags") instanceof Map) {
                 @SuppressWarnings("unchecked")
                 Map<String, String> tag = (Map<String, String>)data.get("tags");
-                source.addTags(tag);
-                updated = true;
+                update.setTags(tag);
             }
 
             // commit
-            if (updated) {
-                sources.put(sourceIpAddr, source);
+            if (!update.isEmpty() && Boolean.TRUE.equals(((IMap<String, SnmpSource>)sources).executeOnKey(sourceIpAddr, update))) {
                 exchange.getIn().setBody(Collections.singletonMap("Status", "success"));
                 log.info("source:{} updated", sourceIpAddr);
             }
@@ -533,73 +634,48 @@ public class SourceInventoryService {
         @SuppressWarnings("unchecked")
         Map<String, Object> data = (Map<String, Object>)exchange.getIn().getBody(Map.class);
         if (data != null) {
-            boolean updated = false;
+            SnmpInterfaceConfigUpdate update = null;
             if (data.get("ifDescr") != null && data.get("ifDescr") instanceof String) {
-                SnmpInterface ifEntry = source.getIftable().get(data.get("ifDescr"));
-                if (ifEntry == null) {
+                if (!source.getIftable().containsKey(data.get("ifDescr"))) {
                     exchange.getIn().setHeader(Exchange.HTTP_RESPONSE_CODE, 204);
                     exchange.getIn().setBody(null);
                     return;
                 }
-
-                if (data.containsKey("trace")) {
-                    ifEntry.setTrace((Boolean)data.get("trace"));
-                    updated = true;
-                }
-
-                if (data.containsKey("chargeable")) {
-                    ifEntry.setChargeable((Boolean)data.get("chargeable"));
-                    updated = true;
-                }
+                update = new SnmpInterfaceConfigUpdate(Collections.singletonList((String)data.get("ifDescr")));
 
                 if (data.containsKey("chargeFlow")) {
-                    ifEntry.setChargeFlow((int)data.get("chargeFlow"));
-                    updated = true;
-                }
-
-                if (data.get("tags") != null && data.get("tags") instanceof Map) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, String> tag = (Map<String, String>)data.get("tags");
-                    ifEntry.addTags(tag);
-                    updated = true;
+                    update.setChargeFlow((int)data.get("chargeFlow"));
                 }
             }
             // batch update
             if (data.get("ifDescr") != null && data.get("ifDescr") instanceof List) {
                 @SuppressWarnings("unchecked")
                 List<String> batchIfList = (List<String>)data.get("ifDescr");
-                if (data.containsKey("trace")) {
-                    batchIfList.stream().forEach(ifdescr -> {
-                        if (source.getIftable().containsKey(ifdescr)) {
-                            source.getIftable().get(ifdescr).setTrace((Boolean)data.get("trace"));
-                        }
-                    });
-                    updated = true;
-                }
-                if (data.containsKey("chargeable")) {
-                    batchIfList.stream().forEach(ifdescr -> {
-                        if (source.getIftable().containsKey(ifdescr)) {
-                            source.getIftable().get(ifdescr).setChargeable((Boolean)data.get("chargeable"));
-                        }
-                    });
-                    updated = true;
-                }
-                if (data.get("tags") != null && data.get("tags") instanceof Map) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, String> tag = (Map<String, String>)data.get("tags");
-                    batchIfList.stream().forEach(ifdescr -> {
-                        if (source.getIftable().containsKey(ifdescr)) {
-                            source.getIftable().get(ifdescr).addTags(tag);
-                        }
-                    });
-                    updated = true;
-                }
+                update = new SnmpInterfaceConfigUpdate(batchIfList);
+            }
+            if (update == null) {
+                return;
+            }
+
+            if (data.containsKey("trace")) {
+                update.setTrace((Boolean)data.get("trace"));
+            }
+
+            if (data.containsKey("chargeable")) {
+                update.setChargeable((Boolean)data.get("chargeable"));
+            }
+
+            if (data.get("tags") != null && data.get("tags") instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, String> tag = (Map<String, String>)data.get("tags");
+                update.setTags(tag);
             }
 
             // commit
-            if (updated) {
+            if (!update.isEmpty()) {
+                ((IMap<String, SnmpSource>)sources).executeOnKey(sourceIpAddr, update);
+                stats.update(sources.get(sourceIpAddr));
                 exchange.getIn().setBody(Collections.singletonMap("Status", "success"));
-                sources.put(sourceIpAddr, source);
                 log.info("source:{} update interface", sourceIpAddr);
             }
         }
@@ -612,6 +688,8 @@ public class SourceInventoryService {
         StringBuilder msg = new StringBuilder("source " + sourceIpAddr);
         if (sources.containsKey(sourceIpAddr)) {
             sources.remove(sourceIpAddr);
+            stats.remove(sourceIpAddr);
+            governor.removeGate(sourceIpAddr);
             msg.append(" deleted");
         } else {
             exchange.getIn().setHeader(Exchange.HTTP_RESPONSE_CODE, 204);
@@ -632,18 +710,19 @@ public class SourceInventoryService {
     public String logEndPoll() {
         long polltime = polltimer.taken();
         gaugeSources.submit("gauge.snmp.polltime", (double)polltime);
-        DoubleSummaryStatistics stats = getReadySources().stream().collect(Collectors.summarizingDouble(SnmpSource::getPollResponse));
-        gaugeSources.submit("gauge.snmp.response.min", stats.getMin());
-        gaugeSources.submit("gauge.snmp.response.max", stats.getMax());
-        gaugeSources.submit("gauge.snmp.response.avg", stats.getAverage());
-        gaugeSources.submit("gauge.snmp.sources.ready", (double)getReadySources().size());
-        gaugeSources.submit("gauge.snmp.sources.down", (double)getDownSources().size());
+        DoubleSummaryStatistics response = stats.endCycle();
+        gaugeSources.submit("gauge.snmp.response.min", response.getMin());
+        gaugeSources.submit("gauge.snmp.response.max", response.getMax());
+        gaugeSources.submit("gauge.snmp.response.avg", response.getAverage());
+        long readySources = stats.getReadySources();
+        gaugeSources.submit("gauge.snmp.sources.ready", (double)readySources);
+        gaugeSources.submit("gauge.snmp.sources.down", (double)stats.getDownSources());
         counterSources.increment("counter.snmp.poll");
-        int totalCounters = getReadySources().stream().collect(Collectors.summingInt(s -> s.getInterfaces().size()));
+        long totalCounters = stats.getReadyInterfaces();
         gaugeSources.submit("gauge.snmp.counters", (double)totalCounters);
         double cps = (totalCounters * 1000 / polltime);
         gaugeSources.submit("gauge.snmp.cps", cps);
-        return String.format("completed in %d ms, collected %d counters from %d sources (%.2f cps)", polltime, totalCounters, getReadySources().size(), cps);
+        return String.format("completed in %d ms, collected %d counters from %d sources (%.2f cps)", polltime, totalCounters, readySources, cps);
     }
 
     protected String escapeSeparator(String str) {
@@ -0,0 +1,71 @@
+package org.openfs.snmpcg;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openfs.snmpcg.model.SnmpSource;
+import org.openfs.snmpcg.model.SnmpSourceCounts;
+
+import com.hazelcast.projection.Projection;
+
+/**
+ * Projections of the sources map for REST queries: run on the
+ * members owning the entries, only the requested fields are returned.
+ */
+public final class SourceQueries {
+
+    private SourceQueries() {
+    }
+
+    /**
+     * @return source fields of the REST answer
+     */
+    public static Map<String, Object> summary(SnmpSource source) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("ipAddress", source.getIpAddress());
+        map.put("Status", source.getStatus());
+        map.put("sysUptime", source.getSysUptime());
+        map.put("sysName", source.getSysName());
+        map.put("sysDescr", source.getSysDescr());
+        map.put("sysObjectID", source.getSysObjectID());
+        map.put("sysLocation", source.getSysLocation());
+        map.put("snmpCommunity", source.getTarget().getCommunity().toString());
+        map.put("snmpRetries", source.getTarget().getRetries());
+        map.put("snmpTimeout", source.getTarget().getTimeout() / 1000L);
+        map.put("ifNumber", source.getIftable().size());
+        map.put("pollTime", source.getPollTime());
+        SnmpSourceCounts counts = SnmpSourceCounts.of(source);
+        map.put("statusUpCounter", (long)counts.getUp());
+        map.put("statusDownCounter", (long)(counts.getInterfaces() - counts.getUp()));
+        map.put("chargeableCounter", (long)counts.getChargeable());
+        map.put("traceCounter", (long)counts.getTrace());
+        map.put("pollResponse", source.getPollResponse());
+        map.put("maxRepetitions", source.getMaxRepetitions());
+        map.put("srtt", source.getSrtt());
+        map.put("rttVar", source.getRttVar());
+        map.put("statusFailures", source.getStatusFailures());
+        map.put("nextAttempt", source.getNextAttempt());
+        map.put("pollInterval", source.getPollInterval());
+        map.put("tags", source.getTags());
+        return map;
+    }
+
+    public static final class SummaryProjection extends Projection<Map.Entry<String, SnmpSource>, Map<String, Object>> implements Serializable {
+        private static final long serialVersionUID = 2731664920485117264L;
+
+        @Override
+        public Map<String, Object> transform(Map.Entry<String, SnmpSource> entry) {
+            return summary(entry.getValue());
+        }
+    }
+
+    public static final class TagsProjection extends Projection<Map.Entry<String, SnmpSource>, Map<String, String>> implements Serializable {
+        private static final long serialVersionUID = 6052093424853300563L;
+
+        @Override
+        public Map<String, String> transform(Map.Entry<String, SnmpSource> entry) {
+            return new HashMap<String, String>(entry.getValue().getTags());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.openfs.snmpcg;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.camel.Handler;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.openfs.snmpcg.model.SnmpSourceCounts;
+import org.openfs.snmpcg.model.SnmpSourcePollUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.stereotype.Component;
+
+import com.hazelcast.core.ExecutionCallback;
+import com.hazelcast.core.IMap;
+
+/**
+ * Async store of poll results. Each result is submitted as an entry processor
+ * on the source key, up to storeMaxPending submissions are kept in flight and
+ * the cycle waits for them on flush before export.
+ */
+@Component("sourceStore")
+public class SourceStore {
+    private static final Logger log = LoggerFactory.getLogger(SourceStore.class);
+
+    @Value("${snmpcg.storeMaxPending:256}")
+    private int maxPending;
+
+    @Value("${snmpcg.storeFlushTimeout:60}")
+    private long flushTimeout;
+
+    @Autowired
+    private ConcurrentMap<String, SnmpSource> sources;
+
+    @Autowired
+    private CounterService counterService;
+
+    @Autowired
+    private InventoryStats stats;
+
+    private Semaphore pending;
+
+    @PostConstruct
+    public void initPending() {
+        pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * submit poll result, blocks while storeMaxPending results are in flight
+     */
+    public void submit(String sourceIpAddr, SnmpSourcePollUpdate update) {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            ((IMap<String, SnmpSource>)sources).submitToKey(sourceIpAddr, update).andThen(new ExecutionCallback<Object>() {
+                @Override
+                public void onResponse(Object response) {
+                    pending.release();
+                    // counts of the stored source, null if removed while polled
+                    if (response != null) {
+                        stats.pollStored(sourceIpAddr, (SnmpSourceCounts)response);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    pending.release();
+                    log.error("source: {} store failed: {}", sourceIpAddr, t.getMessage());
+                    counterService.increment("counter.snmp.logError");
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.release();
+            log.error("source: {} store failed: {}", sourceIpAddr, e.getMessage());
+            counterService.increment("counter.snmp.logError");
+        }
+    }
+
+    /**
+     * wait for the submitted results of the cycle
+     */
+    @Handler
+    public void flush() throws InterruptedException {
+        if (pending.tryAcquire(maxPending, flushTimeout, TimeUnit.SECONDS)) {
+            pending.release(maxPending);
+        } else {
+            log.warn("store flush timeout, pending results: {}", maxPending - pending.availablePermits());
+            counterService.increment("counter.snmp.logWarn");
+        }
+    }
+}
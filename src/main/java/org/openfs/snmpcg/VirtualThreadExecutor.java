@@ -0,0 +1,118 @@
+package org.openfs.snmpcg;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor of the poll splits that runs each task on a new virtual thread
+ * (Java 21). The number of running tasks is bounded by the in flight permits,
+ * a submit waits for a permit, so the splitter is held back instead of
+ * starting all sources of the cycle at once. The collector is built for
+ * Java 8, the virtual thread factory is looked up at runtime.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+    private final ThreadFactory threadFactory;
+    private final Semaphore permits;
+    private final int maxInFlight;
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param name thread name prefix
+     * @param maxInFlight max running tasks
+     * @throws IllegalStateException virtual threads are not supported by the
+     *             running jvm
+     */
+    public VirtualThreadExecutor(String name, int maxInFlight) {
+        this.threadFactory = virtualThreadFactory(name);
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name, 0L);
+            return (ThreadFactory)builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("virtual threads need java 21, running java " + System.getProperty("java.version"), e);
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("executor is shut down");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("interrupted waiting for an in flight permit", e);
+        }
+        try {
+            threadFactory.newThread(() -> {
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            }).start();
+        } catch (RuntimeException | Error e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return running tasks
+     */
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * running tasks are not interrupted, their walks end by the snmp timeout
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && permits.availablePermits() == maxInFlight;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!shutdown) {
+            return false;
+        }
+        if (permits.tryAcquire(maxInFlight, timeout, unit)) {
+            permits.release(maxInFlight);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,199 @@
+package org.openfs.snmpcg.model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Columnar store of the interface state of one source: ifIndex, status,
+ * counters, poll deltas, flags and export accumulators of each interface in
+ * a fixed size record of one ByteBuffer. SnmpInterface is a view on its
+ * record slot. Tables are on heap: the stored source of the map entry moves its
+ * table to a direct (off-heap) buffer when the poll update is applied, copies
+ * read from the map stay on heap. The table saves the counter and status
+ * objects of each interface; a poll still allocates its update, one
+ * InterfaceUpdate per interface, and getIfInOctets / getIfOutOctets return
+ * copies for the REST views.
+ */
+public final class SnmpCounterTable implements Serializable {
+    private static final long serialVersionUID = -4265281739264619274L;
+
+    // record layout
+    static final int IF_INDEX = 0;
+    static final int ADMIN_STATUS = 4;
+    static final int OPER_STATUS = 5;
+    static final int IN_TYPE = 6;
+    static final int OUT_TYPE = 7;
+    static final int IN_OCTETS = 8;
+    static final int OUT_OCTETS = 16;
+    static final int POLL_IN_OCTETS = 24;
+    static final int POLL_OUT_OCTETS = 32;
+    static final int SYS_UPTIME = 40;
+    static final int POLL_DURATION = 48;
+    static final int FLAGS = 56;
+    static final int CHARGE_FLOW = 57;
+    static final int CHANGES = 58;
+    static final int EXPORT_IN_OCTETS = 64;
+    static final int EXPORT_OUT_OCTETS = 72;
+    static final int EXPORT_DURATION = 80;
+    static final int RECORD_SIZE = 88;
+
+    static final int CHARGEABLE = 1;
+    static final int TRACE = 2;
+    static final int MARKED = 4;
+
+    // poll owned fields changed since the copy was read or the poll update applied
+    static final int CREATED = 1;
+    static final int IF_INDEX_CHANGED = 2;
+    static final int STATUS_CHANGED = 4;
+    static final int MARKED_CHANGED = 8;
+    static final int SYS_UPTIME_CHANGED = 16;
+
+    private transient ByteBuffer buffer;
+    private transient int[] freeSlots;
+    private transient int freeCount;
+    private int size;
+
+    public SnmpCounterTable(int capacity) {
+        buffer = allocate(Math.max(1, capacity), false);
+        freeSlots = new int[0];
+    }
+
+    private static ByteBuffer allocate(int records, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(records * RECORD_SIZE) : ByteBuffer.allocate(records * RECORD_SIZE);
+    }
+
+    boolean isOffHeap() {
+        return buffer.isDirect();
+    }
+
+    /**
+     * move the records to a direct or a heap buffer, the table grows in the
+     * same kind of buffer
+     */
+    void setOffHeap(boolean offHeap) {
+        if (buffer.isDirect() != offHeap) {
+            buffer = copy(buffer.capacity() / RECORD_SIZE, offHeap);
+        }
+    }
+
+    /**
+     * @return new buffer of the records with the used records
+     */
+    private ByteBuffer copy(int records, boolean direct) {
+        ByteBuffer copy = allocate(records, direct);
+        ByteBuffer src = buffer.duplicate();
+        src.clear();
+        src.limit(size * RECORD_SIZE);
+        copy.put(src);
+        copy.clear();
+        return copy;
+    }
+
+    /**
+     * @return slot of new interface record
+     */
+    int allocateSlot() {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if ((size + 1) * RECORD_SIZE > buffer.capacity()) {
+                buffer = copy(Math.max(size * 2, 8), buffer.isDirect());
+            }
+            slot = size++;
+        }
+        clearSlot(slot);
+        return slot;
+    }
+
+    void freeSlot(int slot) {
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(8, freeCount * 2));
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void clearSlot(int slot) {
+        int base = slot * RECORD_SIZE;
+        for (int i = 0; i < RECORD_SIZE; i += 8) {
+            buffer.putLong(base + i, 0L);
+        }
+        buffer.put(base + IN_TYPE, (byte)32);
+        buffer.put(base + OUT_TYPE, (byte)32);
+        buffer.put(base + CHARGE_FLOW, (byte)SnmpConstants.EGRESS);
+    }
+
+    long getLong(int slot, int field) {
+        return buffer.getLong(slot * RECORD_SIZE + field);
+    }
+
+    void putLong(int slot, int field, long value) {
+        buffer.putLong(slot * RECORD_SIZE + field, value);
+    }
+
+    int getInt(int slot, int field) {
+        return buffer.getInt(slot * RECORD_SIZE + field);
+    }
+
+    void putInt(int slot, int field, int value) {
+        buffer.putInt(slot * RECORD_SIZE + field, value);
+    }
+
+    int getByte(int slot, int field) {
+        return buffer.get(slot * RECORD_SIZE + field);
+    }
+
+    void putByte(int slot, int field, int value) {
+        buffer.put(slot * RECORD_SIZE + field, (byte)value);
+    }
+
+    boolean getFlag(int slot, int flag) {
+        return (buffer.get(slot * RECORD_SIZE + FLAGS) & flag) != 0;
+    }
+
+    void setFlag(int slot, int flag, boolean value) {
+        int index = slot * RECORD_SIZE + FLAGS;
+        int flags = buffer.get(index);
+        buffer.put(index, (byte)(value ? flags | flag : flags & ~flag));
+    }
+
+    int getChanges(int slot) {
+        return buffer.get(slot * RECORD_SIZE + CHANGES);
+    }
+
+    void addChanges(int slot, int changes) {
+        int index = slot * RECORD_SIZE + CHANGES;
+        buffer.put(index, (byte)(buffer.get(index) | changes));
+    }
+
+    void clearChanges() {
+        for (int slot = 0; slot < size; slot++) {
+            buffer.put(slot * RECORD_SIZE + CHANGES, (byte)0);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] data = new byte[size * RECORD_SIZE];
+        ByteBuffer src = buffer.duplicate();
+        src.clear();
+        src.get(data);
+        out.writeObject(data);
+        out.writeObject(Arrays.copyOf(freeSlots, freeCount));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] data = (byte[])in.readObject();
+        // a copy, on heap
+        buffer = allocate(Math.max(1, size), false);
+        buffer.put(data);
+        buffer.clear();
+        freeSlots = (int[])in.readObject();
+        freeCount = freeSlots.length;
+    }
+}
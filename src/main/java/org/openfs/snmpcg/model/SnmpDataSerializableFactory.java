@@ -0,0 +1,22 @@
+package org.openfs.snmpcg.model;
+
+import com.hazelcast.nio.serialization.DataSerializableFactory;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Factory of the identified data serializable types of the sources map.
+ */
+public final class SnmpDataSerializableFactory implements DataSerializableFactory {
+    public static final int FACTORY_ID = 1001;
+    public static final int SOURCE_POLL_UPDATE = 1;
+
+    @Override
+    public IdentifiedDataSerializable create(int typeId) {
+        switch (typeId) {
+        case SOURCE_POLL_UPDATE:
+            return new SnmpSourcePollUpdate();
+        default:
+            return null;
+        }
+    }
+}
@@ -4,33 +4,48 @@ import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.openfs.snmpcg.model.SnmpCounterTable.*;
+
+/**
+ * Interface view: names and tags are kept here, the ifIndex, status, counters
+ * and flags live in the record slot of the source counter table.
+ */
 public final class SnmpInterface implements Serializable {
     private static final long serialVersionUID = 2654773100327667716L;
     private final String ifDescr;
-    private int ifIndex;
     private String ifName;
     private String ifAlias;
-    private int ifAdminStatus;
-    private int ifOperStatus;
-    private boolean chargeable = false;
-    private boolean trace = false;
-    private SnmpCounter ifInOctets = new SnmpCounter();
-    private SnmpCounter ifOutOctets = new SnmpCounter();
-    private long pollInOctets;
-    private long pollOutOctets;
-    private boolean marked = false;
     private final Map<String, String> tags = new HashMap<String, String>();
-    // ingress = 1 ; egress = 0
-    private int chargeFlow = SnmpConstants.EGRESS;
-    private long sysUptime;
-    private long pollDuration;
+    private final SnmpCounterTable table;
+    private final int slot;
 
     public SnmpInterface(String ifDescr) {
+        this(ifDescr, new SnmpCounterTable(1));
+    }
+
+    private SnmpInterface(String ifDescr, SnmpCounterTable table) {
+        this(ifDescr, table, table.allocateSlot());
+    }
+
+    SnmpInterface(String ifDescr, SnmpCounterTable table, int slot) {
         this.ifDescr = ifDescr;
+        this.table = table;
+        this.slot = slot;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return poll owned fields changed since the last clear of the source
+     */
+    int getChanges() {
+        return table.getChanges(slot);
     }
 
     public int getIfAdminStatus() {
-        return ifAdminStatus;
+        return table.getByte(slot, ADMIN_STATUS);
     }
 
     public void setIfAdminStatus(int ifAdminStatus) {
@@ -38,51 +53,86 @@ public final class SnmpInterface implements Serializable {
         if (ifAdminStatus != 1) {
             resetPollCounters();
         }
-        this.ifAdminStatus = ifAdminStatus;
+        if (getIfAdminStatus() != ifAdminStatus) {
+            table.addChanges(slot, STATUS_CHANGED);
+        }
+        table.putByte(slot, ADMIN_STATUS, ifAdminStatus);
     }
 
     public void resetCounters() {
-        ifInOctets.reset();
-        ifOutOctets.reset();
+        setInOctets(0L, 32);
+        setOutOctets(0L, 32);
         resetPollCounters();
-        sysUptime = 0l;
-        pollDuration = 0l;
+        table.putLong(slot, SYS_UPTIME, 0L);
+        table.putLong(slot, POLL_DURATION, 0L);
     }
 
     public void resetPollCounters() {
-        pollInOctets = 0L;
-        pollOutOctets = 0L;
+        table.putLong(slot, POLL_IN_OCTETS, 0L);
+        table.putLong(slot, POLL_OUT_OCTETS, 0L);
     }
 
     public boolean isChargeable() {
-        return chargeable;
+        return table.getFlag(slot, CHARGEABLE);
     }
 
     public void setChargeable(boolean chargeable) {
-        this.chargeable = chargeable;
+        table.setFlag(slot, CHARGEABLE, chargeable);
         if (!chargeable) {
             //tags.clear();
             // clear trace
             setTrace(false);
             // reset portType
-            chargeFlow = SnmpConstants.EGRESS;
+            setChargeFlow(SnmpConstants.EGRESS);
         }
     }
 
+    public long getInOctets() {
+        return table.getLong(slot, IN_OCTETS);
+    }
+
+    public int getInOctetsType() {
+        return table.getByte(slot, IN_TYPE);
+    }
+
+    public void setInOctets(long value, int type) {
+        table.putLong(slot, IN_OCTETS, value);
+        table.putByte(slot, IN_TYPE, type);
+    }
+
+    public long getOutOctets() {
+        return table.getLong(slot, OUT_OCTETS);
+    }
+
+    public int getOutOctetsType() {
+        return table.getByte(slot, OUT_TYPE);
+    }
+
+    public void setOutOctets(long value, int type) {
+        table.putLong(slot, OUT_OCTETS, value);
+        table.putByte(slot, OUT_TYPE, type);
+    }
+
+    /**
+     * @return copy of the ifInOctets counter
+     */
     public SnmpCounter getIfInOctets() {
-        return ifInOctets;
+        return new SnmpCounter(getInOctets(), getInOctetsType());
     }
 
     public void setIfInOctets(SnmpCounter ifInOctets) {
-        this.ifInOctets = ifInOctets;
+        setInOctets(ifInOctets.getValue(), ifInOctets.getType());
     }
 
+    /**
+     * @return copy of the ifOutOctets counter
+     */
     public SnmpCounter getIfOutOctets() {
-        return ifOutOctets;
+        return new SnmpCounter(getOutOctets(), getOutOctetsType());
     }
 
     public void setIfOutOctets(SnmpCounter ifOutOctets) {
-        this.ifOutOctets = ifOutOctets;
+        setOutOctets(ifOutOctets.getValue(), ifOutOctets.getType());
     }
 
     public String getIfName() {
@@ -106,31 +156,31 @@ public final class SnmpInterface implements Serializable {
     }
 
     public long getPollInOctets() {
-        return pollInOctets;
+        return table.getLong(slot, POLL_IN_OCTETS);
     }
 
     public void setPollInOctets(long pollInOctets) {
-        this.pollInOctets = pollInOctets;
+        table.putLong(slot, POLL_IN_OCTETS, pollInOctets);
     }
 
     public long getPollOutOctets() {
-        return pollOutOctets;
+        return table.getLong(slot, POLL_OUT_OCTETS);
     }
 
     public void setPollOutOctets(long pollOutOctets) {
-        this.pollOutOctets = pollOutOctets;
+        table.putLong(slot, POLL_OUT_OCTETS, pollOutOctets);
     }
 
     public boolean isTrace() {
-        return trace;
+        return table.getFlag(slot, TRACE);
     }
 
     public void setTrace(boolean trace) {
-        this.trace = trace;
+        table.setFlag(slot, TRACE, trace);
     }
 
     public int getIfOperStatus() {
-        return ifOperStatus;
+        return table.getByte(slot, OPER_STATUS);
     }
 
     public void setIfOperStatus(int ifOperStatus) {
@@ -138,19 +188,25 @@ public final class SnmpInterface implements Serializable {
         if (ifOperStatus != 1) {
             resetPollCounters();
         }
-        this.ifOperStatus = ifOperStatus;
+        if (getIfOperStatus() != ifOperStatus) {
+            table.addChanges(slot, STATUS_CHANGED);
+        }
+        table.putByte(slot, OPER_STATUS, ifOperStatus);
     }
 
     public int getIfIndex() {
-        return ifIndex;
+        return table.getInt(slot, IF_INDEX);
     }
 
     public void setIfIndex(int ifIndex) {
-        this.ifIndex = ifIndex;
+        if (getIfIndex() != ifIndex) {
+            table.addChanges(slot, IF_INDEX_CHANGED);
+        }
+        table.putInt(slot, IF_INDEX, ifIndex);
     }
 
     public boolean isUp() {
-        return ifAdminStatus == 1 && ifOperStatus == 1;
+        return getIfAdminStatus() == 1 && getIfOperStatus() == 1;
     }
 
     public boolean isDown() {
@@ -158,7 +214,7 @@ public final class SnmpInterface implements Serializable {
     }
 
     public boolean isMarked() {
-        return marked;
+        return table.getFlag(slot, MARKED);
     }
 
     public void setMarked(boolean mark) {
@@ -166,7 +222,10 @@ public final class SnmpInterface implements Serializable {
         if (mark) {
             resetPollCounters();
         }
-        this.marked = mark;
+        if (isMarked() != mark) {
+            table.addChanges(slot, MARKED_CHANGED);
+        }
+        table.setFlag(slot, MARKED, mark);
     }
 
     public Map<String, String> getTags() {
@@ -184,33 +243,78 @@ public final class SnmpInterface implements Serializable {
 
 
     public int getChargeFlow() {
-        return chargeFlow;
+        return table.getByte(slot, CHARGE_FLOW);
     }
 
     public void setChargeFlow(int chargeFlow) {
-        this.chargeFlow = chargeFlow;
+        table.putByte(slot, CHARGE_FLOW, chargeFlow);
     }
     
     public int getPortStatus() {
-        return ifAdminStatus + ifOperStatus;
+        return getIfAdminStatus() + getIfOperStatus();
     }
 
     public long getPollDuration() {
-        return pollDuration;
+        return table.getLong(slot, POLL_DURATION);
     }
 
     public void setPollDuration(long pollDuration) {
-        this.pollDuration = pollDuration;
+        table.putLong(slot, POLL_DURATION, pollDuration);
     }
 
     public long getSysUptime() {
-        return sysUptime;
+        return table.getLong(slot, SYS_UPTIME);
     }
 
     public void setSysUptime(long sysUptime) {
-        if (this.sysUptime != 0l) {
-            setPollDuration(sysUptime - this.sysUptime);
+        long last = getSysUptime();
+        if (last != 0l) {
+            setPollDuration(sysUptime - last);
+        }
+        if (last != sysUptime) {
+            table.addChanges(slot, SYS_UPTIME_CHANGED);
         }
-        this.sysUptime = sysUptime;
+        table.putLong(slot, SYS_UPTIME, sysUptime);
+    }
+
+    /**
+     * @return in traffic polled since the last export cycle of the wheel
+     *         scheduler
+     */
+    public long getExportInOctets() {
+        return table.getLong(slot, EXPORT_IN_OCTETS);
+    }
+
+    /**
+     * @return out traffic polled since the last export cycle of the wheel
+     *         scheduler
+     */
+    public long getExportOutOctets() {
+        return table.getLong(slot, EXPORT_OUT_OCTETS);
+    }
+
+    /**
+     * @return poll duration covered by the export accumulator
+     */
+    public long getExportDuration() {
+        return table.getLong(slot, EXPORT_DURATION);
+    }
+
+    public boolean hasExport() {
+        return getExportInOctets() != 0L || getExportOutOctets() != 0L || getExportDuration() != 0L;
+    }
+
+    public void setExport(long inOctets, long outOctets, long duration) {
+        table.putLong(slot, EXPORT_IN_OCTETS, inOctets);
+        table.putLong(slot, EXPORT_OUT_OCTETS, outOctets);
+        table.putLong(slot, EXPORT_DURATION, duration);
+    }
+
+    /**
+     * add traffic to the export accumulator, negative to remove exported
+     * traffic
+     */
+    public void addExport(long inOctets, long outOctets, long duration) {
+        setExport(getExportInOctets() + inOctets, getExportOutOctets() + outOctets, getExportDuration() + duration);
     }
 }
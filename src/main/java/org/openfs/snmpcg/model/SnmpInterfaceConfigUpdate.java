@@ -0,0 +1,83 @@
+package org.openfs.snmpcg.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hazelcast.map.AbstractEntryProcessor;
+
+/**
+ * REST update of interface flags (trace, chargeable, chargeFlow, tags) applied
+ * to the sources map entry, keeps the poll results stored in the meantime.
+ */
+public final class SnmpInterfaceConfigUpdate extends AbstractEntryProcessor<String, SnmpSource> {
+    private static final long serialVersionUID = -7715840541566262290L;
+
+    private final List<String> ifDescrs;
+    // null when not updated
+    private Boolean trace;
+    private Boolean chargeable;
+    private Integer chargeFlow;
+    private Map<String, String> tags;
+
+    public SnmpInterfaceConfigUpdate(List<String> ifDescrs) {
+        super(true);
+        this.ifDescrs = new ArrayList<String>(ifDescrs);
+    }
+
+    public boolean isEmpty() {
+        return trace == null && chargeable == null && chargeFlow == null && tags == null;
+    }
+
+    /**
+     * @return number of updated interfaces
+     */
+    @Override
+    public Object process(Map.Entry<String, SnmpSource> entry) {
+        SnmpSource source = entry.getValue();
+        if (source == null) {
+            return 0;
+        }
+        int updated = 0;
+        for (String ifDescr : ifDescrs) {
+            SnmpInterface ifEntry = source.getIftable().get(ifDescr);
+            if (ifEntry == null) {
+                continue;
+            }
+            if (trace != null) {
+                ifEntry.setTrace(trace);
+            }
+            if (chargeable != null) {
+                ifEntry.setChargeable(chargeable);
+            }
+            if (chargeFlow != null) {
+                ifEntry.setChargeFlow(chargeFlow);
+            }
+            if (tags != null) {
+                ifEntry.addTags(tags);
+            }
+            updated++;
+        }
+        if (updated > 0) {
+            entry.setValue(source);
+        }
+        return updated;
+    }
+
+    public void setTrace(Boolean trace) {
+        this.trace = trace;
+    }
+
+    public void setChargeable(Boolean chargeable) {
+        this.chargeable = chargeable;
+    }
+
+    public void setChargeFlow(Integer chargeFlow) {
+        this.chargeFlow = chargeFlow;
+    }
+
+    public void setTags(Map<String, String> tags) {
+        this.tags = new HashMap<String, String>(tags);
+    }
+}
@@ -0,0 +1,36 @@
+package org.openfs.snmpcg.model;
+
+import com.hazelcast.query.extractor.ValueCollector;
+import com.hazelcast.query.extractor.ValueExtractor;
+
+/**
+ * Query attribute ifCount[flag]: number of interfaces of the source that are
+ * chargeable, trace or up, or all interfaces.
+ */
+public final class SnmpInterfaceCountExtractor extends ValueExtractor<SnmpSource, String> {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void extract(SnmpSource source, String flag, @SuppressWarnings("rawtypes") ValueCollector collector) {
+        int count = 0;
+        for (SnmpInterface ifEntry : source.getIftable().values()) {
+            if (matches(ifEntry, flag)) {
+                count++;
+            }
+        }
+        collector.addObject(count);
+    }
+
+    private static boolean matches(SnmpInterface ifEntry, String flag) {
+        switch (flag) {
+        case "chargeable":
+            return ifEntry.isChargeable();
+        case "trace":
+            return ifEntry.isTrace();
+        case "up":
+            return ifEntry.isUp();
+        default:
+            return true;
+        }
+    }
+}
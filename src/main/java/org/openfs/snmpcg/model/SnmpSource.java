@@ -18,6 +18,8 @@ public final class SnmpSource implements Serializable {
     private String sysLocation;
     private String sysObjectID;
     private final Map<String, SnmpInterface> iftable = new HashMap<String, SnmpInterface>();
+    // interface counters, status and flags
+    private final SnmpCounterTable counters = new SnmpCounterTable(16);
     private long pollTime;
     private String community;
     private int retries;
@@ -27,6 +29,21 @@ public final class SnmpSource implements Serializable {
     private boolean skipDelta = true;
     private long pollResponse;
     private final Map<String, String> tags = new HashMap<String, String>();
+    // learned GETBULK size
+    private int maxRepetitions;
+    private int maxResponseSize;
+    // smoothed rtt and rtt variance in ms, 0 until measured
+    private int srtt;
+    private int rttVar;
+    // failed status polls in a row and time of the next one, 0 for the next
+    // pollStatus
+    private int statusFailures;
+    private long nextAttempt;
+    // poll interval in seconds, 0 for tag or default interval
+    private int pollInterval;
+    // last ifDescr, ifName, ifAlias refresh
+    private long metadataTime;
+    transient private Map<Integer, SnmpInterface> ifIndexTable;
 
     public SnmpSource(String ipAddress, String community, int retries, int timeout) {
         this.ipAddress = ipAddress;
@@ -58,18 +75,55 @@ public final class SnmpSource implements Serializable {
     public SnmpInterface getSnmpInterface(String ifdescr) {
         SnmpInterface entry = iftable.get(ifdescr);
         if (entry == null) {
-            entry = new SnmpInterface(ifdescr);
-            iftable.putIfAbsent(ifdescr, entry);
+            entry = new SnmpInterface(ifdescr, counters, counters.allocateSlot());
+            counters.addChanges(entry.getSlot(), SnmpCounterTable.CREATED);
+            iftable.put(ifdescr, entry);
         }
         return entry;
     }
 
     public void removeSnmpInterace(String ifdescr) {
-        if (iftable.containsKey(ifdescr)) {
-            iftable.remove(ifdescr);
+        SnmpInterface entry = iftable.remove(ifdescr);
+        if (entry != null) {
+            counters.freeSlot(entry.getSlot());
+            ifIndexTable = null;
         }
     }
 
+    /**
+     * @return interface by ifIndex or null if ifIndex is unknown
+     */
+    public SnmpInterface getSnmpInterface(int ifIndex) {
+        if (ifIndexTable == null) {
+            rebuildIfIndexTable();
+        }
+        return ifIndexTable.get(ifIndex);
+    }
+
+    public void rebuildIfIndexTable() {
+        Map<Integer, SnmpInterface> table = new HashMap<Integer, SnmpInterface>(iftable.size());
+        iftable.values().forEach(entry -> table.put(entry.getIfIndex(), entry));
+        ifIndexTable = table;
+    }
+
+    /**
+     * forget the interface changes, the poll update carries the changes since
+     */
+    void clearChanges() {
+        counters.clearChanges();
+    }
+
+    boolean isOffHeap() {
+        return counters.isOffHeap();
+    }
+
+    /**
+     * keep the interface counters of the stored source in a direct buffer
+     */
+    void setOffHeap(boolean offHeap) {
+        counters.setOffHeap(offHeap);
+    }
+
     public Map<String, SnmpInterface> getIftable() {
         return iftable;
     }
@@ -168,6 +222,18 @@ public final class SnmpSource implements Serializable {
         tags.replace(tag, value);
     }
 
+    public String getCommunity() {
+        return community;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
     public void setCommunity(String community) {
         this.community = community;
         target = SnmpCommunityTarget.createTarget(ipAddress, community, retries, timeout);
@@ -191,4 +257,68 @@ public final class SnmpSource implements Serializable {
         this.sysObjectID = sysObjectID;
     }
 
+    public int getMaxRepetitions() {
+        return maxRepetitions;
+    }
+
+    public void setMaxRepetitions(int maxRepetitions) {
+        this.maxRepetitions = maxRepetitions;
+    }
+
+    public int getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(int pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public long getMetadataTime() {
+        return metadataTime;
+    }
+
+    public void setMetadataTime(long metadataTime) {
+        this.metadataTime = metadataTime;
+    }
+
+    public int getMaxResponseSize() {
+        return maxResponseSize;
+    }
+
+    public void setMaxResponseSize(int maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    public int getSrtt() {
+        return srtt;
+    }
+
+    public void setSrtt(int srtt) {
+        this.srtt = srtt;
+    }
+
+    public int getRttVar() {
+        return rttVar;
+    }
+
+    public void setRttVar(int rttVar) {
+        this.rttVar = rttVar;
+    }
+
+    public int getStatusFailures() {
+        return statusFailures;
+    }
+
+    public void setStatusFailures(int statusFailures) {
+        this.statusFailures = statusFailures;
+    }
+
+    public long getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(long nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
 }
@@ -0,0 +1,74 @@
+package org.openfs.snmpcg.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.hazelcast.map.AbstractEntryProcessor;
+
+/**
+ * REST update of source params applied to the sources map entry, keeps the
+ * poll results stored in the meantime.
+ */
+public final class SnmpSourceConfigUpdate extends AbstractEntryProcessor<String, SnmpSource> {
+    private static final long serialVersionUID = 1538237447211208543L;
+
+    // null when not updated
+    private String community;
+    private Integer retries;
+    private Integer timeout;
+    private Integer pollInterval;
+    private Map<String, String> tags;
+
+    public SnmpSourceConfigUpdate() {
+        super(true);
+    }
+
+    public boolean isEmpty() {
+        return community == null && retries == null && timeout == null && pollInterval == null && tags == null;
+    }
+
+    @Override
+    public Object process(Map.Entry<String, SnmpSource> entry) {
+        SnmpSource source = entry.getValue();
+        if (source == null) {
+            return Boolean.FALSE;
+        }
+        if (community != null) {
+            source.setCommunity(community);
+        }
+        if (retries != null) {
+            source.setRetries(retries);
+        }
+        if (timeout != null) {
+            source.setTimeout(timeout);
+        }
+        if (pollInterval != null) {
+            source.setPollInterval(pollInterval);
+        }
+        if (tags != null) {
+            source.addTags(tags);
+        }
+        entry.setValue(source);
+        return Boolean.TRUE;
+    }
+
+    public void setCommunity(String community) {
+        this.community = community;
+    }
+
+    public void setRetries(Integer retries) {
+        this.retries = retries;
+    }
+
+    public void setTimeout(Integer timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setPollInterval(Integer pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public void setTags(Map<String, String> tags) {
+        this.tags = new HashMap<String, String>(tags);
+    }
+}
@@ -0,0 +1,67 @@
+package org.openfs.snmpcg.model;
+
+import java.io.Serializable;
+
+/**
+ * Status and interface counts of one source, the result of the poll update
+ * applied to the stored source.
+ */
+public final class SnmpSourceCounts implements Serializable {
+    private static final long serialVersionUID = -2270593517356027046L;
+    public static final SnmpSourceCounts UNKNOWN = new SnmpSourceCounts(SnmpConstants.UNKNOWN, 0, 0, 0, 0);
+
+    private final String status;
+    private final int interfaces;
+    private final int up;
+    private final int chargeable;
+    private final int trace;
+
+    private SnmpSourceCounts(String status, int interfaces, int up, int chargeable, int trace) {
+        this.status = status;
+        this.interfaces = interfaces;
+        this.up = up;
+        this.chargeable = chargeable;
+        this.trace = trace;
+    }
+
+    /**
+     * count the interface flags in one pass
+     */
+    public static SnmpSourceCounts of(SnmpSource source) {
+        int up = 0;
+        int chargeable = 0;
+        int trace = 0;
+        for (SnmpInterface ifEntry : source.getIftable().values()) {
+            if (ifEntry.isUp()) {
+                up++;
+            }
+            if (ifEntry.isChargeable()) {
+                chargeable++;
+            }
+            if (ifEntry.isTrace()) {
+                trace++;
+            }
+        }
+        return new SnmpSourceCounts(source.getStatus(), source.getIftable().size(), up, chargeable, trace);
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public int getInterfaces() {
+        return interfaces;
+    }
+
+    public int getUp() {
+        return up;
+    }
+
+    public int getChargeable() {
+        return chargeable;
+    }
+
+    public int getTrace() {
+        return trace;
+    }
+}
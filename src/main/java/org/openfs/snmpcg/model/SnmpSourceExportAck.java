@@ -0,0 +1,48 @@
+package org.openfs.snmpcg.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.hazelcast.map.AbstractEntryProcessor;
+
+/**
+ * Exported traffic of one source removed from the export accumulators after
+ * the export cycle of the wheel scheduler. The exported amounts are
+ * subtracted, so the polls stored while the cycle was exported are kept for
+ * the next cycle.
+ */
+public final class SnmpSourceExportAck extends AbstractEntryProcessor<String, SnmpSource> {
+    private static final long serialVersionUID = 3817256408927345161L;
+
+    // ifDescr: in, out octets and duration exported
+    private final Map<String, long[]> exported = new HashMap<String, long[]>();
+
+    public SnmpSourceExportAck() {
+        super(true);
+    }
+
+    public void add(SnmpInterface ifEntry) {
+        exported.put(ifEntry.getIfDescr(), new long[] {ifEntry.getExportInOctets(), ifEntry.getExportOutOctets(), ifEntry.getExportDuration()});
+    }
+
+    public boolean isEmpty() {
+        return exported.isEmpty();
+    }
+
+    @Override
+    public Object process(Map.Entry<String, SnmpSource> entry) {
+        SnmpSource source = entry.getValue();
+        if (source == null) {
+            return Boolean.FALSE;
+        }
+        for (Map.Entry<String, long[]> export : exported.entrySet()) {
+            SnmpInterface ifEntry = source.getIftable().get(export.getKey());
+            if (ifEntry != null) {
+                long[] value = export.getValue();
+                ifEntry.addExport(-value[0], -value[1], -value[2]);
+            }
+        }
+        entry.setValue(source);
+        return Boolean.TRUE;
+    }
+}
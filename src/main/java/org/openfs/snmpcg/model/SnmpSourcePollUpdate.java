@@ -0,0 +1,474 @@
+package org.openfs.snmpcg.model;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Poll result of one source applied to the sources map entry. Carries only the
+ * fields owned by the poll, so the source params and interface flags updated
+ * by REST in the meantime are kept. Interfaces are created and removed only as
+ * the walk found them, and the ifIndex, status, mark and sysUptime of an
+ * interface only when the poll changed them. Applied on backup too, so the
+ * backup replica gets the delta instead of the whole source.
+ */
+public final class SnmpSourcePollUpdate
+    implements EntryProcessor<String, SnmpSource>, EntryBackupProcessor<String, SnmpSource>, IdentifiedDataSerializable {
+    private static final long serialVersionUID = -3427410519468125127L;
+    // format version, bump on field change
+    private static final byte VERSION = 1;
+
+    private String status;
+    private long sysUptime;
+    private long pollTime;
+    private long pollDuration;
+    private long pollResponse;
+    private boolean skipDelta;
+    private int maxRepetitions;
+    private int maxResponseSize;
+    private long metadataTime;
+    private int srtt;
+    private int rttVar;
+    private int statusFailures;
+    private long nextAttempt;
+    // null when not walked
+    private String sysDescr;
+    private String sysName;
+    private String sysLocation;
+    private String sysObjectID;
+    private Map<String, String> tags;
+    private List<InterfaceUpdate> interfaces;
+    private Set<String> removed;
+    // counters of the stored source in a direct buffer
+    private boolean offHeap;
+
+    public SnmpSourcePollUpdate() {
+    }
+
+    /**
+     * @param source polled source
+     * @param withInterfaces include ifTable state (walk returned rows)
+     * @param withMetadata include ifName, ifAlias
+     * @param tags source tags set by the poll
+     * @param chargeChanged interfaces which chargeable flag or vlan tag was changed by the poll
+     * @param vlanTag interface vlan tag name
+     * @param removedIF interfaces removed by the poll
+     */
+    public static SnmpSourcePollUpdate of(SnmpSource source, boolean withInterfaces, boolean withMetadata, Map<String, String> tags, Set<String> chargeChanged,
+                                          String vlanTag, Set<String> removedIF) {
+        SnmpSourcePollUpdate update = new SnmpSourcePollUpdate();
+        update.status = source.getStatus();
+        update.sysUptime = source.getSysUptime();
+        update.pollTime = source.getPollTime();
+        update.pollDuration = source.getPollDuration();
+        update.pollResponse = source.getPollResponse();
+        update.skipDelta = source.isSkipDelta();
+        update.maxRepetitions = source.getMaxRepetitions();
+        update.maxResponseSize = source.getMaxResponseSize();
+        update.metadataTime = source.getMetadataTime();
+        update.srtt = source.getSrtt();
+        update.rttVar = source.getRttVar();
+        update.statusFailures = source.getStatusFailures();
+        update.nextAttempt = source.getNextAttempt();
+        if (withMetadata) {
+            update.sysDescr = source.getSysDescr();
+            update.sysName = source.getSysName();
+            update.sysLocation = source.getSysLocation();
+            update.sysObjectID = source.getSysObjectID();
+        }
+        if (tags != null && !tags.isEmpty()) {
+            update.tags = new HashMap<String, String>(tags);
+        }
+        if (withInterfaces) {
+            update.interfaces = new ArrayList<InterfaceUpdate>(source.getIftable().size());
+            for (SnmpInterface ifEntry : source.getIftable().values()) {
+                update.interfaces.add(new InterfaceUpdate(ifEntry, withMetadata, chargeChanged.contains(ifEntry.getIfDescr()), vlanTag));
+            }
+            if (!removedIF.isEmpty()) {
+                update.removed = new HashSet<String>(removedIF);
+            }
+        }
+        // the next update of this copy carries the changes since
+        source.clearChanges();
+        return update;
+    }
+
+    /**
+     * add the poll deltas of the polled interfaces to their export accumulator,
+     * the wheel scheduler exports the sum of the polls since the last export
+     * cycle
+     *
+     * @param polledIF interfaces which counters were polled
+     * @return this update
+     */
+    public SnmpSourcePollUpdate accumulateExport(Set<String> polledIF) {
+        if (interfaces != null) {
+            for (InterfaceUpdate update : interfaces) {
+                update.accumulate = polledIF.contains(update.ifDescr);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * keep the counters of the stored source off-heap
+     *
+     * @return this update
+     */
+    public SnmpSourcePollUpdate storeOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+        return this;
+    }
+
+    /**
+     * @return counts of the updated source, null if it was removed while polled
+     */
+    @Override
+    public Object process(Map.Entry<String, SnmpSource> entry) {
+        SnmpSource source = entry.getValue();
+        if (source == null) {
+            return null;
+        }
+        apply(source);
+        entry.setValue(source);
+        return SnmpSourceCounts.of(source);
+    }
+
+    @Override
+    public EntryBackupProcessor<String, SnmpSource> getBackupProcessor() {
+        return this;
+    }
+
+    @Override
+    public void processBackup(Map.Entry<String, SnmpSource> entry) {
+        SnmpSource source = entry.getValue();
+        if (source != null) {
+            apply(source);
+            entry.setValue(source);
+        }
+    }
+
+    @Override
+    public int getFactoryId() {
+        return SnmpDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return SnmpDataSerializableFactory.SOURCE_POLL_UPDATE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeByte(VERSION);
+        SnmpSourceSerializer.writeString(out, status);
+        out.writeLong(sysUptime);
+        out.writeLong(pollTime);
+        out.writeLong(pollDuration);
+        out.writeLong(pollResponse);
+        out.writeBoolean(skipDelta);
+        out.writeInt(maxRepetitions);
+        out.writeInt(maxResponseSize);
+        out.writeLong(metadataTime);
+        out.writeInt(srtt);
+        out.writeInt(rttVar);
+        out.writeInt(statusFailures);
+        out.writeLong(nextAttempt);
+        SnmpSourceSerializer.writeString(out, sysDescr);
+        SnmpSourceSerializer.writeString(out, sysName);
+        SnmpSourceSerializer.writeString(out, sysLocation);
+        SnmpSourceSerializer.writeString(out, sysObjectID);
+        out.writeInt(tags == null ? -1 : tags.size());
+        if (tags != null) {
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                out.writeUTF(tag.getKey());
+                SnmpSourceSerializer.writeString(out, tag.getValue());
+            }
+        }
+        out.writeInt(interfaces == null ? -1 : interfaces.size());
+        if (interfaces != null) {
+            for (InterfaceUpdate update : interfaces) {
+                update.writeData(out);
+            }
+        }
+        out.writeBoolean(offHeap);
+        out.writeInt(removed == null ? -1 : removed.size());
+        if (removed != null) {
+            for (String ifDescr : removed) {
+                out.writeUTF(ifDescr);
+            }
+        }
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported SnmpSourcePollUpdate format version: " + version);
+        }
+        status = SnmpSourceSerializer.readString(in);
+        sysUptime = in.readLong();
+        pollTime = in.readLong();
+        pollDuration = in.readLong();
+        pollResponse = in.readLong();
+        skipDelta = in.readBoolean();
+        maxRepetitions = in.readInt();
+        maxResponseSize = in.readInt();
+        metadataTime = in.readLong();
+        srtt = in.readInt();
+        rttVar = in.readInt();
+        statusFailures = in.readInt();
+        nextAttempt = in.readLong();
+        sysDescr = SnmpSourceSerializer.readString(in);
+        sysName = SnmpSourceSerializer.readString(in);
+        sysLocation = SnmpSourceSerializer.readString(in);
+        sysObjectID = SnmpSourceSerializer.readString(in);
+        int size = in.readInt();
+        if (size >= 0) {
+            tags = new HashMap<String, String>(size * 2);
+            for (int i = 0; i < size; i++) {
+                tags.put(in.readUTF(), SnmpSourceSerializer.readString(in));
+            }
+        }
+        size = in.readInt();
+        if (size >= 0) {
+            interfaces = new ArrayList<InterfaceUpdate>(size);
+            for (int i = 0; i < size; i++) {
+                InterfaceUpdate update = new InterfaceUpdate();
+                update.readData(in);
+                interfaces.add(update);
+            }
+        }
+        offHeap = in.readBoolean();
+        size = in.readInt();
+        if (size >= 0) {
+            removed = new HashSet<String>(size * 2);
+            for (int i = 0; i < size; i++) {
+                removed.add(in.readUTF());
+            }
+        }
+    }
+
+    public void apply(SnmpSource source) {
+        source.setStatus(status);
+        source.setSysUptime(sysUptime);
+        source.setPollTime(pollTime);
+        source.setPollDuration(pollDuration);
+        source.setPollResponse(pollResponse);
+        source.setSkipDelta(skipDelta);
+        source.setMaxRepetitions(maxRepetitions);
+        source.setMaxResponseSize(maxResponseSize);
+        source.setMetadataTime(metadataTime);
+        source.setSrtt(srtt);
+        source.setRttVar(rttVar);
+        source.setStatusFailures(statusFailures);
+        source.setNextAttempt(nextAttempt);
+        if (sysObjectID != null) {
+            source.setSysDescr(sysDescr);
+            source.setSysName(sysName);
+            source.setSysLocation(sysLocation);
+            source.setSysObjectID(sysObjectID);
+        }
+        if (tags != null) {
+            source.getTags().putAll(tags);
+        }
+        if (interfaces != null) {
+            for (InterfaceUpdate update : interfaces) {
+                SnmpInterface ifEntry = update.isCreated() ? source.getSnmpInterface(update.ifDescr) : source.getIftable().get(update.ifDescr);
+                if (ifEntry == null) {
+                    // removed while polled
+                    continue;
+                }
+                update.apply(ifEntry);
+                if (update.accumulate) {
+                    long duration = (update.pollDuration == 0) ? pollDuration : update.pollDuration;
+                    // no duration across a reboot
+                    ifEntry.addExport(update.pollInOctets, update.pollOutOctets, Math.max(0L, duration));
+                }
+            }
+            if (removed != null) {
+                removed.forEach(source::removeSnmpInterace);
+            }
+            source.rebuildIfIndexTable();
+        }
+        source.clearChanges();
+        source.setOffHeap(offHeap);
+    }
+
+    /**
+     * poll owned fields of one interface
+     */
+    static final class InterfaceUpdate implements Serializable {
+        private static final long serialVersionUID = 6022476178245364823L;
+        private String ifDescr;
+        // SnmpCounterTable changes, all fields of a created interface
+        private int changes;
+        private int ifIndex;
+        private int ifAdminStatus;
+        private int ifOperStatus;
+        private long inOctets;
+        private int inType;
+        private long outOctets;
+        private int outType;
+        private long pollInOctets;
+        private long pollOutOctets;
+        private boolean marked;
+        private long sysUptime;
+        private long pollDuration;
+        private boolean accumulate;
+        // null when not walked or not changed
+        private String ifName;
+        private String ifAlias;
+        private Boolean chargeable;
+        private String vlanTag;
+        private String vlan;
+
+        InterfaceUpdate() {
+        }
+
+        InterfaceUpdate(SnmpInterface ifEntry, boolean withMetadata, boolean chargeChanged, String vlanTag) {
+            ifDescr = ifEntry.getIfDescr();
+            changes = ifEntry.getChanges();
+            if ((changes & SnmpCounterTable.CREATED) != 0) {
+                changes |= SnmpCounterTable.IF_INDEX_CHANGED | SnmpCounterTable.STATUS_CHANGED | SnmpCounterTable.MARKED_CHANGED
+                           | SnmpCounterTable.SYS_UPTIME_CHANGED;
+            }
+            ifIndex = ifEntry.getIfIndex();
+            ifAdminStatus = ifEntry.getIfAdminStatus();
+            ifOperStatus = ifEntry.getIfOperStatus();
+            inOctets = ifEntry.getInOctets();
+            inType = ifEntry.getInOctetsType();
+            outOctets = ifEntry.getOutOctets();
+            outType = ifEntry.getOutOctetsType();
+            pollInOctets = ifEntry.getPollInOctets();
+            pollOutOctets = ifEntry.getPollOutOctets();
+            marked = ifEntry.isMarked();
+            sysUptime = ifEntry.getSysUptime();
+            pollDuration = ifEntry.getPollDuration();
+            if (withMetadata) {
+                ifName = ifEntry.getIfName();
+                ifAlias = ifEntry.getIfAlias();
+            }
+            if (chargeChanged) {
+                chargeable = ifEntry.isChargeable();
+                this.vlanTag = vlanTag;
+                vlan = ifEntry.getTags().get(vlanTag);
+            }
+        }
+
+        boolean isCreated() {
+            return (changes & SnmpCounterTable.CREATED) != 0;
+        }
+
+        private boolean isChanged(int change) {
+            return (changes & change) != 0;
+        }
+
+        void apply(SnmpInterface ifEntry) {
+            if (isChanged(SnmpCounterTable.IF_INDEX_CHANGED)) {
+                ifEntry.setIfIndex(ifIndex);
+            }
+            if (isChanged(SnmpCounterTable.STATUS_CHANGED)) {
+                ifEntry.setIfAdminStatus(ifAdminStatus);
+                ifEntry.setIfOperStatus(ifOperStatus);
+            }
+            ifEntry.setInOctets(inOctets, inType);
+            ifEntry.setOutOctets(outOctets, outType);
+            if (isChanged(SnmpCounterTable.MARKED_CHANGED)) {
+                ifEntry.setMarked(marked);
+            }
+            ifEntry.setPollInOctets(pollInOctets);
+            ifEntry.setPollOutOctets(pollOutOctets);
+            if (isChanged(SnmpCounterTable.SYS_UPTIME_CHANGED)) {
+                ifEntry.setSysUptime(sysUptime);
+            }
+            ifEntry.setPollDuration(pollDuration);
+            if (ifName != null) {
+                ifEntry.setIfName(ifName);
+            }
+            if (ifAlias != null) {
+                ifEntry.setIfAlias(ifAlias);
+            }
+            if (chargeable != null) {
+                ifEntry.setChargeable(chargeable);
+                if (vlan != null) {
+                    ifEntry.getTags().put(vlanTag, vlan);
+                }
+            }
+        }
+
+        void writeData(ObjectDataOutput out) throws IOException {
+            out.writeUTF(ifDescr);
+            out.writeByte(changes);
+            if (isChanged(SnmpCounterTable.IF_INDEX_CHANGED)) {
+                SnmpSourceSerializer.writeVarLong(out, ifIndex);
+            }
+            if (isChanged(SnmpCounterTable.STATUS_CHANGED)) {
+                out.writeByte(ifAdminStatus);
+                out.writeByte(ifOperStatus);
+            }
+            SnmpSourceSerializer.writeVarLong(out, inOctets);
+            out.writeByte(inType);
+            SnmpSourceSerializer.writeVarLong(out, outOctets);
+            out.writeByte(outType);
+            SnmpSourceSerializer.writeVarLong(out, pollInOctets);
+            SnmpSourceSerializer.writeVarLong(out, pollOutOctets);
+            if (isChanged(SnmpCounterTable.MARKED_CHANGED)) {
+                out.writeBoolean(marked);
+            }
+            if (isChanged(SnmpCounterTable.SYS_UPTIME_CHANGED)) {
+                SnmpSourceSerializer.writeVarLong(out, sysUptime);
+            }
+            SnmpSourceSerializer.writeVarLong(out, pollDuration);
+            SnmpSourceSerializer.writeString(out, ifName);
+            SnmpSourceSerializer.writeString(out, ifAlias);
+            out.writeByte(chargeable == null ? -1 : chargeable ? 1 : 0);
+            SnmpSourceSerializer.writeString(out, vlanTag);
+            SnmpSourceSerializer.writeString(out, vlan);
+            out.writeBoolean(accumulate);
+        }
+
+        void readData(ObjectDataInput in) throws IOException {
+            ifDescr = in.readUTF();
+            changes = in.readByte();
+            if (isChanged(SnmpCounterTable.IF_INDEX_CHANGED)) {
+                ifIndex = (int)SnmpSourceSerializer.readVarLong(in);
+            }
+            if (isChanged(SnmpCounterTable.STATUS_CHANGED)) {
+                ifAdminStatus = in.readByte();
+                ifOperStatus = in.readByte();
+            }
+            inOctets = SnmpSourceSerializer.readVarLong(in);
+            inType = in.readByte();
+            outOctets = SnmpSourceSerializer.readVarLong(in);
+            outType = in.readByte();
+            pollInOctets = SnmpSourceSerializer.readVarLong(in);
+            pollOutOctets = SnmpSourceSerializer.readVarLong(in);
+            if (isChanged(SnmpCounterTable.MARKED_CHANGED)) {
+                marked = in.readBoolean();
+            }
+            if (isChanged(SnmpCounterTable.SYS_UPTIME_CHANGED)) {
+                sysUptime = SnmpSourceSerializer.readVarLong(in);
+            }
+            pollDuration = SnmpSourceSerializer.readVarLong(in);
+            ifName = SnmpSourceSerializer.readString(in);
+            ifAlias = SnmpSourceSerializer.readString(in);
+            byte charge = in.readByte();
+            chargeable = (charge < 0) ? null : charge == 1;
+            vlanTag = SnmpSourceSerializer.readString(in);
+            vlan = SnmpSourceSerializer.readString(in);
+            accumulate = in.readBoolean();
+        }
+    }
+}
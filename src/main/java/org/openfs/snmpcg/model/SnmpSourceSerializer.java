@@ -0,0 +1,203 @@
+package org.openfs.snmpcg.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+/**
+ * Compact binary format of SnmpSource for the sources map: versioned, no class
+ * descriptors, interfaces and counters written inline as primitives, interface
+ * numbers as zigzag varints.
+ */
+public final class SnmpSourceSerializer implements StreamSerializer<SnmpSource> {
+    public static final int TYPE_ID = 1001;
+    // format version, bump on field change
+    private static final byte VERSION = 1;
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, SnmpSource source) throws IOException {
+        writeSource(out, source);
+    }
+
+    @Override
+    public SnmpSource read(ObjectDataInput in) throws IOException {
+        return readSource(in);
+    }
+
+    public static void writeSource(DataOutput out, SnmpSource source) throws IOException {
+        out.writeByte(VERSION);
+        out.writeUTF(source.getIpAddress());
+        writeString(out, source.getCommunity());
+        out.writeInt(source.getRetries());
+        out.writeInt(source.getTimeout());
+        writeString(out, source.getStatus());
+        out.writeLong(source.getSysUptime());
+        writeString(out, source.getSysDescr());
+        writeString(out, source.getSysName());
+        writeString(out, source.getSysLocation());
+        writeString(out, source.getSysObjectID());
+        out.writeLong(source.getPollTime());
+        out.writeLong(source.getPollDuration());
+        out.writeLong(source.getPollResponse());
+        out.writeBoolean(source.isSkipDelta());
+        out.writeInt(source.getMaxRepetitions());
+        out.writeInt(source.getMaxResponseSize());
+        out.writeInt(source.getPollInterval());
+        out.writeLong(source.getMetadataTime());
+        out.writeInt(source.getSrtt());
+        out.writeInt(source.getRttVar());
+        out.writeInt(source.getStatusFailures());
+        out.writeLong(source.getNextAttempt());
+        writeTags(out, source.getTags());
+        out.writeInt(source.getIftable().size());
+        for (SnmpInterface ifEntry : source.getIftable().values()) {
+            writeInterface(out, ifEntry);
+        }
+    }
+
+    public static SnmpSource readSource(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported SnmpSource format version: " + version);
+        }
+        SnmpSource source = new SnmpSource(in.readUTF(), readString(in), in.readInt(), in.readInt());
+        source.setStatus(readString(in));
+        source.setSysUptime(in.readLong());
+        source.setSysDescr(readString(in));
+        source.setSysName(readString(in));
+        source.setSysLocation(readString(in));
+        source.setSysObjectID(readString(in));
+        source.setPollTime(in.readLong());
+        source.setPollDuration(in.readLong());
+        source.setPollResponse(in.readLong());
+        source.setSkipDelta(in.readBoolean());
+        source.setMaxRepetitions(in.readInt());
+        source.setMaxResponseSize(in.readInt());
+        source.setPollInterval(in.readInt());
+        source.setMetadataTime(in.readLong());
+        source.setSrtt(in.readInt());
+        source.setRttVar(in.readInt());
+        source.setStatusFailures(in.readInt());
+        source.setNextAttempt(in.readLong());
+        source.getTags().putAll(readTags(in));
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            readInterface(in, source);
+        }
+        // read as stored, not changed
+        source.clearChanges();
+        return source;
+    }
+
+    private static void writeInterface(DataOutput out, SnmpInterface ifEntry) throws IOException {
+        out.writeUTF(ifEntry.getIfDescr());
+        writeVarLong(out, ifEntry.getIfIndex());
+        writeString(out, ifEntry.getIfName());
+        writeString(out, ifEntry.getIfAlias());
+        out.writeByte(ifEntry.getIfAdminStatus());
+        out.writeByte(ifEntry.getIfOperStatus());
+        out.writeBoolean(ifEntry.isChargeable());
+        out.writeBoolean(ifEntry.isTrace());
+        out.writeBoolean(ifEntry.isMarked());
+        out.writeByte(ifEntry.getChargeFlow());
+        writeVarLong(out, ifEntry.getInOctets());
+        out.writeByte(ifEntry.getInOctetsType());
+        writeVarLong(out, ifEntry.getOutOctets());
+        out.writeByte(ifEntry.getOutOctetsType());
+        writeVarLong(out, ifEntry.getPollInOctets());
+        writeVarLong(out, ifEntry.getPollOutOctets());
+        writeVarLong(out, ifEntry.getSysUptime());
+        writeVarLong(out, ifEntry.getPollDuration());
+        writeVarLong(out, ifEntry.getExportInOctets());
+        writeVarLong(out, ifEntry.getExportOutOctets());
+        writeVarLong(out, ifEntry.getExportDuration());
+        writeTags(out, ifEntry.getTags());
+    }
+
+    private static void readInterface(DataInput in, SnmpSource source) throws IOException {
+        SnmpInterface ifEntry = source.getSnmpInterface(in.readUTF());
+        ifEntry.setIfIndex((int)readVarLong(in));
+        ifEntry.setIfName(readString(in));
+        ifEntry.setIfAlias(readString(in));
+        // setters order keeps the stored values: status and mark reset poll
+        // counters, clear chargeable resets trace
+        ifEntry.setIfAdminStatus(in.readByte());
+        ifEntry.setIfOperStatus(in.readByte());
+        ifEntry.setChargeable(in.readBoolean());
+        ifEntry.setTrace(in.readBoolean());
+        ifEntry.setMarked(in.readBoolean());
+        ifEntry.setChargeFlow(in.readByte());
+        ifEntry.setInOctets(readVarLong(in), in.readByte());
+        ifEntry.setOutOctets(readVarLong(in), in.readByte());
+        ifEntry.setPollInOctets(readVarLong(in));
+        ifEntry.setPollOutOctets(readVarLong(in));
+        ifEntry.setSysUptime(readVarLong(in));
+        ifEntry.setPollDuration(readVarLong(in));
+        ifEntry.setExport(readVarLong(in), readVarLong(in), readVarLong(in));
+        ifEntry.getTags().putAll(readTags(in));
+    }
+
+    private static void writeTags(DataOutput out, Map<String, String> tags) throws IOException {
+        out.writeShort(tags.size());
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            out.writeUTF(tag.getKey());
+            writeString(out, tag.getValue());
+        }
+    }
+
+    private static Map<String, String> readTags(DataInput in) throws IOException {
+        int size = in.readUnsignedShort();
+        Map<String, String> tags = new HashMap<String, String>(size * 2);
+        for (int i = 0; i < size; i++) {
+            tags.put(in.readUTF(), readString(in));
+        }
+        return tags;
+    }
+
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int)((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int)v);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,16 @@
+package org.openfs.snmpcg.model;
+
+import com.hazelcast.query.extractor.ValueCollector;
+import com.hazelcast.query.extractor.ValueExtractor;
+
+/**
+ * Query attribute tag[key]: value of the source tag.
+ */
+public final class SnmpSourceTagExtractor extends ValueExtractor<SnmpSource, String> {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void extract(SnmpSource source, String tagKey, @SuppressWarnings("rawtypes") ValueCollector collector) {
+        collector.addObject(source.getTags().get(tagKey));
+    }
+}
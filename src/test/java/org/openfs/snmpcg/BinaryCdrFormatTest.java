@@ -0,0 +1,166 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryCdrFormatTest {
+    private static final List<String> SOURCE_TAG_KEYS = Collections.singletonList("router");
+    private static final List<String> INTERFACE_TAG_KEYS = Arrays.asList("circuit", "vlan");
+    private static final long CREATED = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Deflater deflater = new Deflater();
+    private final Inflater inflater = new Inflater();
+
+    @After
+    public void cleanup() {
+        deflater.end();
+        inflater.end();
+    }
+
+    private static Object[][] records() {
+        return new Object[][] {
+            {"10.1.1.1", "core-1", "core", "Gi0/1", "c-1", "100", "uplink", 5000000000L, 0L, CREATED, 30000L, true},
+            {"10.1.1.1", "core-1", "core", "Gi0/2", null, null, null, 0L, 1234L, CREATED + 250L, 30000L, false},
+            {"10.1.1.2", null, null, "eth;0", "c-1", null, "a;b", 1L, 2L, CREATED - 1000L, 0L, true}
+        };
+    }
+
+    private ByteBuffer encode(Object[][] records) throws IOException {
+        BinaryCdrFormat.BlockEncoder encoder = new BinaryCdrFormat.BlockEncoder(SOURCE_TAG_KEYS, INTERFACE_TAG_KEYS);
+        for (Object[] r : records) {
+            encoder.add((String)r[0], (String)r[1], new String[] {(String)r[2]}, (String)r[3], new String[] {(String)r[4], (String)r[5]}, (String)r[6],
+                (Long)r[7], (Long)r[8], (Long)r[9], (Long)r[10], (Boolean)r[11]);
+        }
+        assertEquals(records.length, encoder.getCount());
+        return encoder.encode(deflater);
+    }
+
+    private byte[] file(ByteBuffer... blocks) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuffer header = BinaryCdrFormat.fileHeader(CREATED);
+        bytes.write(header.array(), 0, header.remaining());
+        for (ByteBuffer block : blocks) {
+            bytes.write(block.array(), block.position(), block.remaining());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input(byte[] data) {
+        return new DataInputStream(new ByteArrayInputStream(data));
+    }
+
+    @Test
+    public void encodeDecode() throws IOException {
+        Object[][] expected = records();
+        DataInputStream in = input(file(encode(expected), encode(expected)));
+        assertEquals(CREATED, BinaryCdrFormat.readFileHeader(in));
+        for (int b = 0; b < 2; b++) {
+            BinaryCdrFormat.Block block = BinaryCdrFormat.readBlock(in, inflater);
+            assertEquals(SOURCE_TAG_KEYS, block.sourceTagKeys);
+            assertEquals(INTERFACE_TAG_KEYS, block.interfaceTagKeys);
+            assertEquals(CREATED, block.baseTime);
+            assertEquals(expected.length, block.getCount());
+            for (Object[] record : expected) {
+                assertTrue(Arrays.toString(record), Arrays.equals(record, block.next()));
+            }
+        }
+        assertNull(BinaryCdrFormat.readBlock(in, inflater));
+    }
+
+    @Test
+    public void rejectsChecksumMismatch() throws IOException {
+        byte[] data = file(encode(records()));
+        // crc32 of the raw block
+        data[BinaryCdrFormat.FILE_HEADER_SIZE + 10] ^= 0x01;
+        DataInputStream in = input(data);
+        BinaryCdrFormat.readFileHeader(in);
+        try {
+            BinaryCdrFormat.readBlock(in, inflater);
+            fail("block with bad checksum read");
+        } catch (IOException e) {
+            assertEquals("block checksum mismatch", e.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsCorruptBlock() throws IOException {
+        byte[] data = file(encode(records()));
+        for (int i = BinaryCdrFormat.FILE_HEADER_SIZE + BinaryCdrFormat.BLOCK_HEADER_SIZE; i < data.length; i++) {
+            data[i] ^= 0x5a;
+        }
+        DataInputStream in = input(data);
+        BinaryCdrFormat.readFileHeader(in);
+        try {
+            BinaryCdrFormat.readBlock(in, inflater);
+            fail("corrupt block read");
+        } catch (IOException e) {
+            // corrupt, truncated or checksum mismatch
+        }
+    }
+
+    @Test
+    public void rejectsBadHeaderAndSync() throws IOException {
+        byte[] data = file(encode(records()));
+        data[0] = 'X';
+        try {
+            BinaryCdrFormat.readFileHeader(input(data));
+            fail("bad magic read");
+        } catch (IOException e) {
+            assertEquals("not a binary CDR file", e.getMessage());
+        }
+
+        data = file(encode(records()));
+        data[BinaryCdrFormat.FILE_HEADER_SIZE] = 0;
+        DataInputStream in = input(data);
+        BinaryCdrFormat.readFileHeader(in);
+        try {
+            BinaryCdrFormat.readBlock(in, inflater);
+            fail("bad sync read");
+        } catch (IOException e) {
+            assertEquals("bad block sync", e.getMessage());
+        }
+    }
+
+    @Test
+    public void decodesToTextCdr() throws IOException {
+        Path file = folder.newFile("snmpcg.cdr").toPath();
+        Files.write(file, file(encode(records())));
+        BinaryCdrDecoder decoder = new BinaryCdrDecoder(";", "yyyy");
+        StringWriter out = new StringWriter();
+        assertEquals(3, decoder.decode(file.toString(), out));
+        String[] lines = out.toString().split(System.lineSeparator());
+        assertEquals(3, lines.length);
+        String year = java.time.format.DateTimeFormatter.ofPattern("yyyy").withZone(java.time.ZoneId.systemDefault())
+            .format(java.time.Instant.ofEpochMilli(CREATED));
+        assertEquals("10.1.1.1;core-1;core;Gi0/1;c-1;100;uplink;5000000000;0;" + year + ";30000;1", lines[0]);
+        // separator escaped, null as empty field
+        assertTrue(lines[2], lines[2].startsWith("10.1.1.2;;;eth.0;c-1;;a.b;1;2;"));
+        assertTrue(lines[2].endsWith(";0;1"));
+        // verify only
+        assertEquals(3, decoder.decode(file.toString(), null));
+    }
+}
@@ -0,0 +1,216 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+
+/**
+ * Records of the compiled layout against the formatter it replaced, the
+ * StringBuilder loops of SourceInventoryService exportChargingDataRecords and
+ * exportTraceRecords.
+ */
+public class CdrRecordLayoutTest {
+    private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private static final LinkedHashSet<String> SOURCE_TAG_KEYS = new LinkedHashSet<String>(Arrays.asList("router", "VLAN_OID", "site"));
+    private static final LinkedHashSet<String> INTERFACE_TAG_KEYS = new LinkedHashSet<String>(Arrays.asList("vlan", "circuit"));
+
+    private static List<SnmpSource> sources(String separator) {
+        SnmpSource core = new SnmpSource("10.1.1.1", "public", 1, 5);
+        core.setSysName("core-1");
+        core.setSysUptime(200000L);
+        core.setPollTime(1500000000000L);
+        core.setPollDuration(30000L);
+        Map<String, String> tags = new HashMap<String, String>();
+        tags.put("router", "core" + separator + "ams");
+        tags.put("vlan_oid", "1.3.6.1.4.1.9.9.68.1.2.2.1.2");
+        tags.put("site", "ams" + separator + "dc1");
+        core.addTags(tags);
+
+        SnmpInterface ingress = interfaceOf(core, "Gi0/1", 1, SnmpConstants.INGRESS);
+        ingress.setIfAlias("customer" + separator + "A");
+        ingress.setPollDuration(29000L);
+        Map<String, String> ifTags = new HashMap<String, String>();
+        ifTags.put("vlan", "100");
+        ifTags.put("circuit", "c" + separator + "1");
+        ingress.addTags(ifTags);
+
+        // in and out swapped, duration of the source
+        SnmpInterface egress = interfaceOf(core, "Gi0/2", 2, SnmpConstants.EGRESS);
+        egress.setIfAlias("transit");
+        egress.addTags(Collections.singletonMap("vlan", "200"));
+
+        // no alias, down
+        SnmpInterface down = interfaceOf(core, "Gi0/3", 3, SnmpConstants.INGRESS);
+        down.setIfAlias(null);
+        down.setIfOperStatus(2);
+
+        // no tags
+        SnmpSource edge = new SnmpSource("10.1.1.2", "public", 1, 5);
+        edge.setSysName("edge-1");
+        edge.setSysUptime(100L);
+        edge.setPollTime(1500000300000L);
+        edge.setPollDuration(60000L);
+        SnmpInterface ifEntry = interfaceOf(edge, "ge-0/0/0", 513, SnmpConstants.INGRESS);
+        ifEntry.setIfAlias("");
+        ifEntry.setInOctets(18446744073709L, 64);
+        ifEntry.setOutOctets(4294967295L, 64);
+        return Arrays.asList(core, edge);
+    }
+
+    private static SnmpInterface interfaceOf(SnmpSource source, String ifDescr, int ifIndex, int chargeFlow) {
+        SnmpInterface ifEntry = source.getSnmpInterface(ifDescr);
+        ifEntry.setIfIndex(ifIndex);
+        ifEntry.setIfName(ifDescr.toLowerCase());
+        ifEntry.setIfAdminStatus(1);
+        ifEntry.setIfOperStatus(1);
+        ifEntry.setChargeable(true);
+        ifEntry.setTrace(true);
+        ifEntry.setChargeFlow(chargeFlow);
+        ifEntry.setPollInOctets(1000L * ifIndex);
+        ifEntry.setPollOutOctets(7L * ifIndex);
+        ifEntry.setInOctets(50000L * ifIndex, 32);
+        ifEntry.setOutOctets(60000L * ifIndex, 32);
+        ifEntry.setSysUptime(source.getSysUptime());
+        return ifEntry;
+    }
+
+    private static void assertSameRecords(String separator) {
+        List<SnmpSource> sources = sources(separator);
+        CdrRecordLayout layout = CdrRecordLayout.compile(SOURCE_TAG_KEYS, INTERFACE_TAG_KEYS, "vlan_oid", separator, TIMESTAMP_FORMAT);
+        StringBuilder cdr = new StringBuilder();
+        StringBuilder trace = new StringBuilder();
+        for (SnmpSource source : sources) {
+            String pollTime = layout.formatPollTime(source);
+            for (SnmpInterface ifEntry : source.getInterfaces()) {
+                layout.appendChargingDataRecord(cdr, source, ifEntry, pollTime);
+                layout.appendTraceRecord(trace, source, ifEntry, pollTime);
+            }
+        }
+        BaselineFormatter baseline = new BaselineFormatter(separator);
+        assertEquals(baseline.chargingDataRecords(sources), cdr.toString());
+        assertEquals(baseline.traceRecords(sources), trace.toString());
+    }
+
+    @Test
+    public void sameRecordsAsBaseline() {
+        assertSameRecords(";");
+    }
+
+    @Test
+    public void sameRecordsAsBaselineOfOtherSeparator() {
+        assertSameRecords("|");
+        // escaped by the first char
+        assertSameRecords(",;");
+    }
+
+    @Test
+    public void escapesSeparatorAndSkipsVlanOid() {
+        List<SnmpSource> sources = sources(";");
+        CdrRecordLayout layout = CdrRecordLayout.compile(SOURCE_TAG_KEYS, INTERFACE_TAG_KEYS, "vlan_oid", ";", TIMESTAMP_FORMAT);
+        StringBuilder sb = new StringBuilder();
+        SnmpSource core = sources.get(0);
+        layout.appendChargingDataRecord(sb, core, core.getIftable().get("Gi0/1"), "ts");
+        layout.appendChargingDataRecord(sb, core, core.getIftable().get("Gi0/2"), "ts");
+        String[] lines = sb.toString().split(System.lineSeparator());
+        assertEquals("10.1.1.1;core-1;core.ams;ams.dc1;Gi0/1;100;c.1;customer.A;1000;7;ts;29000;1", lines[0]);
+        assertEquals("10.1.1.1;core-1;core.ams;ams.dc1;Gi0/2;200;;transit;14;2000;ts;30000;1", lines[1]);
+        assertEquals(Arrays.asList("router", "site"), layout.getRecordSourceTagKeys());
+        assertTrue(layout.isCompiledFrom(SOURCE_TAG_KEYS, INTERFACE_TAG_KEYS, ";", TIMESTAMP_FORMAT));
+    }
+
+    /**
+     * record loops of the baseline SourceInventoryService, the timestamp of
+     * SimpleDateFormat
+     */
+    private static final class BaselineFormatter {
+        private final String fieldSeparator;
+        private final SimpleDateFormat timeStampFormat = new SimpleDateFormat(TIMESTAMP_FORMAT);
+        private final String vlanOidTag = "vlan_oid";
+
+        BaselineFormatter(String fieldSeparator) {
+            this.fieldSeparator = fieldSeparator;
+        }
+
+        String traceRecords(List<SnmpSource> sources) {
+            StringBuilder sb = new StringBuilder();
+            sources.stream().forEach(source -> {
+                source.getInterfaces().stream().filter(SnmpInterface::isTrace).forEach(ifEntry -> {
+                    sb.append(timeStampFormat.format(source.getPollTime())).append(fieldSeparator);
+                    sb.append(source.getIpAddress()).append(fieldSeparator);
+                    sb.append(source.getSysUptime()).append(fieldSeparator);
+                    sb.append(ifEntry.getIfIndex()).append(fieldSeparator);
+                    sb.append(ifEntry.getIfDescr()).append(fieldSeparator);
+                    sb.append(ifEntry.getIfName()).append(fieldSeparator);
+                    sb.append(escapeSeparator(ifEntry.getIfAlias())).append(fieldSeparator);
+                    sb.append(ifEntry.getIfAdminStatus()).append(fieldSeparator);
+                    sb.append(ifEntry.getIfOperStatus()).append(fieldSeparator);
+                    sb.append(ifEntry.getIfInOctets()).append(fieldSeparator);
+                    sb.append(ifEntry.getIfOutOctets()).append(fieldSeparator);
+                    sb.append(ifEntry.getSysUptime()).append(fieldSeparator);
+                    sb.append(System.lineSeparator());
+                });
+            });
+            return sb.toString();
+        }
+
+        String chargingDataRecords(List<SnmpSource> sources) {
+            StringBuilder sb = new StringBuilder();
+            sources.stream().forEach(source -> {
+                source.getInterfaces().stream().filter(SnmpInterface::isChargeable).forEach(ifEntry -> {
+                    sb.append(source.getIpAddress()).append(fieldSeparator);
+                    sb.append(source.getSysName()).append(fieldSeparator);
+                    for (String skey : SOURCE_TAG_KEYS) {
+                        // skip vlan_oid
+                        if (skey.equalsIgnoreCase(vlanOidTag)) {
+                            continue;
+                        }
+                        if (source.getTags().containsKey(skey)) {
+                            sb.append(escapeSeparator(source.getTags().get(skey)));
+                        }
+                        sb.append(fieldSeparator);
+                    }
+                    sb.append(ifEntry.getIfDescr()).append(fieldSeparator);
+                    for (String ikey : INTERFACE_TAG_KEYS) {
+                        if (ifEntry.getTags().containsKey(ikey)) {
+                            sb.append(escapeSeparator(ifEntry.getTags().get(ikey)));
+                        }
+                        sb.append(fieldSeparator);
+                    }
+                    sb.append(escapeSeparator(ifEntry.getIfAlias())).append(fieldSeparator);
+                    // swap in out for egress port
+                    if (ifEntry.getChargeFlow() == SnmpConstants.EGRESS) {
+                        sb.append(ifEntry.getPollOutOctets()).append(fieldSeparator);
+                        sb.append(ifEntry.getPollInOctets()).append(fieldSeparator);
+                    } else {
+                        sb.append(ifEntry.getPollInOctets()).append(fieldSeparator);
+                        sb.append(ifEntry.getPollOutOctets()).append(fieldSeparator);
+                    }
+                    sb.append(timeStampFormat.format(source.getPollTime())).append(fieldSeparator);
+                    sb.append((ifEntry.getPollDuration() == 0) ? source.getPollDuration() : ifEntry.getPollDuration()).append(fieldSeparator);
+                    sb.append((ifEntry.isUp()) ? 1 : 0);
+                    sb.append(System.lineSeparator());
+                });
+            });
+            return sb.toString();
+        }
+
+        private String escapeSeparator(String str) {
+            if (str != null && !str.isEmpty()) {
+                return str.replace(fieldSeparator.charAt(0), '.');
+            }
+            return str;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openfs.snmpcg.TestFixtures.Counters;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+
+public class CounterJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Counters counters = new Counters();
+    private Path directory;
+    private Path file;
+    private final List<CounterJournal> opened = new ArrayList<CounterJournal>();
+
+    @Before
+    public void createFile() {
+        directory = folder.getRoot().toPath();
+        file = directory.resolve("counters.journal");
+    }
+
+    @After
+    public void closeJournals() throws IOException {
+        for (CounterJournal journal : opened) {
+            journal.close();
+        }
+    }
+
+    private CounterJournal open(int size) throws IOException {
+        CounterJournal journal = TestFixtures.inject(new CounterJournal(), "enabled", true, "fileName", file.toString(), "journalSize", size, "maxAge", 86400L,
+            "counterService", counters);
+        journal.open();
+        opened.add(journal);
+        return journal;
+    }
+
+    private void close(CounterJournal journal) throws IOException {
+        journal.close();
+        opened.remove(journal);
+    }
+
+    private static SnmpSource polled(String ipAddress, long pollTime, long inOctets) {
+        SnmpSource source = new SnmpSource(ipAddress, "public", 1, 5);
+        source.setPollTime(pollTime);
+        source.setSysUptime(90000L);
+        SnmpInterface ifEntry = source.getSnmpInterface("Gi0/1");
+        ifEntry.setIfIndex(1);
+        ifEntry.setIfAdminStatus(1);
+        ifEntry.setIfOperStatus(1);
+        ifEntry.setInOctets(inOctets, 64);
+        ifEntry.setOutOctets(inOctets * 2, 64);
+        ifEntry.setSysUptime(90000L);
+        return source;
+    }
+
+    /**
+     * journal the sources by a pass of the cycle export
+     */
+    private void append(CounterJournal journal, SnmpSource... sources) throws IOException {
+        CounterJournal.JournalPass pass = journal.open(null, "cycle");
+        pass.write(Arrays.asList(sources));
+        pass.close(null);
+    }
+
+    /**
+     * @return counters of the source restored from the journal, -1 if not
+     *         restored
+     */
+    private static long restoredInOctets(CounterJournal journal, String ipAddress) {
+        SnmpSource source = new SnmpSource(ipAddress, "public", 1, 5);
+        source.setSkipDelta(true);
+        if (!journal.restore(source)) {
+            return -1L;
+        }
+        assertFalse(source.isSkipDelta());
+        SnmpInterface ifEntry = source.getIftable().get("Gi0/1");
+        assertEquals(ifEntry.getInOctets() * 2, ifEntry.getOutOctets());
+        assertEquals(1, ifEntry.getIfIndex());
+        assertEquals(90000L, source.getSysUptime());
+        return ifEntry.getInOctets();
+    }
+
+    @Test
+    public void restoresLatestRecord() throws IOException {
+        long now = System.currentTimeMillis();
+        CounterJournal journal = open(64 * 1024);
+        append(journal, polled("10.1.1.1", now - 2000, 100L), polled("10.1.1.2", now - 2000, 500L));
+        append(journal, polled("10.1.1.1", now - 1000, 200L));
+        close(journal);
+
+        journal = open(64 * 1024);
+        assertEquals(200L, restoredInOctets(journal, "10.1.1.1"));
+        assertEquals(500L, restoredInOctets(journal, "10.1.1.2"));
+        assertEquals(-1L, restoredInOctets(journal, "10.1.1.3"));
+    }
+
+    @Test
+    public void keepsNewerSourceState() throws IOException {
+        long now = System.currentTimeMillis();
+        CounterJournal journal = open(64 * 1024);
+        append(journal, polled("10.1.1.1", now - 1000, 100L));
+        close(journal);
+
+        journal = open(64 * 1024);
+        SnmpSource source = new SnmpSource("10.1.1.1", "public", 1, 5);
+        source.setPollTime(now);
+        assertFalse(journal.restore(source));
+    }
+
+    @Test
+    public void replayStopsAtTornTail() throws IOException {
+        long now = System.currentTimeMillis();
+        CounterJournal journal = open(64 * 1024);
+        append(journal, polled("10.1.1.1", now - 2000, 100L));
+        append(journal, polled("10.1.1.1", now - 1000, 200L));
+        close(journal);
+
+        // tear the second record: crash while it was written
+        byte[] data = Files.readAllBytes(file);
+        int second = 8 + ByteBuffer.wrap(data).getInt(0);
+        data[second + 8 + 4] ^= 0x7f;
+        Files.write(file, data);
+
+        journal = open(64 * 1024);
+        assertEquals(100L, restoredInOctets(journal, "10.1.1.1"));
+
+        // appended over the torn tail
+        append(journal, polled("10.1.1.1", now, 300L));
+        close(journal);
+        journal = open(64 * 1024);
+        assertEquals(300L, restoredInOctets(journal, "10.1.1.1"));
+    }
+
+    @Test
+    public void replayIgnoresTruncatedRecord() throws IOException {
+        long now = System.currentTimeMillis();
+        CounterJournal journal = open(64 * 1024);
+        append(journal, polled("10.1.1.1", now - 1000, 100L));
+        close(journal);
+
+        // length beyond the end of the file
+        byte[] data = Files.readAllBytes(file);
+        int second = 8 + ByteBuffer.wrap(data).getInt(0);
+        ByteBuffer.wrap(data).putInt(second, data.length);
+        Files.write(file, data);
+
+        journal = open(64 * 1024);
+        assertEquals(100L, restoredInOctets(journal, "10.1.1.1"));
+    }
+
+    @Test
+    public void compactsToLatestRecords() throws IOException {
+        long now = System.currentTimeMillis();
+        int size = 1024;
+        CounterJournal journal = open(size);
+        // about 60 bytes a record: compacted several times
+        for (int i = 1; i <= 100; i++) {
+            append(journal, polled("10.1.1.1", now - 1000 + i, i), polled("10.1.1.2", now - 1000 + i, 1000L + i));
+        }
+        close(journal);
+        assertEquals(size, Files.size(file));
+        assertFalse(Files.exists(directory.resolve("counters.journal.compact")));
+
+        journal = open(size);
+        assertEquals(100L, restoredInOctets(journal, "10.1.1.1"));
+        assertEquals(1100L, restoredInOctets(journal, "10.1.1.2"));
+    }
+
+    @Test
+    public void growsWhenLatestRecordsDoNotFit() throws IOException {
+        long now = System.currentTimeMillis();
+        int size = 256;
+        CounterJournal journal = open(size);
+        List<SnmpSource> sources = new ArrayList<SnmpSource>();
+        for (int i = 1; i <= 20; i++) {
+            sources.add(polled("10.1.1." + i, now - 1000, i));
+        }
+        append(journal, sources.toArray(new SnmpSource[0]));
+        close(journal);
+        assertTrue(Files.size(file) > size);
+
+        journal = open(size);
+        for (int i = 1; i <= 20; i++) {
+            assertEquals(i, restoredInOctets(journal, "10.1.1." + i));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.junit.Before;
+import org.junit.Test;
+import org.openfs.snmpcg.TestFixtures.Counters;
+import org.openfs.snmpcg.TestFixtures.RecordingSink;
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class CycleExportTest {
+    private static final CdrRecordLayout LAYOUT = CdrRecordLayout.compile(Collections.singletonList("router"), Collections.singletonList("circuit"), "vlan_oid",
+        ";", "yyyy-MM-dd HH:mm:ss");
+
+    private final ConcurrentMap<String, SnmpSource> sources = new ConcurrentHashMap<String, SnmpSource>();
+    private final Map<String, List<Message>> stored = new ConcurrentHashMap<String, List<Message>>();
+    private final DefaultCamelContext camelContext = new DefaultCamelContext();
+    private SourceInventoryService inventory;
+
+    @Before
+    public void createInventory() {
+        inventory = TestFixtures.inject(new SourceInventoryService(TestFixtures.GAUGES, new Counters()) {
+            @Override
+            public CdrRecordLayout getRecordLayout() {
+                return LAYOUT;
+            }
+        }, "sources", TestFixtures.map(sources), "config", TestFixtures.config(new HashMap<String, Object>()), "exportBatchSize", 2);
+    }
+
+    private CycleExport cycleExport() {
+        return TestFixtures.inject(new CycleExport(), "inventory", inventory, "camelContext", camelContext, "producer", TestFixtures.producer(stored));
+    }
+
+    private SnmpSource source(String ipAddress, String status, long exportInOctets) {
+        SnmpSource source = new SnmpSource(ipAddress, "public", 1, 5);
+        source.setStatus(status);
+        source.setPollTime(1500000000000L);
+        SnmpInterface ifEntry = source.getSnmpInterface("Gi0/1");
+        ifEntry.setChargeable(true);
+        ifEntry.setPollInOctets(7L);
+        ifEntry.setExport(exportInOctets, 0L, 0L);
+        sources.put(ipAddress, source);
+        return source;
+    }
+
+    @Test
+    public void onePassInBatches() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            source("10.1.1." + i, SnmpConstants.SUCCESS, 0L);
+        }
+        source("10.1.1.6", SnmpConstants.TIMEOUT, 0L);
+        RecordingSink cdr = new RecordingSink();
+        RecordingSink trace = new RecordingSink();
+        CycleExport cycleExport = cycleExport();
+        cycleExport.addSink(cdr, "direct:storeCdr");
+        cycleExport.addSink(trace, "direct:storeTrace");
+        cycleExport.export();
+
+        // both sinks fed by the same batches of ready sources
+        assertEquals(Arrays.asList(2, 2, 1), cdr.batches.stream().map(List::size).collect(Collectors.toList()));
+        assertEquals(cdr.batches, trace.batches);
+        assertEquals(5, cdr.sources());
+        assertTrue(cdr.batches.stream().noneMatch(batch -> batch.contains("10.1.1.6")));
+        assertEquals(Arrays.asList("open", "close"), cdr.events);
+        assertEquals(Integer.valueOf(5), stored.get("storeCdr").get(0).getHeader("countSources"));
+        assertEquals(Integer.valueOf(5), stored.get("storeTrace").get(0).getHeader("countSources"));
+    }
+
+    @Test
+    public void sinkWithoutStoreRoute() throws Exception {
+        source("10.1.1.1", SnmpConstants.SUCCESS, 0L);
+        // counter journal: fed by the pass, no records to store
+        RecordingSink journal = new RecordingSink();
+        CycleExport cycleExport = cycleExport();
+        cycleExport.addSink(journal, null);
+        cycleExport.addSink(new RecordingSink(), "direct:storeCdr");
+        cycleExport.export();
+        assertEquals(Collections.singletonList(Collections.singletonList("10.1.1.1")), journal.batches);
+        assertEquals(Arrays.asList("open", "close"), journal.events);
+        assertEquals(Collections.singleton("storeCdr"), stored.keySet());
+    }
+
+    @Test
+    public void textSinks() throws Exception {
+        source("10.1.1.1", SnmpConstants.SUCCESS, 0L).getSnmpInterface("Gi0/1").setTrace(true);
+        source("10.1.1.2", SnmpConstants.SUCCESS, 0L);
+        CycleExport cycleExport = cycleExport();
+        cycleExport.addSink(RecordTextSink.chargingDataRecords(TestFixtures.GAUGES), "direct:storeCdr");
+        cycleExport.addSink(RecordTextSink.traceRecords(TestFixtures.GAUGES), "direct:storeTrace");
+        cycleExport.export();
+
+        Message cdr = stored.get("storeCdr").get(0);
+        assertEquals(2L, cdr.getHeader("countChargingDataRecords"));
+        assertEquals(2, cdr.getBody(String.class).split(System.lineSeparator()).length);
+        Message trace = stored.get("storeTrace").get(0);
+        assertEquals(1L, trace.getHeader("countTraceRecords"));
+        assertTrue(trace.getBody(String.class).contains(";10.1.1.1;"));
+    }
+
+    @Test
+    public void failedPassAborts() throws Exception {
+        source("10.1.1.1", SnmpConstants.SUCCESS, 0L);
+        RecordingSink cdr = new RecordingSink();
+        RecordingSink trace = new RecordingSink();
+        trace.writeFailure = new IOException("disk full");
+        CycleExport cycleExport = cycleExport();
+        cycleExport.addSink(cdr, "direct:storeCdr");
+        cycleExport.addSink(trace, "direct:storeTrace");
+        try {
+            cycleExport.export();
+            fail("export failure not thrown");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        assertEquals(Arrays.asList("open", "abort"), cdr.events);
+        assertEquals(Arrays.asList("open", "abort"), trace.events);
+        assertTrue(stored.isEmpty());
+    }
+
+    @Test
+    public void storeFailureThrownAfterAllStores() throws Exception {
+        source("10.1.1.1", SnmpConstants.SUCCESS, 0L);
+        CycleExport cycleExport = cycleExport();
+        cycleExport.addSink(new RecordingSink(), "direct:storeFails");
+        cycleExport.addSink(new RecordingSink(), "direct:storeTrace");
+        try {
+            cycleExport.export();
+            fail("store failure not thrown");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        assertEquals(1, stored.get("storeTrace").size());
+    }
+
+    @Test
+    public void exportCycleCarriesAccumulatedTraffic() throws Exception {
+        source("10.1.1.1", SnmpConstants.SUCCESS, 1000L);
+        source("10.1.1.2", SnmpConstants.TIMEOUT, 2000L);
+        // polled, nothing accumulated since the last export
+        source("10.1.1.3", SnmpConstants.SUCCESS, 0L);
+        inventory.startExportCycle(new DefaultExchange(camelContext));
+
+        List<SnmpSource> exported = new ArrayList<SnmpSource>();
+        inventory.forEachExportBatch(exported::addAll);
+        Map<String, Long> pollInOctets = new HashMap<String, Long>();
+        exported.forEach(source -> pollInOctets.put(source.getIpAddress(), source.getSnmpInterface("Gi0/1").getPollInOctets()));
+        Map<String, Long> expected = new HashMap<String, Long>();
+        expected.put("10.1.1.1", 1000L);
+        expected.put("10.1.1.2", 2000L);
+        assertEquals(expected, pollInOctets);
+        @SuppressWarnings("unchecked")
+        Map<String, ?> exportAcks = (Map<String, ?>)ReflectionTestUtils.getField(inventory, "exportAcks");
+        assertEquals(expected.keySet(), exportAcks.keySet());
+    }
+
+    @Test
+    public void exchangeOfStoreRoute() throws Exception {
+        RecordingSink cdr = new RecordingSink();
+        CycleExport cycleExport = cycleExport();
+        cycleExport.addSink(cdr, "direct:storeCdr");
+        cycleExport.export();
+        // store route sent without sources, filtered by the count header
+        Message message = stored.get("storeCdr").get(0);
+        assertEquals(Integer.valueOf(0), message.getHeader("countSources"));
+        assertEquals(null, message.getHeader(Exchange.FILE_NAME_PRODUCED));
+    }
+}
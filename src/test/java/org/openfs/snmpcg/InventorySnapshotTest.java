@@ -0,0 +1,152 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openfs.snmpcg.TestFixtures.Counters;
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+
+public class InventorySnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Counters counters = new Counters();
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void createFile() {
+        directory = folder.getRoot().toPath();
+        file = directory.resolve("sources.snapshot");
+    }
+
+    private InventorySnapshot snapshot(ConcurrentMap<String, SnmpSource> sources, InventoryStats stats) {
+        return TestFixtures.inject(new InventorySnapshot(), "enabled", true, "fileName", file.toString(), "loadThreads", 2, "maxAge", 900L, "sources", sources,
+            "journal", new CounterJournal(), "stats", stats, "counterService", counters);
+    }
+
+    private static ConcurrentMap<String, SnmpSource> inventory() {
+        ConcurrentMap<String, SnmpSource> sources = new ConcurrentHashMap<String, SnmpSource>();
+        SnmpSource ready = new SnmpSource("10.1.1.1", "public", 1, 5);
+        ready.setStatus(SnmpConstants.SUCCESS);
+        ready.setSysName("core-1");
+        ready.setPollTime(1500000000000L);
+        ready.addTags(Collections.singletonMap("router", "core"));
+        SnmpInterface ifEntry = ready.getSnmpInterface("Gi0/1");
+        ifEntry.setIfIndex(1);
+        ifEntry.setIfAdminStatus(1);
+        ifEntry.setIfOperStatus(1);
+        ifEntry.setChargeable(true);
+        ifEntry.setTrace(true);
+        ifEntry.setInOctets(70000L, 64);
+        ifEntry.addTags(Collections.singletonMap("vlan", "100"));
+        ready.getSnmpInterface("Gi0/2").setIfIndex(2);
+        sources.put(ready.getIpAddress(), ready);
+        for (int i = 2; i <= 1200; i++) {
+            SnmpSource source = new SnmpSource("10.2." + (i / 256) + "." + (i % 256), "public", 1, 5);
+            source.setStatus(SnmpConstants.TIMEOUT);
+            sources.put(source.getIpAddress(), source);
+        }
+        return sources;
+    }
+
+    private static void assertLoaded(ConcurrentMap<String, SnmpSource> loaded, String status) {
+        assertEquals(1200, loaded.size());
+        SnmpSource source = loaded.get("10.1.1.1");
+        assertEquals(status, source.getStatus());
+        assertEquals("core-1", source.getSysName());
+        assertEquals("core", source.getTags().get("router"));
+        SnmpInterface ifEntry = source.getIftable().get("Gi0/1");
+        assertTrue(ifEntry.isChargeable());
+        assertTrue(ifEntry.isTrace());
+        assertEquals(70000L, ifEntry.getInOctets());
+        assertEquals("100", ifEntry.getTags().get("vlan"));
+        // ifIndex table rebuilt
+        assertEquals("Gi0/2", source.getSnmpInterface(2).getIfDescr());
+    }
+
+    @Test
+    public void writeAndLoad() {
+        snapshot(inventory(), new InventoryStats()).writeSnapshot();
+        assertTrue(Files.exists(file));
+        assertFalse(Files.exists(directory.resolve("sources.snapshot.tmp")));
+
+        ConcurrentMap<String, SnmpSource> loaded = new ConcurrentHashMap<String, SnmpSource>();
+        InventoryStats stats = new InventoryStats();
+        snapshot(loaded, stats).load();
+        assertLoaded(loaded, SnmpConstants.SUCCESS);
+        assertEquals(1, stats.getReadySources());
+        assertEquals(1199, stats.getDownSources());
+        assertEquals(2, stats.getInterfaces());
+        assertEquals(0, counters.get("counter.snmp.logError"));
+    }
+
+    @Test
+    public void staleSnapshotResetsStatus() throws IOException {
+        snapshot(inventory(), new InventoryStats()).writeSnapshot();
+        // created an hour ago
+        byte[] data = Files.readAllBytes(file);
+        ByteBuffer.wrap(data).putLong(5, System.currentTimeMillis() - 3600 * 1000L);
+        Files.write(file, data);
+
+        ConcurrentMap<String, SnmpSource> loaded = new ConcurrentHashMap<String, SnmpSource>();
+        InventoryStats stats = new InventoryStats();
+        snapshot(loaded, stats).load();
+        assertLoaded(loaded, SnmpConstants.UNKNOWN);
+        assertEquals(0, stats.getReadySources());
+    }
+
+    @Test
+    public void skipsLoadIntoClusterInventory() {
+        snapshot(inventory(), new InventoryStats()).writeSnapshot();
+        ConcurrentMap<String, SnmpSource> cluster = new ConcurrentHashMap<String, SnmpSource>();
+        cluster.put("10.9.9.9", new SnmpSource("10.9.9.9", "public", 1, 5));
+        snapshot(cluster, new InventoryStats()).load();
+        assertEquals(1, cluster.size());
+        assertNull(cluster.get("10.1.1.1"));
+    }
+
+    @Test
+    public void rejectsCorruptSnapshot() throws IOException {
+        snapshot(inventory(), new InventoryStats()).writeSnapshot();
+        byte[] data = Files.readAllBytes(file);
+        // last byte of the last source record
+        data[data.length - 5] ^= 0x01;
+        Files.write(file, data);
+
+        ConcurrentMap<String, SnmpSource> loaded = new ConcurrentHashMap<String, SnmpSource>();
+        snapshot(loaded, new InventoryStats()).load();
+        assertTrue(loaded.isEmpty());
+        assertEquals(1, counters.get("counter.snmp.logError"));
+    }
+
+    @Test
+    public void rejectsTruncatedSnapshot() throws IOException {
+        snapshot(inventory(), new InventoryStats()).writeSnapshot();
+        byte[] data = Files.readAllBytes(file);
+        // without the end marker
+        Files.write(file, Arrays.copyOf(data, data.length - 4));
+
+        ConcurrentMap<String, SnmpSource> loaded = new ConcurrentHashMap<String, SnmpSource>();
+        snapshot(loaded, new InventoryStats()).load();
+        assertTrue(loaded.isEmpty());
+        assertEquals(1, counters.get("counter.snmp.logError"));
+    }
+}
@@ -0,0 +1,115 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LogLinearHistogramTest {
+    private static final long HIGHEST = 3600 * 1000L;
+
+    /**
+     * @return value reported for the bucket of the value
+     */
+    private static long bucketOf(long value) {
+        LogLinearHistogram histogram = new LogLinearHistogram(HIGHEST);
+        histogram.record(value);
+        // max above the bucket, the percentile is the bucket highest value
+        histogram.record(HIGHEST);
+        return histogram.getValueAtPercentile(50);
+    }
+
+    @Test
+    public void exactBelowSubBuckets() {
+        for (long value = 0; value < 64; value++) {
+            assertEquals(value, bucketOf(value));
+        }
+    }
+
+    @Test
+    public void bucketsWithinRelativeError() {
+        List<Long> values = new ArrayList<Long>();
+        for (int bit = 6; bit < 22; bit++) {
+            long power = 1L << bit;
+            values.add(power - 1);
+            values.add(power);
+            values.add(power + 1);
+            values.add(power + power / 3);
+        }
+        values.add(HIGHEST);
+        long previous = -1;
+        for (long value : values) {
+            long reported = bucketOf(value);
+            assertTrue(value + " reported " + reported, reported >= value);
+            assertTrue(value + " reported " + reported, reported - value <= value / 32);
+            assertTrue(value + " reported " + reported, reported >= previous);
+            previous = reported;
+        }
+    }
+
+    @Test
+    public void adjacentValuesShareBucket() {
+        // 64 and 65 in one bucket of width 2 above 64
+        assertEquals(65, bucketOf(64));
+        assertEquals(65, bucketOf(65));
+        assertEquals(67, bucketOf(66));
+        // width 32 above 1024
+        assertEquals(1055, bucketOf(1024));
+        assertEquals(1055, bucketOf(1055));
+        assertEquals(1087, bucketOf(1056));
+    }
+
+    @Test
+    public void percentiles() {
+        LogLinearHistogram histogram = new LogLinearHistogram(HIGHEST);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-1);
+        Map<String, Long> summary = histogram.getSummary();
+        assertEquals(Long.valueOf(100), summary.get("count"));
+        assertEquals(Long.valueOf(50), summary.get("p50"));
+        assertEquals(Long.valueOf(95), summary.get("p95"));
+        assertEquals(Long.valueOf(99), summary.get("p99"));
+        assertEquals(Long.valueOf(100), summary.get("max"));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void clampsAboveHighestValue() {
+        LogLinearHistogram histogram = new LogLinearHistogram(1000);
+        histogram.record(5000);
+        assertEquals(1, histogram.getCount());
+        assertEquals(5000, histogram.getMax());
+        long reported = histogram.getValueAtPercentile(100);
+        assertTrue("reported " + reported, reported >= 1000 && reported <= 1000 + 1000 / 32);
+    }
+
+    @Test
+    public void recordsConcurrently() throws InterruptedException {
+        LogLinearHistogram histogram = new LogLinearHistogram(HIGHEST);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            long offset = t;
+            threads.add(new Thread(() -> {
+                for (long value = 0; value < 10000; value++) {
+                    histogram.record(value * 4 + offset);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(39999, histogram.getMax());
+        long p50 = histogram.getValueAtPercentile(50);
+        assertTrue("p50 " + p50, p50 >= 20000 && p50 - 20000 <= 20000 / 32 + 1);
+    }
+}
@@ -0,0 +1,180 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Message;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.After;
+import org.junit.Test;
+import org.openfs.snmpcg.TestFixtures.Counters;
+import org.openfs.snmpcg.TestFixtures.RecordingSink;
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpSource;
+
+public class PipelinedRecordExportTest {
+    private static final CdrRecordLayout LAYOUT = CdrRecordLayout.compile(Collections.singletonList("router"), Collections.<String>emptyList(), "", ";",
+        "yyyy-MM-dd HH:mm:ss");
+
+    private final Map<String, List<Message>> stored = new ConcurrentHashMap<String, List<Message>>();
+    private final RecordingSink sink = new RecordingSink();
+    private final Counters counters = new Counters();
+    private PipelinedRecordExport export;
+
+    @After
+    public void close() {
+        if (export != null) {
+            export.close();
+        }
+    }
+
+    private PipelinedRecordExport export(long deadlineSeconds) {
+        SourceInventoryService inventory = new SourceInventoryService(TestFixtures.GAUGES, counters) {
+            @Override
+            public CdrRecordLayout getRecordLayout() {
+                return LAYOUT;
+            }
+        };
+        CycleExport cycleExport = TestFixtures.inject(new CycleExport(), "inventory", inventory, "camelContext", new DefaultCamelContext(), "producer",
+            TestFixtures.producer(stored));
+        cycleExport.addSink(sink, "direct:storeCdr");
+        export = TestFixtures.inject(new PipelinedRecordExport(), "cycleExport", cycleExport, "counterService", counters, "deadlineSeconds", deadlineSeconds);
+        export.initScheduler();
+        return export;
+    }
+
+    private static SnmpSource source(String ipAddress, String status) {
+        SnmpSource source = new SnmpSource(ipAddress, "public", 1, 5);
+        source.setStatus(status);
+        return source;
+    }
+
+    private List<Object> storedCounts() {
+        List<Object> counts = new ArrayList<Object>();
+        for (Message message : stored.getOrDefault("storeCdr", Collections.<Message>emptyList())) {
+            counts.add(message.getHeader("countSources"));
+        }
+        return counts;
+    }
+
+    @Test
+    public void storedWhenLastSourceReports() throws Exception {
+        export(0);
+        SnmpSource up = source("10.1.1.1", SnmpConstants.SUCCESS);
+        SnmpSource down = source("10.1.1.2", SnmpConstants.TIMEOUT);
+        SnmpSource last = source("10.1.1.3", SnmpConstants.SUCCESS);
+        export.openCycle(Arrays.asList(up, down, last));
+        export.sourcePolled(up);
+        export.sourcePolled(down);
+        assertTrue(stored.isEmpty());
+        export.sourcePolled(last);
+
+        // down sources are not written, the cycle stored once
+        assertEquals(Arrays.asList(Collections.singletonList("10.1.1.1"), Collections.singletonList("10.1.1.3")), sink.batches);
+        assertEquals(Collections.singletonList(2), storedCounts());
+        export.closeCycle();
+        assertEquals(Arrays.asList("open", "close"), sink.events);
+    }
+
+    @Test
+    public void emptyCycleStored() throws Exception {
+        export(0);
+        export.openCycle(Collections.<SnmpSource>emptyList());
+        assertEquals(Collections.singletonList(0), storedCounts());
+    }
+
+    @Test
+    public void closeCycleStoresUnreportedCycle() throws Exception {
+        export(0);
+        SnmpSource up = source("10.1.1.1", SnmpConstants.SUCCESS);
+        SnmpSource hung = source("10.1.1.2", SnmpConstants.SUCCESS);
+        export.openCycle(Arrays.asList(up, hung));
+        export.sourcePolled(up);
+        export.closeCycle();
+        assertEquals(Collections.singletonList(1), storedCounts());
+
+        // a source reporting after the end of the cycle is not written
+        export.sourcePolled(hung);
+        assertEquals(1, sink.sources());
+    }
+
+    @Test
+    public void lateSourcesInLateCycle() throws Exception {
+        export(1);
+        SnmpSource up = source("10.1.1.1", SnmpConstants.SUCCESS);
+        SnmpSource late = source("10.1.1.2", SnmpConstants.SUCCESS);
+        export.openCycle(Arrays.asList(up, late));
+        String name = sink.names.get(0);
+        export.sourcePolled(up);
+        long end = System.currentTimeMillis() + 5000;
+        while (stored.isEmpty() && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        assertEquals(Collections.singletonList(1), storedCounts());
+        assertEquals(Arrays.asList(name, name + "-late"), sink.names);
+
+        export.sourcePolled(late);
+        assertEquals(Arrays.asList(1, 1), storedCounts());
+        assertEquals(Arrays.asList("open", "open", "close", "close"), sink.events);
+    }
+
+    @Test
+    public void concurrentSourcesStoredOnce() throws Exception {
+        export(0);
+        List<SnmpSource> sourceList = new ArrayList<SnmpSource>();
+        for (int i = 1; i <= 200; i++) {
+            sourceList.add(source("10.1.1." + i, SnmpConstants.SUCCESS));
+        }
+        export.openCycle(sourceList);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            List<SnmpSource> part = sourceList.subList(t * 50, (t + 1) * 50);
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (SnmpSource source : part) {
+                        export.sourcePolled(source);
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        assertEquals(Collections.singletonList(200), storedCounts());
+        Set<String> written = new HashSet<String>();
+        sink.batches.forEach(written::addAll);
+        assertEquals(200, written.size());
+    }
+
+    @Test
+    public void rejectsConflictingPollModes() {
+        for (String mode : Arrays.asList("asyncPoll", "wheelScheduler")) {
+            SnmpCollectorApplication application = TestFixtures.inject(new SnmpCollectorApplication(), "exportPipelined", true, mode, true);
+            try {
+                application.validateConfig();
+                fail(mode + " accepted");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("snmpcg.exportPipelined"));
+            }
+        }
+        TestFixtures.inject(new SnmpCollectorApplication(), "exportPipelined", true).validateConfig();
+    }
+}
@@ -0,0 +1,166 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.openfs.snmpcg.TestFixtures.Counters;
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class PollSchedulerTest {
+    private static final long TICK_MS = 10;
+    private static final long INTERVAL_MS = 1000;
+
+    private final ConcurrentMap<String, SnmpSource> sources = new ConcurrentHashMap<String, SnmpSource>();
+    private final Counters counters = new Counters();
+
+    private PollScheduler scheduler(String tagIntervals, int defaultInterval) {
+        SourceInventoryService inventory = new SourceInventoryService(TestFixtures.GAUGES, new Counters()) {
+            @Override
+            public List<SnmpSource> getReadySources() {
+                return sources.values().stream().filter(s -> SnmpConstants.SUCCESS.equals(s.getStatus())).collect(Collectors.toList());
+            }
+
+            @Override
+            public boolean isLocalSource(String sourceIpAddr) {
+                return true;
+            }
+        };
+        PollScheduler scheduler = TestFixtures.inject(new PollScheduler(), "defaultInterval", defaultInterval, "tagIntervalsProperties", tagIntervals, "tickMs",
+            TICK_MS, "wheelSize", 64, "sources", sources, "config", TestFixtures.config(new HashMap<String, Object>()), "inventory", inventory, "counterService",
+            counters);
+        scheduler.initConfig();
+        return scheduler;
+    }
+
+    private SnmpSource ready(String ipAddress) {
+        SnmpSource source = new SnmpSource(ipAddress, "public", 1, 5);
+        source.setStatus(SnmpConstants.SUCCESS);
+        sources.put(ipAddress, source);
+        return source;
+    }
+
+    private static long offset(String ipAddress) {
+        return (ipAddress.hashCode() & Integer.MAX_VALUE) % INTERVAL_MS;
+    }
+
+    /**
+     * @return poll times of each source ticked for the duration, each poll
+     *         completed at once
+     */
+    private static Map<String, List<Long>> run(PollScheduler scheduler, long duration) throws InterruptedException {
+        return run(scheduler, duration, true);
+    }
+
+    private static Map<String, List<Long>> run(PollScheduler scheduler, long duration, boolean complete) throws InterruptedException {
+        Map<String, List<Long>> polls = new HashMap<String, List<Long>>();
+        long end = System.currentTimeMillis() + duration;
+        while (System.currentTimeMillis() < end) {
+            List<SnmpSource> due = scheduler.tick();
+            long now = System.currentTimeMillis();
+            for (SnmpSource source : due) {
+                polls.computeIfAbsent(source.getIpAddress(), ip -> new ArrayList<Long>()).add(now);
+                if (complete) {
+                    scheduler.pollCompleted(source.getIpAddress());
+                }
+            }
+            Thread.sleep(TICK_MS / 2);
+        }
+        return polls;
+    }
+
+    @Test
+    public void pollInterval() {
+        PollScheduler scheduler = scheduler("router=core:60, pop=ams:120,bad", 300);
+        SnmpSource source = ready("10.1.1.1");
+        assertEquals(300, scheduler.getPollInterval(source));
+        source.addTags(Collections.singletonMap("router", "core"));
+        assertEquals(60, scheduler.getPollInterval(source));
+        source.setPollInterval(30);
+        assertEquals(30, scheduler.getPollInterval(source));
+    }
+
+    @Test
+    public void pollsEachSourceOnItsOffset() throws InterruptedException {
+        PollScheduler scheduler = scheduler("", 1);
+        for (int i = 1; i <= 20; i++) {
+            ready("10.1.1." + i);
+        }
+        Map<String, List<Long>> polls = run(scheduler, 2 * INTERVAL_MS + 200);
+        assertEquals(20, polls.size());
+        for (Map.Entry<String, List<Long>> entry : polls.entrySet()) {
+            List<Long> times = entry.getValue();
+            assertTrue(entry.getKey() + " polled " + times.size(), times.size() >= 2);
+            for (int i = 0; i < times.size(); i++) {
+                // shortly after the deadline at the offset of the source
+                long late = Math.floorMod(times.get(i) - offset(entry.getKey()), INTERVAL_MS);
+                assertTrue(entry.getKey() + " late " + late, late < 200);
+                if (i > 0) {
+                    long gap = times.get(i) - times.get(i - 1);
+                    assertTrue(entry.getKey() + " gap " + gap, gap > INTERVAL_MS - 200);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dropsNotReadySource() throws InterruptedException {
+        PollScheduler scheduler = scheduler("", 1);
+        SnmpSource down = ready("10.1.1.1");
+        ready("10.1.1.2");
+        scheduler.tick();
+        down.setStatus(SnmpConstants.TIMEOUT);
+        Map<String, List<Long>> polls = run(scheduler, INTERVAL_MS + 100);
+        assertEquals(Collections.singleton("10.1.1.2"), polls.keySet());
+
+        // back on the wheel on the next reconcile
+        down.setStatus(SnmpConstants.SUCCESS);
+        TestFixtures.inject(scheduler, "lastReconcile", 0L);
+        polls = run(scheduler, INTERVAL_MS + 100);
+        assertTrue(polls.containsKey("10.1.1.1"));
+    }
+
+    @Test
+    public void skipsSourceInFlight() throws InterruptedException {
+        PollScheduler scheduler = scheduler("", 1);
+        ready("10.1.1.1");
+        ready("10.1.1.2");
+        Map<String, List<Long>> polls = run(scheduler, INTERVAL_MS + 100, false);
+        assertEquals(2, polls.size());
+
+        // 10.1.1.1 still walked or queued on its next deadline
+        scheduler.pollCompleted("10.1.1.2");
+        polls = run(scheduler, INTERVAL_MS + 100, false);
+        assertEquals(Collections.singleton("10.1.1.2"), polls.keySet());
+        assertTrue(counters.get("counter.snmp.logWarn") >= 1);
+
+        scheduler.pollCompleted("10.1.1.1");
+        polls = run(scheduler, INTERVAL_MS + 100, false);
+        assertTrue(polls.containsKey("10.1.1.1"));
+    }
+
+    @Test
+    public void catchesUpInOneRevolution() {
+        PollScheduler scheduler = scheduler("", 1);
+        ready("10.1.1.1");
+        scheduler.tick();
+        long now = System.currentTimeMillis();
+        // an hour behind
+        TestFixtures.inject(scheduler, "cursorTime", now - 3600 * 1000L);
+        scheduler.tick();
+        long cursorTime = (Long)ReflectionTestUtils.getField(scheduler, "cursorTime");
+        assertTrue(cursorTime > now - TICK_MS);
+        assertTrue(cursorTime <= System.currentTimeMillis());
+    }
+}
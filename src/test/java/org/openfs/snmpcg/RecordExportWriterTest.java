@@ -0,0 +1,185 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+
+public class RecordExportWriterTest {
+    private static final int BUFFER_SIZE = 256;
+    private static final int GATHER_BUFFERS = 4;
+    private static final CdrRecordLayout LAYOUT = CdrRecordLayout.compile(Collections.singletonList("router"), Collections.singletonList("circuit"), "vlan_oid",
+        ";", "yyyy-MM-dd HH:mm:ss");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<SnmpSource> exportSources = new ArrayList<SnmpSource>();
+    private RecordExportWriter writer;
+
+    @After
+    public void close() {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private RecordExportWriter writer(int exportThreads) {
+        writer = TestFixtures.inject(new RecordExportWriter(), "cdrDirectory", folder.getRoot().getPath() + "/cdr", "traceDirectory",
+            folder.getRoot().getPath() + "/trace", "exportThreads", exportThreads, "bufferSize", BUFFER_SIZE, "gaugeService", TestFixtures.GAUGES);
+        writer.initPool();
+        return writer;
+    }
+
+    private void source(String ipAddress, int interfaces) {
+        SnmpSource source = new SnmpSource(ipAddress, "public", 1, 5);
+        source.setSysName("router-" + ipAddress);
+        source.setPollTime(1500000000000L);
+        source.addTags(Collections.singletonMap("router", "core"));
+        for (int i = 1; i <= interfaces; i++) {
+            SnmpInterface ifEntry = source.getSnmpInterface("GigabitEthernet0/" + i);
+            ifEntry.setIfIndex(i);
+            ifEntry.setIfAlias("uplink " + i);
+            ifEntry.setChargeable(true);
+            ifEntry.setTrace(i % 2 == 0);
+            ifEntry.setPollInOctets(i * 1000L);
+            ifEntry.setPollOutOctets(i);
+        }
+        exportSources.add(source);
+    }
+
+    private static List<String> lines(Message message) throws IOException {
+        Path file = Paths.get(message.getHeader(Exchange.FILE_NAME_PRODUCED, String.class));
+        return Files.readAllLines(file, Charset.defaultCharset());
+    }
+
+    /**
+     * @return message of the store route, records of the sources written by
+     *         batches of the batch size
+     */
+    private Message export(ExportSink sink, int batchSize) throws IOException, InterruptedException {
+        ExportSink.Pass pass = sink.open(LAYOUT, "20260101000000");
+        for (int i = 0; i < exportSources.size(); i += batchSize) {
+            pass.write(exportSources.subList(i, Math.min(i + batchSize, exportSources.size())));
+        }
+        Message message = new DefaultExchange(new DefaultCamelContext()).getIn();
+        pass.close(message);
+        return message;
+    }
+
+    /**
+     * every record whole and the records of each source in one run
+     */
+    private static void assertSourcesTogether(List<String> lines, int sources, int records, int ipField) {
+        assertEquals(sources * records, lines.size());
+        Set<String> done = new HashSet<String>();
+        String current = null;
+        Set<String> ifDescrs = new HashSet<String>();
+        for (String line : lines) {
+            String[] fields = line.split(";");
+            String ipAddress = fields[ipField];
+            if (!ipAddress.equals(current)) {
+                assertTrue(ipAddress + " records split", done.add(ipAddress));
+                current = ipAddress;
+                ifDescrs.clear();
+            }
+            assertTrue(line, ifDescrs.add(line));
+        }
+        assertEquals(sources, done.size());
+    }
+
+    @Test
+    public void keepsLargeSourcesTogether() throws Exception {
+        RecordExportWriter writer = writer(4);
+        // each source several gathering writes long
+        int interfaces = 400;
+        for (int i = 1; i <= 16; i++) {
+            source("10.1.1." + i, interfaces);
+        }
+        Message message = export(writer.getChargingDataRecordSink(), 5);
+        assertEquals(16L * interfaces, message.getHeader("countChargingDataRecords"));
+        Path file = Paths.get(message.getHeader(Exchange.FILE_NAME_PRODUCED, String.class));
+        assertEquals("20260101000000.snmp.dat", file.getFileName().toString());
+        assertTrue(Files.size(file) / 16 > GATHER_BUFFERS * BUFFER_SIZE);
+        List<String> lines = lines(message);
+        assertSourcesTogether(lines, 16, interfaces, 0);
+        for (String line : lines) {
+            assertEquals(line, 11, line.split(";", -1).length);
+        }
+
+        message = export(writer.getTraceRecordSink(), 16);
+        assertEquals(16L * interfaces / 2, message.getHeader("countTraceRecords"));
+        assertSourcesTogether(lines(message), 16, interfaces / 2, 1);
+    }
+
+    @Test
+    public void concurrentWrites() throws Exception {
+        RecordExportWriter writer = writer(4);
+        for (int i = 1; i <= 8; i++) {
+            source("10.1.1." + i, 200);
+        }
+        // pipelined export: each poll thread writes its own source
+        ExportSink.Pass pass = writer.getChargingDataRecordSink().open(LAYOUT, "20260101000000");
+        List<Thread> threads = new ArrayList<Thread>();
+        List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        for (SnmpSource source : exportSources) {
+            threads.add(new Thread(() -> {
+                try {
+                    pass.write(Collections.singletonList(source));
+                } catch (Exception e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+        Message message = new DefaultExchange(new DefaultCamelContext()).getIn();
+        pass.close(message);
+        assertSourcesTogether(lines(message), 8, 200, 0);
+    }
+
+    @Test
+    public void noFileWithoutRecords() throws Exception {
+        RecordExportWriter writer = writer(2);
+        source("10.1.1.1", 0);
+        Message message = export(writer.getChargingDataRecordSink(), 1);
+        assertEquals(0L, message.getHeader("countChargingDataRecords"));
+        assertNull(message.getHeader(Exchange.FILE_NAME_PRODUCED));
+        assertEquals(0, new File(folder.getRoot(), "cdr").listFiles().length);
+    }
+
+    @Test
+    public void abortDeletesFile() throws Exception {
+        RecordExportWriter writer = writer(2);
+        source("10.1.1.1", 10);
+        ExportSink.Pass pass = writer.getChargingDataRecordSink().open(LAYOUT, "20260101000000");
+        pass.write(exportSources);
+        pass.abort();
+        assertEquals(0, new File(folder.getRoot(), "cdr").listFiles().length);
+    }
+}
@@ -0,0 +1,179 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openfs.snmpcg.model.SnmpSource;
+
+public class RequestGovernorTest {
+    private final ConcurrentMap<String, SnmpSource> sources = new ConcurrentHashMap<String, SnmpSource>();
+    private final Map<String, Object> configMap = new ConcurrentHashMap<String, Object>();
+    // sent requests and the release of their permit
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, Runnable> releases = new ConcurrentHashMap<String, Runnable>();
+    private RequestGovernor governor;
+
+    @After
+    public void close() {
+        if (governor != null) {
+            governor.close();
+        }
+    }
+
+    private RequestGovernor governor(int maxOutstanding, double sourceRate, int sourceBurst, String tagKey, int tagLimit) {
+        governor = TestFixtures.inject(new RequestGovernor(), "maxOutstanding", maxOutstanding, "sourceRate", sourceRate, "sourceBurst", sourceBurst, "tagKey",
+            tagKey, "tagLimit", tagLimit, "config", TestFixtures.config(configMap), "sources", sources);
+        governor.initConfig();
+        return governor;
+    }
+
+    private SnmpSource source(String ipAddress, String site) {
+        SnmpSource source = new SnmpSource(ipAddress, "public", 1, 5);
+        if (site != null) {
+            source.addTags(Collections.singletonMap("site", site));
+        }
+        sources.put(ipAddress, source);
+        return source;
+    }
+
+    /**
+     * submit request of the source, keep its release to respond later
+     */
+    private void submit(SnmpSource source, String request) {
+        governor.getGate(source).submit(release -> {
+            releases.put(request, release);
+            sent.add(request);
+        });
+    }
+
+    private void respond(String request) {
+        releases.get(request).run();
+    }
+
+    @Test
+    public void capsOutstanding() {
+        governor(2, 0, 10, "", 0);
+        for (int i = 1; i <= 5; i++) {
+            submit(source("10.1.1." + i, null), "r" + i);
+        }
+        assertEquals(Arrays.asList("r1", "r2"), sent);
+        Map<String, Object> status = governor.getStatus();
+        assertEquals(2, status.get("outstanding"));
+        assertEquals(3, status.get("queued"));
+        assertEquals(0, status.get("permits"));
+
+        respond("r1");
+        assertEquals(Arrays.asList("r1", "r2", "r3"), sent);
+        // a second release of the same request is ignored
+        respond("r1");
+        assertEquals(3, sent.size());
+
+        respond("r2");
+        respond("r3");
+        respond("r4");
+        respond("r5");
+        assertEquals(Arrays.asList("r1", "r2", "r3", "r4", "r5"), sent);
+        status = governor.getStatus();
+        assertEquals(0, status.get("outstanding"));
+        assertEquals(0, status.get("queued"));
+        assertEquals(3, status.get("maxQueued"));
+        assertEquals(5L, status.get("sent"));
+        assertEquals(3L, status.get("delayed"));
+    }
+
+    @Test
+    public void sourcesTakeTurns() {
+        governor(1, 0, 10, "", 0);
+        SnmpSource a = source("10.1.1.1", null);
+        SnmpSource b = source("10.1.1.2", null);
+        submit(a, "a1");
+        submit(a, "a2");
+        submit(a, "a3");
+        submit(b, "b1");
+        submit(b, "b2");
+        for (String request : Arrays.asList("a1", "a2", "b1", "a3", "b2")) {
+            assertEquals(request, sent.get(sent.size() - 1));
+            respond(request);
+        }
+        assertEquals(Arrays.asList("a1", "a2", "b1", "a3", "b2"), sent);
+    }
+
+    @Test
+    public void limitsTagOutstanding() {
+        Map<String, Integer> tagLimits = new HashMap<String, Integer>();
+        tagLimits.put("ams", 2);
+        configMap.put("governorTagLimits", tagLimits);
+        governor(0, 0, 10, "site", 1);
+        submit(source("10.1.1.1", "fra"), "fra1");
+        submit(source("10.1.1.2", "fra"), "fra2");
+        submit(source("10.1.2.1", "ams"), "ams1");
+        submit(source("10.1.2.2", "ams"), "ams2");
+        submit(source("10.1.2.3", "ams"), "ams3");
+        // untagged sources are not limited
+        submit(source("10.1.3.1", null), "other");
+        assertEquals(Arrays.asList("fra1", "ams1", "ams2", "other"), sent);
+
+        respond("fra1");
+        assertEquals("fra2", sent.get(sent.size() - 1));
+        respond("ams2");
+        assertEquals("ams3", sent.get(sent.size() - 1));
+        assertEquals(6, sent.size());
+        @SuppressWarnings("unchecked")
+        Map<String, Integer> tagOutstanding = (Map<String, Integer>)governor.getStatus().get("tagOutstanding");
+        assertEquals(Integer.valueOf(1), tagOutstanding.get("fra"));
+        assertEquals(Integer.valueOf(2), tagOutstanding.get("ams"));
+    }
+
+    @Test
+    public void refillsSourceTokens() throws InterruptedException {
+        governor(0, 20, 2, "", 0);
+        SnmpSource source = source("10.1.1.1", null);
+        CountDownLatch done = new CountDownLatch(4);
+        long start = System.nanoTime();
+        List<Long> sentTimes = Collections.synchronizedList(new ArrayList<Long>());
+        for (int i = 0; i < 4; i++) {
+            governor.getGate(source).submit(release -> {
+                sentTimes.add(System.nanoTime() - start);
+                release.run();
+                done.countDown();
+            });
+        }
+        // burst sent directly
+        assertEquals(2, sentTimes.size());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // 20 per second: a token each 50 ms
+        assertTrue("third sent at " + sentTimes.get(2), sentTimes.get(2) >= TimeUnit.MILLISECONDS.toNanos(45));
+        assertTrue("fourth sent at " + sentTimes.get(3), sentTimes.get(3) >= TimeUnit.MILLISECONDS.toNanos(95));
+
+        // other sources have their own bucket
+        sent.clear();
+        submit(source("10.1.1.2", null), "other");
+        assertEquals(Collections.singletonList("other"), sent);
+    }
+
+    @Test
+    public void reloadSendsQueued() {
+        governor(1, 0, 10, "", 0);
+        for (int i = 1; i <= 3; i++) {
+            submit(source("10.1.1." + i, null), "r" + i);
+        }
+        assertEquals(1, sent.size());
+        configMap.put("governorMaxOutstanding", 0);
+        governor.reloadConfig();
+        assertEquals(Arrays.asList("r1", "r2", "r3"), sent);
+        assertEquals(-1, governor.getStatus().get("permits"));
+    }
+}
@@ -0,0 +1,69 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RttEstimatorTest {
+
+    @Test
+    public void firstSample() {
+        RttEstimator rtt = new RttEstimator(0, 0);
+        assertEquals(5000L, rtt.getTimeout(100, 5000));
+        rtt.sample(100);
+        assertEquals(100, rtt.getSrtt());
+        assertEquals(50, rtt.getRttVar());
+        assertEquals(300L, rtt.getTimeout(100, 5000));
+        assertEquals(1, rtt.getSamples());
+    }
+
+    @Test
+    public void smoothsSamples() {
+        RttEstimator rtt = new RttEstimator(100, 50);
+        rtt.sample(100);
+        assertEquals(100, rtt.getSrtt());
+        assertEquals(38, rtt.getRttVar());
+        rtt.sample(200);
+        assertEquals(113, rtt.getSrtt());
+        assertEquals(54, rtt.getRttVar());
+    }
+
+    @Test
+    public void convergesOnSteadyRtt() {
+        RttEstimator rtt = new RttEstimator(0, 0);
+        for (int i = 0; i < 50; i++) {
+            rtt.sample(80);
+        }
+        assertEquals(80, rtt.getSrtt());
+        // rounding keeps a small variance
+        assertEquals(2, rtt.getRttVar());
+        assertEquals(88L, rtt.getTimeout(10, 5000));
+        assertEquals(100L, rtt.getTimeout(100, 5000));
+    }
+
+    @Test
+    public void timeoutWithinBounds() {
+        RttEstimator rtt = new RttEstimator(0, 0);
+        rtt.sample(0);
+        assertEquals(1, rtt.getSrtt());
+        assertEquals(0, rtt.getRttVar());
+        // at least one ms over srtt
+        assertEquals(2L, rtt.getTimeout(0, 5000));
+        rtt.sample(Long.MAX_VALUE);
+        assertTrue(rtt.getSrtt() > 0);
+        assertEquals(5000L, rtt.getTimeout(100, 5000));
+    }
+
+    @Test
+    public void resetUsesCeiling() {
+        RttEstimator rtt = new RttEstimator(80, 10);
+        assertEquals(120L, rtt.getTimeout(100, 5000));
+        rtt.reset();
+        assertEquals(0, rtt.getSrtt());
+        assertEquals(5000L, rtt.getTimeout(100, 5000));
+        rtt.sample(400);
+        assertEquals(400, rtt.getSrtt());
+        assertEquals(200, rtt.getRttVar());
+    }
+}
@@ -0,0 +1,344 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openfs.snmpcg.TestFixtures.Counters;
+import org.openfs.snmpcg.model.SnmpConstants;
+import org.openfs.snmpcg.model.SnmpInterface;
+import org.openfs.snmpcg.model.SnmpSource;
+import org.openfs.snmpcg.model.SnmpSourcePollUpdate;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SnmpPollTest {
+    private static final OID SYS_UPTIME = new OID("1.3.6.1.2.1.1.3.0");
+    private static final OID SYS_DESCR = new OID("1.3.6.1.2.1.1.1.0");
+    private static final OID SYS_OBJECT_ID = new OID("1.3.6.1.2.1.1.2.0");
+    private static final OID SYS_NAME = new OID("1.3.6.1.2.1.1.5.0");
+    private static final OID SYS_LOCATION = new OID("1.3.6.1.2.1.1.6.0");
+    private static final OID IF_NUMBER = new OID("1.3.6.1.2.1.2.1.0");
+    private static final OID IF_DESCR = new OID("1.3.6.1.2.1.2.2.1.2");
+    private static final OID IF_ADMIN_STATUS = new OID("1.3.6.1.2.1.2.2.1.7");
+    private static final OID IF_OPER_STATUS = new OID("1.3.6.1.2.1.2.2.1.8");
+    private static final OID IF_IN_OCTETS = new OID("1.3.6.1.2.1.2.2.1.10");
+    private static final OID IF_OUT_OCTETS = new OID("1.3.6.1.2.1.2.2.1.16");
+    private static final OID IF_NAME = new OID("1.3.6.1.2.1.31.1.1.1.1");
+    private static final OID IF_HC_IN_OCTETS = new OID("1.3.6.1.2.1.31.1.1.1.6");
+    private static final OID IF_HC_OUT_OCTETS = new OID("1.3.6.1.2.1.31.1.1.1.10");
+    private static final OID IF_ALIAS = new OID("1.3.6.1.2.1.31.1.1.1.18");
+    private static final int MAX_IN_FLIGHT = 4;
+
+    private final Counters counters = new Counters();
+    private final Agent agent = new Agent();
+    // stored updates and released scheduler deadlines
+    private final List<String> stored = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> released = Collections.synchronizedList(new ArrayList<String>());
+    private final PollLatencyStats latency = TestFixtures.inject(new PollLatencyStats(), "gaugeService", TestFixtures.GAUGES, "maxGroups", 256,
+        "slowest", 20);
+    private SnmpTransport transport;
+    private SnmpPoll poll;
+
+    @Before
+    public void setUp() throws IOException {
+        transport = new SnmpTransport(1, 0, 0, 0, 10000);
+        Map<String, SnmpSource> sources = new ConcurrentHashMap<String, SnmpSource>();
+        RequestGovernor governor = TestFixtures.inject(new RequestGovernor(), "maxOutstanding", 0, "sourceRate", 0.0, "sourceBurst", 10, "tagKey", "",
+            "tagLimit", 0, "config", TestFixtures.config(new ConcurrentHashMap<String, Object>()), "sources", sources);
+        governor.initConfig();
+        SourceStore store = new SourceStore() {
+            @Override
+            public void submit(String sourceIpAddr, SnmpSourcePollUpdate update) {
+                stored.add(sourceIpAddr);
+            }
+        };
+        PollScheduler scheduler = new PollScheduler() {
+            @Override
+            public void pollCompleted(String ipAddress) {
+                released.add(ipAddress);
+            }
+        };
+        poll = TestFixtures.inject(new SnmpPoll(counters, transport, governor), "snmp", agent, "vlanOidTag", "vlan_oid", "vlanTag", "vlan",
+            "bulkMinRepetitions", 5, "bulkMaxRepetitions", 100, "bulkMaxRtt", 1000L, "statusBackoffMin", 60L, "statusBackoffMax", 900L,
+            "statusBackoffJitter", 0.2, "metadataRefreshMinutes", 60L, "asyncMaxInFlight", MAX_IN_FLIGHT, "asyncCompleteThreads", 1,
+            "wheelScheduler", true, "store", store, "sources", sources, "stats", new InventoryStats(), "latency", latency, "scheduler", scheduler);
+        poll.initInFlight();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        poll.close();
+        transport.close();
+    }
+
+    /**
+     * ready source of known interfaces Gi0/1..n, metadata walked now
+     */
+    private static SnmpSource ready(String ipAddress, int interfaces) {
+        SnmpSource source = new SnmpSource(ipAddress, "public", 1, 5);
+        source.setStatus(SnmpConstants.SUCCESS);
+        source.setSysObjectID("1.3.6.1.4.1.9.1.1");
+        source.setSysUptime(100000L);
+        for (int i = 1; i <= interfaces; i++) {
+            source.getSnmpInterface("Gi0/" + i).setIfIndex(i);
+        }
+        source.rebuildIfIndexTable();
+        source.setMetadataTime(System.currentTimeMillis());
+        return source;
+    }
+
+    private Semaphore inFlight() {
+        return (Semaphore)ReflectionTestUtils.getField(poll, "inFlight");
+    }
+
+    /**
+     * @return latency summary of the counter polls of the cycle, null if none
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> latencyOfCycle() {
+        latency.endCycle();
+        return (Map<String, Object>)((Map<String, Object>)latency.getStatus().get("groups")).get("all");
+    }
+
+    /**
+     * @return column walked by the request of each PDU
+     */
+    private List<Boolean> walked(OID column) {
+        List<Boolean> answer = new ArrayList<Boolean>();
+        for (PDU request : agent.requests) {
+            answer.add(request.getVariableBindings().stream().anyMatch(vb -> vb.getOid().startsWith(column)));
+        }
+        return answer;
+    }
+
+    @Test
+    public void releasesPermitsOfFailedWalks() throws InterruptedException {
+        agent.timeout = request -> true;
+        SnmpSource a = ready("10.1.1.1", 2);
+        SnmpSource b = ready("10.1.1.2", 2);
+        // not walked: the vlan oid tag is no oid
+        SnmpSource c = ready("10.1.1.3", 2);
+        c.addTags(Collections.singletonMap("vlan_oid", "vlan"));
+        poll.pollCountersAsync(Arrays.asList(a, b, c));
+
+        assertEquals(MAX_IN_FLIGHT, inFlight().availablePermits());
+        assertEquals(SnmpConstants.TIMEOUT, a.getStatus());
+        assertEquals(SnmpConstants.TIMEOUT, b.getStatus());
+        assertEquals(Arrays.asList("10.1.1.1", "10.1.1.2"), stored);
+        assertTrue(counters.get("counter.snmp.logError") >= 3);
+        // each deadline released, the walk of c was never started
+        assertEquals(3, released.size());
+        assertTrue(released.containsAll(Arrays.asList("10.1.1.1", "10.1.1.2", "10.1.1.3")));
+    }
+
+    @Test
+    public void walksCountersOfChangedIfIndex() throws InterruptedException {
+        agent.ifRow(1, "Gi0/1", 1000L, 2000L);
+        agent.ifRow(2, "Gi0/2", 3000L, 4000L);
+        SnmpSource source = ready("10.1.1.1", 2);
+        TestFixtures.inject(poll, "tieredPoll", true);
+        poll.pollCountersAsync(Collections.singletonList(source));
+
+        // fast tier only
+        assertFalse(walked(IF_DESCR).contains(true));
+        assertEquals(SnmpConstants.SUCCESS, source.getStatus());
+        // first poll of a new source learns the counters
+        assertEquals(1000L, source.getIftable().get("Gi0/1").getInOctets());
+        assertEquals(1, stored.size());
+
+        // new ifIndex of Gi0/2 and a new interface: metadata walk chained
+        agent.requests.clear();
+        agent.mib.clear();
+        agent.ifRow(1, "Gi0/1", 1500L, 2500L);
+        agent.ifRow(5, "Gi0/2", 3500L, 4500L);
+        agent.ifRow(7, "Gi0/7", 100L, 200L);
+        poll.pollCountersAsync(Collections.singletonList(source));
+        List<Boolean> descr = walked(IF_DESCR);
+        assertFalse(descr.get(0));
+        assertTrue(descr.contains(true));
+        assertEquals(5, source.getIftable().get("Gi0/2").getIfIndex());
+        SnmpInterface added = source.getSnmpInterface(7);
+        assertNotNull(added);
+        assertEquals("Gi0/7", added.getIfDescr());
+        assertEquals(500L, source.getIftable().get("Gi0/1").getPollInOctets());
+        // one stored update and one counter poll for both walks
+        assertEquals(2, stored.size());
+        assertEquals(2, released.size());
+        assertEquals(MAX_IN_FLIGHT, inFlight().availablePermits());
+        @SuppressWarnings("unchecked")
+        Map<String, Long> polls = (Map<String, Long>)latencyOfCycle().get("latency");
+        assertEquals(Long.valueOf(2), polls.get("count"));
+    }
+
+    @Test
+    public void keepsFastRowsWhenMetadataWalkFails() throws InterruptedException {
+        agent.ifRow(1, "Gi0/1", 1000L, 2000L);
+        agent.ifRow(2, "Gi0/2", 3000L, 4000L);
+        SnmpSource source = ready("10.1.1.1", 1);
+        TestFixtures.inject(poll, "tieredPoll", true);
+        agent.timeout = request -> request.getVariableBindings().stream().anyMatch(vb -> vb.getOid().startsWith(IF_DESCR));
+        poll.pollCountersAsync(Collections.singletonList(source));
+
+        assertEquals(SnmpConstants.SUCCESS, source.getStatus());
+        assertEquals(Collections.singleton("Gi0/1"), source.getIftable().keySet());
+        assertEquals(1000L, source.getIftable().get("Gi0/1").getInOctets());
+        assertTrue(counters.get("counter.snmp.logWarn") >= 1);
+        assertEquals(1, stored.size());
+        assertEquals(MAX_IN_FLIGHT, inFlight().availablePermits());
+    }
+
+    @Test
+    public void adaptsBulkSize() throws InterruptedException {
+        for (int i = 1; i <= 40; i++) {
+            agent.ifRow(i, "Gi0/" + i, 1000L * i, 2000L * i);
+        }
+        TestFixtures.inject(poll, "bulkAdaptive", true);
+        SnmpSource source = ready("10.1.1.1", 40);
+        source.setMaxRepetitions(10);
+
+        // all repetitions answered: grow by half
+        poll.pollCountersAsync(Collections.singletonList(source));
+        assertEquals(15, source.getMaxRepetitions());
+        assertTrue(agent.requests.stream().allMatch(request -> request.getMaxRepetitions() == 10));
+
+        // agent answers less repetitions to fit its message size
+        agent.maxRepetitions = 7;
+        poll.pollCountersAsync(Collections.singletonList(source));
+        assertEquals(7, source.getMaxRepetitions());
+
+        // tooBig: halve
+        agent.maxRepetitions = Integer.MAX_VALUE;
+        agent.tooBigAbove = 20;
+        source.setMaxRepetitions(40);
+        poll.pollCountersAsync(Collections.singletonList(source));
+        assertEquals(20, source.getMaxRepetitions());
+        assertEquals(MAX_IN_FLIGHT, inFlight().availablePermits());
+    }
+
+    @Test
+    public void statusWalkIsNotCounterPoll() throws InterruptedException {
+        agent.mib.put(SYS_DESCR, new OctetString("router"));
+        agent.mib.put(SYS_OBJECT_ID, new OID("1.3.6.1.4.1.9.1.1"));
+        agent.mib.put(SYS_NAME, new OctetString("core-1"));
+        agent.mib.put(SYS_LOCATION, new OctetString("ams"));
+        agent.mib.put(IF_NUMBER, new Integer32(1));
+        agent.ifRow(1, "Gi0/1", 1000L, 2000L);
+        SnmpSource source = new SnmpSource("10.1.1.1", "public", 1, 5);
+        poll.pollStatusAsync(Collections.singletonList(source));
+
+        assertEquals(SnmpConstants.SUCCESS, source.getStatus());
+        assertEquals("core-1", source.getSysName());
+        assertEquals(1, source.getSnmpInterface(1).getIfIndex());
+        assertEquals(Collections.singletonList("10.1.1.1"), stored);
+        // not in the poll latency, no deadline of the wheel
+        assertNull(latencyOfCycle());
+        assertTrue(released.isEmpty());
+        assertEquals(MAX_IN_FLIGHT, inFlight().availablePermits());
+    }
+
+    /**
+     * agent answering from a mib as a GETBULK agent does, on the calling
+     * thread: each repetition the next oid of each column, past the end
+     * endOfMibView
+     */
+    private static final class Agent extends Snmp {
+        final TreeMap<OID, Variable> mib = new TreeMap<OID, Variable>();
+        final List<PDU> requests = Collections.synchronizedList(new ArrayList<PDU>());
+        volatile Predicate<PDU> timeout = request -> false;
+        // repetitions of a response, tooBig above the max repetitions
+        volatile int maxRepetitions = Integer.MAX_VALUE;
+        volatile int tooBigAbove = 0;
+        private long sysUptime = 200000L;
+
+        Agent() {
+            mib.put(SYS_UPTIME, new TimeTicks(sysUptime));
+        }
+
+        void ifRow(int ifIndex, String ifDescr, long inOctets, long outOctets) {
+            mib.put(SYS_UPTIME, new TimeTicks(sysUptime += 30000L));
+            mib.put(new OID(IF_DESCR).append(ifIndex), new OctetString(ifDescr));
+            mib.put(new OID(IF_ADMIN_STATUS).append(ifIndex), new Integer32(1));
+            mib.put(new OID(IF_OPER_STATUS).append(ifIndex), new Integer32(1));
+            mib.put(new OID(IF_IN_OCTETS).append(ifIndex), new Counter32(inOctets));
+            mib.put(new OID(IF_OUT_OCTETS).append(ifIndex), new Counter32(outOctets));
+            mib.put(new OID(IF_NAME).append(ifIndex), new OctetString(ifDescr.toLowerCase()));
+            mib.put(new OID(IF_HC_IN_OCTETS).append(ifIndex), new Counter64(inOctets));
+            mib.put(new OID(IF_HC_OUT_OCTETS).append(ifIndex), new Counter64(outOctets));
+            mib.put(new OID(IF_ALIAS).append(ifIndex), new OctetString("uplink " + ifIndex));
+        }
+
+        @Override
+        public void send(PDU pdu, Target target, TransportMapping transport, Object userHandle, ResponseListener listener) {
+            requests.add(pdu);
+            listener.onResponse(new ResponseEvent(this, null, pdu, timeout.test(pdu) ? null : respond(pdu), userHandle));
+        }
+
+        @Override
+        public void cancel(PDU request, ResponseListener listener) {
+        }
+
+        private PDU respond(PDU request) {
+            PDU response = new PDU();
+            response.setType(PDU.RESPONSE);
+            response.setRequestID(request.getRequestID());
+            boolean bulk = request.getType() == PDU.GETBULK;
+            if (bulk && tooBigAbove > 0 && request.getMaxRepetitions() > tooBigAbove) {
+                response.setErrorStatus(PDU.tooBig);
+                return response;
+            }
+            int nonRepeaters = bulk ? request.getNonRepeaters() : request.size();
+            for (int i = 0; i < nonRepeaters; i++) {
+                response.add(next(request.get(i).getOid()));
+            }
+            List<OID> columns = new ArrayList<OID>();
+            for (int i = nonRepeaters; i < request.size(); i++) {
+                columns.add(request.get(i).getOid());
+            }
+            int repetitions = bulk ? Math.min(request.getMaxRepetitions(), maxRepetitions) : 0;
+            for (int r = 0; r < repetitions; r++) {
+                for (int c = 0; c < columns.size(); c++) {
+                    VariableBinding vb = next(columns.get(c));
+                    response.add(vb);
+                    columns.set(c, vb.getOid());
+                }
+            }
+            return response;
+        }
+
+        private VariableBinding next(OID oid) {
+            Map.Entry<OID, Variable> entry = mib.higherEntry(oid);
+            return (entry == null) ? new VariableBinding(oid, Null.endOfMibView) : new VariableBinding(entry.getKey(), entry.getValue());
+        }
+    }
+}
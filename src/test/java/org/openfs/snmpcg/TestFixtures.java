@@ -0,0 +1,182 @@
+package org.openfs.snmpcg;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.ProducerTemplate;
+import org.openfs.snmpcg.model.SnmpSource;
+
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.hazelcast.core.IMap;
+
+/**
+ * Fixtures shared by the component tests: metrics services, Hazelcast maps,
+ * export sinks and store routes, and the injection of @Value and @Autowired
+ * fields.
+ */
+final class TestFixtures {
+    static final GaugeService GAUGES = (metricName, value) -> {
+    };
+
+    private TestFixtures() {
+    }
+
+    /**
+     * set the fields of a component
+     *
+     * @param fields field name and value pairs
+     * @return the component
+     */
+    static <T> T inject(T component, Object... fields) {
+        for (int i = 0; i < fields.length; i += 2) {
+            ReflectionTestUtils.setField(component, (String)fields[i], fields[i + 1]);
+        }
+        return component;
+    }
+
+    /**
+     * @return config map backed by the map
+     */
+    static IMap<String, Object> config(Map<String, Object> map) {
+        return map(map);
+    }
+
+    /**
+     * @return IMap backed by the map: get, put, putIfAbsent, containsKey,
+     *         getAll and key sets, whose predicate matches every entry
+     */
+    @SuppressWarnings("unchecked")
+    static <V> IMap<String, V> map(Map<String, V> map) {
+        return (IMap<String, V>)Proxy.newProxyInstance(IMap.class.getClassLoader(), new Class<?>[] {IMap.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "get":
+                    return map.get(args[0]);
+                case "put":
+                    return map.put((String)args[0], (V)args[1]);
+                case "putIfAbsent":
+                    return map.putIfAbsent((String)args[0], (V)args[1]);
+                case "containsKey":
+                    return map.containsKey(args[0]);
+                case "keySet":
+                case "localKeySet":
+                    return new LinkedHashSet<String>(map.keySet());
+                case "getAll":
+                    Map<String, V> answer = new LinkedHashMap<String, V>();
+                    for (String key : (Set<String>)args[0]) {
+                        if (map.containsKey(key)) {
+                            answer.put(key, map.get(key));
+                        }
+                    }
+                    return answer;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * @return producer keeping the messages sent to each store route by the
+     *         route name, failing the exchanges sent to direct:storeFails
+     */
+    static ProducerTemplate producer(Map<String, List<Message>> stored) {
+        return (ProducerTemplate)Proxy.newProxyInstance(ProducerTemplate.class.getClassLoader(), new Class<?>[] {ProducerTemplate.class}, (proxy, method, args) -> {
+            if (!"send".equals(method.getName()) || args.length != 2 || !(args[1] instanceof Exchange)) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+            String endpoint = (String)args[0];
+            Exchange exchange = (Exchange)args[1];
+            if ("direct:storeFails".equals(endpoint)) {
+                exchange.setException(new IOException("disk full"));
+            } else {
+                stored.computeIfAbsent(endpoint.substring("direct:".length()), route -> Collections.synchronizedList(new ArrayList<Message>()))
+                    .add(exchange.getIn());
+            }
+            return exchange;
+        });
+    }
+
+    /**
+     * export sink recording the passes and their batches, the countSources
+     * header set to the number of sources written by the pass
+     */
+    static final class RecordingSink implements ExportSink {
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> names = Collections.synchronizedList(new ArrayList<String>());
+        volatile IOException writeFailure;
+
+        @Override
+        public Pass open(CdrRecordLayout layout, String name) {
+            events.add("open");
+            names.add(name);
+            AtomicInteger written = new AtomicInteger();
+            return new Pass() {
+                @Override
+                public void write(List<SnmpSource> batch) throws IOException {
+                    if (writeFailure != null) {
+                        throw writeFailure;
+                    }
+                    batches.add(batch.stream().map(SnmpSource::getIpAddress).collect(Collectors.toList()));
+                    written.addAndGet(batch.size());
+                }
+
+                @Override
+                public void close(Message message) {
+                    events.add("close");
+                    message.setHeader("countSources", written.get());
+                }
+
+                @Override
+                public void abort() {
+                    events.add("abort");
+                }
+            };
+        }
+
+        int sources() {
+            return batches.stream().mapToInt(List::size).sum();
+        }
+    }
+
+    /**
+     * counter service counting the increments of each metric
+     */
+    static final class Counters implements CounterService {
+        private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+
+        @Override
+        public void increment(String metricName) {
+            counts.computeIfAbsent(metricName, name -> new AtomicInteger()).incrementAndGet();
+        }
+
+        @Override
+        public void decrement(String metricName) {
+            counts.computeIfAbsent(metricName, name -> new AtomicInteger()).decrementAndGet();
+        }
+
+        @Override
+        public void reset(String metricName) {
+            counts.remove(metricName);
+        }
+
+        int get(String metricName) {
+            AtomicInteger count = counts.get(metricName);
+            return (count == null) ? 0 : count.get();
+        }
+    }
+}
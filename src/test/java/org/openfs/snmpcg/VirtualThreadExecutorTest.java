@@ -0,0 +1,100 @@
+package org.openfs.snmpcg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class VirtualThreadExecutorTest {
+
+    private static boolean virtualThreadsSupported() {
+        String version = System.getProperty("java.specification.version");
+        return !version.startsWith("1.") && Integer.parseInt(version) >= 21;
+    }
+
+    @Test
+    public void failsOnOlderJvm() {
+        assumeTrue(!virtualThreadsSupported());
+        try {
+            new VirtualThreadExecutor("poll-", 4);
+            fail("created on java " + System.getProperty("java.version"));
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("java 21"));
+        }
+    }
+
+    @Test
+    public void runsTasksOnVirtualThreads() throws Exception {
+        assumeTrue(virtualThreadsSupported());
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("poll-", 4);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger virtual = new AtomicInteger();
+        executor.execute(() -> {
+            try {
+                if ((Boolean)Thread.class.getMethod("isVirtual").invoke(Thread.currentThread())) {
+                    virtual.incrementAndGet();
+                }
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, virtual.get());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void boundsTasksInFlight() throws Exception {
+        assumeTrue(virtualThreadsSupported());
+        int maxInFlight = 4;
+        int tasks = 50;
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("poll-", maxInFlight);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                int now = running.incrementAndGet();
+                maxRunning.accumulateAndGet(now, Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+            assertTrue(executor.getInFlight() <= maxInFlight);
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue("max running " + maxRunning.get(), maxRunning.get() <= maxInFlight);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, executor.getInFlight());
+    }
+
+    @Test
+    public void rejectsAfterShutdown() {
+        assumeTrue(virtualThreadsSupported());
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("poll-", 1);
+        executor.shutdown();
+        try {
+            executor.execute(() -> {
+            });
+            fail("task accepted after shutdown");
+        } catch (RejectedExecutionException e) {
+            assertTrue(executor.isShutdown());
+        }
+    }
+}
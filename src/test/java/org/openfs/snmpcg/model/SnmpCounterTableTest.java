@@ -0,0 +1,164 @@
+package org.openfs.snmpcg.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.openfs.snmpcg.model.SnmpCounterTable.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class SnmpCounterTableTest {
+
+    private static SnmpSource createSource(int interfaces) {
+        SnmpSource source = new SnmpSource("10.1.1.1", "public", 1, 5);
+        for (int i = 1; i <= interfaces; i++) {
+            SnmpInterface ifEntry = source.getSnmpInterface("Gi0/" + i);
+            ifEntry.setIfIndex(i);
+            ifEntry.setInOctets(1000L * i, 64);
+            ifEntry.setPollOutOctets(10L * i);
+            ifEntry.setExport(i, 2L * i, 3L * i);
+        }
+        return source;
+    }
+
+    private static void assertRecords(SnmpSource source, int interfaces) {
+        assertEquals(interfaces, source.getIftable().size());
+        for (int i = 1; i <= interfaces; i++) {
+            SnmpInterface ifEntry = source.getIftable().get("Gi0/" + i);
+            assertEquals(i, ifEntry.getIfIndex());
+            assertEquals(1000L * i, ifEntry.getInOctets());
+            assertEquals(64, ifEntry.getInOctetsType());
+            assertEquals(10L * i, ifEntry.getPollOutOctets());
+            assertEquals(3L * i, ifEntry.getExportDuration());
+        }
+    }
+
+    @Test
+    public void newSlotCleared() {
+        SnmpCounterTable table = new SnmpCounterTable(1);
+        int slot = table.allocateSlot();
+        table.putLong(slot, IN_OCTETS, 5L);
+        table.setFlag(slot, CHARGEABLE, true);
+        table.putByte(slot, CHARGE_FLOW, SnmpConstants.INGRESS);
+        table.freeSlot(slot);
+
+        // free slot reused, cleared to the defaults
+        assertEquals(slot, table.allocateSlot());
+        assertEquals(0L, table.getLong(slot, IN_OCTETS));
+        assertEquals(32, table.getByte(slot, IN_TYPE));
+        assertEquals(32, table.getByte(slot, OUT_TYPE));
+        assertEquals(SnmpConstants.EGRESS, table.getByte(slot, CHARGE_FLOW));
+        assertFalse(table.getFlag(slot, CHARGEABLE));
+    }
+
+    @Test
+    public void flagsIndependent() {
+        SnmpCounterTable table = new SnmpCounterTable(1);
+        int slot = table.allocateSlot();
+        table.setFlag(slot, CHARGEABLE, true);
+        table.setFlag(slot, MARKED, true);
+        table.setFlag(slot, CHARGEABLE, false);
+        assertFalse(table.getFlag(slot, CHARGEABLE));
+        assertFalse(table.getFlag(slot, TRACE));
+        assertTrue(table.getFlag(slot, MARKED));
+    }
+
+    @Test
+    public void growsInTheSameBuffer() {
+        SnmpSource source = createSource(3);
+        source.setOffHeap(true);
+        for (int i = 4; i <= 40; i++) {
+            SnmpInterface ifEntry = source.getSnmpInterface("Gi0/" + i);
+            ifEntry.setIfIndex(i);
+            ifEntry.setInOctets(1000L * i, 64);
+            ifEntry.setPollOutOctets(10L * i);
+            ifEntry.setExport(i, 2L * i, 3L * i);
+        }
+        assertTrue(source.isOffHeap());
+        assertRecords(source, 40);
+    }
+
+    @Test
+    public void movesOffHeapAndBack() {
+        SnmpSource source = createSource(20);
+        assertFalse(source.isOffHeap());
+        source.setOffHeap(true);
+        assertTrue(source.isOffHeap());
+        assertRecords(source, 20);
+        source.setOffHeap(false);
+        assertFalse(source.isOffHeap());
+        assertRecords(source, 20);
+    }
+
+    @Test
+    public void copiesOnHeap() throws IOException, ClassNotFoundException {
+        SnmpSource stored = createSource(20);
+        stored.removeSnmpInterace("Gi0/20");
+        stored.setOffHeap(true);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(stored);
+        }
+        SnmpSource copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (SnmpSource)in.readObject();
+        }
+        assertFalse(copy.isOffHeap());
+        assertRecords(copy, 19);
+        // free slot kept
+        copy.getSnmpInterface("Gi0/20").setIfIndex(20);
+        assertEquals(0L, copy.getIftable().get("Gi0/20").getInOctets());
+        assertEquals(1000L, copy.getIftable().get("Gi0/1").getInOctets());
+
+        bytes = new ByteArrayOutputStream();
+        SnmpSourceSerializer.writeSource(new DataOutputStream(bytes), stored);
+        copy = SnmpSourceSerializer.readSource(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertFalse(copy.isOffHeap());
+        assertRecords(copy, 19);
+        assertTrue(stored.isOffHeap());
+    }
+
+    @Test
+    public void pollUpdateMovesStoredSource() {
+        SnmpSource stored = createSource(2);
+        SnmpSource polled = createSource(2);
+        SnmpSourcePollUpdate.of(polled, true, false, null, Collections.<String>emptySet(), "vlan", Collections.<String>emptySet()).storeOffHeap(true)
+            .apply(stored);
+        assertTrue(stored.isOffHeap());
+        assertFalse(polled.isOffHeap());
+        assertRecords(stored, 2);
+
+        SnmpSourcePollUpdate.of(polled, true, false, null, Collections.<String>emptySet(), "vlan", Collections.<String>emptySet()).apply(stored);
+        assertFalse(stored.isOffHeap());
+    }
+
+    @Test
+    public void tracksChanges() {
+        SnmpSource source = createSource(1);
+        SnmpInterface ifEntry = source.getIftable().get("Gi0/1");
+        assertEquals(CREATED | IF_INDEX_CHANGED, ifEntry.getChanges());
+        source.clearChanges();
+
+        // same values are no change
+        ifEntry.setIfIndex(1);
+        ifEntry.setMarked(false);
+        ifEntry.setIfAdminStatus(0);
+        ifEntry.setInOctets(7L, 32);
+        assertEquals(0, ifEntry.getChanges());
+
+        ifEntry.setIfOperStatus(2);
+        ifEntry.setMarked(true);
+        ifEntry.setSysUptime(100L);
+        assertEquals(STATUS_CHANGED | MARKED_CHANGED | SYS_UPTIME_CHANGED, ifEntry.getChanges());
+    }
+}
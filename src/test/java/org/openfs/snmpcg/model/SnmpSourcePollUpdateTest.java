@@ -0,0 +1,274 @@
+package org.openfs.snmpcg.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.hazelcast.internal.serialization.InternalSerializationService;
+import com.hazelcast.internal.serialization.impl.DefaultSerializationServiceBuilder;
+import com.hazelcast.nio.BufferObjectDataOutput;
+
+public class SnmpSourcePollUpdateTest {
+    private static final Set<String> REMOVED = Collections.singleton("Gi0/9");
+    private final InternalSerializationService serialization = new DefaultSerializationServiceBuilder().build();
+
+    private static SnmpSource createStored() {
+        SnmpSource source = new SnmpSource("10.1.1.1", "public", 1, 5);
+        SnmpInterface ifEntry = source.getSnmpInterface("Gi0/1");
+        ifEntry.setIfIndex(1);
+        ifEntry.setChargeable(true);
+        ifEntry.setTrace(true);
+        // removed by the next poll
+        source.getSnmpInterface("Gi0/9").setIfIndex(9);
+        source.rebuildIfIndexTable();
+        return source;
+    }
+
+    private static SnmpSource createPolled() {
+        SnmpSource source = new SnmpSource("10.1.1.1", "public", 1, 5);
+        source.setStatus(SnmpConstants.SUCCESS);
+        source.setSysUptime(200000L);
+        source.setSysObjectID("1.3.6.1.4.1.9.1.1");
+        source.setSysName("core-1");
+        source.setPollTime(1500000000000L);
+        source.setPollDuration(30000L);
+        source.setPollResponse(120L);
+        source.setMaxRepetitions(25);
+        source.setMaxResponseSize(1400);
+        source.setMetadataTime(1499999990000L);
+        source.setSrtt(80);
+        source.setRttVar(20);
+        source.setStatusFailures(1);
+        source.setNextAttempt(1500000060000L);
+        SnmpInterface ifEntry = source.getSnmpInterface("Gi0/1");
+        ifEntry.setIfIndex(1);
+        ifEntry.setIfName("Gi0/1");
+        ifEntry.setIfAdminStatus(1);
+        ifEntry.setIfOperStatus(1);
+        ifEntry.setInOctets(70000L, 64);
+        ifEntry.setOutOctets(50000L, 64);
+        ifEntry.setPollInOctets(7000L);
+        ifEntry.setPollOutOctets(5000L);
+        ifEntry.setSysUptime(200000L);
+        ifEntry.setPollDuration(30000L);
+        SnmpInterface added = source.getSnmpInterface("Gi0/2");
+        added.setIfIndex(2);
+        added.setIfAdminStatus(1);
+        added.setIfOperStatus(2);
+        return source;
+    }
+
+    private SnmpSourcePollUpdate copy(SnmpSourcePollUpdate update) throws IOException {
+        BufferObjectDataOutput out = serialization.createObjectDataOutput(1024);
+        update.writeData(out);
+        return read(out.toByteArray());
+    }
+
+    private SnmpSourcePollUpdate read(byte[] data) throws IOException {
+        SnmpSourcePollUpdate update = new SnmpSourcePollUpdate();
+        update.readData(serialization.createObjectDataInput(data));
+        return update;
+    }
+
+    private static void assertApplied(SnmpSource stored) {
+        assertEquals(SnmpConstants.SUCCESS, stored.getStatus());
+        assertEquals(200000L, stored.getSysUptime());
+        assertEquals(1500000000000L, stored.getPollTime());
+        assertEquals(30000L, stored.getPollDuration());
+        assertEquals(25, stored.getMaxRepetitions());
+        assertEquals("core-1", stored.getSysName());
+        assertNull(stored.getIftable().get("Gi0/9"));
+        SnmpInterface ifEntry = stored.getIftable().get("Gi0/1");
+        assertEquals(70000L, ifEntry.getInOctets());
+        assertEquals(7000L, ifEntry.getPollInOctets());
+        assertEquals(5000L, ifEntry.getPollOutOctets());
+        assertEquals(30000L, ifEntry.getPollDuration());
+        // flags set by REST are kept
+        assertTrue(ifEntry.isChargeable());
+        assertTrue(ifEntry.isTrace());
+        assertTrue(stored.getIftable().get("Gi0/2").isDown());
+        assertEquals("Gi0/2", stored.getSnmpInterface(2).getIfDescr());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        SnmpSourcePollUpdate update = copy(SnmpSourcePollUpdate.of(createPolled(), true, true, null, Collections.<String>emptySet(), "vlan", REMOVED));
+        SnmpSource stored = createStored();
+        update.apply(stored);
+        assertApplied(stored);
+        assertEquals(80, stored.getSrtt());
+        assertEquals(20, stored.getRttVar());
+        assertEquals(1, stored.getStatusFailures());
+        assertEquals(1500000060000L, stored.getNextAttempt());
+        assertFalse(stored.getIftable().get("Gi0/1").hasExport());
+    }
+
+    @Test
+    public void rejectsUnknownVersion() throws IOException {
+        BufferObjectDataOutput out = serialization.createObjectDataOutput(1024);
+        SnmpSourcePollUpdate.of(createPolled(), true, true, null, Collections.<String>emptySet(), "vlan", REMOVED).writeData(out);
+        byte[] data = out.toByteArray();
+        data[0] = 2;
+        try {
+            read(data);
+            fail("read version 2");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("version"));
+        }
+    }
+
+    @Test
+    public void accumulatesPolledInterfaces() throws IOException {
+        SnmpSource stored = createStored();
+        for (int i = 0; i < 3; i++) {
+            SnmpSource polled = createPolled();
+            copy(SnmpSourcePollUpdate.of(polled, true, false, null, Collections.<String>emptySet(), "vlan", REMOVED)
+                .accumulateExport(Collections.singleton("Gi0/1"))).apply(stored);
+        }
+        SnmpInterface ifEntry = stored.getIftable().get("Gi0/1");
+        assertEquals(21000L, ifEntry.getExportInOctets());
+        assertEquals(15000L, ifEntry.getExportOutOctets());
+        assertEquals(90000L, ifEntry.getExportDuration());
+        // the last poll only
+        assertEquals(7000L, ifEntry.getPollInOctets());
+        // not polled
+        assertFalse(stored.getIftable().get("Gi0/2").hasExport());
+    }
+
+    @Test
+    public void accumulatesSourceDurationWithoutInterfaceDuration() throws IOException {
+        SnmpSource stored = createStored();
+        SnmpSource polled = createPolled();
+        polled.getIftable().get("Gi0/1").setPollDuration(0L);
+        copy(SnmpSourcePollUpdate.of(polled, true, false, null, Collections.<String>emptySet(), "vlan", REMOVED)
+            .accumulateExport(Collections.singleton("Gi0/1"))).apply(stored);
+        assertEquals(30000L, stored.getIftable().get("Gi0/1").getExportDuration());
+
+        // sysUptime went back on reboot
+        polled.getIftable().get("Gi0/1").setPollDuration(-5000L);
+        copy(SnmpSourcePollUpdate.of(polled, true, false, null, Collections.<String>emptySet(), "vlan", REMOVED)
+            .accumulateExport(Collections.singleton("Gi0/1"))).apply(stored);
+        assertEquals(30000L, stored.getIftable().get("Gi0/1").getExportDuration());
+    }
+
+    @Test
+    public void exportAckKeepsLaterPolls() throws IOException {
+        SnmpSource stored = createStored();
+        SnmpSourcePollUpdate update = SnmpSourcePollUpdate.of(createPolled(), true, false, null, Collections.<String>emptySet(), "vlan", REMOVED)
+            .accumulateExport(Collections.singleton("Gi0/1"));
+        update.apply(stored);
+        SnmpSourceExportAck ack = new SnmpSourceExportAck();
+        ack.add(stored.getIftable().get("Gi0/1"));
+        // polled again while exported
+        update.apply(stored);
+        Map.Entry<String, SnmpSource> entry = new AbstractMap.SimpleEntry<String, SnmpSource>("10.1.1.1", stored);
+        assertEquals(Boolean.TRUE, ack.process(entry));
+        SnmpInterface ifEntry = stored.getIftable().get("Gi0/1");
+        assertEquals(7000L, ifEntry.getExportInOctets());
+        assertEquals(5000L, ifEntry.getExportOutOctets());
+        assertEquals(30000L, ifEntry.getExportDuration());
+    }
+
+    /**
+     * @return polled copy of the stored source read back from the map
+     */
+    private SnmpSource readCopy(SnmpSource stored) throws IOException {
+        BufferObjectDataOutput out = serialization.createObjectDataOutput(1024);
+        SnmpSourceSerializer.writeSource(out, stored);
+        return SnmpSourceSerializer.readSource(serialization.createObjectDataInput(out.toByteArray()));
+    }
+
+    @Test
+    public void keepsInterfacesChangedWhilePolled() throws IOException {
+        SnmpSource stored = createStored();
+        SnmpSource polled = readCopy(stored);
+        // walk found a new interface and no Gi0/9
+        polled.getSnmpInterface("Gi0/3").setIfIndex(3);
+        polled.removeSnmpInterace("Gi0/9");
+        SnmpSourcePollUpdate update = copy(SnmpSourcePollUpdate.of(polled, true, false, null, Collections.<String>emptySet(), "vlan", REMOVED));
+
+        // meanwhile Gi0/1 was removed and Gi0/5 added by REST
+        stored.removeSnmpInterace("Gi0/1");
+        stored.getSnmpInterface("Gi0/5").setIfIndex(5);
+        update.apply(stored);
+        assertEquals(new HashSet<String>(Arrays.asList("Gi0/3", "Gi0/5")), stored.getIftable().keySet());
+        assertEquals("Gi0/3", stored.getSnmpInterface(3).getIfDescr());
+    }
+
+    @Test
+    public void appliesChangedFieldsOnly() throws IOException {
+        SnmpSource stored = createStored();
+        SnmpInterface storedIF = stored.getIftable().get("Gi0/1");
+        storedIF.setIfAdminStatus(1);
+        storedIF.setIfOperStatus(1);
+        storedIF.setSysUptime(100000L);
+        SnmpSource polled = readCopy(stored);
+        SnmpInterface ifEntry = polled.getIftable().get("Gi0/1");
+        ifEntry.setIfIndex(1);
+        ifEntry.setIfOperStatus(1);
+        ifEntry.setMarked(true);
+        ifEntry.setInOctets(70000L, 64);
+        SnmpSourcePollUpdate update = SnmpSourcePollUpdate.of(polled, true, false, null, Collections.<String>emptySet(), "vlan", Collections.<String>emptySet());
+        BufferObjectDataOutput unchanged = serialization.createObjectDataOutput(1024);
+        update.writeData(unchanged);
+
+        // meanwhile a status walk set the interface down and a new sysUptime
+        storedIF.setIfOperStatus(2);
+        storedIF.setSysUptime(150000L);
+        read(unchanged.toByteArray()).apply(stored);
+        assertEquals(2, storedIF.getIfOperStatus());
+        assertEquals(150000L, storedIF.getSysUptime());
+        assertEquals(70000L, storedIF.getInOctets());
+        assertTrue(storedIF.isMarked());
+
+        // ifIndex, status and sysUptime sent once changed
+        ifEntry.setIfIndex(11);
+        ifEntry.setIfOperStatus(2);
+        ifEntry.setSysUptime(160000L);
+        BufferObjectDataOutput changed = serialization.createObjectDataOutput(1024);
+        SnmpSourcePollUpdate.of(polled, true, false, null, Collections.<String>emptySet(), "vlan", Collections.<String>emptySet()).writeData(changed);
+        assertTrue(changed.toByteArray().length > unchanged.toByteArray().length);
+        read(changed.toByteArray()).apply(stored);
+        assertEquals(11, storedIF.getIfIndex());
+        assertEquals(160000L, storedIF.getSysUptime());
+        assertEquals("Gi0/1", stored.getSnmpInterface(11).getIfDescr());
+    }
+
+    @Test
+    public void skipsRemovedSource() {
+        SnmpSourcePollUpdate update = SnmpSourcePollUpdate.of(createPolled(), true, false, null, Collections.<String>emptySet(), "vlan", REMOVED);
+        assertNull(update.process(new AbstractMap.SimpleEntry<String, SnmpSource>("10.1.1.1", null)));
+    }
+
+    @Test
+    public void countsAppliedEntry() throws IOException {
+        SnmpSource stored = createStored();
+        SnmpSource polled = readCopy(stored);
+        polled.setStatus(SnmpConstants.SUCCESS);
+        polled.getSnmpInterface("Gi0/3").setIfIndex(3);
+        polled.removeSnmpInterace("Gi0/9");
+        SnmpSourcePollUpdate update = copy(SnmpSourcePollUpdate.of(polled, true, false, null, Collections.<String>emptySet(), "vlan", REMOVED));
+
+        // meanwhile Gi0/5 was added by REST, counted with the poll result
+        SnmpInterface added = stored.getSnmpInterface("Gi0/5");
+        added.setIfIndex(5);
+        added.setChargeable(true);
+        SnmpSourceCounts counts = (SnmpSourceCounts)update.process(new AbstractMap.SimpleEntry<String, SnmpSource>("10.1.1.1", stored));
+        assertEquals(SnmpConstants.SUCCESS, counts.getStatus());
+        assertEquals(3, counts.getInterfaces());
+        assertEquals(2, counts.getChargeable());
+        assertEquals(1, counts.getTrace());
+    }
+}
@@ -0,0 +1,179 @@
+package org.openfs.snmpcg.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SnmpSourceSerializerTest {
+
+    private static SnmpSource createSource() {
+        SnmpSource source = new SnmpSource("10.1.1.1", "private", 2, 3);
+        source.setStatus(SnmpConstants.SUCCESS);
+        source.setSysUptime(123456L);
+        source.setSysDescr("Cisco IOS");
+        source.setSysName("core-1");
+        source.setSysLocation("dc-1");
+        source.setSysObjectID("1.3.6.1.4.1.9.1.1");
+        source.setPollTime(1500000000000L);
+        source.setPollDuration(30000L);
+        source.setPollResponse(250L);
+        source.setSkipDelta(true);
+        source.setMaxRepetitions(40);
+        source.setMaxResponseSize(1400);
+        source.setPollInterval(60);
+        source.setMetadataTime(1499999990000L);
+        source.setSrtt(120);
+        source.setRttVar(30);
+        source.setStatusFailures(2);
+        source.setNextAttempt(1500000060000L);
+        source.getTags().put("router", "core");
+
+        SnmpInterface ifEntry = source.getSnmpInterface("Gi0/1");
+        ifEntry.setIfIndex(10101);
+        ifEntry.setIfName("Gi0/1");
+        ifEntry.setIfAlias("uplink");
+        ifEntry.setIfAdminStatus(1);
+        ifEntry.setIfOperStatus(1);
+        ifEntry.setChargeable(true);
+        ifEntry.setTrace(true);
+        ifEntry.setChargeFlow(SnmpConstants.INGRESS);
+        ifEntry.setInOctets(5000000000L, 64);
+        ifEntry.setOutOctets(4000000L, 32);
+        ifEntry.setPollInOctets(1000L);
+        ifEntry.setPollOutOctets(2000L);
+        ifEntry.setSysUptime(123456L);
+        ifEntry.setPollDuration(30000L);
+        ifEntry.setExport(3000L, 6000L, 90000L);
+        ifEntry.getTags().put("circuit", "c-1");
+
+        SnmpInterface down = source.getSnmpInterface("Gi0/2");
+        down.setIfIndex(10102);
+        down.setIfAdminStatus(1);
+        down.setIfOperStatus(2);
+        down.setMarked(true);
+        return source;
+    }
+
+    private static byte[] write(SnmpSource source) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        SnmpSourceSerializer.writeSource(out, source);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static SnmpSource read(byte[] data) throws IOException {
+        return SnmpSourceSerializer.readSource(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static void assertSameSource(SnmpSource expected, SnmpSource actual) {
+        assertEquals(expected.getIpAddress(), actual.getIpAddress());
+        assertEquals(expected.getCommunity(), actual.getCommunity());
+        assertEquals(expected.getRetries(), actual.getRetries());
+        assertEquals(expected.getTimeout(), actual.getTimeout());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getSysUptime(), actual.getSysUptime());
+        assertEquals(expected.getSysDescr(), actual.getSysDescr());
+        assertEquals(expected.getSysName(), actual.getSysName());
+        assertEquals(expected.getSysLocation(), actual.getSysLocation());
+        assertEquals(expected.getSysObjectID(), actual.getSysObjectID());
+        assertEquals(expected.getPollTime(), actual.getPollTime());
+        assertEquals(expected.getPollDuration(), actual.getPollDuration());
+        assertEquals(expected.getPollResponse(), actual.getPollResponse());
+        assertEquals(expected.isSkipDelta(), actual.isSkipDelta());
+        assertEquals(expected.getMaxRepetitions(), actual.getMaxRepetitions());
+        assertEquals(expected.getMaxResponseSize(), actual.getMaxResponseSize());
+        assertEquals(expected.getPollInterval(), actual.getPollInterval());
+        assertEquals(expected.getMetadataTime(), actual.getMetadataTime());
+        assertEquals(expected.getSrtt(), actual.getSrtt());
+        assertEquals(expected.getRttVar(), actual.getRttVar());
+        assertEquals(expected.getStatusFailures(), actual.getStatusFailures());
+        assertEquals(expected.getNextAttempt(), actual.getNextAttempt());
+        assertEquals(expected.getTags(), actual.getTags());
+        assertEquals(expected.getIftable().keySet(), actual.getIftable().keySet());
+        for (SnmpInterface e : expected.getIftable().values()) {
+            SnmpInterface a = actual.getIftable().get(e.getIfDescr());
+            assertEquals(e.getIfIndex(), a.getIfIndex());
+            assertEquals(e.getIfName(), a.getIfName());
+            assertEquals(e.getIfAlias(), a.getIfAlias());
+            assertEquals(e.getIfAdminStatus(), a.getIfAdminStatus());
+            assertEquals(e.getIfOperStatus(), a.getIfOperStatus());
+            assertEquals(e.isChargeable(), a.isChargeable());
+            assertEquals(e.isTrace(), a.isTrace());
+            assertEquals(e.isMarked(), a.isMarked());
+            assertEquals(e.getChargeFlow(), a.getChargeFlow());
+            assertEquals(e.getInOctets(), a.getInOctets());
+            assertEquals(e.getInOctetsType(), a.getInOctetsType());
+            assertEquals(e.getOutOctets(), a.getOutOctets());
+            assertEquals(e.getOutOctetsType(), a.getOutOctetsType());
+            assertEquals(e.getPollInOctets(), a.getPollInOctets());
+            assertEquals(e.getPollOutOctets(), a.getPollOutOctets());
+            assertEquals(e.getSysUptime(), a.getSysUptime());
+            assertEquals(e.getPollDuration(), a.getPollDuration());
+            assertEquals(e.getExportInOctets(), a.getExportInOctets());
+            assertEquals(e.getExportOutOctets(), a.getExportOutOctets());
+            assertEquals(e.getExportDuration(), a.getExportDuration());
+            assertEquals(e.getTags(), a.getTags());
+        }
+        // index rebuilt by the reader
+        assertEquals("Gi0/1", actual.getSnmpInterface(10101).getIfDescr());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        SnmpSource source = createSource();
+        SnmpSource copy = read(write(source));
+        assertSameSource(source, copy);
+        assertTrue(copy.getIftable().get("Gi0/1").hasExport());
+        assertFalse(copy.getIftable().get("Gi0/2").hasExport());
+    }
+
+    @Test
+    public void rejectsUnknownVersion() throws IOException {
+        for (int version : new int[] {0, 2}) {
+            byte[] data = write(createSource());
+            data[0] = (byte)version;
+            try {
+                read(data);
+                fail("read version " + version);
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("version"));
+            }
+        }
+    }
+
+    @Test
+    public void varLong() throws IOException {
+        long[] values = {0L, 1L, -1L, 63L, -64L, 64L, 300L, Integer.MAX_VALUE, 1L << 40, Long.MAX_VALUE, Long.MIN_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : values) {
+            SnmpSourceSerializer.writeVarLong(out, value);
+        }
+        out.flush();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (long value : values) {
+            assertEquals(value, SnmpSourceSerializer.readVarLong(in));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void varLongOfSmallValueIsOneByte() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        SnmpSourceSerializer.writeVarLong(out, 63L);
+        SnmpSourceSerializer.writeVarLong(out, -64L);
+        out.flush();
+        assertEquals(2, bytes.size());
+    }
+}